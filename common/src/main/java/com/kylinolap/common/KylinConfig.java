@@ -79,6 +79,16 @@ public class KylinConfig {
      * true.
      */
     public static final String KYLIN_JOB_HIVE_FLATTEN = "kylin.job.hive.flatten";
+    /**
+     * Toggle to build all cuboids in one MR job, cubing each split in memory,
+     * instead of one MR job per cuboid layer. Default false.
+     */
+    public static final String KYLIN_JOB_CUBING_IN_MEM = "kylin.job.cubing.inmem";
+    /**
+     * Toggle to plan HTable regions from the cuboid statistics collected by the
+     * base cuboid step, instead of sampling the cuboid files. Default false.
+     */
+    public static final String KYLIN_JOB_REGION_PLAN_BY_STATISTICS = "kylin.job.region.plan.by.statistics";
 
     public static final String KYLIN_JOB_RUN_AS_REMOTE_CMD = "kylin.job.run.as.remote.cmd";
 
@@ -367,6 +377,14 @@ public class KylinConfig {
         return Boolean.parseBoolean(getOptional(KYLIN_JOB_HIVE_FLATTEN, "true"));
     }
 
+    public boolean isInMemCubing() {
+        return Boolean.parseBoolean(getOptional(KYLIN_JOB_CUBING_IN_MEM, "false"));
+    }
+
+    public boolean isRegionPlanByStatistics() {
+        return Boolean.parseBoolean(getOptional(KYLIN_JOB_REGION_PLAN_BY_STATISTICS, "false"));
+    }
+
     public String getOverrideHiveTableLocation(String table) {
         return getOptional(HIVE_TABLE_LOCATION_PREFIX + table.toUpperCase());
     }
@@ -434,6 +452,27 @@ public class KylinConfig {
         return Long.parseLong(this.getOptional("kylin.query.cache.threshold.scancount", String.valueOf(10 * 1024)));
     }
 
+    /**
+     * An idle cursor holds HBase scanners open, so keep the timeout below the
+     * scanner lease (hbase.client.scanner.timeout.period, 60 seconds by
+     * default), or the next page fails on an expired scanner anyway.
+     */
+    public int getQueryCursorTimeoutSeconds() {
+        return Integer.parseInt(this.getOptional("kylin.query.cursor.timeout.seconds", "45"));
+    }
+
+    public int getQueryPageSize() {
+        return Integer.parseInt(this.getOptional("kylin.query.page.size", "10000"));
+    }
+
+    public int getQueryConnectionPoolSize() {
+        return Integer.parseInt(this.getOptional("kylin.query.pool.size", "8"));
+    }
+
+    public int getQueryPlanCacheSize() {
+        return Integer.parseInt(this.getOptional("kylin.query.plan.cache.size", "100"));
+    }
+
     public boolean isQuerySecureEnabled() {
         return Boolean.parseBoolean(this.getOptional("kylin.query.security.enabled", "false"));
     }
@@ -442,6 +481,50 @@ public class KylinConfig {
         return Integer.parseInt(this.getOptional("kylin.query.scan.thread.count", "40"));
     }
 
+    public boolean isConcurrentScanEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.scan.concurrent.enabled", "false"));
+    }
+
+    public int getConcurrentScanThreadCountPerQuery() {
+        return Integer.parseInt(this.getOptional("kylin.query.scan.concurrent.thread.per.query", "8"));
+    }
+
+    public int getConcurrentScanQueueSize() {
+        return Integer.parseInt(this.getOptional("kylin.query.scan.concurrent.queue.size", "4096"));
+    }
+
+    /**
+     * Requires the storage coprocessor jar on region server classpath, for
+     * the custom MultiRangeRowFilter.
+     */
+    public boolean isMultiRangeScanEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.scan.multirange.enabled", "false"));
+    }
+
+    public boolean isCoprocessorArenaAggregationEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.coprocessor.aggregation.arena", "true"));
+    }
+
+    public boolean isCoprocessorPartialEmitEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.query.coprocessor.partial.emit", "true"));
+    }
+
+    public int getDictionaryDecodeCacheCapacity() {
+        return Integer.parseInt(this.getOptional("kylin.dictionary.decode.cache.capacity", "1000000"));
+    }
+
+    public boolean isDictionaryDecodeCachePrewarmEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.dictionary.decode.cache.prewarm", "false"));
+    }
+
+    public boolean isDictionaryMemoryMapEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.dictionary.mmap.enabled", "true"));
+    }
+
+    public boolean isSnapshotMemoryMapEnabled() {
+        return Boolean.parseBoolean(this.getOptional("kylin.snapshot.mmap.enabled", "true"));
+    }
+
     public boolean isQueryCacheEnabled() {
         return Boolean.parseBoolean(this.getOptional("kylin.query.cache.enabled", "true"));
     }
@@ -450,6 +533,18 @@ public class KylinConfig {
         return Integer.parseInt(this.getOptional("kylin.hbase.client.keyvalue.maxsize", "10485760"));
     }
 
+    public int getHBaseRegionCutGB() {
+        return Integer.parseInt(this.getOptional("kylin.hbase.region.cut.gb", "5"));
+    }
+
+    public int getHBaseRegionsPerServer() {
+        return Integer.parseInt(this.getOptional("kylin.hbase.regions.per.server", "2"));
+    }
+
+    public int getStatisticsSamplingPercent() {
+        return Integer.parseInt(this.getOptional("kylin.job.statistics.sampling.percent", "100"));
+    }
+
     private String getOptional(String prop) {
         return kylinConfig.getString(prop);
     }
@@ -38,14 +38,22 @@ import com.ning.compress.lzf.LZFEncoder;
  * - LZF compression ratio is around 65%-80%, fast - GZIP compression ratio is
  * around 41%-46%, very slow
  * 
+ * About memory, registers are kept sparse while few are set, as an open
+ * addressing table of (bucket, value) entries, and turn into the dense 2^p
+ * bytes array once the table would grow beyond 1/2 of that.
+ * 
  * @author yangli9
  */
 public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter> {
 
+    private static final int SPARSE_INIT_CAPACITY = 16; // must be power of 2
+
     private final int p;
     private final int m;
     private final HashFunction hashFunc;
-    byte[] registers;
+    byte[] registers; // dense registers, or null when sparse
+    int[] sparse; // sparse entries of (bucket << 8 | value), 0 means empty
+    int sparseSize;
 
     public HyperLogLogPlusCounter() {
         this(10);
@@ -65,12 +73,29 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
         this.p = p;
         this.m = (int) Math.pow(2, p);
         this.hashFunc = hashFunc;
-        this.registers = new byte[m];
+        clear();
     }
 
     public void clear() {
-        for (int i = 0; i < m; i++)
-            registers[i] = 0;
+        if (getSparseMaxSize() < SPARSE_INIT_CAPACITY / 2) {
+            if (registers == null)
+                registers = new byte[m];
+            else
+                Arrays.fill(registers, (byte) 0);
+            return;
+        }
+
+        registers = null;
+        if (sparse != null && sparse.length == SPARSE_INIT_CAPACITY)
+            Arrays.fill(sparse, 0);
+        else
+            sparse = new int[SPARSE_INIT_CAPACITY];
+        sparseSize = 0;
+    }
+
+    private int getSparseMaxSize() {
+        // table is at most 1/8 entries of m, 4 bytes each
+        return m / 16;
     }
 
     public void add(String value) {
@@ -81,22 +106,95 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
         add(hashFunc.hashBytes(value).asLong());
     }
 
+    public void add(byte[] value, int offset, int length) {
+        add(hashFunc.hashBytes(value, offset, length).asLong());
+    }
+
     protected void add(long hash) {
         int bucketMask = m - 1;
         int bucket = (int) (hash & bucketMask);
         int firstOnePos = Long.numberOfLeadingZeros(hash | bucketMask) + 1;
 
-        if (firstOnePos > registers[bucket])
-            registers[bucket] = (byte) firstOnePos;
+        setMax(bucket, (byte) firstOnePos);
+    }
+
+    private void setMax(int bucket, byte value) {
+        if (registers != null) {
+            if (value > registers[bucket])
+                registers[bucket] = value;
+            return;
+        }
+        if (value <= 0)
+            return;
+
+        int tableMask = sparse.length - 1;
+        int pos = (bucket * 0x9E3779B9) >>> 16 & tableMask;
+        while (true) {
+            int entry = sparse[pos];
+            if (entry == 0)
+                break;
+            if (entry >>> 8 == bucket) {
+                if (value > (byte) entry)
+                    sparse[pos] = bucket << 8 | value;
+                return;
+            }
+            pos = (pos + 1) & tableMask;
+        }
+
+        sparse[pos] = bucket << 8 | value;
+        sparseSize++;
+        if (sparseSize * 2 > sparse.length) {
+            if (sparseSize > getSparseMaxSize())
+                toDense();
+            else
+                rehash(sparse.length * 2);
+        }
+    }
+
+    private void rehash(int capacity) {
+        int[] old = sparse;
+        sparse = new int[capacity];
+        sparseSize = 0;
+        for (int entry : old) {
+            if (entry != 0)
+                setMax(entry >>> 8, (byte) entry);
+        }
+    }
+
+    private void toDense() {
+        if (registers != null)
+            return;
+
+        registers = new byte[m];
+        for (int entry : sparse) {
+            if (entry != 0)
+                registers[entry >>> 8] = (byte) entry;
+        }
+        sparse = null;
+        sparseSize = 0;
+    }
+
+    public boolean isSparse() {
+        return registers == null;
     }
 
     public void merge(HyperLogLogPlusCounter another) {
         assert this.p == another.p;
         assert this.hashFunc == another.hashFunc;
 
+        if (another.registers == null) {
+            for (int entry : another.sparse) {
+                if (entry != 0)
+                    setMax(entry >>> 8, (byte) entry);
+            }
+            return;
+        }
+
+        toDense();
+        byte[] anotherRegisters = another.registers;
         for (int i = 0; i < m; i++) {
-            if (registers[i] < another.registers[i])
-                registers[i] = another.registers[i];
+            if (registers[i] < anotherRegisters[i])
+                registers[i] = anotherRegisters[i];
         }
     }
 
@@ -105,7 +203,11 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
     }
 
     public int getMemBytes() {
-        return 12 + m;
+        // object header and fields, plus array header and content
+        if (registers != null)
+            return 40 + 16 + m;
+        else
+            return 40 + 16 + 4 * sparse.length;
     }
 
     public double getErrorRate() {
@@ -113,6 +215,9 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
     }
 
     private int size() {
+        if (registers == null)
+            return sparseSize;
+
         int size = 0;
         for (int i = 0; i < m; i++) {
             if (registers[i] > 0)
@@ -121,6 +226,34 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
         return size;
     }
 
+    private byte get(int bucket) {
+        if (registers != null)
+            return registers[bucket];
+
+        int tableMask = sparse.length - 1;
+        int pos = (bucket * 0x9E3779B9) >>> 16 & tableMask;
+        while (true) {
+            int entry = sparse[pos];
+            if (entry == 0)
+                return 0;
+            if (entry >>> 8 == bucket)
+                return (byte) entry;
+            pos = (pos + 1) & tableMask;
+        }
+    }
+
+    // sparse entries in bucket order
+    private int[] sortedSparseEntries() {
+        int[] entries = new int[sparseSize];
+        int i = 0;
+        for (int entry : sparse) {
+            if (entry != 0)
+                entries[i++] = entry;
+        }
+        Arrays.sort(entries);
+        return entries;
+    }
+
     // ============================================================================
 
     // a memory efficient snapshot of HLL registers which can yield count
@@ -135,6 +268,16 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
             registerSum = 0;
             zeroBuckets = 0;
 
+            if (hllc.registers == null) {
+                zeroBuckets = hllc.m - hllc.sparseSize;
+                registerSum = zeroBuckets;
+                for (int entry : hllc.sparse) {
+                    if (entry != 0)
+                        registerSum += 1.0 / (1 << (byte) entry);
+                }
+                return;
+            }
+
             byte[] registers = hllc.registers;
             for (int i = 0; i < hllc.m; i++) {
                 if (registers[i] == 0) {
@@ -236,15 +379,22 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
 
         if (scheme == 0) { // map scheme
             BytesUtil.writeVInt(size, out);
-            for (int i = 0; i < m; i++) {
-                if (registers[i] > 0) {
-                    BytesUtil.writeUnsigned(i, indexLen, out);
-                    out.put(registers[i]);
+            if (registers == null) {
+                for (int entry : sortedSparseEntries()) {
+                    BytesUtil.writeUnsigned(entry >>> 8, indexLen, out);
+                    out.put((byte) entry);
+                }
+            } else {
+                for (int i = 0; i < m; i++) {
+                    if (registers[i] > 0) {
+                        BytesUtil.writeUnsigned(i, indexLen, out);
+                        out.put(registers[i]);
+                    }
                 }
             }
         } else { // array scheme
             for (int i = 0; i < m; i++) {
-                out.put(registers[i]);
+                out.put(get(i));
             }
         }
 
@@ -262,6 +412,15 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
     }
 
     public void readRegisters(ByteBuffer in) throws IOException {
+        clear();
+        mergeRegisters(in);
+    }
+
+    /**
+     * Merges serialized registers, as written by writeRegisters(), into this
+     * counter directly, without deserializing into another counter.
+     */
+    public void mergeRegisters(ByteBuffer in) throws IOException {
         byte scheme = in.get();
         if ((scheme & COMPRESSION_FLAG) > 0) {
             scheme ^= COMPRESSION_FLAG;
@@ -273,19 +432,43 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
         }
 
         if (scheme == 0) { // map scheme
-            clear();
             int size = BytesUtil.readVInt(in);
             if (size > m)
                 throw new IllegalArgumentException("register size (" + size + ") cannot be larger than m (" + m + ")");
             int indexLen = getRegisterIndexSize();
             for (int i = 0; i < size; i++) {
                 int key = BytesUtil.readUnsigned(in, indexLen);
-                registers[key] = in.get();
+                setMax(key, in.get());
             }
         } else { // array scheme
+            toDense();
             for (int i = 0; i < m; i++) {
-                registers[i] = in.get();
+                byte value = in.get();
+                if (value > registers[i])
+                    registers[i] = value;
+            }
+        }
+    }
+
+    /**
+     * @return length of the serialized registers at the buffer position,
+     *         without moving the position
+     */
+    public int peekLength(ByteBuffer in) {
+        int start = in.position();
+        try {
+            byte scheme = in.get();
+            if ((scheme & COMPRESSION_FLAG) > 0) {
+                int compressedLen = BytesUtil.readVInt(in);
+                return in.position() - start + compressedLen;
+            } else if (scheme == 0) {
+                int size = BytesUtil.readVInt(in);
+                return in.position() - start + size * (getRegisterIndexSize() + 1);
+            } else {
+                return 1 + m;
             }
+        } finally {
+            in.position(start);
         }
     }
 
@@ -299,7 +482,20 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
         int result = 1;
         result = prime * result + ((hashFunc == null) ? 0 : hashFunc.hashCode());
         result = prime * result + p;
-        result = prime * result + Arrays.hashCode(registers);
+        // same for sparse and dense registers
+        int registersHash = 0;
+        if (registers == null) {
+            for (int entry : sparse) {
+                if (entry != 0)
+                    registersHash += entry;
+            }
+        } else {
+            for (int i = 0; i < m; i++) {
+                if (registers[i] != 0)
+                    registersHash += i << 8 | registers[i];
+            }
+        }
+        result = prime * result + registersHash;
         return result;
     }
 
@@ -319,8 +515,16 @@ public class HyperLogLogPlusCounter implements Comparable<HyperLogLogPlusCounter
             return false;
         if (p != other.p)
             return false;
-        if (!Arrays.equals(registers, other.registers))
+        if (registers != null && other.registers != null)
+            return Arrays.equals(registers, other.registers);
+        if (size() != other.size())
             return false;
+        HyperLogLogPlusCounter sparseOne = registers == null ? this : other;
+        HyperLogLogPlusCounter theOther = sparseOne == this ? other : this;
+        for (int entry : sparseOne.sparse) {
+            if (entry != 0 && theOther.get(entry >>> 8) != (byte) entry)
+                return false;
+        }
         return true;
     }
 
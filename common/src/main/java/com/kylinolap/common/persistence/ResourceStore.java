@@ -41,6 +41,7 @@ abstract public class ResourceStore {
     public static final String IIDESC_RESOURCE_ROOT = "/invertedindex_desc";
     public static final String JOB_PATH_ROOT = "/job";
     public static final String JOB_OUTPUT_PATH_ROOT = "/job_output";
+    public static final String JOB_STATUS_PATH_ROOT = "/job_status";
     public static final String PROJECT_RESOURCE_ROOT = "/project";
     public static final String SNAPSHOT_RESOURCE_ROOT = "/table_snapshot";
     public static final String TABLE_EXD_RESOURCE_ROOT = "/table_exd";
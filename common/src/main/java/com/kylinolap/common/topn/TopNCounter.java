@@ -0,0 +1,219 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.common.topn;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+
+import com.kylinolap.common.util.BytesUtil;
+
+/**
+ * Approximate top K of int keys (e.g. dictionary IDs) by a weight, the
+ * space-saving algorithm extended to be mergeable.
+ *
+ * At most 2 * capacity keys are tracked between compactions, a compaction
+ * keeps the top capacity keys. The floor is an upper bound of the weight of
+ * any untracked key. A tracked key's count over-estimates its weight by no
+ * more than its error, thus the count of a key in the true top K is correct
+ * within error if K is well below the capacity.
+ *
+ * Weights are assumed non-negative.
+ */
+public class TopNCounter {
+
+    private final int capacity;
+    private HashMap<Integer, Entry> entries;
+    private double floor;
+
+    public TopNCounter(int capacity) {
+        if (capacity <= 0)
+            throw new IllegalArgumentException("capacity must be positive, but is " + capacity);
+        this.capacity = capacity;
+        this.entries = new HashMap<Integer, Entry>();
+        this.floor = 0;
+    }
+
+    public TopNCounter(TopNCounter another) {
+        this(another.capacity);
+        merge(another);
+    }
+
+    public void clear() {
+        entries.clear();
+        floor = 0;
+    }
+
+    public void offer(int key, double weight) {
+        Entry e = entries.get(key);
+        if (e == null) {
+            entries.put(key, new Entry(key, floor + weight, floor));
+            if (entries.size() > 2 * capacity)
+                compact();
+        } else {
+            e.count += weight;
+        }
+    }
+
+    public void merge(TopNCounter another) {
+        // keys missing on one side may weigh as much as the floor of that side
+        for (Entry e : entries.values()) {
+            if (another.entries.containsKey(e.key) == false) {
+                e.count += another.floor;
+                e.error += another.floor;
+            }
+        }
+        for (Entry o : another.entries.values()) {
+            Entry e = entries.get(o.key);
+            if (e == null) {
+                entries.put(o.key, new Entry(o.key, o.count + floor, o.error + floor));
+            } else {
+                e.count += o.count;
+                e.error += o.error;
+            }
+        }
+        floor += another.floor;
+
+        if (entries.size() > 2 * capacity)
+            compact();
+    }
+
+    /**
+     * Keeps the top capacity keys only, raising the floor to the largest
+     * count dropped.
+     */
+    public void compact() {
+        if (entries.size() <= capacity)
+            return;
+
+        List<Entry> sorted = sortedEntries();
+        for (int i = capacity; i < sorted.size(); i++) {
+            Entry dropped = sorted.get(i);
+            floor = Math.max(floor, dropped.count);
+            entries.remove(dropped.key);
+        }
+    }
+
+    /**
+     * @return the top n keys, by count descending
+     */
+    public List<Entry> getTopN(int n) {
+        List<Entry> sorted = sortedEntries();
+        return sorted.size() > n ? sorted.subList(0, n) : sorted;
+    }
+
+    private List<Entry> sortedEntries() {
+        List<Entry> sorted = new ArrayList<Entry>(entries.values());
+        Collections.sort(sorted, DESCENDING);
+        return sorted;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public double getFloor() {
+        return floor;
+    }
+
+    public int getMemBytes() {
+        return 16 + entries.size() * 64;
+    }
+
+    /**
+     * Writes the floor and the compacted entries. The counter itself is
+     * compacted as a side effect.
+     */
+    public void writeTo(ByteBuffer out) {
+        compact();
+        out.putDouble(floor);
+        BytesUtil.writeVInt(entries.size(), out);
+        for (Entry e : sortedEntries()) {
+            BytesUtil.writeVInt(e.key, out);
+            out.putDouble(e.count);
+            out.putDouble(e.error);
+        }
+    }
+
+    public void readFrom(ByteBuffer in) {
+        clear();
+        floor = in.getDouble();
+        int size = BytesUtil.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            int key = BytesUtil.readVInt(in);
+            double count = in.getDouble();
+            double error = in.getDouble();
+            entries.put(key, new Entry(key, count, error));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TopNCounter [capacity=" + capacity + ", size=" + entries.size() + ", floor=" + floor + "]";
+    }
+
+    private static final Comparator<Entry> DESCENDING = new Comparator<Entry>() {
+        @Override
+        public int compare(Entry o1, Entry o2) {
+            int comp = Double.compare(o2.count, o1.count);
+            // tie break on key to be deterministic
+            return comp != 0 ? comp : (o1.key < o2.key ? -1 : (o1.key == o2.key ? 0 : 1));
+        }
+    };
+
+    public static class Entry {
+        final int key;
+        double count;
+        double error;
+
+        Entry(int key, double count, double error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        public int getKey() {
+            return key;
+        }
+
+        /**
+         * @return the estimated weight, no less than the real weight
+         */
+        public double getCount() {
+            return count;
+        }
+
+        /**
+         * @return the max over-estimate of the count
+         */
+        public double getError() {
+            return error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + "(+-" + error + ")";
+        }
+    }
+}
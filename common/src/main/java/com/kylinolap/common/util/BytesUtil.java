@@ -165,6 +165,14 @@ public class BytesUtil {
         return (int) n;
     }
 
+    /**
+     * @return length of the VLong or VInt at the buffer position, without
+     *         moving the position
+     */
+    public static int peekVLongLength(ByteBuffer in) {
+        return decodeVIntSize(in.get(in.position()));
+    }
+
     private static boolean isNegativeVInt(byte value) {
         return value < -120 || (value >= -112 && value < 0);
     }
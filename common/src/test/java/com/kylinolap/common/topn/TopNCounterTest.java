@@ -0,0 +1,107 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.common.topn;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.kylinolap.common.topn.TopNCounter.Entry;
+
+/**
+ * @author yangli9
+ */
+public class TopNCounterTest {
+
+    @Test
+    public void testExactWithinCapacity() {
+        TopNCounter counter = new TopNCounter(10);
+        for (int i = 0; i < 5; i++) {
+            for (int j = 0; j <= i; j++)
+                counter.offer(i, 10);
+        }
+
+        List<Entry> top = counter.getTopN(3);
+        assertEquals(3, top.size());
+        assertEquals(4, top.get(0).getKey());
+        assertEquals(50, top.get(0).getCount(), 0);
+        assertEquals(0, top.get(0).getError(), 0);
+        assertEquals(3, top.get(1).getKey());
+        assertEquals(2, top.get(2).getKey());
+    }
+
+    @Test
+    public void testSkewedStream() {
+        // 10 heavy keys among 10000 light ones
+        Random rand = new Random(1);
+        TopNCounter counter = new TopNCounter(100);
+        for (int i = 0; i < 100000; i++) {
+            if (rand.nextInt(10) == 0)
+                counter.offer(rand.nextInt(10), 100);
+            else
+                counter.offer(10 + rand.nextInt(10000), 1);
+        }
+        assertTrue(counter.size() <= 200);
+
+        List<Entry> top = counter.getTopN(10);
+        for (Entry e : top) {
+            assertTrue(e.getKey() < 10);
+            assertTrue(e.getError() <= counter.getFloor());
+        }
+    }
+
+    @Test
+    public void testMergeAndSerialize() {
+        TopNCounter a = new TopNCounter(50);
+        TopNCounter b = new TopNCounter(50);
+        int[] exact = new int[1000];
+        Random rand = new Random(2);
+        for (int i = 0; i < 20000; i++) {
+            int key = (int) Math.abs(rand.nextGaussian() * 10);
+            (i % 2 == 0 ? a : b).offer(key, 1);
+            exact[key]++;
+        }
+
+        ByteBuffer buf = ByteBuffer.allocate(1024 * 1024);
+        a.writeTo(buf);
+        b.writeTo(buf);
+        buf.flip();
+        TopNCounter merged = new TopNCounter(50);
+        merged.readFrom(buf);
+        TopNCounter other = new TopNCounter(50);
+        other.readFrom(buf);
+        merged.merge(other);
+
+        // the heaviest keys of a gaussian are those around 0
+        List<Entry> top = merged.getTopN(5);
+        assertEquals(5, top.size());
+        for (Entry e : top) {
+            assertTrue(e.getKey() < 10);
+            // the real weight is within [count - error, count]
+            assertTrue(e.getCount() >= exact[e.getKey()]);
+            assertTrue(e.getCount() - e.getError() <= exact[e.getKey()]);
+        }
+
+        TopNCounter copy = new TopNCounter(merged);
+        assertEquals(merged.size(), copy.size());
+        assertEquals(merged.getFloor(), copy.getFloor(), 0);
+    }
+}
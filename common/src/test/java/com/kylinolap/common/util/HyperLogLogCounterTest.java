@@ -177,6 +177,58 @@ public class HyperLogLogCounterTest {
         return actualError;
     }
 
+    @Test
+    public void testSparse() throws IOException {
+        HyperLogLogPlusCounter hllc = newHLLC();
+        for (int i = 0; i < 100; i++)
+            hllc.add("v" + i);
+        Assert.assertTrue(hllc.isSparse());
+        Assert.assertTrue(hllc.getMemBytes() < 2048);
+        Assert.assertEquals(100, hllc.getCountEstimate(), 100 * hllc.getErrorRate() * 3);
+        checkSerialize(hllc);
+        Assert.assertTrue(hllc.isSparse());
+
+        for (int i = 100; i < 20000; i++)
+            hllc.add("v" + i);
+        Assert.assertFalse(hllc.isSparse());
+        Assert.assertTrue(hllc.getMemBytes() > 65536);
+        Assert.assertEquals(20000, hllc.getCountEstimate(), 20000 * hllc.getErrorRate() * 3);
+    }
+
+    @Test
+    public void testMergeRegisters() throws IOException {
+        HyperLogLogPlusCounter small = newHLLC();
+        for (int i = 0; i < 100; i++)
+            small.add("s" + i);
+        HyperLogLogPlusCounter large = newHLLC();
+        for (int i = 0; i < 20000; i++)
+            large.add("l" + i);
+
+        HyperLogLogPlusCounter merged = newHLLC();
+        merged.merge(small);
+        Assert.assertTrue(merged.isSparse());
+        merged.merge(large);
+
+        buf.clear();
+        small.writeRegisters(buf);
+        int smallLen = buf.position();
+        large.writeRegisters(buf);
+        int largeLen = buf.position() - smallLen;
+        buf.flip();
+
+        HyperLogLogPlusCounter mergedFromBytes = newHLLC();
+        Assert.assertEquals(smallLen, mergedFromBytes.peekLength(buf));
+        mergedFromBytes.mergeRegisters(buf);
+        Assert.assertTrue(mergedFromBytes.isSparse());
+        Assert.assertEquals(small, mergedFromBytes);
+        Assert.assertEquals(largeLen, mergedFromBytes.peekLength(buf));
+        mergedFromBytes.mergeRegisters(buf);
+
+        Assert.assertEquals(merged, mergedFromBytes);
+        Assert.assertEquals(merged.hashCode(), mergedFromBytes.hashCode());
+        Assert.assertEquals(merged.getCountEstimate(), mergedFromBytes.getCountEstimate());
+    }
+
     @Test
     public void testPerformance() throws IOException {
         int N = 3; // reduce N HLLC into one
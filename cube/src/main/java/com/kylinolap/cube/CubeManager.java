@@ -23,6 +23,7 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.lang3.StringUtils;
@@ -176,6 +177,22 @@ public class CubeManager {
         return dictInfo;
     }
 
+    /**
+     * Appends the segment's values of a column to its global dictionary, which
+     * is shared by all segments of the cube
+     */
+    public DictionaryInfo appendGlobalDictionary(CubeSegment cubeSeg, TblColRef col, String factColumnsPath) throws IOException {
+        return getDictionaryManager().appendGlobalDictionary(cubeSeg.getCubeInstance().getName(), col, factColumnsPath);
+    }
+
+    public Dictionary<?> getGlobalDictionary(CubeInstance cube, TblColRef col) {
+        try {
+            return getDictionaryManager().getGlobalDictionary(cube.getName(), col);
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to get global dictionary for cube " + cube.getName() + ", col " + col, e);
+        }
+    }
+
     /**
      * return null if no dictionary for given column
      */
@@ -424,6 +441,18 @@ public class CubeManager {
         return r;
     }
 
+    /**
+     * @return "table#pk" ==> estimated memory in bytes of the secondary indexes
+     *         built on the cached lookup table
+     */
+    public Map<String, Long> getLookupTableIndexMemBytes() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, LookupStringTable> entry : lookupTables.getMap().entrySet()) {
+            result.put(entry.getKey(), entry.getValue().getIndexMemBytes());
+        }
+        return result;
+    }
+
     /**
      * For the new segment, we need to create dictionaries for it, too. For
      * those dictionaries on fact table, create it by merging underlying
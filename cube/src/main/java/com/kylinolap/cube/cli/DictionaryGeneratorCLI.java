@@ -61,6 +61,13 @@ public class DictionaryGeneratorCLI {
                                                       // sanity check
             }
         }
+
+        // global dictionaries of exact count distinct, appended with the
+        // segment's values
+        for (TblColRef col : cubeSeg.getCubeDesc().listGlobalDictionaryColumns()) {
+            logger.info("Appending global dictionary for " + col);
+            cubeMgr.appendGlobalDictionary(cubeSeg, col, factColumnsPath);
+        }
     }
 
 }
@@ -62,6 +62,7 @@ public class BytesSplitter {
         for (int i = 0; i < byteLen; i++) {
             if (bytes[i] == delimiter) {
                 SplittedBytes split = this.splitBuffers[this.bufferSize++];
+                ensureCapacity(split, length);
                 split.length = length;
                 System.arraycopy(bytes, offset, split.value, 0, length);
                 offset = i + 1;
@@ -71,12 +72,20 @@ public class BytesSplitter {
             }
         }
         SplittedBytes split = this.splitBuffers[this.bufferSize++];
+        ensureCapacity(split, length);
         System.arraycopy(bytes, offset, split.value, 0, length);
         split.length = length;
 
         return bufferSize;
     }
 
+    // a value longer than bytesLen grows its buffer
+    private static void ensureCapacity(SplittedBytes split, int length) {
+        if (split.value.length < length) {
+            split.value = new byte[Math.max(length, split.value.length * 2)];
+        }
+    }
+
     public static List<String> splitToString(byte[] bytes, int offset, byte delimiter) {
         List<String> splitStrings = new ArrayList<String>();
         int splitOffset = 0;
@@ -17,6 +17,7 @@
 package com.kylinolap.cube.invertedindex;
 
 import it.uniroma3.mat.extendedset.intset.ConciseSet;
+import it.uniroma3.mat.extendedset.intset.IntSet.IntIterator;
 
 import java.nio.ByteBuffer;
 import java.nio.IntBuffer;
@@ -30,6 +31,13 @@ import com.kylinolap.common.util.BytesUtil;
 import com.kylinolap.dict.Dictionary;
 
 /**
+ * Keeps one bitmap of record positions per distinct value.
+ * 
+ * Once closed for change, a row-to-value index is built on the first
+ * getValueAt() by walking the set bits of all bitmaps once, after which both
+ * sequential and random row access cost an array lookup instead of probing
+ * every bitmap.
+ * 
  * @author yangli9
  * 
  */
@@ -40,11 +48,16 @@ public class BitMapContainer implements ColumnValueContainer {
     int size;
     ConciseSet[] sets;
     boolean closedForChange;
+    volatile int[] valueIndex; // record position -> value ID, lazily built after closed
 
     public BitMapContainer(TableRecordInfo info, int col) {
-        this.valueLen = info.length(col);
+        this(info.length(col), info.dict(col).getMaxId() + 1);
+    }
+
+    BitMapContainer(int valueLen, int nValues) {
+        this.valueLen = valueLen;
         this.size = 0;
-        this.nValues = info.dict(col).getMaxId() + 1;
+        this.nValues = nValues;
         this.sets = null;
         this.closedForChange = false;
     }
@@ -61,6 +74,15 @@ public class BitMapContainer implements ColumnValueContainer {
 
     @Override
     public int getValueAt(int i) {
+        if (closedForChange) {
+            int[] index = valueIndex;
+            if (index == null) {
+                index = buildValueIndex();
+                valueIndex = index;
+            }
+            return index[i];
+        }
+
         for (int v = 0; v < nValues; v++) {
             if (sets[v].contains(i)) {
                 return v;
@@ -70,6 +92,44 @@ public class BitMapContainer implements ColumnValueContainer {
         return Dictionary.NULL_ID[valueLen];
     }
 
+    private int[] buildValueIndex() {
+        int[] index = new int[size];
+        if (sets == null)
+            return index;
+
+        for (int v = 0; v <= nValues; v++) {
+            int id = (v == nValues) ? Dictionary.NULL_ID[valueLen] : v;
+            IntIterator it = sets[v].iterator();
+            while (it.hasNext()) {
+                index[it.next()] = id;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return the positions of records having the value ID, NULL ID included;
+     *         the returned set must not be modified
+     */
+    public ConciseSet getBitMap(int valueId) {
+        if (valueId == Dictionary.NULL_ID[valueLen])
+            return sets[nValues];
+        if (valueId < 0 || valueId >= nValues)
+            return new ConciseSet();
+        return sets[valueId];
+    }
+
+    /**
+     * @return the positions of records whose value ID is in [startId, endId]
+     */
+    public ConciseSet getBitMap(int startId, int endId) {
+        ConciseSet result = new ConciseSet();
+        for (int v = Math.max(0, startId), end = Math.min(endId, nValues - 1); v <= end; v++) {
+            result = result.union(sets[v]);
+        }
+        return result;
+    }
+
     private void checkUpdateMode() {
         if (isClosedForChange()) {
             throw new IllegalStateException();
@@ -115,6 +175,7 @@ public class BitMapContainer implements ColumnValueContainer {
             sets[i] = bytesToSet(bytes.get(i));
             size += sets[i].size();
         }
+        valueIndex = null;
         closedForChange = true;
     }
 
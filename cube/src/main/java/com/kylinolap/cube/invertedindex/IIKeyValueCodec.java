@@ -17,6 +17,7 @@
 package com.kylinolap.cube.invertedindex;
 
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
@@ -100,7 +101,39 @@ public class IIKeyValueCodec {
     }
 
     public Iterable<TimeSlice> decodeKeyValue(Iterable<Pair<ImmutableBytesWritable, ImmutableBytesWritable>> kvs) {
-        return new Decoder(info, kvs);
+        return new Decoder(info, kvs, null);
+    }
+
+    /**
+     * Decodes only the given columns, the others are skipped without being
+     * decompressed and are left as null containers in the time slices.
+     */
+    public Iterable<TimeSlice> decodeKeyValue(Iterable<Pair<ImmutableBytesWritable, ImmutableBytesWritable>> kvs, BitSet columns) {
+        return new Decoder(info, kvs, columns);
+    }
+
+    /**
+     * @return the row key prefix of a time partition
+     */
+    public static byte[] encodeTimePartition(long timePartition) {
+        byte[] bytes = new byte[TIMEPART_LEN];
+        BytesUtil.writeUnsignedLong(timePartition, bytes, 0, TIMEPART_LEN);
+        return bytes;
+    }
+
+    /**
+     * @return the fuzzy key (and its mask) that matches all row keys of given
+     *         column, for FuzzyRowFilter
+     */
+    public static Pair<byte[], byte[]> getColumnFuzzyKey(int col) {
+        int len = TIMEPART_LEN + SLICENO_LEN + COLNO_LEN;
+        byte[] key = new byte[len];
+        byte[] mask = new byte[len];
+        BytesUtil.writeUnsigned(col, key, TIMEPART_LEN + SLICENO_LEN, COLNO_LEN);
+        for (int i = 0; i < TIMEPART_LEN + SLICENO_LEN; i++) {
+            mask[i] = 1; // 1 means any value, 0 means fixed
+        }
+        return new Pair<byte[], byte[]>(key, mask);
     }
 
     private static class Decoder implements Iterable<TimeSlice> {
@@ -118,10 +151,12 @@ public class IIKeyValueCodec {
         int lastCol = -1;
         ColumnValueContainer[] containers = null;
         List<ImmutableBytesWritable> bitMapValues = Lists.newArrayList();
+        BitSet columns; // null means all
 
-        Decoder(TableRecordInfo info, Iterable<Pair<ImmutableBytesWritable, ImmutableBytesWritable>> kvs) {
+        Decoder(TableRecordInfo info, Iterable<Pair<ImmutableBytesWritable, ImmutableBytesWritable>> kvs, BitSet columns) {
             this.info = info;
             this.iterator = kvs.iterator();
+            this.columns = columns;
         }
 
         private void goToNext() {
@@ -139,6 +174,9 @@ public class IIKeyValueCodec {
                 if (curPartition != lastPartition || curSliceNo != lastSliceNo) {
                     makeNext();
                 }
+                if (columns != null && columns.get(curCol) == false) {
+                    continue;
+                }
                 consumeCurrent(v);
             }
             if (next == null) {
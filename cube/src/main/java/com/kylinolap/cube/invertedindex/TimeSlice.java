@@ -16,6 +16,9 @@
 
 package com.kylinolap.cube.invertedindex;
 
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+import it.uniroma3.mat.extendedset.intset.IntSet.IntIterator;
+
 import java.util.Arrays;
 import java.util.Iterator;
 
@@ -23,6 +26,9 @@ import java.util.Iterator;
  * Within a partition (per timestampGranularity), records are further sliced
  * (per sliceLength) to fit into HBASE cell.
  * 
+ * A slice decoded with column projection has null containers for the columns
+ * not loaded, and those columns read as NULL from the records.
+ * 
  * @author yangli9
  */
 public class TimeSlice implements Iterable<TableRecord> {
@@ -39,13 +45,33 @@ public class TimeSlice implements Iterable<TableRecord> {
         this.nColumns = info.getColumnCount();
         this.timePartition = timePartition;
         this.sliceNo = sliceNo;
-        this.nRecords = containers[0].getSize();
+        this.nRecords = firstContainer(containers).getSize();
         this.containers = containers;
 
         assert nColumns == containers.length;
         for (int i = 0; i < nColumns; i++) {
-            assert nRecords == containers[i].getSize();
+            assert containers[i] == null || nRecords == containers[i].getSize();
+        }
+    }
+
+    private static ColumnValueContainer firstContainer(ColumnValueContainer[] containers) {
+        for (ColumnValueContainer c : containers) {
+            if (c != null)
+                return c;
         }
+        throw new IllegalArgumentException("No column in time slice");
+    }
+
+    public int getRecordCount() {
+        return nRecords;
+    }
+
+    /**
+     * @return the container of given column, or null if the column is not
+     *         loaded
+     */
+    public ColumnValueContainer getContainer(int col) {
+        return containers[col];
     }
 
     public long getTimeParititon() {
@@ -69,9 +95,7 @@ public class TimeSlice implements Iterable<TableRecord> {
 
             @Override
             public TableRecord next() {
-                for (int col = 0; col < nColumns; col++) {
-                    rec.setValueID(col, containers[col].getValueAt(i));
-                }
+                readRecord(i, rec);
                 i++;
                 return rec;
             }
@@ -84,6 +108,40 @@ public class TimeSlice implements Iterable<TableRecord> {
         };
     }
 
+    /**
+     * Iterates the records at the given positions only.
+     */
+    public Iterator<TableRecord> iterator(final ConciseSet positions) {
+        return new Iterator<TableRecord>() {
+            IntIterator it = positions.iterator();
+            TableRecord rec = new TableRecord(info);
+
+            @Override
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            @Override
+            public TableRecord next() {
+                readRecord(it.next(), rec);
+                return rec;
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
+    }
+
+    private void readRecord(int i, TableRecord rec) {
+        for (int col = 0; col < nColumns; col++) {
+            if (containers[col] != null)
+                rec.setValueID(col, containers[col].getValueAt(i));
+        }
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
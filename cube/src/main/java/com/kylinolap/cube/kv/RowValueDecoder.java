@@ -70,7 +70,20 @@ public class RowValueDecoder implements Cloneable {
     }
 
     public void decode(byte[] bytes) {
-        codec.decode(ByteBuffer.wrap(bytes), values);
+        decode(bytes, 0, bytes.length);
+    }
+
+    /**
+     * Decodes the projected measures only, once any is set by setIndex().
+     * Others are skipped by length and left null, so a large counter not in
+     * query is never deserialized.
+     */
+    public void decode(byte[] bytes, int offset, int length) {
+        ByteBuffer buf = ByteBuffer.wrap(bytes, offset, length);
+        if (projectionIndex.isEmpty())
+            codec.decode(buf, values);
+        else
+            codec.decode(buf, values, projectionIndex);
         convertToJavaObjects(values, values);
     }
 
@@ -50,6 +50,16 @@ public class BigDecimalSerializer extends MeasureSerializer<BigDecimal> {
         return new BigDecimal(new BigInteger(bytes), scale);
     }
 
+    @Override
+    public int peekLength(ByteBuffer in) {
+        int mark = in.position();
+        BytesUtil.readVInt(in); // scale
+        int n = BytesUtil.readVInt(in);
+        int length = in.position() - mark + n;
+        in.position(mark);
+        return length;
+    }
+
     @Override
     public BigDecimal valueOf(byte[] value) {
         if (value == null)
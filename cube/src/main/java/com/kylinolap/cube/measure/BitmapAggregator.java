@@ -0,0 +1,57 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.cube.measure;
+
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
+/**
+ * Exact count distinct by union of the bitmaps of global dictionary IDs, the
+ * count being the size of the result bitmap.
+ */
+public class BitmapAggregator extends MeasureAggregator<ConciseSet> {
+
+    ConciseSet sum = null;
+
+    @Override
+    public void reset() {
+        sum = null;
+    }
+
+    @Override
+    public void aggregate(ConciseSet value) {
+        if (sum == null)
+            sum = value.clone();
+        else
+            sum.addAll(value);
+    }
+
+    @Override
+    public ConciseSet getState() {
+        return sum;
+    }
+
+    @Override
+    public int getMemBytes() {
+        if (sum == null)
+            return Integer.MIN_VALUE;
+        else
+            // words of the set, as ratio of words to cardinality, without
+            // copying them out like toByteBuffer()
+            return 4 + 32 + 4 * (int) Math.ceil(sum.collectionCompressionRatio() * sum.size());
+    }
+
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.cube.measure;
+
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.kylinolap.common.util.BytesUtil;
+
+/**
+ * Serializes the bitmap of exact count distinct, as the number of words
+ * followed by the words of the ConciseSet.
+ */
+public class BitmapSerializer extends MeasureSerializer<ConciseSet> {
+
+    // avoid mass object creation
+    ConciseSet current = new ConciseSet();
+
+    @Override
+    public void serialize(ConciseSet value, ByteBuffer out) {
+        if (value.isEmpty()) { // ConciseSet.toByteBuffer() throws exception when set is empty
+            BytesUtil.writeVInt(0, out);
+            return;
+        }
+
+        ByteBuffer words = value.toByteBuffer();
+        BytesUtil.writeVInt(words.capacity() / 4, out);
+        out.put(words.array(), 0, words.capacity());
+    }
+
+    /**
+     * Note unlike other serializers, a new set is returned each time, since
+     * ConciseSet cannot be reset from words.
+     */
+    @Override
+    public ConciseSet deserialize(ByteBuffer in) {
+        int n = BytesUtil.readVInt(in);
+        if (n == 0)
+            return new ConciseSet();
+
+        int[] words = new int[n];
+        for (int i = 0; i < n; i++) {
+            words[i] = in.getInt();
+        }
+        return new ConciseSet(words, false);
+    }
+
+    @Override
+    public int peekLength(ByteBuffer in) {
+        int mark = in.position();
+        int n = BytesUtil.readVInt(in);
+        int length = in.position() - mark + 4 * n;
+        in.position(mark);
+        return length;
+    }
+
+    /**
+     * @param value
+     *            the 4 bytes global dictionary ID of the counted value, or null
+     *            for null
+     */
+    @Override
+    public ConciseSet valueOf(byte[] value) {
+        current.clear();
+        if (value != null)
+            current.add(Bytes.toInt(value));
+        return current;
+    }
+
+}
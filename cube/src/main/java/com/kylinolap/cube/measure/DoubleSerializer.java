@@ -41,6 +41,11 @@ public class DoubleSerializer extends MeasureSerializer<DoubleWritable> {
         return current;
     }
 
+    @Override
+    public int peekLength(ByteBuffer in) {
+        return 8;
+    }
+
     @Override
     public DoubleWritable valueOf(byte[] value) {
         if (value == null)
@@ -17,6 +17,9 @@
 
 package com.kylinolap.cube.measure;
 
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
 import com.kylinolap.common.hll.HyperLogLogPlusCounter;
 
 /**
@@ -25,8 +28,13 @@ import com.kylinolap.common.hll.HyperLogLogPlusCounter;
  */
 public class HLLCAggregator extends MeasureAggregator<HyperLogLogPlusCounter> {
 
+    final int precision;
     HyperLogLogPlusCounter sum = null;
 
+    public HLLCAggregator(int precision) {
+        this.precision = precision;
+    }
+
     @Override
     public void reset() {
         sum = null;
@@ -40,6 +48,20 @@ public class HLLCAggregator extends MeasureAggregator<HyperLogLogPlusCounter> {
             sum.merge(value);
     }
 
+    /**
+     * Merges a counter serialized by HLLCSerializer, straight from the bytes.
+     * The buffer position is moved past the counter.
+     */
+    public void aggregate(ByteBuffer in) {
+        if (sum == null)
+            sum = new HyperLogLogPlusCounter(precision);
+        try {
+            sum.mergeRegisters(in);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
     @Override
     public HyperLogLogPlusCounter getState() {
         return sum;
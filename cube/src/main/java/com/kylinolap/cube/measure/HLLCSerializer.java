@@ -52,6 +52,11 @@ public class HLLCSerializer extends MeasureSerializer<HyperLogLogPlusCounter> {
         return current;
     }
 
+    @Override
+    public int peekLength(ByteBuffer in) {
+        return current.peekLength(in);
+    }
+
     @Override
     public HyperLogLogPlusCounter valueOf(byte[] value) {
         current.clear();
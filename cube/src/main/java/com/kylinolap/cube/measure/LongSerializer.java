@@ -43,6 +43,11 @@ public class LongSerializer extends MeasureSerializer<LongWritable> {
         return current;
     }
 
+    @Override
+    public int peekLength(ByteBuffer in) {
+        return BytesUtil.peekVLongLength(in);
+    }
+
     @Override
     public LongWritable valueOf(byte[] value) {
         if (value == null)
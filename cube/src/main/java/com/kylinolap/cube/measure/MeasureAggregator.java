@@ -35,9 +35,13 @@ abstract public class MeasureAggregator<V> {
                 return new DoubleSumAggregator();
         } else if (FunctionDesc.FUNC_COUNT_DISTINCT.equalsIgnoreCase(funcName)) {
             if (DataType.getInstance(returnType).isHLLC())
-                return new HLLCAggregator();
+                return new HLLCAggregator(DataType.getInstance(returnType).getPrecision());
+            else if (DataType.getInstance(returnType).isBitmap())
+                return new BitmapAggregator();
             else
                 return new LDCAggregator();
+        } else if (FunctionDesc.FUNC_TOP_N.equalsIgnoreCase(funcName)) {
+            return new TopNAggregator();
         } else if (FunctionDesc.FUNC_MAX.equalsIgnoreCase(funcName)) {
             if (isInteger(returnType))
                 return new LongMaxAggregator();
@@ -77,4 +77,13 @@ public class MeasureAggregators {
         }
     }
 
+    // get an estimate of memory consumption
+    public int getMemBytes() {
+        int bytes = 0;
+        for (int i = 0; i < aggs.length; i++) {
+            bytes += aggs[i].getMemBytes();
+        }
+        return bytes;
+    }
+
 }
@@ -16,7 +16,9 @@
 
 package com.kylinolap.cube.measure;
 
+import java.nio.BufferOverflowException;
 import java.nio.ByteBuffer;
+import java.util.BitSet;
 import java.util.Collection;
 
 import org.apache.hadoop.io.Text;
@@ -73,10 +75,43 @@ public class MeasureCodec {
         }
     }
 
-    public void encode(Object[] values, ByteBuffer out) {
-        assert values.length == nMeasures;
+    /**
+     * Decodes only the projected measures, others are skipped by length
+     * without being deserialized and left null.
+     */
+    public void decode(ByteBuffer buf, Object[] result, BitSet projection) {
+        assert result.length == nMeasures;
         for (int i = 0; i < nMeasures; i++) {
-            serializers[i].serialize(values[i], out);
+            if (projection.get(i)) {
+                result[i] = serializers[i].deserialize(buf);
+            } else {
+                buf.position(buf.position() + serializers[i].peekLength(buf));
+                result[i] = null;
+            }
+        }
+    }
+
+    /**
+     * Encodes from the position of the buffer. If the values do not fit, e.g.
+     * a bitmap of many scattered values, they are encoded again into a bigger
+     * buffer, which is returned for the caller to reuse.
+     * 
+     * @return the buffer holding the encoded values
+     */
+    public ByteBuffer encode(Object[] values, ByteBuffer out) {
+        assert values.length == nMeasures;
+        int start = out.position();
+        while (true) {
+            try {
+                for (int i = 0; i < nMeasures; i++) {
+                    serializers[i].serialize(values[i], out);
+                }
+                return out;
+            } catch (BufferOverflowException e) {
+                ByteBuffer bigger = ByteBuffer.allocate(out.capacity() * 2);
+                bigger.put(out.array(), 0, start);
+                out = bigger;
+            }
         }
     }
 }
@@ -16,6 +16,7 @@
 
 package com.kylinolap.cube.measure;
 
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import com.kylinolap.common.util.BytesSerializer;
@@ -43,6 +44,12 @@ abstract public class MeasureSerializer<T> implements BytesSerializer<T> {
         if (type.isHLLC()) {
             return new HLLCSerializer(type.getPrecision());
         }
+        if (type.isBitmap()) {
+            return new BitmapSerializer();
+        }
+        if (type.isTopN()) {
+            return new TopNSerializer(type.getPrecision());
+        }
 
         Class<?> clz = implementations.get(type.getName());
         if (clz == null)
@@ -57,4 +64,17 @@ abstract public class MeasureSerializer<T> implements BytesSerializer<T> {
 
     abstract public T valueOf(byte[] value);
 
+    /**
+     * @return length of the serialized value at the buffer position, without
+     *         moving the position; subclasses should override to skip a value
+     *         without deserializing it
+     */
+    public int peekLength(ByteBuffer in) {
+        int mark = in.position();
+        deserialize(in);
+        int length = in.position() - mark;
+        in.position(mark);
+        return length;
+    }
+
 }
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.cube.measure;
+
+import java.nio.ByteBuffer;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+import com.kylinolap.common.topn.TopNCounter;
+import com.kylinolap.common.util.BytesUtil;
+
+/**
+ * Serializes the counter of TopN measure, see TopNCounter.writeTo().
+ */
+public class TopNSerializer extends MeasureSerializer<TopNCounter> {
+
+    // avoid mass object creation
+    TopNCounter current;
+
+    TopNSerializer(int capacity) {
+        current = new TopNCounter(capacity);
+    }
+
+    @Override
+    public void serialize(TopNCounter value, ByteBuffer out) {
+        value.writeTo(out);
+    }
+
+    @Override
+    public TopNCounter deserialize(ByteBuffer in) {
+        current.readFrom(in);
+        return current;
+    }
+
+    @Override
+    public int peekLength(ByteBuffer in) {
+        int mark = in.position();
+        in.position(mark + 8); // floor
+        int size = BytesUtil.readVInt(in);
+        for (int i = 0; i < size; i++) {
+            in.position(in.position() + BytesUtil.peekVLongLength(in) + 16); // key, count and error
+        }
+        int length = in.position() - mark;
+        in.position(mark);
+        return length;
+    }
+
+    /**
+     * @param value
+     *            the 4 bytes global dictionary ID of the key, followed by the
+     *            weight as string, or null for null key
+     */
+    @Override
+    public TopNCounter valueOf(byte[] value) {
+        current.clear();
+        if (value != null) {
+            int key = Bytes.toInt(value, 0);
+            double weight = value.length > 4 ? Double.parseDouble(Bytes.toString(value, 4, value.length - 4)) : 0;
+            current.offer(key, weight);
+        }
+        return current;
+    }
+
+}
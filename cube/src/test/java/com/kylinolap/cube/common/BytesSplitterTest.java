@@ -47,4 +47,17 @@ public class BytesSplitterTest {
         assertEquals("", new String(bytesSplitter.getSplitBuffers()[1].value, 0, bytesSplitter.getSplitBuffers()[1].length));
         assertEquals("Collectibles", new String(bytesSplitter.getSplitBuffers()[2].value, 0, bytesSplitter.getSplitBuffers()[2].length));
     }
+
+    @Test
+    public void testLongValue() {
+        BytesSplitter bytesSplitter = new BytesSplitter(10, 15);
+        String longValue = "Collectibles & Antiques & Art";
+        byte[] input = ("2013-02-17" + longValue + "" + longValue + longValue).getBytes();
+        bytesSplitter.split(input, input.length, (byte) 127);
+
+        assertEquals(3, bytesSplitter.getBufferSize());
+        assertEquals("2013-02-17", new String(bytesSplitter.getSplitBuffers()[0].value, 0, bytesSplitter.getSplitBuffers()[0].length));
+        assertEquals(longValue, new String(bytesSplitter.getSplitBuffers()[1].value, 0, bytesSplitter.getSplitBuffers()[1].length));
+        assertEquals(longValue + longValue, new String(bytesSplitter.getSplitBuffers()[2].value, 0, bytesSplitter.getSplitBuffers()[2].length));
+    }
 }
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.cube.invertedindex;
+
+import static org.junit.Assert.*;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.kylinolap.dict.Dictionary;
+
+/**
+ * Compares slice decode time of BitMapContainer, probing every bitmap per row
+ * versus the row-to-value index, against the column cardinality.
+ */
+public class BitMapContainerPerformanceTest {
+
+    static final int VALUE_LEN = 2;
+
+    @Test
+    public void testDecodeSlice() {
+        int rows = 51200; // a default slice of 2-byte value IDs
+        int rounds = 3; // use 100 for real perf test
+        int[] cardinalities = new int[] { 2, 10, 100, 1000 };
+
+        for (int cardinality : cardinalities) {
+            int[] values = newValues(rows, cardinality);
+
+            long start = System.currentTimeMillis();
+            long sum1 = 0;
+            for (int r = 0; r < rounds; r++) {
+                BitMapContainer container = newContainer(values, cardinality);
+                for (int i = 0; i < rows; i++) {
+                    sum1 += probeValueAt(container, i);
+                }
+            }
+            long probeTime = Math.max(1, System.currentTimeMillis() - start);
+
+            start = System.currentTimeMillis();
+            long sum2 = 0;
+            for (int r = 0; r < rounds; r++) {
+                BitMapContainer container = newContainer(values, cardinality);
+                for (int i = 0; i < rows; i++) {
+                    sum2 += container.getValueAt(i);
+                }
+            }
+            long indexTime = Math.max(1, System.currentTimeMillis() - start);
+
+            assertEquals(sum1, sum2);
+            System.out.println("Decode " + rounds + " x " + rows + " rows of cardinality " + cardinality);
+            System.out.println("  Probe bitmaps: " + probeTime + " ms");
+            System.out.println("  Value index:   " + indexTime + " ms");
+        }
+    }
+
+    @Test
+    public void testRandomAccess() {
+        int rows = 10000;
+        int cardinality = 100;
+        int[] values = newValues(rows, cardinality);
+        BitMapContainer container = newContainer(values, cardinality);
+
+        Random rand = new Random(2);
+        for (int k = 0; k < rows; k++) {
+            int i = rand.nextInt(rows);
+            assertEquals(values[i], container.getValueAt(i));
+        }
+    }
+
+    // the old way of getValueAt()
+    private int probeValueAt(BitMapContainer container, int i) {
+        for (int v = 0; v < container.nValues; v++) {
+            if (container.sets[v].contains(i))
+                return v;
+        }
+        return Dictionary.NULL_ID[VALUE_LEN];
+    }
+
+    private BitMapContainer newContainer(int[] values, int cardinality) {
+        BitMapContainer container = new BitMapContainer(VALUE_LEN, cardinality);
+        for (int v : values) {
+            container.append(v);
+        }
+        container.closeForChange();
+        return container;
+    }
+
+    private int[] newValues(int rows, int cardinality) {
+        Random rand = new Random(1);
+        int[] values = new int[rows];
+        for (int i = 0; i < rows; i++) {
+            // some NULLs
+            values[i] = rand.nextInt(20) == 0 ? Dictionary.NULL_ID[VALUE_LEN] : rand.nextInt(cardinality);
+        }
+        return values;
+    }
+}
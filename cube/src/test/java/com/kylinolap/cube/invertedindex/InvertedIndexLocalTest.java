@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
@@ -111,6 +112,34 @@ public class InvertedIndexLocalTest extends LocalFileMetadataTestCase {
         dump(recordsCopy);
     }
 
+    @Test
+    public void testProjectedDecode() throws IOException {
+        List<TableRecord> records = loadRecordsSorted();
+        List<TimeSlice> slices = buildTimeSlices(records);
+        IIKeyValueCodec codec = new IIKeyValueCodec(info);
+        List<Pair<ImmutableBytesWritable, ImmutableBytesWritable>> kvs = encodeKVs(codec, slices);
+
+        // decode only CAL_DT and LSTG_FORMAT_NAME
+        BitSet columns = new BitSet();
+        columns.set(1);
+        columns.set(2);
+        List<TimeSlice> slicesCopy = Lists.newArrayList(codec.decodeKeyValue(kvs, columns));
+        assertEquals(slices.size(), slicesCopy.size());
+
+        List<TableRecord> recordsCopy = iterateRecords(slicesCopy);
+        assertEquals(records.size(), recordsCopy.size());
+        for (int i = 0; i < records.size(); i++) {
+            TableRecord expected = records.get(i);
+            TableRecord actual = recordsCopy.get(i);
+            for (int col = 0; col < info.getColumnCount(); col++) {
+                if (columns.get(col))
+                    assertEquals(expected.getValueID(col), actual.getValueID(col));
+                else
+                    assertNull(actual.getValueString(col));
+            }
+        }
+    }
+
     private List<TableRecord> loadRecordsSorted() throws IOException {
         File file = new File(this.testDataFolder, "data/TEST_KYLIN_FACT.csv");
         FileInputStream in = new FileInputStream(file);
@@ -85,4 +85,27 @@ public class RowValueDecoderTest extends LocalFileMetadataTestCase {
         assertEquals("[333.1234567, 333.1111111, 333.1999999, 2]", Arrays.toString(measureValues));
     }
 
+    @Test
+    public void testDecodeProjected() throws Exception {
+        CubeDesc cubeDesc = CubeManager.getInstance(this.getTestConfig()).getCube("test_kylin_cube_with_slr_ready").getDescriptor();
+        HBaseColumnDesc hbaseCol = cubeDesc.getHBaseMapping().getColumnFamily()[0].getColumns()[0];
+
+        MeasureCodec codec = new MeasureCodec(hbaseCol.getMeasures());
+        LongWritable count = new LongWritable(2);
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        codec.encode(new Object[] { new BigDecimal("333.1234567"), new BigDecimal("333.1111111"), new BigDecimal("333.1999999"), count }, buf);
+
+        buf.flip();
+        byte[] valueBytes = new byte[buf.limit()];
+        System.arraycopy(buf.array(), 0, valueBytes, 0, buf.limit());
+
+        // only MAX and COUNT in query, the others are skipped by length
+        RowValueDecoder rowValueDecoder = new RowValueDecoder(hbaseCol);
+        rowValueDecoder.setIndex(2);
+        rowValueDecoder.setIndex(3);
+
+        rowValueDecoder.decode(valueBytes);
+        assertEquals("[null, null, 333.1999999, 2]", Arrays.toString(rowValueDecoder.getValues()));
+    }
+
 }
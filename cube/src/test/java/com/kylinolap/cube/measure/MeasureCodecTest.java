@@ -17,16 +17,21 @@
 package com.kylinolap.cube.measure;
 
 import static org.junit.Assert.*;
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
 
 import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
 
+import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.junit.Test;
 
 import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.common.topn.TopNCounter;
 import com.kylinolap.cube.kv.RowConstants;
 import com.kylinolap.metadata.model.cube.FunctionDesc;
 import com.kylinolap.metadata.model.cube.MeasureDesc;
@@ -65,6 +70,134 @@ public class MeasureCodecTest {
         assertTrue(Arrays.equals(values, copy));
     }
 
+    @Test
+    public void projectionTest() {
+        MeasureDesc descs[] = new MeasureDesc[] { measure("decimal"), measure("HLLC16"), measure("double"), measure("bitmap"), measure("topn(10)"), measure("long") };
+        MeasureCodec codec = new MeasureCodec(descs);
+
+        HyperLogLogPlusCounter hllc = new HyperLogLogPlusCounter(16);
+        hllc.add("abcdefg");
+        ConciseSet set = new ConciseSet();
+        set.add(7);
+        TopNCounter topN = new TopNCounter(10);
+        topN.offer(300, 1.5);
+        Object values[] = new Object[] { new BigDecimal("333.1234567"), hllc, new DoubleWritable(1.0), set, topN, new LongWritable(-20000) };
+
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        codec.encode(values, buf);
+        buf.flip();
+
+        // each is skipped by length exactly, or the following would be wrong
+        for (int i = 0; i < values.length; i++) {
+            BitSet projection = new BitSet();
+            projection.set(i);
+            Object copy[] = new Object[values.length];
+            codec.decode(buf.duplicate(), copy, projection);
+            for (int j = 0; j < values.length; j++) {
+                if (j != i)
+                    assertNull(copy[j]);
+            }
+        }
+        BitSet last = new BitSet();
+        last.set(values.length - 1);
+        Object copy[] = new Object[values.length];
+        ByteBuffer dup = buf.duplicate();
+        codec.decode(dup, copy, last);
+        assertEquals(new LongWritable(-20000), copy[values.length - 1]);
+        assertEquals(buf.limit(), dup.position());
+    }
+
+    @Test
+    public void bigBitmapTest() {
+        MeasureDesc descs[] = new MeasureDesc[] { measure("long"), measure("bitmap") };
+        MeasureCodec codec = new MeasureCodec(descs);
+
+        // scattered IDs take a word each, far beyond the row value buffer
+        ConciseSet set = new ConciseSet();
+        for (int i = 0; i < 1000000; i++)
+            set.add(i * 97);
+        Object values[] = new Object[] { new LongWritable(2), set };
+
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        buf.put((byte) 9);
+        ByteBuffer out = codec.encode(values, buf);
+        assertTrue(out.capacity() > RowConstants.ROWVALUE_BUFFER_SIZE);
+        out.flip();
+
+        // bytes before the position are kept
+        assertEquals(9, out.get());
+        Object copy[] = new Object[values.length];
+        codec.decode(out, copy);
+        assertTrue(Arrays.equals(values, copy));
+        assertEquals(out.limit(), out.position());
+    }
+
+    @Test
+    public void bitmapTest() {
+        MeasureDesc descs[] = new MeasureDesc[] { measure("bitmap"), measure("long"), measure("bitmap") };
+        MeasureCodec codec = new MeasureCodec(descs);
+
+        ConciseSet set = new ConciseSet();
+        for (int i = 0; i < 1000; i += 3)
+            set.add(i);
+        Object values[] = new Object[] { set, new LongWritable(2), new ConciseSet() };
+
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        codec.encode(values, buf);
+        buf.flip();
+
+        Object copy[] = new Object[values.length];
+        codec.decode(buf, copy);
+        assertTrue(Arrays.equals(values, copy));
+        assertEquals(buf.limit(), buf.position());
+
+        // union of the dictionary IDs from rows, as in cubing
+        MeasureSerializer<?> serializer = codec.getSerializer(0);
+        @SuppressWarnings("unchecked")
+        MeasureAggregator<ConciseSet> aggr = (MeasureAggregator<ConciseSet>) MeasureAggregator.create(FunctionDesc.FUNC_COUNT_DISTINCT, "bitmap");
+        for (int i = 0; i < 100; i++) {
+            aggr.aggregate((ConciseSet) serializer.valueOf(Bytes.toBytes(i % 10)));
+        }
+        aggr.aggregate((ConciseSet) serializer.valueOf(null));
+        aggr.aggregate((ConciseSet) copy[0]);
+        // 334 multiples of 3, plus 1, 2, 4, 5, 7, 8
+        assertEquals(334 + 6, aggr.getState().size());
+    }
+
+    @Test
+    public void topNTest() {
+        MeasureDesc descs[] = new MeasureDesc[] { measure("topn(10)"), measure("long") };
+        MeasureCodec codec = new MeasureCodec(descs);
+
+        // sellers 0..99, the seller i sells i times at price i
+        MeasureSerializer<?> serializer = codec.getSerializer(0);
+        @SuppressWarnings("unchecked")
+        MeasureAggregator<TopNCounter> aggr = (MeasureAggregator<TopNCounter>) MeasureAggregator.create(FunctionDesc.FUNC_TOP_N, "topn(10)");
+        for (int i = 0; i < 100; i++) {
+            for (int j = 0; j < i; j++)
+                aggr.aggregate((TopNCounter) serializer.valueOf(Bytes.add(Bytes.toBytes(i), Bytes.toBytes(String.valueOf(i)))));
+        }
+        aggr.aggregate((TopNCounter) serializer.valueOf(null));
+
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        codec.encode(new Object[] { aggr.getState(), new LongWritable(2) }, buf);
+        buf.flip();
+
+        Object copy[] = new Object[2];
+        codec.decode(buf, copy);
+        assertEquals(buf.limit(), buf.position());
+
+        TopNCounter counter = (TopNCounter) copy[0];
+        assertEquals(10, counter.size());
+        List<TopNCounter.Entry> top = counter.getTopN(3);
+        assertEquals(99, top.get(0).getKey());
+        // over-estimated, as the key came after many others were dropped
+        assertTrue(top.get(0).getCount() >= 99 * 99);
+        assertTrue(top.get(0).getCount() - top.get(0).getError() <= 99 * 99);
+        assertEquals(98, top.get(1).getKey());
+        assertEquals(97, top.get(2).getKey());
+    }
+
     private MeasureDesc measure(String returnType) {
         MeasureDesc desc = new MeasureDesc();
         FunctionDesc func = new FunctionDesc();
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kylinolap.dict;
+
+/**
+ * A size bounded cache from dictionary sequence number (ID - baseId) to decoded
+ * value.
+ *
+ * If the capacity covers all values of the dictionary, values are kept in a
+ * plain array indexed by sequence number. Otherwise the cache is direct mapped,
+ * i.e. a value can only sit in slot (seq % capacity) and evicts whatever was
+ * there. Either way the memory is bounded by the capacity and a lookup costs an
+ * array access, regardless of GC timing.
+ *
+ * The implementation is thread-safe. Slots are written with immutable entries,
+ * a racing reader sees either the old or the new entry. The hit/miss counters
+ * are not synchronized to keep the hot path free of contention, thus are
+ * approximate under concurrency.
+ */
+@SuppressWarnings("unchecked")
+public class DecodeCache<T> {
+
+    private static final class Entry {
+        final int seq;
+        final Object value;
+
+        Entry(int seq, Object value) {
+            this.seq = seq;
+            this.value = value;
+        }
+    }
+
+    private final int nValues;
+    private final int capacity;
+    private final boolean full; // capacity covers all values
+    private final Object[] slots; // values if full, otherwise Entry
+
+    private long hitCount;
+    private long missCount;
+
+    public DecodeCache(int nValues, int maxCapacity) {
+        this.nValues = nValues;
+        this.capacity = Math.max(0, Math.min(nValues, maxCapacity));
+        this.full = capacity == nValues;
+        this.slots = new Object[capacity];
+    }
+
+    /**
+     * @return the cached value, or null if not in cache
+     */
+    public T get(int seq) {
+        if (capacity == 0)
+            return null;
+
+        Object result;
+        if (full) {
+            result = slots[seq];
+        } else {
+            Entry e = (Entry) slots[seq % capacity];
+            result = (e != null && e.seq == seq) ? e.value : null;
+        }
+
+        if (result == null)
+            missCount++;
+        else
+            hitCount++;
+        return (T) result;
+    }
+
+    public void put(int seq, T value) {
+        if (capacity == 0 || value == null)
+            return;
+
+        if (full)
+            slots[seq] = value;
+        else
+            slots[seq % capacity] = new Entry(seq, value);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public int getNumberOfValues() {
+        return nValues;
+    }
+
+    public boolean isFull() {
+        return full;
+    }
+
+    public long getHitCount() {
+        return hitCount;
+    }
+
+    public long getMissCount() {
+        return missCount;
+    }
+
+    public double getHitRatio() {
+        long total = hitCount + missCount;
+        return total == 0 ? 0 : (double) hitCount / total;
+    }
+
+    public void resetStats() {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    @Override
+    public String toString() {
+        return "DecodeCache [capacity=" + capacity + "/" + nValues + ", hit=" + hitCount + ", miss=" + missCount + "]";
+    }
+}
@@ -16,11 +16,14 @@
 
 package com.kylinolap.dict;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.kylinolap.common.persistence.Serializer;
+import com.kylinolap.common.util.ByteBufferBackedInputStream;
 import com.kylinolap.common.util.JsonUtil;
 
 /**
@@ -57,20 +60,48 @@ public class DictionaryInfoSerializer implements Serializer<DictionaryInfo> {
         DictionaryInfo obj = JsonUtil.readValue(json, DictionaryInfo.class);
 
         if (infoOnly == false) {
-            Dictionary<?> dict;
-            try {
-                dict = (Dictionary<?>) Class.forName(obj.getDictionaryClass()).newInstance();
-            } catch (InstantiationException e) {
-                throw new RuntimeException(e);
-            } catch (IllegalAccessException e) {
-                throw new RuntimeException(e);
-            } catch (ClassNotFoundException e) {
-                throw new RuntimeException(e);
-            }
+            Dictionary<?> dict = newDictionary(obj);
             dict.readFields(in);
             obj.setDictionaryObject(dict);
         }
         return obj;
     }
 
+    /**
+     * Deserializes from a buffer, typically a memory mapped dictionary file. A
+     * TrieDictionary is not copied and remains backed by the buffer, other
+     * dictionaries are read onto heap as usual.
+     */
+    public DictionaryInfo deserialize(ByteBuffer buf) throws IOException {
+        int jsonLen = buf.getShort() & 0xffff;
+        byte[] jsonBytes = new byte[jsonLen + 2];
+        jsonBytes[0] = (byte) (jsonLen >>> 8);
+        jsonBytes[1] = (byte) jsonLen;
+        buf.get(jsonBytes, 2, jsonLen);
+        String json = new DataInputStream(new ByteArrayInputStream(jsonBytes)).readUTF();
+        DictionaryInfo obj = JsonUtil.readValue(json, DictionaryInfo.class);
+
+        if (infoOnly == false) {
+            Dictionary<?> dict = newDictionary(obj);
+            if (dict instanceof TrieDictionary)
+                ((TrieDictionary<?>) dict).readData(buf);
+            else
+                dict.readFields(new DataInputStream(new ByteBufferBackedInputStream(buf)));
+            obj.setDictionaryObject(dict);
+        }
+        return obj;
+    }
+
+    private Dictionary<?> newDictionary(DictionaryInfo info) {
+        try {
+            return (Dictionary<?>) Class.forName(info.getDictionaryClass()).newInstance();
+        } catch (InstantiationException e) {
+            throw new RuntimeException(e);
+        } catch (IllegalAccessException e) {
+            throw new RuntimeException(e);
+        } catch (ClassNotFoundException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
 }
@@ -17,10 +17,17 @@ package com.kylinolap.dict;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.commons.compress.utils.IOUtils;
@@ -31,6 +38,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kylinolap.common.KylinConfig;
+import com.kylinolap.common.persistence.FileResourceStore;
 import com.kylinolap.common.persistence.ResourceStore;
 import com.kylinolap.common.util.HadoopUtil;
 import com.kylinolap.dict.lookup.FileTable;
@@ -89,11 +97,44 @@ public class DictionaryManager {
             dictInfo = load(resourcePath, true);
             if (dictInfo == null)
                 dictInfo = NONE_INDICATOR;
+            else
+                initDecodeCache(resourcePath, dictInfo.getDictionaryObject());
             dictCache.put(resourcePath, dictInfo);
         }
         return dictInfo == NONE_INDICATOR ? null : dictInfo;
     }
 
+    /**
+     * Dictionaries are cached by resource path, thus the decode cache of a
+     * dictionary is shared by all cube segments referring to the same path.
+     */
+    private void initDecodeCache(String resourcePath, Dictionary<?> dict) {
+        if ((dict instanceof TrieDictionary) == false)
+            return;
+
+        TrieDictionary<?> trieDict = (TrieDictionary<?>) dict;
+        trieDict.setDecodeCacheCapacity(config.getDictionaryDecodeCacheCapacity());
+        if (config.isDictionaryDecodeCachePrewarmEnabled()) {
+            long start = System.currentTimeMillis();
+            trieDict.prewarmDecodeCache();
+            logger.debug("Prewarmed " + trieDict.getDecodeCache() + " for " + resourcePath + " in " + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    /**
+     * @return resource path ==> decode cache, for the loaded dictionaries that
+     *         has one
+     */
+    public Map<String, DecodeCache<?>> getDecodeCaches() {
+        Map<String, DecodeCache<?>> result = new TreeMap<String, DecodeCache<?>>();
+        for (Map.Entry<String, DictionaryInfo> entry : dictCache.entrySet()) {
+            Dictionary<?> dict = entry.getValue().getDictionaryObject();
+            if (dict instanceof TrieDictionary && ((TrieDictionary<?>) dict).getDecodeCache() != null)
+                result.put(entry.getKey(), ((TrieDictionary<?>) dict).getDecodeCache());
+        }
+        return result;
+    }
+
     public DictionaryInfo trySaveNewDict(Dictionary<?> newDict, DictionaryInfo newDictInfo) throws IOException {
 
         String dupDict = checkDupByContent(newDictInfo, newDict);
@@ -106,6 +147,7 @@ public class DictionaryManager {
         newDictInfo.setDictionaryClass(newDict.getClass().getName());
 
         save(newDictInfo);
+        initDecodeCache(newDictInfo.getResourcePath(), newDict);
         dictCache.put(newDictInfo.getResourcePath(), newDictInfo);
 
         return newDictInfo;
@@ -168,6 +210,80 @@ public class DictionaryManager {
         return trySaveNewDict(dict, dictInfo);
     }
 
+    /**
+     * @return resource path of the global dictionary of a column, a folder of
+     *         its slices, which is shared by all segments of a cube
+     */
+    public static String getGlobalDictResPath(String cubeName, TblColRef col) {
+        return ResourceStore.DICT_RESOURCE_ROOT + "/_global/" + cubeName + "/" + col.getTable() + "." + col.getName();
+    }
+
+    // named by the first ID, such that the name order is the ID order
+    private static String getGlobalDictSlicePath(String globalDictResPath, int baseId) {
+        return globalDictResPath + "/" + String.format("%010d", baseId) + ".dict";
+    }
+
+    /**
+     * @return the global dictionary of a column, being empty if nothing is
+     *         appended yet. The slices are cached, the dictionary is not, so
+     *         a new slice shows on next call.
+     */
+    @SuppressWarnings("unchecked")
+    public GlobalDictionary getGlobalDictionary(String cubeName, TblColRef col) throws IOException {
+        String resPath = getGlobalDictResPath(cubeName, col);
+        ResourceStore store = MetadataManager.getInstance(config).getStore();
+
+        GlobalDictionary dict = new GlobalDictionary();
+        ArrayList<String> slicePaths = store.listResources(resPath);
+        if (slicePaths == null)
+            return dict;
+
+        Collections.sort(slicePaths);
+        for (String slicePath : slicePaths) {
+            if (slicePath.equals(getGlobalDictSlicePath(resPath, dict.size())) == false)
+                throw new IllegalStateException("Expect slice from ID " + dict.size() + " of global dictionary " + resPath + ", but found " + slicePath);
+            dict.addSlice((TrieDictionary<String>) getDictionary(slicePath));
+        }
+        return dict;
+    }
+
+    /**
+     * Appends the distinct values of a fact table column, as collected under
+     * factColumnsPath, to the global dictionary of the column. The values not
+     * in the dictionary yet are stored as a new slice, the existing slices and
+     * so the IDs of built segments remain as is.
+     * 
+     * Two builds appending at the same time conflict on creating the same
+     * slice, failing the later one.
+     * 
+     * @return the new slice, or null if there is no new value
+     */
+    public DictionaryInfo appendGlobalDictionary(String cubeName, TblColRef col, String factColumnsPath) throws IOException {
+        String resPath = getGlobalDictResPath(cubeName, col);
+        FileTable table = new FileTable(factColumnsPath + "/" + col.getName(), -1);
+
+        GlobalDictionary dict = getGlobalDictionary(cubeName, col);
+        TrieDictionary<String> slice = dict.buildSlice(DictionaryGenerator.loadColumnValues(table, 0));
+        if (slice == null) {
+            logger.info("No new value to " + dict + " at " + resPath);
+            return null;
+        }
+
+        DictionaryInfo sliceInfo = new DictionaryInfo(col.getTable(), col.getName(), col.getColumn().getZeroBasedIndex(), col.getDatatype(), table.getSignature(), table.getColumnDelimeter());
+        sliceInfo.setDictionaryObject(slice);
+        sliceInfo.setDictionaryClass(TrieDictionary.class.getName());
+        sliceInfo.setCardinality(slice.getMaxId() + 1);
+
+        String slicePath = getGlobalDictSlicePath(resPath, dict.size());
+        ResourceStore store = MetadataManager.getInstance(config).getStore();
+        logger.info("Appending " + sliceInfo.getCardinality() + " new values to " + dict + " at " + slicePath);
+        store.putResource(slicePath, sliceInfo, DictionaryInfoSerializer.FULL_SERIALIZER);
+        initDecodeCache(slicePath, slice);
+        dictCache.put(slicePath, sliceInfo);
+
+        return sliceInfo;
+    }
+
     /**
      * Get column origin
      *
@@ -334,6 +450,15 @@ public class DictionaryManager {
     DictionaryInfo load(String resourcePath, boolean loadDictObj) throws IOException {
         ResourceStore store = MetadataManager.getInstance(config).getStore();
 
+        if (loadDictObj && store instanceof FileResourceStore && config.isDictionaryMemoryMapEnabled()) {
+            File file = new File(store.getReadableResourcePath(resourcePath));
+            if (file.isFile()) {
+                DictionaryInfo info = loadByMemoryMap(file);
+                logger.debug("Memory mapped dictionary at " + resourcePath);
+                return info;
+            }
+        }
+
         DictionaryInfo info = store.getResource(resourcePath, DictionaryInfo.class, loadDictObj ? DictionaryInfoSerializer.FULL_SERIALIZER : DictionaryInfoSerializer.INFO_SERIALIZER);
 
         if (loadDictObj)
@@ -342,4 +467,17 @@ public class DictionaryManager {
         return info;
     }
 
+    static DictionaryInfo loadByMemoryMap(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            DictionaryInfo info = DictionaryInfoSerializer.FULL_SERIALIZER.deserialize(buf);
+            info.setLastModified(file.lastModified());
+            return info;
+        } finally {
+            raf.close();
+        }
+    }
+
 }
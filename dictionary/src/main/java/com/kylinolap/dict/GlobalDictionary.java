@@ -0,0 +1,211 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kylinolap.dict;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+
+import org.apache.hadoop.hbase.util.Bytes;
+
+/**
+ * An append-only dictionary shared by all segments of a cube. An ID never
+ * changes once assigned, thus ID sets built in different segments, e.g. the
+ * bitmaps of exact count distinct, can be unioned without translation.
+ *
+ * The dictionary is a list of slices, each a TrieDictionary of the values
+ * new to one append, whose IDs follow the IDs of the slices before. A slice is
+ * immutable once built, so an append stores one more slice and never rewrites
+ * the existing ones. See DictionaryManager.appendGlobalDictionary().
+ *
+ * Unlike TrieDictionary, IDs do not preserve the value order across slices
+ * and the dictionary is not for row keys.
+ */
+public class GlobalDictionary extends Dictionary<String> {
+
+    private ArrayList<TrieDictionary<String>> slices = new ArrayList<TrieDictionary<String>>();
+    private int[] baseIds = new int[8]; // first ID of each slice
+    private int size = 0;
+    private int maxValueLength = 0;
+
+    public GlobalDictionary() {
+    }
+
+    /**
+     * @return a slice of the values not in the dictionary yet, to be added by
+     *         addSlice(), or null if all values are in already
+     */
+    public TrieDictionary<String> buildSlice(Collection<byte[]> values) {
+        TrieDictionaryBuilder<String> builder = new TrieDictionaryBuilder<String>(new StringBytesConverter());
+        boolean hasNew = false;
+        for (byte[] value : values) {
+            if (lookupId(value, 0, value.length) < 0) {
+                builder.addValue(value);
+                hasNew = true;
+            }
+        }
+        return hasNew ? builder.build(0) : null;
+    }
+
+    /**
+     * Appends a slice, whose values are numbered from size() on.
+     */
+    public void addSlice(TrieDictionary<String> slice) {
+        if (slice.getMinId() != 0)
+            throw new IllegalArgumentException("Slice must start from ID 0, but " + slice.getMinId());
+
+        if (slices.size() == baseIds.length)
+            baseIds = Arrays.copyOf(baseIds, baseIds.length * 2);
+        baseIds[slices.size()] = size;
+        slices.add(slice);
+        size += slice.getMaxId() + 1;
+        maxValueLength = Math.max(maxValueLength, slice.getSizeOfValue());
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getSliceCount() {
+        return slices.size();
+    }
+
+    @Override
+    public int getMinId() {
+        return 0;
+    }
+
+    @Override
+    public int getMaxId() {
+        return size - 1;
+    }
+
+    @Override
+    public int getSizeOfId() {
+        return 4;
+    }
+
+    @Override
+    public int getSizeOfValue() {
+        return maxValueLength;
+    }
+
+    // IDs use all 4 bytes, keep -1 only for NULL
+    @Override
+    public int nullId() {
+        return -1;
+    }
+
+    @Override
+    public boolean isNullId(int id) {
+        return id == -1;
+    }
+
+    @Override
+    final protected int getIdFromValueImpl(String value, int roundingFlag) {
+        byte[] bytes = Bytes.toBytes(value);
+        return getIdFromValueBytesImpl(bytes, 0, bytes.length, roundingFlag);
+    }
+
+    @Override
+    final protected String getValueFromIdImpl(int id) {
+        int i = findSlice(id);
+        return slices.get(i).getValueFromId(id - baseIds[i]);
+    }
+
+    @Override
+    final protected int getIdFromValueBytesImpl(byte[] value, int offset, int len, int roundingFlag) {
+        int id = lookupId(value, offset, len);
+        if (id < 0)
+            throw new IllegalArgumentException("Not a valid value: " + Bytes.toString(value, offset, len));
+        return id;
+    }
+
+    @Override
+    final protected int getValueBytesFromIdImpl(int id, byte[] returnValue, int offset) {
+        int i = findSlice(id);
+        return slices.get(i).getValueBytesFromId(id - baseIds[i], returnValue, offset);
+    }
+
+    private int lookupId(byte[] value, int offset, int len) {
+        for (int i = 0, n = slices.size(); i < n; i++) {
+            int id = slices.get(i).lookupIdFromValueBytes(value, offset, len);
+            if (id >= 0)
+                return baseIds[i] + id;
+        }
+        return -1;
+    }
+
+    private int findSlice(int id) {
+        if (id < 0 || id >= size)
+            throw new IllegalArgumentException("Not a valid ID: " + id);
+        int i = Arrays.binarySearch(baseIds, 0, slices.size(), id);
+        return i >= 0 ? i : -i - 2;
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(slices.size());
+        for (TrieDictionary<String> slice : slices) {
+            slice.write(out);
+        }
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        int n = in.readInt();
+        slices = new ArrayList<TrieDictionary<String>>(n);
+        baseIds = new int[Math.max(n, 8)];
+        size = 0;
+        maxValueLength = 0;
+        for (int i = 0; i < n; i++) {
+            TrieDictionary<String> slice = new TrieDictionary<String>();
+            slice.readFields(in);
+            addSlice(slice);
+        }
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * size + slices.size();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if ((o instanceof GlobalDictionary) == false)
+            return false;
+        GlobalDictionary that = (GlobalDictionary) o;
+        return this.size == that.size && this.slices.equals(that.slices);
+    }
+
+    @Override
+    public void dump(PrintStream out) {
+        out.println(this.toString());
+        for (int i = 0; i < size; i++) {
+            out.println(i + ": " + getValueFromId(i));
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "GlobalDictionary [size=" + size + ", slices=" + slices.size() + "]";
+    }
+
+}
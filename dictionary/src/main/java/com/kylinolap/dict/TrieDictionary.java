@@ -22,7 +22,7 @@ import java.io.DataOutput;
 import java.io.IOException;
 import java.io.PrintStream;
 import java.lang.ref.SoftReference;
-import java.util.Arrays;
+import java.nio.ByteBuffer;
 import java.util.HashMap;
 
 import com.kylinolap.common.util.BytesUtil;
@@ -35,8 +35,14 @@ import org.slf4j.LoggerFactory;
  * 
  * With Trie the memory footprint of the mapping is kinda minimized at the cost
  * CPU, if compared to HashMap of ID Arrays. Performance test shows Trie is
- * roughly 10 times slower, so there's a cache layer overlays on top of Trie and
- * gracefully fall back to Trie using a weak reference.
+ * roughly 10 times slower, so there's a cache layer overlays on top of Trie.
+ * The value to ID cache gracefully falls back to Trie using a weak reference;
+ * the ID to value cache is a size bounded DecodeCache, such that decoding cost
+ * is predictable and not tied to GC timing.
+ * 
+ * The trie is read in place from a ByteBuffer, which can be memory mapped from
+ * the dictionary file, so JVMs on the same host share the OS page cache rather
+ * than each holding a heap copy.
  * 
  * The implementation is thread-safe.
  * 
@@ -51,9 +57,11 @@ public class TrieDictionary<T> extends Dictionary<T> {
     public static final int BIT_IS_LAST_CHILD = 0x80;
     public static final int BIT_IS_END_OF_VALUE = 0x40;
 
+    public static final int DEFAULT_DECODE_CACHE_CAPACITY = 1000000;
+
     private static final Logger logger = LoggerFactory.getLogger(TrieDictionary.class);
 
-    private byte[] trieBytes;
+    private ByteBuffer trie; // absolute reads only, position is always 0
 
     // non-persistent part
     transient private int headSize;
@@ -72,23 +80,30 @@ public class TrieDictionary<T> extends Dictionary<T> {
 
     transient private boolean enableCache = true;
     transient private SoftReference<HashMap> valueToIdCache;
-    transient private SoftReference<Object[]> idToValueCache;
+    transient private DecodeCache<T> idToValueCache;
 
     public TrieDictionary() { // default constructor for Writable interface
     }
 
     public TrieDictionary(byte[] trieBytes) {
-        init(trieBytes);
+        init(ByteBuffer.wrap(trieBytes));
     }
 
-    private void init(byte[] trieBytes) {
-        this.trieBytes = trieBytes;
-        if (BytesUtil.compareBytes(HEAD_MAGIC, 0, trieBytes, 0, HEAD_MAGIC.length) != 0)
-            throw new IllegalArgumentException("Wrong file type (magic does not match)");
+    private void init(ByteBuffer trie) {
+        this.trie = trie;
+        for (int i = 0; i < HEAD_MAGIC.length; i++) {
+            if (trie.get(i) != HEAD_MAGIC[i])
+                throw new IllegalArgumentException("Wrong file type (magic does not match)");
+        }
 
         try {
+            // copy the head only, the body stays in the buffer
+            byte[] head = new byte[trie.getShort(HEAD_SIZE_I)];
+            for (int i = 0; i < head.length; i++) {
+                head[i] = trie.get(i);
+            }
             DataInputStream headIn = new DataInputStream( //
-                    new ByteArrayInputStream(trieBytes, HEAD_SIZE_I, trieBytes.length - HEAD_SIZE_I));
+                    new ByteArrayInputStream(head, HEAD_SIZE_I, head.length - HEAD_SIZE_I));
             this.headSize = headIn.readShort();
             this.bodyLen = headIn.readInt();
             this.sizeChildOffset = headIn.read();
@@ -100,7 +115,7 @@ public class TrieDictionary<T> extends Dictionary<T> {
             if (converterName.isEmpty() == false)
                 this.bytesConvert = (BytesConverter<T>) Class.forName(converterName).newInstance();
 
-            this.nValues = BytesUtil.readUnsigned(trieBytes, headSize + sizeChildOffset, sizeNoValuesBeneath);
+            this.nValues = readUnsigned(headSize + sizeChildOffset, sizeNoValuesBeneath);
             this.sizeOfId = BytesUtil.sizeForValue(baseId + nValues + 1); // note
                                                                           // baseId
                                                                           // could
@@ -139,8 +154,40 @@ public class TrieDictionary<T> extends Dictionary<T> {
 
         if (enableCache) {
             valueToIdCache = new SoftReference<HashMap>(new HashMap());
-            idToValueCache = new SoftReference<Object[]>(new Object[nValues]);
+            idToValueCache = new DecodeCache<T>(nValues, DEFAULT_DECODE_CACHE_CAPACITY);
+        }
+    }
+
+    /**
+     * Resets the ID to value cache with a new capacity, 0 disables the cache.
+     */
+    public void setDecodeCacheCapacity(int capacity) {
+        if (enableCache == false)
+            return;
+        if (idToValueCache != null && idToValueCache.getCapacity() == Math.min(capacity, nValues))
+            return;
+        idToValueCache = new DecodeCache<T>(nValues, capacity);
+    }
+
+    public DecodeCache<T> getDecodeCache() {
+        return idToValueCache;
+    }
+
+    /**
+     * Decodes values into the ID to value cache ahead of queries, up to the
+     * cache capacity. When not all values fit, the smallest IDs are warmed.
+     */
+    public void prewarmDecodeCache() {
+        if (enableCache == false)
+            return;
+
+        DecodeCache<T> cache = idToValueCache;
+        byte[] buf = new byte[getSizeOfValue()];
+        for (int seq = 0, n = cache.getCapacity(); seq < n; seq++) {
+            int length = lookupValueFromSeqNo(headSize, seq, buf, 0);
+            cache.put(seq, bytesConvert.convertFromBytes(buf, 0, length));
         }
+        cache.resetStats();
     }
 
     @Override
@@ -195,6 +242,14 @@ public class TrieDictionary<T> extends Dictionary<T> {
         return id;
     }
 
+    /**
+     * @return ID of the value, or -1 if not found, for a caller probing many
+     *         dictionaries without the cost of exception
+     */
+    int lookupIdFromValueBytes(byte[] value, int offset, int len) {
+        return calcIdFromSeqNo(lookupSeqNoFromValue(headSize, value, offset, offset + len, 0));
+    }
+
     /**
      * returns a code point from [0, nValues), preserving order of value
      * 
@@ -221,15 +276,15 @@ public class TrieDictionary<T> extends Dictionary<T> {
             // match the current node, note [0] of node's value has been matched
             // when this node is selected by its parent
             int p = n + firstByteOffset; // start of node's value
-            int end = p + BytesUtil.readUnsigned(trieBytes, p - 1, 1); // end of
+            int end = p + readUnsigned(p - 1, 1); // end of
                                                                        // node's
                                                                        // value
             for (p++; p < end && o < inpEnd; p++, o++) { // note matching start
                                                          // from [1]
-                if (trieBytes[p] != inp[o]) {
-                    int comp = BytesUtil.compareByteUnsigned(trieBytes[p], inp[o]);
+                if (trie.get(p) != inp[o]) {
+                    int comp = BytesUtil.compareByteUnsigned(trie.get(p), inp[o]);
                     if (comp < 0) {
-                        seq += BytesUtil.readUnsigned(trieBytes, n + sizeChildOffset, sizeNoValuesBeneath);
+                        seq += readUnsigned(n + sizeChildOffset, sizeNoValuesBeneath);
                     }
                     return roundSeqNo(roundingFlag, seq - 1, -1, seq); // mismatch
                 }
@@ -246,7 +301,7 @@ public class TrieDictionary<T> extends Dictionary<T> {
                 seq++;
 
             // find a child to continue
-            int c = headSize + (BytesUtil.readUnsigned(trieBytes, n, sizeChildOffset) & childOffsetMask);
+            int c = headSize + (readUnsigned(n, sizeChildOffset) & childOffsetMask);
             if (c == headSize) // has no children
                 return roundSeqNo(roundingFlag, seq - 1, -1, seq); // input only
                                                                    // partially
@@ -255,14 +310,14 @@ public class TrieDictionary<T> extends Dictionary<T> {
             int comp;
             while (true) {
                 p = c + firstByteOffset;
-                comp = BytesUtil.compareByteUnsigned(trieBytes[p], inpByte);
+                comp = BytesUtil.compareByteUnsigned(trie.get(p), inpByte);
                 if (comp == 0) { // continue in the matching child, reset n and
                                  // loop again
                     n = c;
                     o++;
                     break;
                 } else if (comp < 0) { // try next child
-                    seq += BytesUtil.readUnsigned(trieBytes, c + sizeChildOffset, sizeNoValuesBeneath);
+                    seq += readUnsigned(c + sizeChildOffset, sizeNoValuesBeneath);
                     if (checkFlag(c, BIT_IS_LAST_CHILD))
                         return roundSeqNo(roundingFlag, seq - 1, -1, seq); // no
                                                                            // child
@@ -273,7 +328,7 @@ public class TrieDictionary<T> extends Dictionary<T> {
                                                                            // byte
                                                                            // of
                                                                            // input
-                    c = p + BytesUtil.readUnsigned(trieBytes, p - 1, 1);
+                    c = p + readUnsigned(p - 1, 1);
                 } else { // children are ordered by their first value byte
                     return roundSeqNo(roundingFlag, seq - 1, -1, seq); // no
                                                                        // child
@@ -301,23 +356,20 @@ public class TrieDictionary<T> extends Dictionary<T> {
     @Override
     final protected T getValueFromIdImpl(int id) {
         if (enableCache) {
-            Object[] cache = idToValueCache.get(); // SoftReference to skip
-                                                   // cache gracefully when
-                                                   // short of memory
-            if (cache != null) {
-                int seq = calcSeqNoFromId(id);
-                if (seq < 0 || seq >= nValues)
-                    throw new IllegalArgumentException("Not a valid ID: " + id);
-                if (cache[seq] != null)
-                    return (T) cache[seq];
+            DecodeCache<T> cache = idToValueCache;
+            int seq = calcSeqNoFromId(id);
+            if (seq < 0 || seq >= nValues)
+                throw new IllegalArgumentException("Not a valid ID: " + id);
+            T result = cache.get(seq);
+            if (result != null)
+                return result;
 
-                byte[] value = new byte[getSizeOfValue()];
-                int length = getValueBytesFromId(id, value, 0);
-                T result = bytesConvert.convertFromBytes(value, 0, length);
+            byte[] value = new byte[getSizeOfValue()];
+            int length = getValueBytesFromId(id, value, 0);
+            result = bytesConvert.convertFromBytes(value, 0, length);
 
-                cache[seq] = result;
-                return result;
-            }
+            cache.put(seq, result);
+            return result;
         }
         byte[] value = new byte[getSizeOfValue()];
         int length = getValueBytesFromId(id, value, 0);
@@ -352,9 +404,10 @@ public class TrieDictionary<T> extends Dictionary<T> {
         while (true) {
             // write current node value
             int p = n + firstByteOffset;
-            int len = BytesUtil.readUnsigned(trieBytes, p - 1, 1);
-            System.arraycopy(trieBytes, p, returnValue, o, len);
-            o += len;
+            int len = readUnsigned(p - 1, 1);
+            for (int i = 0; i < len; i++) {
+                returnValue[o++] = trie.get(p + i);
+            }
 
             // if the value is ended
             boolean isEndOfValue = checkFlag(n, BIT_IS_END_OF_VALUE);
@@ -365,12 +418,12 @@ public class TrieDictionary<T> extends Dictionary<T> {
             }
 
             // find a child to continue
-            int c = headSize + (BytesUtil.readUnsigned(trieBytes, n, sizeChildOffset) & childOffsetMask);
+            int c = headSize + (readUnsigned(n, sizeChildOffset) & childOffsetMask);
             if (c == headSize) // has no children
                 return -1; // no child? corrupted dictionary!
             int nValuesBeneath;
             while (true) {
-                nValuesBeneath = BytesUtil.readUnsigned(trieBytes, c + sizeChildOffset, sizeNoValuesBeneath);
+                nValuesBeneath = readUnsigned(c + sizeChildOffset, sizeNoValuesBeneath);
                 if (seq - nValuesBeneath < 0) { // value is under this child,
                                                 // reset n and loop again
                     n = c;
@@ -380,14 +433,23 @@ public class TrieDictionary<T> extends Dictionary<T> {
                     if (checkFlag(c, BIT_IS_LAST_CHILD))
                         return -1; // no more child? corrupted dictionary!
                     p = c + firstByteOffset;
-                    c = p + BytesUtil.readUnsigned(trieBytes, p - 1, 1);
+                    c = p + readUnsigned(p - 1, 1);
                 }
             }
         }
     }
 
+    private int readUnsigned(int offset, int size) {
+        int integer = 0;
+        for (int i = offset, end = offset + size; i < end; i++) {
+            integer <<= 8;
+            integer |= trie.get(i) & 0xff;
+        }
+        return integer;
+    }
+
     private boolean checkFlag(int offset, int bit) {
-        return (trieBytes[offset] & bit) > 0;
+        return (trie.get(offset) & bit) > 0;
     }
 
     private int calcIdFromSeqNo(int seq) {
@@ -403,7 +465,13 @@ public class TrieDictionary<T> extends Dictionary<T> {
 
     @Override
     public void write(DataOutput out) throws IOException {
-        out.write(trieBytes);
+        if (trie.hasArray()) {
+            out.write(trie.array(), trie.arrayOffset(), trie.limit());
+        } else {
+            byte[] bytes = new byte[trie.limit()];
+            trie.duplicate().get(bytes);
+            out.write(bytes);
+        }
     }
 
     @Override
@@ -424,7 +492,30 @@ public class TrieDictionary<T> extends Dictionary<T> {
         System.arraycopy(headPartial, 0, all, 0, headPartial.length);
         in.readFully(all, headPartial.length, all.length - headPartial.length);
 
-        init(all);
+        init(ByteBuffer.wrap(all));
+    }
+
+    /**
+     * Reads the trie in place from a buffer, typically a memory mapped
+     * dictionary file, without copying the body. The buffer is advanced to the
+     * end of the trie.
+     */
+    void readData(ByteBuffer buf) {
+        int start = buf.position();
+        int len = buf.getShort(start + HEAD_SIZE_I) + buf.getInt(start + HEAD_SIZE_I + 2);
+
+        ByteBuffer slice = buf.slice();
+        slice.limit(len);
+        buf.position(start + len);
+
+        init(slice);
+    }
+
+    /**
+     * @return true if the trie is off heap, e.g. memory mapped
+     */
+    public boolean isDirect() {
+        return trie.isDirect();
     }
 
     @Override
@@ -439,7 +530,7 @@ public class TrieDictionary<T> extends Dictionary<T> {
 
     @Override
     public int hashCode() {
-        return Arrays.hashCode(trieBytes);
+        return trie.hashCode();
     }
 
     @Override
@@ -449,7 +540,7 @@ public class TrieDictionary<T> extends Dictionary<T> {
             return false;
         }
         TrieDictionary that = (TrieDictionary) o;
-        return Arrays.equals(this.trieBytes, that.trieBytes);
+        return this.trie.equals(that.trie);
     }
 
     public static void main(String[] args) throws Exception {
@@ -58,6 +58,10 @@ public class FileTable implements ReadableTable {
     public TableSignature getSignature() throws IOException {
         FileSystem fs = HadoopUtil.getFileSystem(path);
         FileStatus status = fs.getFileStatus(new Path(path));
+        if (status.isDirectory()) {
+            long size = fs.getContentSummary(status.getPath()).getLength();
+            return new TableSignature(path, size, status.getModificationTime());
+        }
         return new TableSignature(path, status.getLen(), status.getModificationTime());
     }
 
@@ -21,10 +21,14 @@ import java.io.Closeable;
 import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 import org.apache.commons.lang.StringEscapeUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
@@ -40,7 +44,7 @@ import com.kylinolap.common.util.HadoopUtil;
 import com.kylinolap.common.util.StringSplitter;
 
 /**
- * Tables are typically CSV or SEQ file.
+ * Tables are typically CSV or SEQ file, or a directory of such files.
  * 
  * @author yangli9
  */
@@ -65,14 +69,22 @@ public class FileTableReader implements TableReader {
 
         FileSystem fs = HadoopUtil.getFileSystem(filePath);
 
+        if (fs.isDirectory(new Path(filePath))) {
+            this.reader = new DirRowReader(fs, filePath);
+        } else {
+            this.reader = openRowReader(fs, filePath);
+        }
+    }
+
+    private RowReader openRowReader(FileSystem fs, String path) throws IOException {
         try {
-            this.reader = new SeqRowReader(HadoopUtil.getDefaultConfiguration(), fs, filePath);
+            return new SeqRowReader(HadoopUtil.getDefaultConfiguration(), fs, path);
 
         } catch (IOException e) {
             if (isExceptionSayingNotSeqFile(e) == false)
                 throw e;
 
-            this.reader = new CsvRowReader(fs, filePath);
+            return new CsvRowReader(fs, path);
         }
     }
 
@@ -169,6 +181,60 @@ public class FileTableReader implements TableReader {
         String nextLine() throws IOException; // return null on EOF
     }
 
+    /**
+     * Reads the files of a directory one after another, e.g. the parts written
+     * by several reducers.
+     */
+    private class DirRowReader implements RowReader {
+        FileSystem fs;
+        List<String> files;
+        int fileIndex;
+        RowReader current;
+
+        DirRowReader(FileSystem fs, String dirPath) throws IOException {
+            this.fs = fs;
+            this.files = listDataFiles(fs, dirPath);
+        }
+
+        @Override
+        public String nextLine() throws IOException {
+            while (true) {
+                if (current == null) {
+                    if (fileIndex >= files.size())
+                        return null;
+                    current = openRowReader(fs, files.get(fileIndex++));
+                }
+                String line = current.nextLine();
+                if (line != null)
+                    return line;
+                current.close();
+                current = null;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (current != null)
+                current.close();
+        }
+    }
+
+    /**
+     * @return the files of a directory in name order, skipping hidden ones like
+     *         _SUCCESS
+     */
+    public static List<String> listDataFiles(FileSystem fs, String dirPath) throws IOException {
+        List<String> files = new ArrayList<String>();
+        for (FileStatus status : fs.listStatus(new Path(dirPath))) {
+            String name = status.getPath().getName();
+            if (status.isDirectory() || name.startsWith("_") || name.startsWith("."))
+                continue;
+            files.add(status.getPath().toString());
+        }
+        Collections.sort(files);
+        return files;
+    }
+
     private class SeqRowReader implements RowReader {
         Reader reader;
         Writable key;
@@ -21,6 +21,10 @@ import java.io.IOException;
 import com.kylinolap.metadata.model.schema.TableDesc;
 
 /**
+ * A lookup table of strings. When loaded from a SnapshotTable, rows are not
+ * kept but served from the snapshot's ID columns and string pool, so the table
+ * adds only the PK index on top of the snapshot.
+ * 
  * @author yangli9
  * 
  */
@@ -35,6 +39,20 @@ public class LookupStringTable extends LookupTable<String> {
         return cols;
     }
 
+    @Override
+    protected void keepRow(int rowIdx, String[] row) {
+        if (table instanceof SnapshotTable == false)
+            super.keepRow(rowIdx, row);
+    }
+
+    @Override
+    protected String[] getRowAt(int rowIdx) {
+        if (table instanceof SnapshotTable)
+            return ((SnapshotTable) table).getRow(rowIdx);
+        else
+            return super.getRowAt(rowIdx);
+    }
+
     @Override
     protected String toString(String cell) {
         return cell;
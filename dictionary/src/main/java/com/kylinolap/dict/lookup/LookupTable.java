@@ -17,13 +17,21 @@
 package com.kylinolap.dict.lookup;
 
 import java.io.IOException;
+import java.util.AbstractCollection;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Sets;
 import com.kylinolap.common.util.Array;
@@ -31,22 +39,38 @@ import com.kylinolap.metadata.model.schema.TableDesc;
 
 /**
  * An in-memory lookup table, in which each cell is an object of type T. The
- * table is indexed by specified PK for fast lookup.
+ * table is indexed by specified PK for fast lookup. The PK maps to a row
+ * index, and rows are kept by keepRow() and served by getRowAt(), which a
+ * subclass may override to serve rows from the underlying table instead.
+ * 
+ * Besides PK, secondary indexes are built lazily on the columns being
+ * searched: a hash index for equality/IN and a sorted index for range. The
+ * table is immutable once loaded, so the indexes are built once and shared by
+ * all queries on the table.
  * 
  * @author yangli9
  */
 abstract public class LookupTable<T extends Comparable<T>> {
 
+    private static final Logger logger = LoggerFactory.getLogger(LookupTable.class);
+
     protected TableDesc tableDesc;
     protected String[] keyColumns;
     protected ReadableTable table;
-    protected ConcurrentHashMap<Array<T>, T[]> data;
+    protected ConcurrentHashMap<Array<T>, Integer> data; // PK ==> row index
+    private List<T[]> rows;
+    private int rowCount;
+
+    // column index ==> secondary index
+    private final ConcurrentHashMap<Integer, HashIndex<T>> hashIndexes = new ConcurrentHashMap<Integer, HashIndex<T>>();
+    private final ConcurrentHashMap<Integer, SortedIndex<T>> sortedIndexes = new ConcurrentHashMap<Integer, SortedIndex<T>>();
 
     public LookupTable(TableDesc tableDesc, String[] keyColumns, ReadableTable table) throws IOException {
         this.tableDesc = tableDesc;
         this.keyColumns = keyColumns;
         this.table = table;
-        this.data = new ConcurrentHashMap<Array<T>, T[]>();
+        this.data = new ConcurrentHashMap<Array<T>, Integer>();
+        this.rows = new ArrayList<T[]>();
         init();
     }
 
@@ -75,47 +99,124 @@ abstract public class LookupTable<T extends Comparable<T>> {
 
         Array<T> key = new Array<T>(keyCols);
 
-        if (data.containsKey(key))
-            throw new IllegalStateException("Dup key found, key=" + toString(keyCols) + ", value1=" + toString(data.get(key)) + ", value2=" + toString(value));
+        Integer existing = data.get(key);
+        if (existing != null)
+            throw new IllegalStateException("Dup key found, key=" + toString(keyCols) + ", value1=" + toString(getRowAt(existing)) + ", value2=" + toString(value));
 
-        data.put(key, value);
+        int rowIdx = rowCount++;
+        data.put(key, rowIdx);
+        keepRow(rowIdx, value);
     }
 
     abstract protected T[] convertRow(String[] cols);
 
+    /**
+     * Keeps a loaded row to be returned by getRowAt(). Note this is called
+     * during construction, before fields of a subclass are initialized.
+     */
+    protected void keepRow(int rowIdx, T[] row) {
+        rows.add(row);
+    }
+
+    protected T[] getRowAt(int rowIdx) {
+        return rows.get(rowIdx);
+    }
+
     public T[] getRow(Array<T> key) {
-        return data.get(key);
+        Integer rowIdx = data.get(key);
+        return rowIdx == null ? null : getRowAt(rowIdx);
     }
 
+    /**
+     * @return a view of all rows, which may be served one by one from the
+     *         underlying table
+     */
     public Collection<T[]> getAllRows() {
-        return data.values();
+        return new AbstractCollection<T[]>() {
+            @Override
+            public Iterator<T[]> iterator() {
+                return new Iterator<T[]>() {
+                    int i = 0;
+
+                    @Override
+                    public boolean hasNext() {
+                        return i < rowCount;
+                    }
+
+                    @Override
+                    public T[] next() {
+                        return getRowAt(i++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return rowCount;
+            }
+        };
+    }
+
+    private List<T[]> getRowsAt(int[] rowIdxs, int from, int to) {
+        ArrayList<T[]> result = new ArrayList<T[]>(Math.max(0, to - from));
+        for (int i = from; i < to; i++) {
+            result.add(getRowAt(rowIdxs[i]));
+        }
+        return result;
+    }
+
+    /**
+     * @return rows whose value of given column is one of the given values, via
+     *         hash index
+     */
+    public List<T[]> getRowsByValues(String col, Collection<T> values) {
+        int colIdx = tableDesc.findColumnByName(col).getZeroBasedIndex();
+        HashIndex<T> index = getHashIndex(colIdx);
+        ArrayList<T[]> result = new ArrayList<T[]>();
+        for (T v : values.size() > 1 ? Sets.newHashSet(values) : values) {
+            int[] rowIdxs = index.get(v);
+            if (rowIdxs != null)
+                result.addAll(getRowsAt(rowIdxs, 0, rowIdxs.length));
+        }
+        return result;
+    }
+
+    /**
+     * @return rows whose value of given column falls in the range, via sorted
+     *         index; a null bound means unbounded
+     */
+    public List<T[]> getRowsInRange(String col, T beginValue, boolean beginInclusive, T endValue, boolean endInclusive) {
+        int colIdx = tableDesc.findColumnByName(col).getZeroBasedIndex();
+        SortedIndex<T> index = getSortedIndex(colIdx);
+        int[] range = index.range(beginValue, beginInclusive, endValue, endInclusive);
+        return getRowsAt(index.rowIdxs, range[0], range[1]);
     }
 
     public List<T> scan(String col, List<T> values, String returnCol) {
         ArrayList<T> result = new ArrayList<T>();
-        int colIdx = tableDesc.findColumnByName(col).getZeroBasedIndex();
         int returnIdx = tableDesc.findColumnByName(returnCol).getZeroBasedIndex();
-        for (T[] row : data.values()) {
-            if (values.contains(row[colIdx]))
-                result.add(row[returnIdx]);
+        for (T[] row : getRowsByValues(col, values)) {
+            result.add(row[returnIdx]);
         }
         return result;
     }
 
     public Pair<T, T> mapRange(String col, T beginValue, T endValue, String returnCol) {
-        int colIdx = tableDesc.findColumnByName(col).getZeroBasedIndex();
         int returnIdx = tableDesc.findColumnByName(returnCol).getZeroBasedIndex();
         T returnBegin = null;
         T returnEnd = null;
-        for (T[] row : data.values()) {
-            if (between(beginValue, row[colIdx], endValue)) {
-                T returnValue = row[returnIdx];
-                if (returnBegin == null || returnValue.compareTo(returnBegin) < 0) {
-                    returnBegin = returnValue;
-                }
-                if (returnEnd == null || returnValue.compareTo(returnEnd) > 0) {
-                    returnEnd = returnValue;
-                }
+        for (T[] row : getRowsInRange(col, beginValue, true, endValue, true)) {
+            T returnValue = row[returnIdx];
+            if (returnBegin == null || returnValue.compareTo(returnBegin) < 0) {
+                returnBegin = returnValue;
+            }
+            if (returnEnd == null || returnValue.compareTo(returnEnd) > 0) {
+                returnEnd = returnValue;
             }
         }
         if (returnBegin == null && returnEnd == null)
@@ -125,19 +226,172 @@ abstract public class LookupTable<T extends Comparable<T>> {
     }
 
     public Set<T> mapValues(String col, Set<T> values, String returnCol) {
-        int colIdx = tableDesc.findColumnByName(col).getZeroBasedIndex();
         int returnIdx = tableDesc.findColumnByName(returnCol).getZeroBasedIndex();
         Set<T> result = Sets.newHashSetWithExpectedSize(values.size());
-        for (T[] row : data.values()) {
-            if (values.contains(row[colIdx])) {
-                result.add(row[returnIdx]);
-            }
+        for (T[] row : getRowsByValues(col, values)) {
+            result.add(row[returnIdx]);
         }
         return result;
     }
 
-    private boolean between(T beginValue, T v, T endValue) {
-        return (beginValue == null || beginValue.compareTo(v) <= 0) && (endValue == null || v.compareTo(endValue) <= 0);
+    private HashIndex<T> getHashIndex(int colIdx) {
+        HashIndex<T> index = hashIndexes.get(colIdx);
+        if (index == null) {
+            synchronized (hashIndexes) {
+                index = hashIndexes.get(colIdx);
+                if (index == null) {
+                    index = new HashIndex<T>(getAllRows(), colIdx);
+                    hashIndexes.put(colIdx, index);
+                    logger.debug("Built hash index on column " + colIdx + " of " + this + ", " + index.getMemBytes() + " bytes");
+                }
+            }
+        }
+        return index;
+    }
+
+    private SortedIndex<T> getSortedIndex(int colIdx) {
+        SortedIndex<T> index = sortedIndexes.get(colIdx);
+        if (index == null) {
+            synchronized (sortedIndexes) {
+                index = sortedIndexes.get(colIdx);
+                if (index == null) {
+                    index = new SortedIndex<T>(getAllRows(), colIdx);
+                    sortedIndexes.put(colIdx, index);
+                    logger.debug("Built sorted index on column " + colIdx + " of " + this + ", " + index.getMemBytes() + " bytes");
+                }
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return estimated memory of the secondary indexes built so far
+     */
+    public long getIndexMemBytes() {
+        long bytes = 0;
+        for (HashIndex<T> index : hashIndexes.values())
+            bytes += index.getMemBytes();
+        for (SortedIndex<T> index : sortedIndexes.values())
+            bytes += index.getMemBytes();
+        return bytes;
+    }
+
+    // value ==> row indexes, null values are not indexed
+    private static class HashIndex<T> {
+        final HashMap<T, int[]> map;
+        final int nRows;
+
+        HashIndex(Collection<T[]> rows, int colIdx) {
+            HashMap<T, List<Integer>> lists = new HashMap<T, List<Integer>>();
+            int n = 0;
+            int rowIdx = 0;
+            for (T[] row : rows) {
+                T v = row[colIdx];
+                if (v != null) {
+                    List<Integer> list = lists.get(v);
+                    if (list == null) {
+                        list = new ArrayList<Integer>(1);
+                        lists.put(v, list);
+                    }
+                    list.add(rowIdx);
+                    n++;
+                }
+                rowIdx++;
+            }
+            map = new HashMap<T, int[]>(lists.size() * 4 / 3 + 1);
+            for (Map.Entry<T, List<Integer>> entry : lists.entrySet()) {
+                List<Integer> list = entry.getValue();
+                int[] array = new int[list.size()];
+                for (int i = 0; i < array.length; i++)
+                    array[i] = list.get(i);
+                map.put(entry.getKey(), array);
+            }
+            nRows = n;
+        }
+
+        int[] get(T v) {
+            return map.get(v);
+        }
+
+        long getMemBytes() {
+            // hash entry + array per distinct value, one int per row
+            return map.size() * 64L + nRows * 4L;
+        }
+    }
+
+    // row indexes sorted by value, null values are not indexed
+    private static class SortedIndex<T extends Comparable<T>> {
+        final Object[] values;
+        final int[] rowIdxs;
+
+        SortedIndex(Collection<T[]> all, int colIdx) {
+            final ArrayList<T> rowValues = new ArrayList<T>(all.size());
+            ArrayList<Integer> sorted = new ArrayList<Integer>(all.size());
+            int rowIdx = 0;
+            for (T[] row : all) {
+                if (row[colIdx] != null) {
+                    rowValues.add(row[colIdx]);
+                    sorted.add(rowIdx);
+                }
+                rowIdx++;
+            }
+            // position in rowValues ==> row index
+            final ArrayList<Integer> positions = new ArrayList<Integer>(sorted.size());
+            for (int i = 0; i < sorted.size(); i++)
+                positions.add(i);
+            Collections.sort(positions, new Comparator<Integer>() {
+                @Override
+                public int compare(Integer p1, Integer p2) {
+                    return rowValues.get(p1).compareTo(rowValues.get(p2));
+                }
+            });
+            values = new Object[positions.size()];
+            rowIdxs = new int[positions.size()];
+            for (int i = 0; i < rowIdxs.length; i++) {
+                int p = positions.get(i);
+                values[i] = rowValues.get(p);
+                rowIdxs[i] = sorted.get(p);
+            }
+        }
+
+        // [from, to) positions of the range
+        int[] range(T begin, boolean beginInclusive, T end, boolean endInclusive) {
+            int from = begin == null ? 0 : (beginInclusive ? lowerBound(begin) : upperBound(begin));
+            int to = end == null ? rowIdxs.length : (endInclusive ? upperBound(end) : lowerBound(end));
+            return new int[] { from, Math.max(from, to) };
+        }
+
+        // first position whose value >= v
+        @SuppressWarnings("unchecked")
+        private int lowerBound(T v) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (((T) values[mid]).compareTo(v) < 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        // first position whose value > v
+        @SuppressWarnings("unchecked")
+        private int upperBound(T v) {
+            int lo = 0, hi = values.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (((T) values[mid]).compareTo(v) <= 0)
+                    lo = mid + 1;
+                else
+                    hi = mid;
+            }
+            return lo;
+        }
+
+        long getMemBytes() {
+            return values.length * (8L + 4) + 32;
+        }
     }
 
     public String toString() {
@@ -160,7 +414,7 @@ abstract public class LookupTable<T extends Comparable<T>> {
 
     public void dump() {
         for (Array<T> key : data.keySet()) {
-            System.out.println(toString(key.data) + " => " + toString(data.get(key)));
+            System.out.println(toString(key.data) + " => " + toString(getRow(key)));
         }
     }
 
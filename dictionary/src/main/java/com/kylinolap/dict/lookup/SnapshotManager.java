@@ -16,7 +16,11 @@
 
 package com.kylinolap.dict.lookup;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -24,6 +28,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.kylinolap.common.KylinConfig;
+import com.kylinolap.common.persistence.FileResourceStore;
 import com.kylinolap.common.persistence.ResourceStore;
 import com.kylinolap.metadata.MetadataManager;
 import com.kylinolap.metadata.model.schema.TableDesc;
@@ -155,6 +160,15 @@ public class SnapshotManager {
     private SnapshotTable load(String resourcePath, boolean loadData) throws IOException {
         ResourceStore store = MetadataManager.getInstance(this.config).getStore();
 
+        if (loadData && store instanceof FileResourceStore && config.isSnapshotMemoryMapEnabled()) {
+            File file = new File(store.getReadableResourcePath(resourcePath));
+            if (file.isFile()) {
+                SnapshotTable table = loadByMemoryMap(file);
+                logger.debug("Memory mapped snapshot at " + resourcePath);
+                return table;
+            }
+        }
+
         SnapshotTable table = store.getResource(resourcePath, SnapshotTable.class, loadData ? SnapshotTableSerializer.FULL_SERIALIZER : SnapshotTableSerializer.INFO_SERIALIZER);
 
         if (loadData)
@@ -163,4 +177,17 @@ public class SnapshotManager {
         return table;
     }
 
+    static SnapshotTable loadByMemoryMap(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            // the mapping remains valid after the channel is closed
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            SnapshotTable table = SnapshotTableSerializer.FULL_SERIALIZER.deserialize(buf);
+            table.setLastModified(file.lastModified());
+            return table;
+        } finally {
+            raf.close();
+        }
+    }
+
 }
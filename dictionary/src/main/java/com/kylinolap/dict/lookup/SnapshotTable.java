@@ -17,12 +17,17 @@
 package com.kylinolap.dict.lookup;
 
 import java.io.DataInput;
+import java.io.DataInputStream;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
 
-import org.apache.commons.lang.ArrayUtils;
+import org.apache.commons.lang.ObjectUtils;
 import org.apache.hadoop.fs.Path;
 
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
@@ -30,20 +35,32 @@ import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.kylinolap.common.persistence.ResourceStore;
 import com.kylinolap.common.persistence.RootPersistentEntity;
+import com.kylinolap.common.util.ByteBufferBackedInputStream;
 import com.kylinolap.metadata.model.schema.TableDesc;
 
 /**
+ * A snapshot of lookup table, kept in columnar and dictionary encoded form.
+ * Every distinct cell value is stored once in a string pool, and each column is
+ * an array of int pool IDs (-1 for null). The ID columns can be backed by heap
+ * or by a memory mapped file, see SnapshotTableSerializer.
+ * 
  * @author yangli9
  */
 @JsonAutoDetect(fieldVisibility = Visibility.NONE, getterVisibility = Visibility.NONE, isGetterVisibility = Visibility.NONE, setterVisibility = Visibility.NONE)
 public class SnapshotTable extends RootPersistentEntity implements ReadableTable {
 
+    // marks the columnar data format, the legacy row format starts with a non-negative row count
+    static final int COLUMNAR_FORMAT = -1;
+
     @JsonProperty("signature")
     private TableSignature signature;
     @JsonProperty("column_delimeter")
     private String columnDelimeter;
 
-    private ArrayList<String[]> rows;
+    private int rowCount;
+    private int columnCount;
+    private String[] pool;
+    private IntBuffer ids; // column major, ids[col * rowCount + row]
 
     // default constructor for JSON serialization
     public SnapshotTable() {
@@ -62,14 +79,87 @@ public class SnapshotTable extends RootPersistentEntity implements ReadableTable
 
         TableReader reader = table.getReader();
         ArrayList<String[]> allRows = new ArrayList<String[]>();
-        while (reader.next()) {
-            String[] row = reader.getRow();
-            if (row.length <= maxIndex) {
-                throw new IllegalStateException("Bad hive table row, " + tableDesc + " expect " + (maxIndex + 1) + " columns, but got " + Arrays.toString(row));
+        try {
+            while (reader.next()) {
+                String[] row = reader.getRow();
+                if (row.length <= maxIndex) {
+                    throw new IllegalStateException("Bad hive table row, " + tableDesc + " expect " + (maxIndex + 1) + " columns, but got " + Arrays.toString(row));
+                }
+                allRows.add(row);
+            }
+        } finally {
+            reader.close();
+        }
+        setRows(allRows);
+    }
+
+    // rows shorter than the longest are padded with null
+    private void setRows(List<String[]> rows) {
+        int nRows = rows.size();
+        int nCols = 0;
+        for (String[] row : rows) {
+            nCols = Math.max(nCols, row.length);
+        }
+
+        HashMap<String, Integer> poolIndex = new HashMap<String, Integer>();
+        ArrayList<String> poolList = new ArrayList<String>();
+        int[] array = new int[nRows * nCols];
+        for (int i = 0; i < nRows; i++) {
+            String[] row = rows.get(i);
+            for (int j = 0; j < nCols; j++) {
+                String v = j < row.length ? row[j] : null;
+                int id = -1;
+                if (v != null) {
+                    Integer existing = poolIndex.get(v);
+                    if (existing == null) {
+                        existing = poolList.size();
+                        poolIndex.put(v, existing);
+                        poolList.add(v);
+                    }
+                    id = existing;
+                }
+                array[j * nRows + i] = id;
             }
-            allRows.add(row);
         }
-        this.rows = allRows;
+
+        this.rowCount = nRows;
+        this.columnCount = nCols;
+        this.pool = poolList.toArray(new String[poolList.size()]);
+        this.ids = IntBuffer.wrap(array);
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return columnCount;
+    }
+
+    public String getCell(int row, int col) {
+        int id = ids.get(col * rowCount + row);
+        return id < 0 ? null : pool[id];
+    }
+
+    public String[] getRow(int row) {
+        String[] result = new String[columnCount];
+        for (int j = 0; j < columnCount; j++) {
+            result[j] = getCell(row, j);
+        }
+        return result;
+    }
+
+    /**
+     * @return estimated heap consumption, not counting memory mapped ID columns
+     */
+    public long getMemBytes() {
+        long bytes = 0;
+        for (String s : pool) {
+            bytes += 40 + s.length() * 2;
+        }
+        if (ids.hasArray())
+            bytes += ids.capacity() * 4L;
+        return bytes;
     }
 
     public String getResourcePath() {
@@ -89,12 +179,12 @@ public class SnapshotTable extends RootPersistentEntity implements ReadableTable
             @Override
             public boolean next() throws IOException {
                 i++;
-                return i < rows.size();
+                return i < rowCount;
             }
 
             @Override
             public String[] getRow() {
-                return rows.get(i);
+                return SnapshotTable.this.getRow(i);
             }
 
             @Override
@@ -124,33 +214,77 @@ public class SnapshotTable extends RootPersistentEntity implements ReadableTable
             return false;
         SnapshotTable that = (SnapshotTable) o;
 
-        //compare row by row
-        if (this.rows.size() != that.rows.size())
+        //compare cell by cell
+        if (this.rowCount != that.rowCount || this.columnCount != that.columnCount)
             return false;
-        for (int i = 0; i < this.rows.size(); ++i) {
-            if (!ArrayUtils.isEquals(this.rows.get(i), that.rows.get(i)))
-                return false;
+        for (int i = 0; i < this.rowCount; ++i) {
+            for (int j = 0; j < this.columnCount; ++j) {
+                if (!ObjectUtils.equals(this.getCell(i, j), that.getCell(i, j)))
+                    return false;
+            }
         }
         return true;
     }
 
     void writeData(DataOutput out) throws IOException {
-        out.writeInt(rows.size());
-        if (rows.size() > 0) {
-            int n = rows.get(0).length;
-            out.writeInt(n);
-            for (int i = 0; i < rows.size(); i++) {
-                String[] row = rows.get(i);
-                for (int j = 0; j < n; j++) {
-                    out.writeUTF(row[j]);
-                }
-            }
+        out.writeInt(COLUMNAR_FORMAT);
+        out.writeInt(rowCount);
+        out.writeInt(columnCount);
+        out.writeInt(pool.length);
+        for (String s : pool) {
+            out.writeUTF(s);
+        }
+        for (int i = 0, n = rowCount * columnCount; i < n; i++) {
+            out.writeInt(ids.get(i));
         }
     }
 
     void readData(DataInput in) throws IOException {
-        int rowNum = in.readInt();
-        rows = new ArrayList<String[]>(rowNum);
+        int head = in.readInt();
+        if (head != COLUMNAR_FORMAT) {
+            readLegacyData(in, head);
+            return;
+        }
+
+        rowCount = in.readInt();
+        columnCount = in.readInt();
+        pool = new String[in.readInt()];
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = in.readUTF();
+        }
+        int[] array = new int[rowCount * columnCount];
+        for (int i = 0; i < array.length; i++) {
+            array[i] = in.readInt();
+        }
+        ids = IntBuffer.wrap(array);
+    }
+
+    /**
+     * Reads data from a buffer that is typically memory mapped. Only the string
+     * pool is copied onto heap, the ID columns stay in the buffer.
+     */
+    void readData(ByteBuffer buf) throws IOException {
+        int head = buf.getInt();
+        if (head != COLUMNAR_FORMAT) {
+            readLegacyData(new DataInputStream(new ByteBufferBackedInputStream(buf)), head);
+            return;
+        }
+
+        rowCount = buf.getInt();
+        columnCount = buf.getInt();
+        pool = new String[buf.getInt()];
+        DataInputStream poolIn = new DataInputStream(new ByteBufferBackedInputStream(buf));
+        for (int i = 0; i < pool.length; i++) {
+            pool[i] = poolIn.readUTF();
+        }
+        ByteBuffer idBuf = buf.slice();
+        idBuf.limit(rowCount * columnCount * 4);
+        ids = idBuf.asIntBuffer();
+    }
+
+    // the row format before columnar snapshot
+    private void readLegacyData(DataInput in, int rowNum) throws IOException {
+        ArrayList<String[]> rows = new ArrayList<String[]>(rowNum);
         if (rowNum > 0) {
             int n = in.readInt();
             for (int i = 0; i < rowNum; i++) {
@@ -161,6 +295,7 @@ public class SnapshotTable extends RootPersistentEntity implements ReadableTable
                 }
             }
         }
+        setRows(rows);
     }
 
 }
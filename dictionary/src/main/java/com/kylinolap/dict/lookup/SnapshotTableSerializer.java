@@ -1,8 +1,10 @@
 package com.kylinolap.dict.lookup;
 
+import java.io.ByteArrayInputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
 import com.kylinolap.common.persistence.Serializer;
 import com.kylinolap.common.util.JsonUtil;
@@ -58,4 +60,23 @@ public class SnapshotTableSerializer implements Serializer<SnapshotTable> {
         return obj;
     }
 
+    /**
+     * Deserializes from a buffer, typically a memory mapped snapshot file. The
+     * ID columns are not copied and remain backed by the buffer.
+     */
+    public SnapshotTable deserialize(ByteBuffer buf) throws IOException {
+        int jsonLen = buf.getShort() & 0xffff;
+        byte[] jsonBytes = new byte[jsonLen + 2];
+        jsonBytes[0] = (byte) (jsonLen >>> 8);
+        jsonBytes[1] = (byte) jsonLen;
+        buf.get(jsonBytes, 2, jsonLen);
+        String json = new DataInputStream(new ByteArrayInputStream(jsonBytes)).readUTF();
+        SnapshotTable obj = JsonUtil.readValue(json, SnapshotTable.class);
+
+        if (infoOnly == false)
+            obj.readData(buf);
+
+        return obj;
+    }
+
 }
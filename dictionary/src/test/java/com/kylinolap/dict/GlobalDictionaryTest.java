@@ -0,0 +1,165 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.dict;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.metadata.MetadataManager;
+import com.kylinolap.metadata.model.cube.TblColRef;
+
+public class GlobalDictionaryTest extends LocalFileMetadataTestCase {
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testAppend() throws IOException {
+        GlobalDictionary dict = new GlobalDictionary();
+        dict.addSlice(dict.buildSlice(values(0, 100)));
+        assertEquals(100, dict.size());
+        assertNull(dict.buildSlice(values(10, 20)));
+
+        HashMap<String, Integer> ids = new HashMap<String, Integer>();
+        for (int i = 0; i < 100; i++) {
+            ids.put("v" + i, dict.getIdFromValue("v" + i));
+        }
+
+        // serialize, then append like the next segment
+        GlobalDictionary copy = copy(dict);
+        assertEquals(dict, copy);
+        TrieDictionary<String> slice = copy.buildSlice(values(50, 150));
+        assertEquals(50, slice.getMaxId() + 1);
+        copy.addSlice(slice);
+        assertEquals(150, copy.size());
+        assertEquals(2, copy.getSliceCount());
+
+        // existing values keep their IDs
+        for (int i = 0; i < 100; i++) {
+            assertEquals(ids.get("v" + i).intValue(), copy.getIdFromValue("v" + i));
+        }
+        for (int i = 0; i < 150; i++) {
+            int id = copy.getIdFromValue("v" + i);
+            assertEquals(i < 100, id < 100);
+            assertEquals("v" + i, copy.getValueFromId(id));
+        }
+        assertEquals(0, copy.getMinId());
+        assertEquals(149, copy.getMaxId());
+    }
+
+    @Test
+    public void testNullAndIllegal() {
+        GlobalDictionary dict = new GlobalDictionary();
+        dict.addSlice(dict.buildSlice(values(0, 1)));
+
+        int nullId = dict.getIdFromValue(null);
+        assertTrue(dict.isNullId(nullId));
+        assertNull(dict.getValueFromId(nullId));
+
+        try {
+            dict.getIdFromValue("b");
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+        try {
+            dict.getValueFromId(1);
+            fail("IllegalArgumentException expected");
+        } catch (IllegalArgumentException e) {
+            // good
+        }
+    }
+
+    @Test
+    public void testAppendBySlices() throws IOException {
+        DictionaryManager dictMgr = DictionaryManager.getInstance(getTestConfig());
+        TblColRef col = new TblColRef(MetadataManager.getInstance(getTestConfig()).getTableDesc("TEST_KYLIN_FACT").findColumnByName("SELLER_ID"));
+        File factColumns = File.createTempFile("fact_columns", "");
+        factColumns.delete();
+        factColumns.mkdirs();
+        try {
+            assertEquals(0, dictMgr.getGlobalDictionary("test_cube", col).size());
+
+            FileUtils.writeLines(new File(factColumns, col.getName()), strings(0, 100));
+            assertEquals(100, dictMgr.appendGlobalDictionary("test_cube", col, factColumns.getAbsolutePath()).getCardinality());
+            GlobalDictionary dict = dictMgr.getGlobalDictionary("test_cube", col);
+            int id7 = dict.getIdFromValue("v7");
+
+            FileUtils.writeLines(new File(factColumns, col.getName()), strings(50, 120));
+            assertEquals(20, dictMgr.appendGlobalDictionary("test_cube", col, factColumns.getAbsolutePath()).getCardinality());
+            assertNull(dictMgr.appendGlobalDictionary("test_cube", col, factColumns.getAbsolutePath()));
+
+            dict = dictMgr.getGlobalDictionary("test_cube", col);
+            assertEquals(2, dict.getSliceCount());
+            assertEquals(120, dict.size());
+            assertEquals(id7, dict.getIdFromValue("v7"));
+            assertEquals("v110", dict.getValueFromId(dict.getIdFromValue("v110")));
+        } finally {
+            FileUtils.deleteDirectory(factColumns);
+        }
+    }
+
+    private List<String> strings(int from, int to) {
+        List<String> result = new ArrayList<String>();
+        for (int i = from; i < to; i++) {
+            result.add("v" + i);
+        }
+        return result;
+    }
+
+    private List<byte[]> values(int from, int to) {
+        List<byte[]> result = new ArrayList<byte[]>();
+        for (String s : strings(from, to)) {
+            result.add(Bytes.toBytes(s));
+        }
+        return result;
+    }
+
+    private GlobalDictionary copy(GlobalDictionary dict) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(buf);
+        dict.write(out);
+        out.close();
+
+        GlobalDictionary result = new GlobalDictionary();
+        result.readFields(new DataInputStream(new ByteArrayInputStream(buf.toByteArray())));
+        return result;
+    }
+}
@@ -16,6 +16,15 @@
 
 package com.kylinolap.dict;
 
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
 import org.apache.hadoop.hbase.util.Bytes;
 import org.junit.After;
 import org.junit.Before;
@@ -26,6 +35,8 @@ import com.kylinolap.common.util.ByteArray;
 import com.kylinolap.common.util.LocalFileMetadataTestCase;
 import com.kylinolap.dict.lookup.FileTable;
 import com.kylinolap.dict.lookup.LookupBytesTable;
+import com.kylinolap.dict.lookup.LookupStringTable;
+import com.kylinolap.dict.lookup.SnapshotTable;
 import com.kylinolap.metadata.MetadataManager;
 import com.kylinolap.metadata.model.schema.TableDesc;
 
@@ -67,4 +78,73 @@ public class LookupTableTest extends LocalFileMetadataTestCase {
         Array<ByteArray> key = new Array<ByteArray>(new ByteArray[] { k1, k2 });
         System.out.println(lookup.getRow(key));
     }
+
+    @Test
+    public void testIndexedSearch() throws Exception {
+        TableDesc categoryTable = MetadataManager.getInstance(this.getTestConfig()).getTableDesc("test_category_groupings");
+        LookupStringTable lookup = new LookupStringTable(categoryTable, new String[] { "leaf_categ_id", "site_id" }, new FileTable(this.testDataFolder + "/data/TEST_CATEGORY_GROUPINGS.csv", 36));
+        int colIdx = categoryTable.findColumnByName("CATEG_BUSN_UNIT").getZeroBasedIndex();
+        assertEquals(0, lookup.getIndexMemBytes());
+
+        // collect some values to search
+        TreeSet<String> allValues = new TreeSet<String>();
+        for (String[] row : lookup.getAllRows()) {
+            allValues.add(row[colIdx]);
+        }
+        List<String> values = new ArrayList<String>(allValues);
+        String mid = values.get(values.size() / 2);
+        List<String> some = Arrays.asList(values.get(0), mid, "not_exist");
+
+        assertEquals(scan(lookup, colIdx, some, null, null), toSet(lookup.getRowsByValues("CATEG_BUSN_UNIT", some)));
+        assertEquals(scan(lookup, colIdx, null, mid, null), toSet(lookup.getRowsInRange("CATEG_BUSN_UNIT", mid, true, null, false)));
+        assertEquals(scan(lookup, colIdx, null, null, mid), toSet(lookup.getRowsInRange("CATEG_BUSN_UNIT", null, false, mid, true)));
+        assertEquals(lookup.getAllRows().size(), lookup.getRowsInRange("CATEG_BUSN_UNIT", null, false, null, false).size());
+        assertTrue(lookup.getRowsInRange("CATEG_BUSN_UNIT", mid, false, mid, false).isEmpty());
+        assertTrue(lookup.getIndexMemBytes() > 0);
+    }
+
+    @Test
+    public void testSnapshotBacked() throws Exception {
+        TableDesc categoryTable = MetadataManager.getInstance(this.getTestConfig()).getTableDesc("test_category_groupings");
+        String[] pk = new String[] { "leaf_categ_id", "site_id" };
+        FileTable file = new FileTable(this.testDataFolder + "/data/TEST_CATEGORY_GROUPINGS.csv", 36);
+        SnapshotTable snapshot = new SnapshotTable();
+        snapshot.takeSnapshot(file, categoryTable);
+
+        LookupStringTable expected = new LookupStringTable(categoryTable, pk, file);
+        LookupStringTable lookup = new LookupStringTable(categoryTable, pk, snapshot);
+
+        assertEquals(expected.getAllRows().size(), lookup.getAllRows().size());
+        int[] keyIdx = new int[] { categoryTable.findColumnByName(pk[0]).getZeroBasedIndex(), categoryTable.findColumnByName(pk[1]).getZeroBasedIndex() };
+        for (String[] row : expected.getAllRows()) {
+            Array<String> key = new Array<String>(new String[] { row[keyIdx[0]], row[keyIdx[1]] });
+            assertArrayEquals(row, lookup.getRow(key));
+        }
+        assertNull(lookup.getRow(new Array<String>(new String[] { "not_exist", "0" })));
+
+        String first = expected.getAllRows().iterator().next()[categoryTable.findColumnByName("CATEG_BUSN_UNIT").getZeroBasedIndex()];
+        List<String> some = Arrays.asList(first, "not_exist");
+        assertEquals(toSet(expected.getRowsByValues("CATEG_BUSN_UNIT", some)), toSet(lookup.getRowsByValues("CATEG_BUSN_UNIT", some)));
+        assertEquals(toSet(expected.getRowsInRange("CATEG_BUSN_UNIT", null, false, null, false)), toSet(lookup.getRowsInRange("CATEG_BUSN_UNIT", null, false, null, false)));
+    }
+
+    // linear scan: value in list, or begin <= value <= end
+    private Set<List<String>> scan(LookupStringTable lookup, int colIdx, List<String> in, String begin, String end) {
+        Set<List<String>> result = new HashSet<List<String>>();
+        for (String[] row : lookup.getAllRows()) {
+            String v = row[colIdx];
+            boolean match = in != null ? in.contains(v) : (begin == null || begin.compareTo(v) <= 0) && (end == null || v.compareTo(end) <= 0);
+            if (match)
+                result.add(Arrays.asList(row));
+        }
+        return result;
+    }
+
+    private Set<List<String>> toSet(List<String[]> rows) {
+        Set<List<String>> result = new HashSet<List<String>>();
+        for (String[] row : rows)
+            result.add(Arrays.asList(row));
+        assertEquals(rows.size(), result.size());
+        return result;
+    }
 }
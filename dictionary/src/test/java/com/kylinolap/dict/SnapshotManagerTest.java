@@ -18,6 +18,16 @@ package com.kylinolap.dict;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
@@ -26,6 +36,7 @@ import com.kylinolap.common.util.LocalFileMetadataTestCase;
 import com.kylinolap.dict.lookup.HiveTable;
 import com.kylinolap.dict.lookup.SnapshotManager;
 import com.kylinolap.dict.lookup.SnapshotTable;
+import com.kylinolap.dict.lookup.SnapshotTableSerializer;
 import com.kylinolap.dict.lookup.TableReader;
 import com.kylinolap.metadata.MetadataManager;
 import com.kylinolap.metadata.model.schema.TableDesc;
@@ -78,4 +89,46 @@ public class SnapshotManagerTest extends LocalFileMetadataTestCase {
             assertArrayEquals(hiveRow, snapshotRow);
         }
     }
+
+    @Test
+    public void testColumnarFormat() throws Exception {
+        // the test data is of the legacy row format
+        String legacyPath = "/table_snapshot/TEST_SITES.csv/1271e1f2-dd65-4249-a1f2-aca02a651158.snapshot";
+        SnapshotTable legacy = snapshotMgr.getSnapshotTable(legacyPath);
+        assertTrue(legacy.getRowCount() > 0);
+
+        ByteArrayOutputStream bout = new ByteArrayOutputStream();
+        SnapshotTableSerializer.FULL_SERIALIZER.serialize(legacy, new DataOutputStream(bout));
+        byte[] bytes = bout.toByteArray();
+
+        // read back from stream
+        SnapshotTable fromStream = SnapshotTableSerializer.FULL_SERIALIZER.deserialize(new DataInputStream(new ByteArrayInputStream(bytes)));
+        assertEquals(legacy, fromStream);
+
+        // read back by memory map
+        File file = File.createTempFile("snapshot", ".snapshot");
+        try {
+            FileOutputStream out = new FileOutputStream(file);
+            out.write(bytes);
+            out.close();
+
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            MappedByteBuffer buf = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+            raf.close();
+            SnapshotTable fromMap = SnapshotTableSerializer.FULL_SERIALIZER.deserialize(buf);
+            assertEquals(legacy, fromMap);
+            assertEquals(legacy.getSignature(), fromMap.getSignature());
+
+            TableReader legacyReader = legacy.getReader();
+            TableReader mapReader = fromMap.getReader();
+            while (legacyReader.next()) {
+                assertTrue(mapReader.next());
+                assertArrayEquals(legacyReader.getRow(), mapReader.getRow());
+            }
+            assertFalse(mapReader.next());
+            assertTrue(fromMap.getMemBytes() < legacy.getMemBytes());
+        } finally {
+            file.delete();
+        }
+    }
 }
@@ -18,9 +18,11 @@ package com.kylinolap.dict;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 
+import org.apache.commons.io.FileUtils;
 import org.junit.Test;
 
 import com.kylinolap.dict.lookup.FileTableReader;
@@ -42,4 +44,25 @@ public class TableReaderTest {
         reader.close();
 
     }
+
+    @Test
+    public void testDirectoryReader() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "TableReaderTest_" + System.currentTimeMillis());
+        dir.mkdirs();
+        try {
+            FileUtils.writeStringToFile(new File(dir, "part-r-00001"), "c\nd\n");
+            FileUtils.writeStringToFile(new File(dir, "part-r-00000"), "a\nb\n");
+            FileUtils.writeStringToFile(new File(dir, "_SUCCESS"), "");
+
+            FileTableReader reader = new FileTableReader(dir.getAbsolutePath(), ReadableTable.DELIM_AUTO, 1);
+            StringBuilder buf = new StringBuilder();
+            while (reader.next()) {
+                buf.append(reader.getRow()[0]);
+            }
+            reader.close();
+            assertEquals("abcd", buf.toString());
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
 }
@@ -22,7 +22,9 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
+import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
@@ -330,6 +332,99 @@ public class TrieDictionaryTest {
         dict.dump(System.out);
     }
 
+    @Test
+    public void testDecodeCache() {
+        TrieDictionaryBuilder<String> b = new TrieDictionaryBuilder<String>(new StringBytesConverter());
+        TreeSet<String> set = new TreeSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String v = "value" + i;
+            b.addValue(v);
+            set.add(v);
+        }
+        TrieDictionary<String> dict = b.build(0);
+        ArrayList<String> expected = new ArrayList<String>(set);
+
+        // partial cache, direct mapped
+        dict.setDecodeCacheCapacity(100);
+        DecodeCache<String> cache = dict.getDecodeCache();
+        assertEquals(100, cache.getCapacity());
+        assertFalse(cache.isFull());
+        for (int round = 0; round < 2; round++) {
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.get(i), dict.getValueFromId(dict.getMinId() + i));
+            }
+        }
+        assertEquals(2000, cache.getHitCount() + cache.getMissCount());
+        assertEquals(0, cache.getHitCount()); // every slot evicted before reuse
+
+        // full cache, prewarmed
+        dict.setDecodeCacheCapacity(5000);
+        cache = dict.getDecodeCache();
+        assertTrue(cache.isFull());
+        dict.prewarmDecodeCache();
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i), dict.getValueFromId(dict.getMinId() + i));
+        }
+        assertEquals(1000, cache.getHitCount());
+        assertEquals(0, cache.getMissCount());
+
+        // cache disabled
+        dict.setDecodeCacheCapacity(0);
+        assertEquals(expected.get(7), dict.getValueFromId(dict.getMinId() + 7));
+        assertEquals(0, dict.getDecodeCache().getHitCount());
+    }
+
+    @Test
+    public void testMemoryMap() throws Exception {
+        TrieDictionaryBuilder<String> b = new TrieDictionaryBuilder<String>(new StringBytesConverter());
+        TreeSet<String> set = new TreeSet<String>();
+        for (int i = 0; i < 1000; i++) {
+            String v = "value" + i;
+            b.addValue(v);
+            set.add(v);
+        }
+        TrieDictionary<String> dict = b.build(0);
+        ArrayList<String> expected = new ArrayList<String>(set);
+
+        DictionaryInfo info = new DictionaryInfo();
+        info.setDictionaryClass(TrieDictionary.class.getName());
+        info.setDictionaryObject(dict);
+        info.setCardinality(expected.size());
+
+        File file = File.createTempFile("trie", ".dict");
+        try {
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(file));
+            DictionaryInfoSerializer.FULL_SERIALIZER.serialize(info, out);
+            out.close();
+
+            DictionaryInfo mapped = DictionaryManager.loadByMemoryMap(file);
+            assertEquals(info.getCardinality(), mapped.getCardinality());
+
+            @SuppressWarnings("unchecked")
+            TrieDictionary<String> mappedDict = (TrieDictionary<String>) mapped.getDictionaryObject();
+            assertTrue(mappedDict.isDirect());
+            assertFalse(dict.isDirect());
+            assertEquals(dict, mappedDict);
+            assertEquals(dict.hashCode(), mappedDict.hashCode());
+
+            mappedDict.setDecodeCacheCapacity(0);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(i, mappedDict.getIdFromValue(expected.get(i)));
+                assertEquals(expected.get(i), mappedDict.getValueFromId(i));
+            }
+            assertEquals(dict.getIdFromValue("value10a", 1), mappedDict.getIdFromValue("value10a", 1));
+
+            // writes back the same bytes
+            ByteArrayOutputStream bout1 = new ByteArrayOutputStream();
+            dict.write(new DataOutputStream(bout1));
+            ByteArrayOutputStream bout2 = new ByteArrayOutputStream();
+            mappedDict.write(new DataOutputStream(bout2));
+            assertArrayEquals(bout1.toByteArray(), bout2.toByteArray());
+        } finally {
+            file.delete();
+        }
+    }
+
     @Test
     public void testRounding() {
         // see NumberDictionaryTest.testRounding();
@@ -55,6 +55,8 @@ import com.kylinolap.kylin.jdbc.stub.RemoteClient;
  * <li>user: username</li>
  * <li>password: password</li>
  * <li>ssl: true/false</li>
+ * <li>pageSize: rows per page to fetch query result by, 0 (default) fetches all
+ * at once</li>
  * </ul>
  * </p>
  * 
@@ -117,6 +117,14 @@ public abstract class KylinConnectionImpl extends AvaticaConnection {
         return (isSsl ? "https://" : "http://") + this.baseUrl + ":" + (isSsl ? 443 : 80) + "/kylin/api/query";
     }
 
+    /**
+     * @return rows per page to fetch query result by, or 0 to fetch all rows
+     *         at once
+     */
+    public int getPageSize() {
+        return Integer.parseInt(this.info.getProperty("pageSize", "0"));
+    }
+
     public String getProject() {
         return this.project;
     }
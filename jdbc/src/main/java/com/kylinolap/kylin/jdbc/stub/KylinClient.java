@@ -19,16 +19,19 @@ package com.kylinolap.kylin.jdbc.stub;
 import java.io.IOException;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 
 import net.hydromatic.avatica.AvaticaStatement;
 import net.hydromatic.avatica.ColumnMetaData;
 import net.hydromatic.avatica.ColumnMetaData.Rep;
 import net.hydromatic.avatica.ColumnMetaData.ScalarType;
+import net.hydromatic.linq4j.Enumerator;
 
 import org.apache.commons.httpclient.HttpClient;
 import org.apache.commons.httpclient.HttpException;
 import org.apache.commons.httpclient.HttpMethodBase;
+import org.apache.commons.httpclient.methods.DeleteMethod;
 import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.httpclient.methods.PostMethod;
 import org.apache.commons.httpclient.methods.StringRequestEntity;
@@ -184,9 +187,97 @@ public class KylinClient implements RemoteClient {
         List<ColumnMetaData> metas = genColumnMeta(queryRes);
         List<Object[]> data = genResultData(queryRes, metas);
 
+        if (queryRes.getHasMore()) {
+            return new DataSet<Object[]>(metas, new CursorEnumerator(queryRes.getCursorId(), metas, data));
+        }
         return new DataSet<Object[]>(metas, new KylinEnumerator<Object[]>(data));
     }
 
+    /**
+     * Reads a paged query result, fetching the next page from server when the
+     * current one is consumed, such that only one page is held in memory.
+     */
+    private class CursorEnumerator implements Enumerator<Object[]> {
+        private final String cursorId;
+        private final List<ColumnMetaData> metas;
+        private Iterator<Object[]> page;
+        private boolean hasMore = true;
+        private Object[] current;
+
+        public CursorEnumerator(String cursorId, List<ColumnMetaData> metas, List<Object[]> firstPage) {
+            this.cursorId = cursorId;
+            this.metas = metas;
+            this.page = firstPage.iterator();
+        }
+
+        @Override
+        public Object[] current() {
+            return current;
+        }
+
+        @Override
+        public boolean moveNext() {
+            while (!page.hasNext()) {
+                if (!hasMore)
+                    return false;
+
+                SQLResponseStub queryRes = runKylinCursor(new GetMethod(getCursorUrl(cursorId) + "?pageSize=" + conn.getPageSize()));
+                hasMore = queryRes.getHasMore();
+                page = genResultData(queryRes, metas).iterator();
+            }
+            current = page.next();
+            return true;
+        }
+
+        @Override
+        public void reset() {
+            throw new UnsupportedOperationException("Paged query result can only be read forward");
+        }
+
+        @Override
+        public void close() {
+            // release the server side cursor if not read to the end
+            if (hasMore) {
+                hasMore = false;
+                try {
+                    runKylinCursor(new DeleteMethod(getCursorUrl(cursorId)));
+                } catch (RuntimeException e) {
+                    logger.warn("Failed to close query cursor " + cursorId, e);
+                }
+            }
+            page = null;
+        }
+    }
+
+    private String getCursorUrl(String cursorId) {
+        return conn.getQueryUrl() + "/cursor/" + cursorId;
+    }
+
+    private SQLResponseStub runKylinCursor(HttpMethodBase method) {
+        addPostHeaders(method);
+        HttpClient httpClient = new HttpClient();
+        if (conn.getQueryUrl().toLowerCase().startsWith("https://")) {
+            registerSsl();
+        }
+
+        try {
+            httpClient.executeMethod(method);
+            String response = method.getResponseBodyAsString();
+
+            if (method.getStatusCode() != 200 && method.getStatusCode() != 201) {
+                logger.error("Failed to fetch query cursor", response);
+                throw new RuntimeException(response);
+            }
+
+            return (response == null || response.isEmpty()) ? new SQLResponseStub() : new ObjectMapper().readValue(response, SQLResponseStub.class);
+        } catch (IOException e) {
+            logger.error(e.getLocalizedMessage(), e);
+            throw new RuntimeException(e.getLocalizedMessage(), e);
+        } finally {
+            method.releaseConnection();
+        }
+    }
+
     /**
      * @param queryRes
      * @param metas
@@ -257,6 +348,9 @@ public class KylinClient implements RemoteClient {
             url += "/prestate";
         } else {
             request = new QueryRequest();
+            if (conn.getPageSize() > 0) {
+                url += "/cursor?pageSize=" + conn.getPageSize();
+            }
         }
         request.setSql(sql);
         request.setProject(project);
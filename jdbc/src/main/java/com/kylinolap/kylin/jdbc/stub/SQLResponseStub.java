@@ -52,6 +52,11 @@ public class SQLResponseStub implements Serializable {
 
     private boolean hitCache = false;
 
+    // the token to fetch next page with, if query result is paged
+    private String cursorId;
+
+    private boolean hasMore = false;
+
     public SQLResponseStub() {
     }
 
@@ -135,6 +140,22 @@ public class SQLResponseStub implements Serializable {
         this.hitCache = hitCache;
     }
 
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    public void setCursorId(String cursorId) {
+        this.cursorId = cursorId;
+    }
+
+    public boolean getHasMore() {
+        return hasMore;
+    }
+
+    public void setHasMore(boolean hasMore) {
+        this.hasMore = hasMore;
+    }
+
     public static long getSerialversionuid() {
         return serialVersionUID;
     }
@@ -15,6 +15,7 @@
  */
 package com.kylinolap.job;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -28,12 +29,20 @@ import com.kylinolap.common.KylinConfig;
 import com.kylinolap.common.persistence.JsonSerializer;
 import com.kylinolap.common.persistence.ResourceStore;
 import com.kylinolap.common.persistence.Serializer;
+import com.kylinolap.common.util.BytesUtil;
 import com.kylinolap.job.JobInstance.JobStep;
 import com.kylinolap.job.constant.JobStatusEnum;
 import com.kylinolap.job.constant.JobStepStatusEnum;
 import com.kylinolap.metadata.MetadataManager;
 
 /**
+ * Besides the job JSON under /job, a status index is kept as empty markers
+ * at /job_status/STATUS/CUBE.UUID, such that the pending or running jobs are
+ * listed without reading the whole job history. The marker of a new job is
+ * written before the job, the marker of a new status before the old one is
+ * deleted, and a stale marker is fixed on read, so a failed writer never
+ * hides a job from the index. The job engine rebuilds the index on start.
+ * 
  * @author ysong1
  */
 public class JobDAO {
@@ -43,6 +52,7 @@ public class JobDAO {
     private static final Serializer<JobStepOutput> JOB_OUTPUT_SERIALIZER = new JsonSerializer<JobStepOutput>(JobStepOutput.class);
 
     private ResourceStore store;
+    private volatile boolean statusIndexChecked = false;
 
     private static final Logger logger = LoggerFactory.getLogger(JobDAO.class);
 
@@ -103,24 +113,81 @@ public class JobDAO {
     }
 
     public List<JobInstance> listAllJobs(JobStatusEnum status) throws IOException {
+        return listAllJobs(status, null);
+    }
 
-        List<JobInstance> allJobs = listAllJobs();
-        if (allJobs.size() == 0) {
+    /**
+     * Lists jobs of a status, and of a cube if cubeName is not null, by the
+     * status index. Only the matching jobs are read.
+     */
+    public List<JobInstance> listAllJobs(JobStatusEnum status, String cubeName) throws IOException {
+        ensureStatusIndex();
+
+        ArrayList<String> markers = store.listResources(ResourceStore.JOB_STATUS_PATH_ROOT + "/" + status);
+        if (markers == null)
             return Collections.emptyList();
-        }
 
         ArrayList<JobInstance> result = new ArrayList<JobInstance>();
-        for (JobInstance job : allJobs) {
-            if (job != null) {
-                if (job.getStatus().equals(status)) {
-                    result.add(job);
-                }
+        for (String marker : markers) {
+            String identity = marker.substring(marker.lastIndexOf('/') + 1);
+            int cut = identity.lastIndexOf('.');
+            if (cubeName != null && identity.substring(0, cut).equals(cubeName) == false)
+                continue;
+
+            JobInstance job = getJob(identity.substring(cut + 1));
+            if (job == null) // being created, or left by a failed writer till next rebuild
+                continue;
+            if (job.getStatus() != status || marker.equals(pathOfStatusMarker(job)) == false) {
+                log.warn("Dropping stale job status marker " + marker);
+                putStatusMarker(job);
+                store.deleteResource(marker);
+                continue;
             }
+            result.add(job);
         }
 
         return result;
     }
 
+    /**
+     * Recreates the status index from all jobs, and drops the markers of
+     * missing jobs or of an old status. Called as the job engine starts, so
+     * a job saved before the index existed, or whose marker write failed, is
+     * listed again.
+     */
+    public synchronized void rebuildStatusIndex() throws IOException {
+        log.info("Building job status index");
+        for (JobInstance job : listAllJobs()) {
+            if (job != null)
+                putStatusMarker(job);
+        }
+
+        for (JobStatusEnum status : JobStatusEnum.values()) {
+            ArrayList<String> markers = store.listResources(ResourceStore.JOB_STATUS_PATH_ROOT + "/" + status);
+            if (markers == null)
+                continue;
+            for (String marker : markers) {
+                JobInstance job = getJob(marker.substring(marker.lastIndexOf('.') + 1));
+                if (job == null || marker.equals(pathOfStatusMarker(job)) == false)
+                    store.deleteResource(marker);
+            }
+        }
+        statusIndexChecked = true;
+    }
+
+    private void ensureStatusIndex() throws IOException {
+        if (statusIndexChecked)
+            return;
+
+        synchronized (this) {
+            if (statusIndexChecked == false) {
+                if (store.listResources(ResourceStore.JOB_STATUS_PATH_ROOT) == null && store.listResources(ResourceStore.JOB_PATH_ROOT) != null)
+                    rebuildStatusIndex();
+                statusIndexChecked = true;
+            }
+        }
+    }
+
     public JobStepOutput getJobOutput(String jobUuid, int stepSequenceId) throws IOException {
         return readJobOutputResource(ResourceStore.JOB_OUTPUT_PATH_ROOT + "/" + JobStepOutput.nameOfOutput(jobUuid, stepSequenceId));
     }
@@ -154,11 +221,14 @@ public class JobDAO {
     }
 
     public void deleteJob(JobInstance job) throws IOException {
-        store.deleteResource(pathOfJob(job));
+        deleteJob(job.getUuid());
     }
 
     public void deleteJob(String uuid) throws IOException {
+        JobInstance job = getJob(uuid);
         store.deleteResource(ResourceStore.JOB_PATH_ROOT + "/" + uuid);
+        if (job != null)
+            store.deleteResource(pathOfStatusMarker(job));
     }
 
     public void updateJobInstance(JobInstance jobInstance) throws IOException {
@@ -167,9 +237,12 @@ public class JobDAO {
         try {
             updatedJob = getJob(jobInstance.getUuid());
             if (updatedJob == null) {
+                // marker first, a new job is never missing from the index
+                putStatusMarker(jobInstance);
                 saveJob(jobInstance);
                 return;
             }
+            String oldMarker = pathOfStatusMarker(updatedJob);
 
             updatedJob.setExecEndTime(jobInstance.getExecEndTime());
             updatedJob.setExecStartTime(jobInstance.getExecStartTime());
@@ -185,6 +258,12 @@ public class JobDAO {
             }
 
             saveJob(updatedJob);
+
+            String newMarker = pathOfStatusMarker(updatedJob);
+            if (newMarker.equals(oldMarker) == false) {
+                putStatusMarker(updatedJob);
+                store.deleteResource(oldMarker);
+            }
         } catch (IOException e) {
             log.error(e.getLocalizedMessage(), e);
             throw e;
@@ -219,6 +298,14 @@ public class JobDAO {
         return ResourceStore.JOB_PATH_ROOT + "/" + job.getUuid();
     }
 
+    private String pathOfStatusMarker(JobInstance job) {
+        return ResourceStore.JOB_STATUS_PATH_ROOT + "/" + job.getStatus() + "/" + JobInstance.getJobIdentity(job);
+    }
+
+    private void putStatusMarker(JobInstance job) throws IOException {
+        store.putResource(pathOfStatusMarker(job), new ByteArrayInputStream(BytesUtil.EMPTY_BYTE_ARRAY), System.currentTimeMillis());
+    }
+
     private JobInstance readJobResource(String path) throws IOException {
         return store.getResource(path, JobInstance.class, JOB_SERIALIZER);
     }
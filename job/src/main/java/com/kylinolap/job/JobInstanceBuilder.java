@@ -126,6 +126,11 @@ public class JobInstanceBuilder {
         return paths;
     }
 
+    // under cuboid/ like the layered cuboids, for the steps that follow and for merge
+    private String getInMemCuboidOutputPath() {
+        return jobWorkingDir + "/" + cubeName + "/cuboid/" + "all_cuboid";
+    }
+
     private String getFactDistinctColumnsPath() {
         return jobWorkingDir + "/" + cubeName + "/fact_distinct_columns";
     }
@@ -134,6 +139,10 @@ public class JobInstanceBuilder {
         return jobWorkingDir + "/" + cubeName + "/rowkey_stats";
     }
 
+    private String getCuboidStatisticsPath() {
+        return jobWorkingDir + "/" + cubeName + "/cuboid_statistics";
+    }
+
     private void createMergeCubeSegmentsSteps(JobInstance jobInstance) throws IOException {
 
         if (cube.getMergingSegments() == null || cube.getMergingSegments().size() < 2) {
@@ -160,7 +169,7 @@ public class JobInstanceBuilder {
         stepSeqNum++;
 
         // create htable step
-        addCreateHTableStep(jobInstance, stepSeqNum);
+        addCreateHTableStep(jobInstance, stepSeqNum, getRowkeyDistributionOutputPath() + "/part-r-00000");
         stepSeqNum++;
 
         // generate hfiles step
@@ -205,24 +214,36 @@ public class JobInstanceBuilder {
         addBuildDictionaryStep(jobInstance, stepSeqNum);
         stepSeqNum++;
 
-        // base cuboid step
-        addBaseCuboidStep(jobInstance, stepSeqNum, cuboidOutputTempPath);
-        stepSeqNum++;
-
-        // n dim cuboid steps
-        for (int i = 1; i <= groupRowkeyColumnsCount; i++) {
-            int dimNum = totalRowkeyColumnsCount - i;
-            addNDimensionCuboidStep(jobInstance, stepSeqNum, cuboidOutputTempPath, dimNum, totalRowkeyColumnsCount);
+        if (this.engineConfig.isInMemCubing()) {
+            // all cuboids in one step
+            addInMemCubingStep(jobInstance, stepSeqNum);
             stepSeqNum++;
+        } else {
+            // base cuboid step
+            addBaseCuboidStep(jobInstance, stepSeqNum, cuboidOutputTempPath);
+            stepSeqNum++;
+
+            // n dim cuboid steps
+            for (int i = 1; i <= groupRowkeyColumnsCount; i++) {
+                int dimNum = totalRowkeyColumnsCount - i;
+                addNDimensionCuboidStep(jobInstance, stepSeqNum, cuboidOutputTempPath, dimNum, totalRowkeyColumnsCount);
+                stepSeqNum++;
+            }
         }
 
-        // get output distribution step
-        addRangeRowkeyDistributionStep(jobInstance, stepSeqNum, jobWorkingDir + "/" + cubeName + "/cuboid/*");
-        stepSeqNum++;
+        if (this.engineConfig.isRegionPlanByStatistics()) {
+            // create htable step, splits planned from cuboid statistics
+            addCreateHTableStep(jobInstance, stepSeqNum, getCuboidStatisticsPath());
+            stepSeqNum++;
+        } else {
+            // get output distribution step
+            addRangeRowkeyDistributionStep(jobInstance, stepSeqNum, jobWorkingDir + "/" + cubeName + "/cuboid/*");
+            stepSeqNum++;
 
-        // create htable step
-        addCreateHTableStep(jobInstance, stepSeqNum);
-        stepSeqNum++;
+            // create htable step
+            addCreateHTableStep(jobInstance, stepSeqNum, getRowkeyDistributionOutputPath() + "/part-r-00000");
+            stepSeqNum++;
+        }
         // generate hfiles step
         addConvertCuboidToHfileStep(jobInstance, stepSeqNum, jobWorkingDir + "/" + cubeName + "/cuboid/*");
         stepSeqNum++;
@@ -338,6 +359,9 @@ public class JobInstanceBuilder {
         cmd = appendExecCmdParameters(cmd, "output", cuboidOutputTempPath[0]);
         cmd = appendExecCmdParameters(cmd, "jobname", "Kylin_Base_Cuboid_Builder_" + jobInstance.getRelatedCube() + "_Step_" + stepSeqNum);
         cmd = appendExecCmdParameters(cmd, "level", "0");
+        if (this.engineConfig.isRegionPlanByStatistics()) {
+            cmd = appendExecCmdParameters(cmd, "statisticsoutput", getCuboidStatisticsPath());
+        }
 
         baseCuboidStep.setExecCmd(cmd);
         baseCuboidStep.setSequenceID(stepSeqNum);
@@ -372,6 +396,43 @@ public class JobInstanceBuilder {
         jobInstance.addStep(stepSeqNum, ndCuboidStep);
     }
 
+    private void addInMemCubingStep(JobInstance jobInstance, int stepSeqNum) throws IOException {
+        JobStep inMemCubingStep = new JobStep();
+
+        String inputLocation;
+        String cmd = "";
+
+        if (this.engineConfig.isFlatTableByHive()) {
+            inputLocation = getIntermediateHiveTablePath();
+            cmd = appendMapReduceParameters(cmd);
+        } else {
+            HiveTable factTableInHive = new HiveTable(MetadataManager.getInstance(this.engineConfig.getConfig()), cube.getDescriptor().getFactTable());
+            inputLocation = factTableInHive.getHDFSLocation(false);
+            cmd = appendMapReduceParameters(cmd);
+            cmd = appendExecCmdParameters(cmd, "inputformat", "TextInputFormat");
+        }
+
+        inMemCubingStep.setName(JobConstants.STEP_NAME_BUILD_IN_MEM_CUBE);
+
+        cmd = appendExecCmdParameters(cmd, "cubename", cubeName);
+        cmd = appendExecCmdParameters(cmd, "segmentname", segmentName);
+        cmd = appendExecCmdParameters(cmd, "input", inputLocation);
+        cmd = appendExecCmdParameters(cmd, "output", getInMemCuboidOutputPath());
+        cmd = appendExecCmdParameters(cmd, "jobname", "Kylin_In_Mem_Cube_Builder_" + jobInstance.getRelatedCube() + "_Step_" + stepSeqNum);
+        cmd = appendExecCmdParameters(cmd, "level", "0");
+        if (this.engineConfig.isRegionPlanByStatistics()) {
+            cmd = appendExecCmdParameters(cmd, "statisticsoutput", getCuboidStatisticsPath());
+        }
+
+        inMemCubingStep.setExecCmd(cmd);
+        inMemCubingStep.setSequenceID(stepSeqNum);
+        inMemCubingStep.setStatus(JobStepStatusEnum.PENDING);
+        inMemCubingStep.setRunAsync(true);
+        inMemCubingStep.setCmdType(JobStepCmdTypeEnum.JAVA_CMD_HADOOP_INMEMCUBING);
+
+        jobInstance.addStep(stepSeqNum, inMemCubingStep);
+    }
+
     private void addRangeRowkeyDistributionStep(JobInstance jobInstance, int stepSeqNum, String inputPath) throws IOException {
         JobStep rowkeyDistributionStep = new JobStep();
         rowkeyDistributionStep.setName(JobConstants.STEP_NAME_GET_CUBOID_KEY_DISTRIBUTION);
@@ -413,12 +474,13 @@ public class JobInstanceBuilder {
         jobInstance.addStep(stepSeqNum, mergeCuboidDataStep);
     }
 
-    private void addCreateHTableStep(JobInstance jobInstance, int stepSeqNum) {
+    private void addCreateHTableStep(JobInstance jobInstance, int stepSeqNum, String inputPath) {
         JobStep createHtableStep = new JobStep();
         createHtableStep.setName(JobConstants.STEP_NAME_CREATE_HBASE_TABLE);
         String cmd = "";
         cmd = appendExecCmdParameters(cmd, "cubename", cubeName);
-        cmd = appendExecCmdParameters(cmd, "input", getRowkeyDistributionOutputPath() + "/part-r-00000");
+        cmd = appendExecCmdParameters(cmd, "segmentname", segmentName);
+        cmd = appendExecCmdParameters(cmd, "input", inputPath);
         cmd = appendExecCmdParameters(cmd, "htablename", htablename);
 
         createHtableStep.setExecCmd(cmd);
@@ -102,6 +102,7 @@ public class JobManager {
             // submitted job status should always be PENDING
             // job.setStatus(JobStatusEnum.PENDING);
             jobDAO.updateJobInstance(job);
+            jobEngine.triggerFetcher();
             return job.getUuid();
         } else {
             throw new InvalidJobInstanceException("Job " + job.getName() + " is duplicated!");
@@ -124,12 +125,13 @@ public class JobManager {
             }
         }
         jobDAO.updateJobInstance(jobInstance);
+        jobEngine.triggerFetcher();
     }
 
     private boolean hasDuplication(JobInstance newJob) throws IOException {
-        List<JobInstance> allJobs = listJobs(null, null);
-        for (JobInstance job : allJobs) {
-            if (job.getRelatedCube().equals(newJob.getRelatedCube()) && job.getRelatedSegment().equals(newJob.getRelatedSegment()) && job.getType().equals(newJob.getType()) && job.getStatus().equals(newJob.getStatus())) {
+        List<JobInstance> sameStatusJobs = jobDAO.listAllJobs(newJob.getStatus(), newJob.getRelatedCube());
+        for (JobInstance job : sameStatusJobs) {
+            if (job.getRelatedSegment().equals(newJob.getRelatedSegment()) && job.getType().equals(newJob.getType())) {
                 return true;
             }
         }
@@ -243,6 +245,7 @@ public class JobManager {
     }
 
     public void startJobEngine(int daemonJobIntervalInSeconds) throws Exception {
+        jobDAO.rebuildStatusIndex();
         jobDAO.updateRunningJobToError();
         jobEngine.start(daemonJobIntervalInSeconds);
     }
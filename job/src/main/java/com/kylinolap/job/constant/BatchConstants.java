@@ -35,6 +35,20 @@ public interface BatchConstants {
 
     public static final String CFG_CUBE_INTERMEDIATE_TABLE_ROW_DELIMITER = "cube.intermediate.table.row.delimiter";
 
+    // memory cap of in-mapper aggregation, 0 to disable
+    public static final String CFG_MAPPER_AGGREGATION_MEMORY_MB = "cube.mapper.aggregation.memory.mb";
+    public static final int DEFAULT_MAPPER_AGGREGATION_MEMORY_MB = 100;
+    // memory cap of the base cuboid buffer of in-memory cubing
+    public static final String CFG_INMEM_CUBING_MEMORY_MB = "cube.inmem.cubing.memory.mb";
+    public static final int DEFAULT_INMEM_CUBING_MEMORY_MB = 200;
+    // fact distinct columns, and reducers of each column
+    public static final String CFG_FACT_DICT_COLUMNS = "cube.fact.dict.columns";
+    public static final String CFG_FACT_DISTINCT_PARTS_PER_COLUMN = "cube.fact.distinct.parts.per.column";
+    // cuboid statistics output of the base cuboid step, and percent of rows sampled
+    public static final String CFG_STATISTICS_OUTPUT = "cube.statistics.output";
+    public static final String CFG_STATISTICS_SAMPLING_PERCENT = "cube.statistics.sampling.percent";
+    public static final int DEFAULT_STATISTICS_SAMPLING_PERCENT = 100;
+
     public static final String MAPREDUCE_COUTNER_GROUP_NAME = "Cube Builder";
 
     public static final String MAPPER_SAMPLE_NUMBER = "mapper.sample.number";
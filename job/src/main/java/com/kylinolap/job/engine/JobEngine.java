@@ -145,6 +145,13 @@ public class JobEngine implements ConnectionStateListener {
         }
     }
 
+    /**
+     * Looks for pending jobs now instead of waiting for the next interval.
+     */
+    public void triggerFetcher() {
+        this.scheduler.triggerFetcher();
+    }
+
     public void interruptJob(JobInstance jobInstance, JobStep jobStep) throws IOException, JobException {
         // kill the running step
         this.scheduler.interrupt(jobInstance, jobStep);
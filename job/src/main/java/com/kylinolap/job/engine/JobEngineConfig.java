@@ -122,6 +122,8 @@ public class JobEngineConfig {
     private final long jobStepTimeout;
     private final int asyncJobCheckInterval;
     private final boolean flatTableByHive;
+    private final boolean inMemCubing;
+    private final boolean regionPlanByStatistics;
 
     public JobEngineConfig(KylinConfig kylinConfig) {
         this.config = kylinConfig;
@@ -139,6 +141,8 @@ public class JobEngineConfig {
         this.jobStepTimeout = kylinConfig.getJobStepTimeout();
         this.asyncJobCheckInterval = kylinConfig.getYarnStatusCheckIntervalSeconds();
         this.flatTableByHive = kylinConfig.getFlatTableByHive();
+        this.inMemCubing = kylinConfig.isInMemCubing();
+        this.regionPlanByStatistics = kylinConfig.isRegionPlanByStatistics();
     }
 
     public KylinConfig getConfig() {
@@ -236,6 +240,20 @@ public class JobEngineConfig {
         return flatTableByHive;
     }
 
+    /**
+     * @return the inMemCubing
+     */
+    public boolean isInMemCubing() {
+        return inMemCubing;
+    }
+
+    /**
+     * @return the regionPlanByStatistics
+     */
+    public boolean isRegionPlanByStatistics() {
+        return regionPlanByStatistics;
+    }
+
     /**
      * @return the asyncJobCheckInterval
      */
@@ -17,13 +17,16 @@
 package com.kylinolap.job.engine;
 
 import java.util.List;
-import java.util.Random;
 import java.util.concurrent.ConcurrentHashMap;
 
+import org.quartz.DisallowConcurrentExecution;
 import org.quartz.Job;
 import org.quartz.JobDetail;
 import org.quartz.JobExecutionContext;
 import org.quartz.JobExecutionException;
+import org.quartz.JobKey;
+import org.quartz.Scheduler;
+import org.quartz.SchedulerException;
 import org.quartz.Trigger;
 import org.quartz.TriggerBuilder;
 import org.slf4j.Logger;
@@ -37,15 +40,34 @@ import com.kylinolap.job.constant.JobStatusEnum;
 import com.kylinolap.job.flow.JobFlow;
 
 /**
+ * Schedules pending jobs. Runs on the daemon interval, and is also triggered
+ * right away when a job is submitted or resumed, or a job flow completes.
+ * 
  * @author ysong1, xduo
  * 
  */
+@DisallowConcurrentExecution
 public class JobFetcher implements Job {
 
     private static final Logger log = LoggerFactory.getLogger(JobFetcher.class);
 
     public static final int JOB_THRESHOLD = 10;
 
+    public static final JobKey KEY = new JobKey(JobFetcher.class.getCanonicalName(), JobConstants.DAEMON_JOB_GROUP_NAME);
+
+    /**
+     * Fires the fetcher now, does nothing if the fetcher is not scheduled, e.g.
+     * the job engine is not started in this process.
+     */
+    public static void trigger(Scheduler scheduler) {
+        try {
+            if (scheduler.checkExists(KEY))
+                scheduler.triggerJob(KEY);
+        } catch (SchedulerException e) {
+            log.error("Failed to trigger the job fetcher", e);
+        }
+    }
+
     @Override
     public void execute(JobExecutionContext context) throws JobExecutionException {
 
@@ -61,7 +83,6 @@ public class JobFetcher implements Job {
 
             log.debug("Pending job count is " + pendingJobList.size());
             int leftJobs = JOB_THRESHOLD;
-            Random rand = new Random();
             int maxConcurrentJobCount = engineConfig.getMaxConcurrentJobLimit();
 
             for (JobInstance jobInstance : pendingJobList) {
@@ -108,8 +129,6 @@ public class JobFetcher implements Job {
                     log.info("Too many pending jobs!");
                     break;
                 }
-                long ms = Math.abs(rand.nextLong() % 10L);
-                Thread.sleep(ms * 1000L);
             }
         } catch (Throwable t) {
             log.error(t.getMessage());
@@ -97,7 +97,7 @@ public class QuatzScheduler {
     }
 
     public void scheduleFetcher(int intervalInSeconds, JobEngineConfig engineConfig) throws JobException {
-        JobDetail job = JobBuilder.newJob(JobFetcher.class).withIdentity(JobFetcher.class.getCanonicalName(), JobConstants.DAEMON_JOB_GROUP_NAME).build();
+        JobDetail job = JobBuilder.newJob(JobFetcher.class).withIdentity(JobFetcher.KEY).build();
         job.getJobDataMap().put(JobConstants.PROP_ENGINE_CONTEXT, engineConfig);
 
         Trigger trigger = TriggerBuilder.newTrigger().startNow().withSchedule(SimpleScheduleBuilder.simpleSchedule().withIntervalInSeconds(intervalInSeconds).repeatForever()).build();
@@ -109,6 +109,10 @@ public class QuatzScheduler {
         }
     }
 
+    public void triggerFetcher() {
+        JobFetcher.trigger(this.scheduler);
+    }
+
     public boolean interrupt(JobInstance jobInstance, JobStep jobStep) throws JobException, IOException {
         JobKey jobKey = new JobKey(JobInstance.getStepIdentity(jobInstance, jobStep), JobConstants.CUBE_JOB_GROUP_NAME);
 
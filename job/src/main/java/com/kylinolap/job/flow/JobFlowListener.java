@@ -48,6 +48,7 @@ import com.kylinolap.job.constant.JobConstants;
 import com.kylinolap.job.constant.JobStatusEnum;
 import com.kylinolap.job.constant.JobStepStatusEnum;
 import com.kylinolap.job.engine.JobEngineConfig;
+import com.kylinolap.job.engine.JobFetcher;
 import com.kylinolap.job.tools.MailService;
 
 /**
@@ -126,6 +127,8 @@ public class JobFlowListener implements JobListener {
                 } catch (SchedulerException e) {
                     log.error(e.getMessage(), e);
                 }
+                // a slot is freed, and the cube may have more jobs pending
+                JobFetcher.trigger(context.getScheduler());
             }
         }
     }
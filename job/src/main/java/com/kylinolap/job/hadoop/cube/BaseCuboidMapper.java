@@ -20,6 +20,8 @@ import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.List;
 
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
@@ -28,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Lists;
 import com.kylinolap.common.KylinConfig;
+import com.kylinolap.common.util.BytesUtil;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeManager;
 import com.kylinolap.cube.CubeSegment;
@@ -38,6 +41,7 @@ import com.kylinolap.cube.cuboid.Cuboid;
 import com.kylinolap.cube.kv.AbstractRowKeyEncoder;
 import com.kylinolap.cube.kv.RowConstants;
 import com.kylinolap.cube.measure.MeasureCodec;
+import com.kylinolap.dict.Dictionary;
 import com.kylinolap.job.constant.BatchConstants;
 import com.kylinolap.job.hadoop.AbstractHadoopJob;
 import com.kylinolap.job.hadoop.hive.JoinedFlatTableDesc;
@@ -61,23 +65,26 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
     private Cuboid baseCuboid;
     private CubeInstance cube;
     private CubeDesc cubeDesc;
-    private CubeSegment cubeSegment;
+    protected CubeSegment cubeSegment;
     private List<byte[]> nullBytes;
 
     private JoinedFlatTableDesc intermediateTableDesc;
     private String intermediateTableRowDelimiter;
-    private byte byteRowDelimiter;
+    protected byte byteRowDelimiter;
 
     private int counter;
     private Text outputKey = new Text();
     private Text outputValue = new Text();
-    private Object[] measures;
+    protected Object[] measures;
     private byte[][] keyBytesBuf;
     private ByteBuffer valueBuf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
 
-    private BytesSplitter bytesSplitter;
+    protected BytesSplitter bytesSplitter;
     private AbstractRowKeyEncoder rowKeyEncoder;
     private MeasureCodec measureCodec;
+    private Dictionary<?>[] globalDicts; // of bitmap count distinct and TopN measures
+    private MapperAggregationCache aggCache;
+    private CuboidStatistics statistics;
 
     @Override
     protected void setup(Context context) throws IOException {
@@ -106,10 +113,25 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
 
         measureCodec = new MeasureCodec(cubeDesc.getMeasures());
         measures = new Object[cubeDesc.getMeasures().size()];
+        aggCache = MapperAggregationCache.create(context.getConfiguration(), cubeDesc.getMeasures());
+
+        globalDicts = new Dictionary<?>[measures.length];
+        for (int i = 0; i < measures.length; i++) {
+            FunctionDesc func = cubeDesc.getMeasures().get(i).getFunction();
+            if (func.isBitmapCountDistinct())
+                globalDicts[i] = CubeManager.getInstance(config).getGlobalDictionary(cube, func.getParameter().getColRefs().get(0));
+            else if (func.isTopN())
+                globalDicts[i] = CubeManager.getInstance(config).getGlobalDictionary(cube, func.getParameter().getColRefs().get(1));
+        }
 
         int colCount = cubeDesc.getRowkey().getRowKeyColumns().length;
         keyBytesBuf = new byte[colCount][];
 
+        if (context.getConfiguration().get(BatchConstants.CFG_STATISTICS_OUTPUT) != null) {
+            int samplingPercent = context.getConfiguration().getInt(BatchConstants.CFG_STATISTICS_SAMPLING_PERCENT, BatchConstants.DEFAULT_STATISTICS_SAMPLING_PERCENT);
+            statistics = new CuboidStatistics(cubeDesc, samplingPercent);
+        }
+
         initNullBytes();
     }
 
@@ -132,7 +154,7 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
         return false;
     }
 
-    private byte[] buildKey(SplittedBytes[] splitBuffers) {
+    protected byte[] buildKey(SplittedBytes[] splitBuffers) {
         int[] rowKeyColumnIndexes = intermediateTableDesc.getRowKeyColumnIndexes();
         for (int i = 0; i < baseCuboid.getColumns().size(); i++) {
             int index = rowKeyColumnIndexes[i];
@@ -144,15 +166,18 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
         return rowKeyEncoder.encode(keyBytesBuf);
     }
 
-    private void buildValue(SplittedBytes[] splitBuffers) {
-
+    protected void buildMeasures(SplittedBytes[] splitBuffers) {
         for (int i = 0; i < measures.length; i++) {
             byte[] valueBytes = getValueBytes(splitBuffers, i);
             measures[i] = measureCodec.getSerializer(i).valueOf(valueBytes);
         }
+    }
+
+    private void buildValue(SplittedBytes[] splitBuffers) {
+        buildMeasures(splitBuffers);
 
         valueBuf.clear();
-        measureCodec.encode(measures, valueBuf);
+        valueBuf = measureCodec.encode(measures, valueBuf);
     }
 
     private byte[] getValueBytes(SplittedBytes[] splitBuffers, int measureIdx) {
@@ -161,6 +186,9 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
         ParameterDesc paramDesc = func.getParameter();
         int[] flatTableIdx = intermediateTableDesc.getMeasureColumnIndexes()[measureIdx];
 
+        if (func.isTopN())
+            return getTopNValueBytes(splitBuffers, flatTableIdx, globalDicts[measureIdx]);
+
         byte[] result = null;
 
         // constant
@@ -192,9 +220,30 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
             result = null;
         }
 
+        // bitmap count distinct takes the ID of the value
+        if (result != null && globalDicts[measureIdx] != null) {
+            result = Bytes.toBytes(globalDicts[measureIdx].getIdFromValueBytes(result, 0, result.length));
+        }
+
         return result;
     }
 
+    // the global dictionary ID of the key followed by the weight
+    private byte[] getTopNValueBytes(SplittedBytes[] splitBuffers, int[] flatTableIdx, Dictionary<?> keyDict) {
+        SplittedBytes weight = splitBuffers[flatTableIdx[0]];
+        SplittedBytes key = splitBuffers[flatTableIdx[1]];
+
+        byte[] keyBytes = Arrays.copyOf(key.value, key.length);
+        if (isNull(keyBytes))
+            return null;
+
+        byte[] weightBytes = Arrays.copyOf(weight.value, weight.length);
+        if (isNull(weightBytes))
+            weightBytes = BytesUtil.EMPTY_BYTE_ARRAY;
+
+        return Bytes.add(Bytes.toBytes(keyDict.getIdFromValueBytes(keyBytes, 0, keyBytes.length)), weightBytes);
+    }
+
     @Override
     public void map(KEYIN key, Text value, Context context) throws IOException, InterruptedException {
         counter++;
@@ -205,11 +254,60 @@ public class BaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text> {
         bytesSplitter.split(value.getBytes(), value.getLength(), byteRowDelimiter);
 
         byte[] rowKey = buildKey(bytesSplitter.getSplitBuffers());
+
+        boolean sampled = collectKeyStatistics();
+
+        if (aggCache.isEnabled()) {
+            buildMeasures(bytesSplitter.getSplitBuffers());
+            if (sampled) {
+                collectValueStatistics();
+            }
+            aggCache.aggregate(rowKey, 0, rowKey.length, measures, context);
+            return;
+        }
+
         outputKey.set(rowKey, 0, rowKey.length);
 
         buildValue(bytesSplitter.getSplitBuffers());
         outputValue.set(valueBuf.array(), 0, valueBuf.position());
+        if (sampled) {
+            statistics.collectValue(valueBuf.position());
+        }
 
         context.write(outputKey, outputValue);
     }
+
+    /**
+     * Counts the current row key into statistics, after buildKey().
+     * 
+     * @return whether the measure size of the current row is to be sampled
+     */
+    protected boolean collectKeyStatistics() {
+        return statistics != null && statistics.collectKey(keyBytesBuf);
+    }
+
+    /**
+     * Samples the measure size of the current row into statistics, after
+     * buildMeasures().
+     */
+    protected void collectValueStatistics() {
+        valueBuf.clear();
+        valueBuf = measureCodec.encode(measures, valueBuf);
+        statistics.collectValue(valueBuf.position());
+    }
+
+    protected void writeStatistics(Context context) throws IOException {
+        if (statistics == null)
+            return;
+
+        Path dir = new Path(context.getConfiguration().get(BatchConstants.CFG_STATISTICS_OUTPUT));
+        String part = String.format("part-m-%05d", context.getTaskAttemptID().getTaskID().getId());
+        statistics.write(FileSystem.get(dir.toUri(), context.getConfiguration()), new Path(dir, part));
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        aggCache.flush(context);
+        writeStatistics(context);
+    }
 }
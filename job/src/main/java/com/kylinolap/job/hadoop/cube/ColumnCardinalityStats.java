@@ -0,0 +1,108 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+
+/**
+ * Cardinality of a fact table column, as collected by
+ * FactDistinctColumnsReducer. Each reducer writes the stats of its part of a
+ * column under "_stats/COLUMN/" of the job output; parts of a column hold
+ * disjoint values, so the exact distinct counts add up, while the HLL counters
+ * can be merged further, e.g. across segments.
+ */
+public class ColumnCardinalityStats {
+
+    public static final String STATS_DIR = "_stats";
+    public static final int HLL_PRECISION = 14;
+
+    private long distinctCount;
+    private HyperLogLogPlusCounter hllc = new HyperLogLogPlusCounter(HLL_PRECISION);
+
+    public long getDistinctCount() {
+        return distinctCount;
+    }
+
+    public HyperLogLogPlusCounter getHllc() {
+        return hllc;
+    }
+
+    public void merge(long partCount, HyperLogLogPlusCounter partHllc) {
+        distinctCount += partCount;
+        hllc.merge(partHllc);
+    }
+
+    public static String getPartName(int partition) {
+        return String.format("part-r-%05d", partition);
+    }
+
+    public static void write(FileSystem fs, String outputPath, String colName, int partition, long distinctCount, HyperLogLogPlusCounter hllc) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(hllc.getMemBytes() + 16);
+        hllc.writeRegisters(buf);
+
+        DataOutputStream out = fs.create(new Path(outputPath + "/" + STATS_DIR + "/" + colName, getPartName(partition)));
+        try {
+            out.writeLong(distinctCount);
+            out.writeInt(buf.position());
+            out.write(buf.array(), 0, buf.position());
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @return stats by column name, merged from all parts
+     */
+    public static Map<String, ColumnCardinalityStats> readAll(FileSystem fs, String outputPath) throws IOException {
+        Map<String, ColumnCardinalityStats> result = new HashMap<String, ColumnCardinalityStats>();
+        Path statsDir = new Path(outputPath, STATS_DIR);
+        if (fs.exists(statsDir) == false)
+            return result;
+
+        HyperLogLogPlusCounter partHllc = new HyperLogLogPlusCounter(HLL_PRECISION);
+        for (FileStatus colDir : fs.listStatus(statsDir)) {
+            ColumnCardinalityStats stats = new ColumnCardinalityStats();
+            for (FileStatus part : fs.listStatus(colDir.getPath())) {
+                if (part.getPath().getName().startsWith("."))
+                    continue;
+                DataInputStream in = fs.open(part.getPath());
+                try {
+                    long count = in.readLong();
+                    byte[] registers = new byte[in.readInt()];
+                    in.readFully(registers);
+                    partHllc.readRegisters(ByteBuffer.wrap(registers));
+                    stats.merge(count, partHllc);
+                } finally {
+                    in.close();
+                }
+            }
+            result.put(colDir.getPath().getName(), stats);
+        }
+        return result;
+    }
+}
@@ -145,7 +145,7 @@ public class CubeHFileMapper extends Mapper<Text, Text, ImmutableBytesWritable,
             }
 
             valueBuf.clear();
-            codec.encode(colValues, valueBuf);
+            valueBuf = codec.encode(colValues, valueBuf);
 
             return create(key, valueBuf.array(), 0, valueBuf.position());
         }
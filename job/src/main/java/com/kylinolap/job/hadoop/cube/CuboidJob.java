@@ -65,6 +65,7 @@ public class CuboidJob extends AbstractHadoopJob {
             options.addOption(OPTION_OUTPUT_PATH);
             options.addOption(OPTION_NCUBOID_LEVEL);
             options.addOption(OPTION_INPUT_FORMAT);
+            options.addOption(OPTION_STATISTICS_OUTPUT);
             parseOptions(options, args);
 
             Path input = new Path(getOptionValue(OPTION_INPUT_PATH));
@@ -124,6 +125,12 @@ public class CuboidJob extends AbstractHadoopJob {
             // set job configuration
             job.getConfiguration().set(BatchConstants.CFG_CUBE_NAME, cubeName);
             job.getConfiguration().set(BatchConstants.CFG_CUBE_SEGMENT_NAME, segmentName);
+            if (hasOption(OPTION_STATISTICS_OUTPUT)) {
+                Path statisticsOutput = new Path(getOptionValue(OPTION_STATISTICS_OUTPUT));
+                this.deletePath(job.getConfiguration(), statisticsOutput);
+                job.getConfiguration().set(BatchConstants.CFG_STATISTICS_OUTPUT, statisticsOutput.toString());
+                job.getConfiguration().setInt(BatchConstants.CFG_STATISTICS_SAMPLING_PERCENT, config.getStatisticsSamplingPercent());
+            }
             // add metadata to distributed cache
             attachKylinPropsAndMetadata(cube, job.getConfiguration());
 
@@ -151,18 +158,8 @@ public class CuboidJob extends AbstractHadoopJob {
         // total map input MB
         double totalMapInputMB = this.getTotalMapInputMB();
 
-        // output / input ratio
-        int preLevelCuboids, thisLevelCuboids;
-        if (level == 0) { // base cuboid
-            preLevelCuboids = thisLevelCuboids = 1;
-        } else { // n-cuboid
-            int[] allLevelCount = CuboidCLI.calculateAllLevelCount(cubeDesc);
-            preLevelCuboids = allLevelCount[level - 1];
-            thisLevelCuboids = allLevelCount[level];
-        }
-
         // total reduce input MB
-        double totalReduceInputMB = totalMapInputMB * thisLevelCuboids / preLevelCuboids;
+        double totalReduceInputMB = totalMapInputMB * getOutputInputRatio(cubeDesc, level);
 
         // number of reduce tasks
         int numReduceTasks = (int) Math.round(totalReduceInputMB / perReduceInputMB * reduceCountRatio);
@@ -181,11 +178,23 @@ public class CuboidJob extends AbstractHadoopJob {
         jobConf.setInt(MAPRED_REDUCE_TASKS, numReduceTasks);
 
         System.out.println("Having total map input MB " + Math.round(totalMapInputMB));
-        System.out.println("Having level " + level + ", pre-level cuboids " + preLevelCuboids + ", this level cuboids " + thisLevelCuboids);
         System.out.println("Having per reduce MB " + perReduceInputMB + ", reduce count ratio " + reduceCountRatio);
         System.out.println("Setting " + MAPRED_REDUCE_TASKS + "=" + numReduceTasks);
     }
 
+    protected double getOutputInputRatio(CubeDesc cubeDesc, int level) {
+        int preLevelCuboids, thisLevelCuboids;
+        if (level == 0) { // base cuboid
+            preLevelCuboids = thisLevelCuboids = 1;
+        } else { // n-cuboid
+            int[] allLevelCount = CuboidCLI.calculateAllLevelCount(cubeDesc);
+            preLevelCuboids = allLevelCount[level - 1];
+            thisLevelCuboids = allLevelCount[level];
+        }
+        System.out.println("Having level " + level + ", pre-level cuboids " + preLevelCuboids + ", this level cuboids " + thisLevelCuboids);
+        return (double) thisLevelCuboids / preLevelCuboids;
+    }
+
     /**
      * @param mapperClass
      *            the mapperClass to set
@@ -0,0 +1,298 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.cube.cuboid.Cuboid;
+import com.kylinolap.cube.cuboid.CuboidScheduler;
+import com.kylinolap.metadata.model.cube.CubeDesc;
+
+/**
+ * Estimated row count of each cuboid, collected from the flat table rows by
+ * the base cuboid step with one HLL counter per cuboid, plus the average size
+ * of the measure values. Each mapper writes its part, which are merged by
+ * readAll().
+ *
+ * The HLL counters see every distinct base cuboid key, as a distinct count
+ * cannot be scaled up from a sample without over-estimating cuboids of low
+ * cardinality. But a row whose base cuboid key is among the recently seen ones
+ * skips the counters, as its cuboid keys are counted already, so the cost over
+ * all cuboids is paid about once per distinct key instead of once per row.
+ * For a cube of many cuboids, the precision of the counters is lowered to keep
+ * them within HLL_MEMORY_BUDGET. Only the size of the measure values, which
+ * costs an extra encoding, is sampled.
+ */
+public class CuboidStatistics {
+
+    public static final int HLL_PRECISION = 12;
+    public static final int MIN_HLL_PRECISION = 8;
+    public static final long HLL_MEMORY_BUDGET = 32L * 1024 * 1024;
+
+    private static final int RECENT_KEYS = 1 << 16;
+
+    private final Map<Long, HyperLogLogPlusCounter> counters = new TreeMap<Long, HyperLogLogPlusCounter>();
+    private long totalRows;
+    private long sampledRows;
+    private long sampledValueBytes;
+    private int precision = HLL_PRECISION;
+
+    // for collecting
+    private int samplingPercent;
+    private long[] cuboidIds;
+    private int[][] cuboidColumns; // base cuboid column indexes of each cuboid
+    private HyperLogLogPlusCounter[] cuboidCounters;
+    private HashFunction hashFunc;
+    private long[] columnHashes;
+    private ByteBuffer hashBuf;
+    private long[] recentKeys; // base cuboid key hashes, by hash value as slot
+
+    public CuboidStatistics() {
+    }
+
+    /**
+     * Prepares to collect statistics of all cuboids of a cube.
+     */
+    public CuboidStatistics(CubeDesc cubeDesc, int samplingPercent) {
+        this.samplingPercent = Math.max(1, Math.min(100, samplingPercent));
+
+        long baseCuboidId = Cuboid.getBaseCuboidId(cubeDesc);
+        int nColumns = Long.bitCount(baseCuboidId);
+        Set<Long> all = getAllCuboidIds(cubeDesc);
+        precision = precisionFor(all.size());
+
+        cuboidIds = new long[all.size()];
+        cuboidColumns = new int[all.size()][];
+        cuboidCounters = new HyperLogLogPlusCounter[all.size()];
+        int i = 0;
+        for (long cuboidId : all) {
+            cuboidIds[i] = cuboidId;
+            // column i of base cuboid is bit (nColumns - 1 - i), see
+            // NDCuboidMapper
+            int[] cols = new int[Long.bitCount(cuboidId)];
+            int k = 0;
+            for (int col = 0; col < nColumns; col++) {
+                if ((cuboidId & (1L << (nColumns - 1 - col))) != 0)
+                    cols[k++] = col;
+            }
+            cuboidColumns[i] = cols;
+            cuboidCounters[i] = new HyperLogLogPlusCounter(precision);
+            counters.put(cuboidId, cuboidCounters[i]);
+            i++;
+        }
+
+        hashFunc = Hashing.murmur3_128();
+        columnHashes = new long[nColumns];
+        hashBuf = ByteBuffer.allocate(8 * nColumns);
+        recentKeys = new long[RECENT_KEYS];
+    }
+
+    /**
+     * @return the highest precision whose dense counters of all cuboids fit in
+     *         HLL_MEMORY_BUDGET, within [MIN_HLL_PRECISION, HLL_PRECISION]
+     */
+    public static int precisionFor(int nCuboids) {
+        int p = HLL_PRECISION;
+        while (p > MIN_HLL_PRECISION && (long) nCuboids << p > HLL_MEMORY_BUDGET) {
+            p--;
+        }
+        return p;
+    }
+
+    private static Set<Long> getAllCuboidIds(CubeDesc cubeDesc) {
+        CuboidScheduler scheduler = new CuboidScheduler(cubeDesc);
+        Set<Long> result = new java.util.TreeSet<Long>();
+        LinkedList<Long> queue = new LinkedList<Long>();
+        queue.add(Cuboid.getBaseCuboidId(cubeDesc));
+        while (!queue.isEmpty()) {
+            long cuboidId = queue.poll();
+            result.add(cuboidId);
+            queue.addAll(scheduler.getSpanningCuboid(cuboidId));
+        }
+        return result;
+    }
+
+    /**
+     * Counts a row into the HLL counters of all cuboids, unless its base cuboid
+     * key is seen recently.
+     * 
+     * @param columnValues
+     *            values of the base cuboid columns, null for null
+     * @return whether the measure size of the row is to be sampled by
+     *         collectValue()
+     */
+    public boolean collectKey(byte[][] columnValues) {
+        totalRows++;
+
+        hashBuf.clear();
+        for (int i = 0; i < columnHashes.length; i++) {
+            columnHashes[i] = columnValues[i] == null ? 0 : hashFunc.hashBytes(columnValues[i]).asLong();
+            hashBuf.putLong(columnHashes[i]);
+        }
+
+        // a slot may be taken by another key, then the key is just counted
+        // again, which does not change an HLL counter
+        long keyHash = hashFunc.hashBytes(hashBuf.array(), 0, hashBuf.position()).asLong();
+        int slot = (int) (keyHash & (RECENT_KEYS - 1));
+        if (recentKeys[slot] == keyHash)
+            return totalRows % 100 < samplingPercent;
+        recentKeys[slot] = keyHash;
+
+        for (int i = 0; i < cuboidIds.length; i++) {
+            hashBuf.clear();
+            for (int col : cuboidColumns[i]) {
+                hashBuf.putLong(columnHashes[col]);
+            }
+            cuboidCounters[i].add(hashBuf.array(), 0, hashBuf.position());
+        }
+
+        return totalRows % 100 < samplingPercent;
+    }
+
+    /**
+     * @param valueBytes
+     *            size of the encoded measures of a sampled row
+     */
+    public void collectValue(int valueBytes) {
+        sampledRows++;
+        sampledValueBytes += valueBytes;
+    }
+
+    public void merge(CuboidStatistics another) {
+        if (counters.isEmpty())
+            precision = another.precision;
+        else if (precision != another.precision)
+            throw new IllegalStateException("Cannot merge statistics of HLL precision " + another.precision + " into " + precision);
+
+        totalRows += another.totalRows;
+        sampledRows += another.sampledRows;
+        sampledValueBytes += another.sampledValueBytes;
+        for (Map.Entry<Long, HyperLogLogPlusCounter> entry : another.counters.entrySet()) {
+            HyperLogLogPlusCounter counter = counters.get(entry.getKey());
+            if (counter == null) {
+                counters.put(entry.getKey(), new HyperLogLogPlusCounter(entry.getValue()));
+            } else {
+                counter.merge(entry.getValue());
+            }
+        }
+    }
+
+    public Set<Long> getCuboidIds() {
+        return counters.keySet();
+    }
+
+    public long getRowCount(long cuboidId) {
+        HyperLogLogPlusCounter counter = counters.get(cuboidId);
+        if (counter == null)
+            return 0;
+
+        return Math.min(totalRows, counter.getCountEstimate());
+    }
+
+    public double getAvgValueBytes() {
+        return sampledRows == 0 ? 0 : (double) sampledValueBytes / sampledRows;
+    }
+
+    public long getTotalRows() {
+        return totalRows;
+    }
+
+    public long getSampledRows() {
+        return sampledRows;
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    // ============================================================================
+
+    public void write(FileSystem fs, Path path) throws IOException {
+        // array scheme at most, an empty counter is sparse and much smaller
+        ByteBuffer buf = ByteBuffer.allocate((1 << precision) + 16);
+
+        DataOutputStream out = fs.create(path);
+        try {
+            out.writeLong(totalRows);
+            out.writeLong(sampledRows);
+            out.writeLong(sampledValueBytes);
+            out.writeInt(precision);
+            out.writeInt(counters.size());
+            for (Map.Entry<Long, HyperLogLogPlusCounter> entry : counters.entrySet()) {
+                buf.clear();
+                entry.getValue().writeRegisters(buf);
+                out.writeLong(entry.getKey());
+                out.writeInt(buf.position());
+                out.write(buf.array(), 0, buf.position());
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    public void read(FileSystem fs, Path path) throws IOException {
+        DataInputStream in = fs.open(path);
+        try {
+            totalRows = in.readLong();
+            sampledRows = in.readLong();
+            sampledValueBytes = in.readLong();
+            precision = in.readInt();
+            int n = in.readInt();
+            counters.clear();
+            for (int i = 0; i < n; i++) {
+                long cuboidId = in.readLong();
+                byte[] registers = new byte[in.readInt()];
+                in.readFully(registers);
+                HyperLogLogPlusCounter counter = new HyperLogLogPlusCounter(precision);
+                counter.readRegisters(ByteBuffer.wrap(registers));
+                counters.put(cuboidId, counter);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @return the statistics merged from all parts under a directory
+     */
+    public static CuboidStatistics readAll(FileSystem fs, Path dir) throws IOException {
+        CuboidStatistics result = new CuboidStatistics();
+        CuboidStatistics part = new CuboidStatistics();
+        for (FileStatus status : fs.listStatus(dir)) {
+            String name = status.getPath().getName();
+            if (status.isDirectory() || name.startsWith("_") || name.startsWith("."))
+                continue;
+            part.read(fs, status.getPath());
+            result.merge(part);
+        }
+        return result;
+    }
+}
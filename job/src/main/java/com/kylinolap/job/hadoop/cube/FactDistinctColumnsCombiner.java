@@ -16,39 +16,25 @@
 package com.kylinolap.job.hadoop.cube;
 
 import java.io.IOException;
-import java.util.HashSet;
 
-import org.apache.hadoop.hbase.util.Bytes;
-import org.apache.hadoop.io.ShortWritable;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
-import com.kylinolap.common.util.ByteArray;
-
 /**
+ * Values come in the key, so de-dup is just to write each key once.
+ * 
  * @author yangli9
  */
-public class FactDistinctColumnsCombiner extends Reducer<ShortWritable, Text, ShortWritable, Text> {
-
-    private Text outputValue = new Text();
+public class FactDistinctColumnsCombiner extends Reducer<Text, NullWritable, Text, NullWritable> {
 
     @Override
     protected void setup(Context context) throws IOException {
     }
 
     @Override
-    public void reduce(ShortWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-
-        HashSet<ByteArray> set = new HashSet<ByteArray>();
-        for (Text textValue : values) {
-            ByteArray value = new ByteArray(Bytes.copy(textValue.getBytes(), 0, textValue.getLength()));
-            set.add(value);
-        }
-
-        for (ByteArray value : set) {
-            outputValue.set(value.data);
-            context.write(key, outputValue);
-        }
+    public void reduce(Text key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+        context.write(key, NullWritable.get());
     }
 
 }
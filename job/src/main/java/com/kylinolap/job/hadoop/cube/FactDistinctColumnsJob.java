@@ -22,7 +22,6 @@ import java.io.IOException;
 import org.apache.commons.cli.Options;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.ShortWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Job;
 import org.apache.hadoop.mapreduce.lib.input.FileInputFormat;
@@ -38,6 +37,7 @@ import com.kylinolap.common.KylinConfig;
 import com.kylinolap.cube.CubeManager;
 import com.kylinolap.job.constant.BatchConstants;
 import com.kylinolap.job.hadoop.AbstractHadoopJob;
+import com.kylinolap.metadata.model.cube.CubeDesc;
 
 /**
  * @author yangli9
@@ -68,11 +68,15 @@ public class FactDistinctColumnsJob extends AbstractHadoopJob {
             job.getConfiguration().set(BatchConstants.CFG_CUBE_NAME, cubeName);
             System.out.println("Starting: " + job.getJobName());
 
+            KylinConfig config = KylinConfig.getInstanceFromEnv();
+            CubeManager cubeMgr = CubeManager.getInstance(config);
+            CubeDesc cubeDesc = cubeMgr.getCube(cubeName).getDescriptor();
+            int[] factDictCols = FactDistinctColumnsMapper.getFactDictColumns(cubeDesc, config);
+
             setupMapInput(input, inputFormat);
-            setupReduceOutput(output);
+            setupReduceOutput(output, factDictCols);
 
             // add metadata to distributed cache
-            CubeManager cubeMgr = CubeManager.getInstance(KylinConfig.getInstanceFromEnv());
             // CubeSegment seg = cubeMgr.getCube(cubeName).getTheOnlySegment();
             attachKylinPropsAndMetadata(cubeMgr.getCube(cubeName), job.getConfiguration());
 
@@ -103,11 +107,12 @@ public class FactDistinctColumnsJob extends AbstractHadoopJob {
         }
         job.setMapperClass(FactDistinctColumnsMapper.class);
         job.setCombinerClass(FactDistinctColumnsCombiner.class);
-        job.setMapOutputKeyClass(ShortWritable.class);
-        job.setMapOutputValueClass(Text.class);
+        job.setMapOutputKeyClass(Text.class);
+        job.setMapOutputValueClass(NullWritable.class);
     }
 
-    private void setupReduceOutput(Path output) throws IOException {
+    private void setupReduceOutput(Path output, int[] factDictCols) throws Exception {
+        job.setPartitionerClass(FactDistinctColumnsPartitioner.class);
         job.setReducerClass(FactDistinctColumnsReducer.class);
         job.setOutputFormatClass(SequenceFileOutputFormat.class);
         job.setOutputKeyClass(NullWritable.class);
@@ -116,11 +121,31 @@ public class FactDistinctColumnsJob extends AbstractHadoopJob {
         FileOutputFormat.setOutputPath(job, output);
         job.getConfiguration().set(BatchConstants.OUTPUT_PATH, output.toString());
 
-        job.setNumReduceTasks(1);
+        // reducers by column, and by hash within a column
+        int partsPerColumn = getPartsPerColumn(factDictCols.length);
+        job.getConfiguration().set(BatchConstants.CFG_FACT_DICT_COLUMNS, FactDistinctColumnsPartitioner.formatColumns(factDictCols));
+        job.getConfiguration().setInt(BatchConstants.CFG_FACT_DISTINCT_PARTS_PER_COLUMN, partsPerColumn);
+        job.setNumReduceTasks(Math.max(1, factDictCols.length * partsPerColumn));
+        System.out.println("Having " + factDictCols.length + " columns, " + partsPerColumn + " reducers per column");
 
         deletePath(job.getConfiguration(), output);
     }
 
+    private int getPartsPerColumn(int nColumns) throws Exception {
+        if (nColumns == 0)
+            return 1;
+
+        KylinConfig kylinConfig = KylinConfig.getInstanceFromEnv();
+        double perReduceInputMB = kylinConfig.getDefaultHadoopJobReducerInputMB();
+        double reduceCountRatio = kylinConfig.getDefaultHadoopJobReducerCountRatio();
+
+        // each column gets its share of the map input
+        double perColumnInputMB = getTotalMapInputMB() / nColumns;
+        int parts = (int) Math.round(perColumnInputMB / perReduceInputMB * reduceCountRatio);
+        parts = Math.max(1, parts);
+        return Math.min(Math.max(1, kylinConfig.getHadoopJobMaxReducerNumber() / nColumns), parts);
+    }
+
     public static void main(String[] args) throws Exception {
         FactDistinctColumnsJob job = new FactDistinctColumnsJob();
         int exitCode = ToolRunner.run(job, args);
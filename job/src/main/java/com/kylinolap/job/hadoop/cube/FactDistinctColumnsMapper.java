@@ -20,7 +20,8 @@ import java.util.ArrayList;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
-import org.apache.hadoop.io.ShortWritable;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Mapper;
 
@@ -39,22 +40,28 @@ import com.kylinolap.metadata.model.cube.RowKeyDesc;
 import com.kylinolap.metadata.model.cube.TblColRef;
 
 /**
+ * Emits the dictionary columns on fact table as keys of 2 bytes column index
+ * followed by the value, such that shuffle sorts and de-dups the values of
+ * each column. Columns of global dictionaries are emitted too, see
+ * getDistinctColumnList().
+ * 
  * @author yangli9
  */
-public class FactDistinctColumnsMapper<KEYIN> extends Mapper<KEYIN, Text, ShortWritable, Text> {
+public class FactDistinctColumnsMapper<KEYIN> extends Mapper<KEYIN, Text, Text, NullWritable> {
 
     private String cubeName;
     private CubeInstance cube;
     private CubeDesc cubeDesc;
     private int[] factDictCols;
+    private int[] flatTableIndexes; // of each column in getDistinctColumnList()
 
     private JoinedFlatTableDesc intermediateTableDesc;
     private String intermediateTableRowDelimiter;
     private byte byteRowDelimiter;
     private BytesSplitter bytesSplitter;
 
-    private ShortWritable outputKey = new ShortWritable();
-    private Text outputValue = new Text();
+    private byte[] keyBuf = new byte[2 + 4096]; // column index + value
+    private Text outputKey = new Text();
 
     @Override
     protected void setup(Context context) throws IOException {
@@ -69,27 +76,66 @@ public class FactDistinctColumnsMapper<KEYIN> extends Mapper<KEYIN, Text, ShortW
         cubeDesc = cube.getDescriptor();
         intermediateTableDesc = new JoinedFlatTableDesc(cubeDesc, null);
 
+        factDictCols = getFactDictColumns(cubeDesc, config);
+
+        List<TblColRef> columns = getDistinctColumnList(cubeDesc);
+        int[] rowKeyColumnIndexes = intermediateTableDesc.getRowKeyColumnIndexes();
+        flatTableIndexes = new int[columns.size()];
+        for (int i = 0; i < columns.size(); i++) {
+            flatTableIndexes[i] = i < rowKeyColumnIndexes.length ? rowKeyColumnIndexes[i] : intermediateTableDesc.getColumnIndex(columns.get(i));
+        }
+    }
+
+    /**
+     * @return the base cuboid columns, followed by the columns of global
+     *         dictionaries; a column is identified by its index in this list
+     */
+    public static List<TblColRef> getDistinctColumnList(CubeDesc cubeDesc) {
         long baseCuboidId = Cuboid.getBaseCuboidId(cubeDesc);
         Cuboid baseCuboid = Cuboid.findById(cubeDesc, baseCuboidId);
-        List<TblColRef> columns = baseCuboid.getColumns();
+        List<TblColRef> result = new ArrayList<TblColRef>(baseCuboid.getColumns());
+        result.addAll(cubeDesc.listGlobalDictionaryColumns());
+        return result;
+    }
+
+    /**
+     * @return indexes of the columns whose dictionary is built from fact table,
+     *         in getDistinctColumnList()
+     */
+    public static int[] getFactDictColumns(CubeDesc cubeDesc, KylinConfig config) throws IOException {
+        long baseCuboidId = Cuboid.getBaseCuboidId(cubeDesc);
+        Cuboid baseCuboid = Cuboid.findById(cubeDesc, baseCuboidId);
+        int nBaseColumns = baseCuboid.getColumns().size();
+        List<TblColRef> columns = getDistinctColumnList(cubeDesc);
 
         ArrayList<Integer> factDictCols = new ArrayList<Integer>();
+        List<String> factDictColNames = new ArrayList<String>();
         RowKeyDesc rowkey = cubeDesc.getRowkey();
         DictionaryManager dictMgr = DictionaryManager.getInstance(config);
-        for (int i = 0; i < columns.size(); i++) {
+        for (int i = 0; i < nBaseColumns; i++) {
             TblColRef col = columns.get(i);
             if (rowkey.isUseDictionary(col) == false)
                 continue;
 
             String scanTable = (String) dictMgr.decideSourceData(cubeDesc, col, null)[0];
             if (cubeDesc.isFactTable(scanTable)) {
-                System.out.println(col + " -- " + i);
                 factDictCols.add(i);
+                factDictColNames.add(col.getName());
             }
         }
-        this.factDictCols = new int[factDictCols.size()];
+        // global dictionaries always take values from fact table, unless
+        // already collected as above
+        for (int i = nBaseColumns; i < columns.size(); i++) {
+            TblColRef col = columns.get(i);
+            if (factDictColNames.contains(col.getName()) == false) {
+                factDictCols.add(i);
+                factDictColNames.add(col.getName());
+            }
+        }
+        int[] result = new int[factDictCols.size()];
         for (int i = 0; i < factDictCols.size(); i++)
-            this.factDictCols[i] = factDictCols.get(i);
+            result[i] = factDictCols.get(i);
+        return result;
     }
 
     @Override
@@ -98,13 +144,15 @@ public class FactDistinctColumnsMapper<KEYIN> extends Mapper<KEYIN, Text, ShortW
         bytesSplitter.split(value.getBytes(), value.getLength(), byteRowDelimiter);
         SplittedBytes[] splitBuffers = bytesSplitter.getSplitBuffers();
 
-        int[] flatTableIndexes = intermediateTableDesc.getRowKeyColumnIndexes();
         for (int i : factDictCols) {
-            outputKey.set((short) i);
             SplittedBytes bytes = splitBuffers[flatTableIndexes[i]];
-            outputValue.set(bytes.value, 0, bytes.length);
-            System.out.println(i + " -- " + outputValue);
-            context.write(outputKey, outputValue);
+            if (keyBuf.length < 2 + bytes.length) {
+                keyBuf = new byte[Math.max(2 + bytes.length, keyBuf.length * 2)];
+            }
+            Bytes.putShort(keyBuf, 0, (short) i);
+            System.arraycopy(bytes.value, 0, keyBuf, 2, bytes.length);
+            outputKey.set(keyBuf, 0, bytes.length + 2);
+            context.write(outputKey, NullWritable.get());
         }
 
     }
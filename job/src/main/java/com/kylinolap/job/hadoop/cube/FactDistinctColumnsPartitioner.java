@@ -0,0 +1,88 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapreduce.Partitioner;
+
+import com.kylinolap.job.constant.BatchConstants;
+
+/**
+ * Gives each column its own range of reducers, and within the range spreads the
+ * values of the column by hash, such that a high cardinality column is not
+ * left to a single reducer.
+ */
+public class FactDistinctColumnsPartitioner extends Partitioner<Text, NullWritable> implements Configurable {
+
+    private Configuration conf;
+    private int[] colOrdinals; // column index to its ordinal among the columns
+    private int partsPerColumn;
+
+    @Override
+    public void setConf(Configuration conf) {
+        this.conf = conf;
+        this.partsPerColumn = conf.getInt(BatchConstants.CFG_FACT_DISTINCT_PARTS_PER_COLUMN, 1);
+
+        int[] cols = parseColumns(conf.get(BatchConstants.CFG_FACT_DICT_COLUMNS, ""));
+        int maxCol = -1;
+        for (int col : cols)
+            maxCol = Math.max(maxCol, col);
+        this.colOrdinals = new int[maxCol + 1];
+        for (int i = 0; i < cols.length; i++)
+            colOrdinals[cols[i]] = i;
+    }
+
+    @Override
+    public Configuration getConf() {
+        return conf;
+    }
+
+    @Override
+    public int getPartition(Text key, NullWritable value, int numPartitions) {
+        int col = Bytes.toShort(key.getBytes(), 0, 2);
+        int ordinal = col < colOrdinals.length ? colOrdinals[col] : col;
+        int hash = WritableComparator.hashBytes(key.getBytes(), 2, key.getLength() - 2);
+        int part = ordinal * partsPerColumn + (hash & Integer.MAX_VALUE) % partsPerColumn;
+        return part % numPartitions;
+    }
+
+    public static String formatColumns(int[] cols) {
+        StringBuilder buf = new StringBuilder();
+        for (int i = 0; i < cols.length; i++) {
+            if (i > 0)
+                buf.append(',');
+            buf.append(cols[i]);
+        }
+        return buf.toString();
+    }
+
+    public static int[] parseColumns(String str) {
+        if (str.isEmpty())
+            return new int[0];
+
+        String[] parts = str.split(",");
+        int[] cols = new int[parts.length];
+        for (int i = 0; i < parts.length; i++)
+            cols[i] = Integer.parseInt(parts[i].trim());
+        return cols;
+    }
+}
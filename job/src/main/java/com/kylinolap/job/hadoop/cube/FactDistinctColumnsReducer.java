@@ -17,7 +17,6 @@ package com.kylinolap.job.hadoop.cube;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashSet;
 import java.util.List;
 
 import org.apache.hadoop.conf.Configuration;
@@ -26,26 +25,37 @@ import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.hbase.util.Bytes;
 import org.apache.hadoop.io.NullWritable;
-import org.apache.hadoop.io.ShortWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.Reducer;
 
 import com.kylinolap.common.KylinConfig;
-import com.kylinolap.common.util.ByteArray;
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeManager;
-import com.kylinolap.cube.cuboid.Cuboid;
 import com.kylinolap.job.constant.BatchConstants;
 import com.kylinolap.job.hadoop.AbstractHadoopJob;
 import com.kylinolap.metadata.model.cube.CubeDesc;
 import com.kylinolap.metadata.model.cube.TblColRef;
 
 /**
+ * Keys come sorted by column then value, each reduce() being one distinct
+ * value. The values are streamed to a file per column and reducer, no need to
+ * hold them in memory. Along the way the cardinality of each column is
+ * counted, see ColumnCardinalityStats.
+ * 
  * @author yangli9
  */
-public class FactDistinctColumnsReducer extends Reducer<ShortWritable, Text, NullWritable, Text> {
+public class FactDistinctColumnsReducer extends Reducer<Text, NullWritable, NullWritable, Text> {
 
     private List<TblColRef> columnList = new ArrayList<TblColRef>();
+    private FileSystem fs;
+    private String outputPath;
+    private int partition;
+
+    private int currentCol = -1;
+    private FSDataOutputStream out;
+    private long distinctCount;
+    private HyperLogLogPlusCounter hllc;
 
     @Override
     protected void setup(Context context) throws IOException {
@@ -55,35 +65,49 @@ public class FactDistinctColumnsReducer extends Reducer<ShortWritable, Text, Nul
         CubeInstance cube = CubeManager.getInstance(config).getCube(cubeName);
         CubeDesc cubeDesc = cube.getDescriptor();
 
-        long baseCuboidId = Cuboid.getBaseCuboidId(cubeDesc);
-        Cuboid baseCuboid = Cuboid.findById(cubeDesc, baseCuboidId);
-        columnList = baseCuboid.getColumns();
+        columnList = FactDistinctColumnsMapper.getDistinctColumnList(cubeDesc);
+
+        fs = FileSystem.get(conf);
+        outputPath = conf.get(BatchConstants.OUTPUT_PATH);
+        partition = context.getTaskAttemptID().getTaskID().getId();
     }
 
     @Override
-    public void reduce(ShortWritable key, Iterable<Text> values, Context context) throws IOException, InterruptedException {
-        TblColRef col = columnList.get(key.get());
-
-        HashSet<ByteArray> set = new HashSet<ByteArray>();
-        for (Text textValue : values) {
-            ByteArray value = new ByteArray(Bytes.copy(textValue.getBytes(), 0, textValue.getLength()));
-            set.add(value);
+    public void reduce(Text key, Iterable<NullWritable> values, Context context) throws IOException, InterruptedException {
+        int col = Bytes.toShort(key.getBytes(), 0, 2);
+        if (col != currentCol) {
+            closeColumn();
+            openColumn(col);
         }
 
-        Configuration conf = context.getConfiguration();
-        FileSystem fs = FileSystem.get(conf);
-        String outputPath = conf.get(BatchConstants.OUTPUT_PATH);
-        FSDataOutputStream out = fs.create(new Path(outputPath, col.getName()));
-
-        try {
-            for (ByteArray value : set) {
-                out.write(value.data);
-                out.write('\n');
-            }
-        } finally {
-            out.close();
-        }
+        byte[] value = Bytes.copy(key.getBytes(), 2, key.getLength() - 2);
+        out.write(value);
+        out.write('\n');
+        distinctCount++;
+        hllc.add(value);
+    }
 
+    private void openColumn(int col) throws IOException {
+        currentCol = col;
+        String colName = columnList.get(col).getName();
+        out = fs.create(new Path(outputPath + "/" + colName, ColumnCardinalityStats.getPartName(partition)));
+        distinctCount = 0;
+        hllc = new HyperLogLogPlusCounter(ColumnCardinalityStats.HLL_PRECISION);
+    }
+
+    private void closeColumn() throws IOException {
+        if (currentCol < 0)
+            return;
+
+        out.close();
+        String colName = columnList.get(currentCol).getName();
+        ColumnCardinalityStats.write(fs, outputPath, colName, partition, distinctCount, hllc);
+        currentCol = -1;
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        closeColumn();
     }
 
 }
@@ -0,0 +1,250 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kylinolap.common.util.ByteArray;
+import com.kylinolap.cube.CubeSegment;
+import com.kylinolap.cube.common.RowKeySplitter;
+import com.kylinolap.cube.common.SplittedBytes;
+import com.kylinolap.cube.cuboid.Cuboid;
+import com.kylinolap.cube.cuboid.CuboidScheduler;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.cube.measure.MeasureAggregators;
+import com.kylinolap.cube.measure.MeasureCodec;
+import com.kylinolap.job.constant.BatchConstants;
+import com.kylinolap.metadata.model.cube.CubeDesc;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+
+/**
+ * Builds all cuboids of the rows seen by one mapper in memory. Base cuboid rows
+ * are aggregated in a buffer; when the buffer reaches its memory cap or the
+ * input ends, the whole cuboid lattice is computed from it following the
+ * spanning tree of CuboidScheduler, and every cuboid row is written out. The
+ * buffer is then cleared, so a split larger than memory is cubed in several
+ * spills, whose duplicate rows are merged by CuboidReducer.
+ *
+ * While computing the lattice, the rows of the cuboids along the current path
+ * of the spanning tree are held, each no bigger than the base cuboid buffer.
+ * Thus the base cuboid buffer is capped at memCap / (depth + 1), depth being
+ * the levels of the spanning tree below the base cuboid, to keep the buffers
+ * of a whole path within memCap.
+ */
+public class InMemCubeBuilder {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemCubeBuilder.class);
+
+    private final CubeDesc cubeDesc;
+    private final List<MeasureDesc> measureDescs;
+    private final CuboidScheduler cuboidScheduler;
+    private final Cuboid baseCuboid;
+    private final MeasureCodec codec;
+    private final long baseBufCap;
+
+    private Map<ByteArray, MeasureAggregators> baseBuf = new HashMap<ByteArray, MeasureAggregators>();
+    private long baseKeyMemBytes;
+    private int rowMemBytes; // estimated by sampled rows
+    private int sampledSize;
+    private long sampledInput;
+
+    private final RowKeySplitter rowKeySplitter;
+    private final byte[] keyBuf = new byte[4096];
+    private final Object[] states;
+    private ByteBuffer valueBuf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+    private final Text outputKey = new Text();
+    private final Text outputValue = new Text();
+
+    private long inputCount;
+    private long outputCount;
+    private int spillCount;
+
+    public InMemCubeBuilder(CubeSegment cubeSegment, long memCap) {
+        this.cubeDesc = cubeSegment.getCubeDesc();
+        this.measureDescs = cubeDesc.getMeasures();
+        this.cuboidScheduler = new CuboidScheduler(cubeDesc);
+        this.baseCuboid = Cuboid.findById(cubeDesc, Cuboid.getBaseCuboidId(cubeDesc));
+        this.codec = new MeasureCodec(measureDescs);
+        int depth = getTreeDepth(baseCuboid.getId());
+        this.baseBufCap = memCap / (depth + 1);
+        logger.info("Base cuboid buffer capped at " + baseBufCap + " bytes, for " + (depth + 1) + " levels of cuboids in " + memCap + " bytes");
+        this.rowKeySplitter = new RowKeySplitter(cubeSegment, 65, 256);
+        this.states = new Object[measureDescs.size()];
+    }
+
+    /**
+     * Aggregates a base cuboid row, cubing what is buffered if the memory cap
+     * is reached.
+     */
+    public void aggregate(byte[] baseKey, Object[] measures, TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        inputCount++;
+
+        ByteArray key = new ByteArray(baseKey);
+        MeasureAggregators aggs = baseBuf.get(key);
+        if (aggs == null) {
+            aggs = new MeasureAggregators(measureDescs);
+            baseBuf.put(key, aggs);
+            baseKeyMemBytes += baseKey.length;
+        }
+        aggs.aggregate(measures);
+
+        // re-sample each time groups or input rows double, as count distinct
+        // counters grow from sparse to dense
+        if (baseBuf.size() >= sampledSize * 2 || inputCount >= sampledInput * 2) {
+            sampledSize = baseBuf.size();
+            sampledInput = inputCount;
+            rowMemBytes = Math.max(rowMemBytes, aggs.getMemBytes());
+        }
+        if (getMemBytes() > baseBufCap) {
+            spill(context);
+        }
+    }
+
+    private int getTreeDepth(long cuboidId) {
+        int depth = 0;
+        Collection<Long> children = cuboidScheduler.getSpanningCuboid(cuboidId);
+        if (children != null) {
+            for (Long childId : children) {
+                depth = Math.max(depth, getTreeDepth(childId) + 1);
+            }
+        }
+        return depth;
+    }
+
+    public long getBaseBufCap() {
+        return baseBufCap;
+    }
+
+    public long getMemBytes() {
+        return baseKeyMemBytes + (100L + 4 * measureDescs.size() + rowMemBytes) * baseBuf.size();
+    }
+
+    /**
+     * Computes and writes all cuboids of the buffered rows, then clears the
+     * buffer.
+     */
+    public void spill(TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        if (baseBuf.isEmpty())
+            return;
+
+        long startOutput = outputCount;
+        Map<ByteArray, MeasureAggregators> buf = baseBuf;
+        baseBuf = new HashMap<ByteArray, MeasureAggregators>();
+        baseKeyMemBytes = 0;
+        sampledSize = 0;
+
+        write(buf, context);
+        buildChildren(baseCuboid, buf, context);
+        spillCount++;
+
+        context.getCounter(BatchConstants.MAPREDUCE_COUTNER_GROUP_NAME, "In-memory cubing spills").increment(1L);
+        logger.info("Spill " + spillCount + " wrote " + (outputCount - startOutput) + " cuboid records, " + inputCount + " input records so far");
+    }
+
+    // depth first, such that only the cuboids along one path are held
+    private void buildChildren(Cuboid parent, Map<ByteArray, MeasureAggregators> parentBuf, TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        Collection<Long> children = cuboidScheduler.getSpanningCuboid(parent.getId());
+        if (children == null || children.isEmpty())
+            return;
+
+        for (Long childId : children) {
+            Cuboid child = Cuboid.findById(cubeDesc, childId);
+            Map<ByteArray, MeasureAggregators> childBuf = new HashMap<ByteArray, MeasureAggregators>();
+            for (Map.Entry<ByteArray, MeasureAggregators> entry : parentBuf.entrySet()) {
+                byte[] parentKey = entry.getKey().data;
+                rowKeySplitter.split(parentKey, parentKey.length);
+                int keyLength = buildKey(parent, child, rowKeySplitter.getSplitBuffers());
+
+                ByteArray childKey = new ByteArray(Arrays.copyOf(keyBuf, keyLength));
+                MeasureAggregators aggs = childBuf.get(childKey);
+                if (aggs == null) {
+                    aggs = new MeasureAggregators(measureDescs);
+                    childBuf.put(childKey, aggs);
+                }
+                entry.getValue().collectStates(states);
+                aggs.aggregate(states);
+            }
+
+            write(childBuf, context);
+            buildChildren(child, childBuf, context);
+        }
+    }
+
+    private int buildKey(Cuboid parentCuboid, Cuboid childCuboid, SplittedBytes[] splitBuffers) {
+        int offset = 0;
+
+        // cuboid id
+        System.arraycopy(childCuboid.getBytes(), 0, keyBuf, offset, childCuboid.getBytes().length);
+        offset += childCuboid.getBytes().length;
+
+        // rowkey columns, same as NDCuboidMapper
+        long mask = Long.highestOneBit(parentCuboid.getId());
+        long parentCuboidId = parentCuboid.getId();
+        long childCuboidId = childCuboid.getId();
+        long parentCuboidIdActualLength = Long.SIZE - Long.numberOfLeadingZeros(parentCuboid.getId());
+        int index = 1; // skip cuboidId
+        for (int i = 0; i < parentCuboidIdActualLength; i++) {
+            if ((mask & parentCuboidId) > 0) {
+                if ((mask & childCuboidId) > 0) {
+                    System.arraycopy(splitBuffers[index].value, 0, keyBuf, offset, splitBuffers[index].length);
+                    offset += splitBuffers[index].length;
+                }
+                index++;
+            }
+            mask = mask >> 1;
+        }
+
+        return offset;
+    }
+
+    private void write(Map<ByteArray, MeasureAggregators> buf, TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        for (Map.Entry<ByteArray, MeasureAggregators> entry : buf.entrySet()) {
+            entry.getValue().collectStates(states);
+            valueBuf.clear();
+            valueBuf = codec.encode(states, valueBuf);
+
+            byte[] key = entry.getKey().data;
+            outputKey.set(key, 0, key.length);
+            outputValue.set(valueBuf.array(), 0, valueBuf.position());
+            context.write(outputKey, outputValue);
+        }
+        outputCount += buf.size();
+    }
+
+    public long getInputCount() {
+        return inputCount;
+    }
+
+    public long getOutputCount() {
+        return outputCount;
+    }
+
+    public int getSpillCount() {
+        return spillCount;
+    }
+}
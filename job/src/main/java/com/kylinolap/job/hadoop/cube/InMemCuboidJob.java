@@ -0,0 +1,48 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kylinolap.job.hadoop.cube;
+
+import org.apache.hadoop.util.ToolRunner;
+
+import com.kylinolap.cube.cuboid.CuboidCLI;
+import com.kylinolap.metadata.model.cube.CubeDesc;
+
+/**
+ * Builds all cuboids from the flat table in one MR job, each mapper cubing its
+ * split in memory and the reducers merging the cuboids of all mappers.
+ */
+public class InMemCuboidJob extends CuboidJob {
+
+    public InMemCuboidJob() {
+        this.setMapperClass(InMemCuboidMapper.class);
+    }
+
+    @Override
+    protected double getOutputInputRatio(CubeDesc cubeDesc, int level) {
+        int totalCuboids = 0;
+        for (int count : CuboidCLI.calculateAllLevelCount(cubeDesc)) {
+            totalCuboids += count;
+        }
+        System.out.println("Having all levels, total cuboids " + totalCuboids);
+        return totalCuboids;
+    }
+
+    public static void main(String[] args) throws Exception {
+        CuboidJob job = new InMemCuboidJob();
+        int exitCode = ToolRunner.run(job, args);
+        System.exit(exitCode);
+    }
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kylinolap.job.constant.BatchConstants;
+
+/**
+ * Reads the flat table like BaseCuboidMapper, but instead of the base cuboid
+ * writes all cuboids of its split, built in memory by InMemCubeBuilder.
+ */
+public class InMemCuboidMapper<KEYIN> extends BaseCuboidMapper<KEYIN> {
+
+    private static final Logger logger = LoggerFactory.getLogger(InMemCuboidMapper.class);
+
+    private InMemCubeBuilder cubeBuilder;
+    private int counter;
+
+    @Override
+    protected void setup(Context context) throws IOException {
+        super.setup(context);
+
+        int memMB = context.getConfiguration().getInt(BatchConstants.CFG_INMEM_CUBING_MEMORY_MB, BatchConstants.DEFAULT_INMEM_CUBING_MEMORY_MB);
+        cubeBuilder = new InMemCubeBuilder(cubeSegment, memMB * 1024L * 1024L);
+    }
+
+    @Override
+    public void map(KEYIN key, Text value, Context context) throws IOException, InterruptedException {
+        counter++;
+        if (counter % BatchConstants.COUNTER_MAX == 0) {
+            logger.info("Handled " + counter + " records!");
+        }
+
+        bytesSplitter.split(value.getBytes(), value.getLength(), byteRowDelimiter);
+
+        byte[] rowKey = buildKey(bytesSplitter.getSplitBuffers());
+        boolean sampled = collectKeyStatistics();
+        buildMeasures(bytesSplitter.getSplitBuffers());
+        if (sampled) {
+            collectValueStatistics();
+        }
+        cubeBuilder.aggregate(rowKey, measures, context);
+    }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        cubeBuilder.spill(context);
+        writeStatistics(context);
+        logger.info("Built " + cubeBuilder.getOutputCount() + " cuboid records from " + cubeBuilder.getInputCount() + " input records in " + cubeBuilder.getSpillCount() + " spills");
+    }
+}
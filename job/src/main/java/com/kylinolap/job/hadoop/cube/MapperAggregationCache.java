@@ -0,0 +1,151 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapreduce.TaskInputOutputContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kylinolap.common.util.ByteArray;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.cube.measure.MeasureAggregators;
+import com.kylinolap.cube.measure.MeasureCodec;
+import com.kylinolap.job.constant.BatchConstants;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+
+/**
+ * Aggregates mapper output by row key in memory before it goes to shuffle,
+ * such that rows of a low cardinality cuboid collapse before being serialized
+ * and spilled. The buffer is flushed when its estimated memory usage reaches
+ * the cap, and at the end of the map task.
+ *
+ * If the first flush shows that rows hardly collapse, aggregation turns off for
+ * the rest of the task, leaving it to the combiner as before.
+ */
+public class MapperAggregationCache {
+
+    private static final Logger logger = LoggerFactory.getLogger(MapperAggregationCache.class);
+
+    // turn off if aggregation reduces less than 10% of rows
+    static final double MIN_REDUCTION = 0.1;
+
+    private final List<MeasureDesc> measureDescs;
+    private final MeasureCodec codec;
+    private final long memCap;
+
+    private final Map<ByteArray, MeasureAggregators> aggBufMap = new HashMap<ByteArray, MeasureAggregators>();
+    private long keyMemBytes;
+    private int rowMemBytes; // estimated by sampled rows
+    private int sampledSize;
+    private long sampledInput;
+
+    private final Object[] result;
+    private ByteBuffer valueBuf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+    private final Text outputKey = new Text();
+    private final Text outputValue = new Text();
+
+    private boolean enabled;
+    private long inputCount;
+    private long outputCount;
+
+    public static MapperAggregationCache create(Configuration conf, List<MeasureDesc> measureDescs) {
+        int memMB = conf.getInt(BatchConstants.CFG_MAPPER_AGGREGATION_MEMORY_MB, BatchConstants.DEFAULT_MAPPER_AGGREGATION_MEMORY_MB);
+        return new MapperAggregationCache(measureDescs, memMB * 1024L * 1024L);
+    }
+
+    public MapperAggregationCache(List<MeasureDesc> measureDescs, long memCap) {
+        this.measureDescs = measureDescs;
+        this.codec = new MeasureCodec(measureDescs);
+        this.memCap = memCap;
+        this.result = new Object[measureDescs.size()];
+        this.enabled = memCap > 0;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void aggregate(byte[] key, int offset, int length, Object[] measures, TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        inputCount++;
+
+        ByteArray aggKey = new ByteArray(Arrays.copyOfRange(key, offset, offset + length));
+        MeasureAggregators aggs = aggBufMap.get(aggKey);
+        if (aggs == null) {
+            aggs = new MeasureAggregators(measureDescs);
+            aggBufMap.put(aggKey, aggs);
+            keyMemBytes += length;
+        }
+        aggs.aggregate(measures);
+
+        // re-sample each time groups or input rows double, as count distinct
+        // counters grow from sparse to dense
+        if (aggBufMap.size() >= sampledSize * 2 || inputCount >= sampledInput * 2) {
+            sampledSize = aggBufMap.size();
+            sampledInput = inputCount;
+            rowMemBytes = Math.max(rowMemBytes, aggs.getMemBytes());
+        }
+        if (getMemBytes() > memCap) {
+            flush(context);
+        }
+    }
+
+    public long getMemBytes() {
+        // map entry, ByteArray, MeasureAggregators and its array, plus the
+        // measure states
+        return keyMemBytes + (100L + 4 * measureDescs.size() + rowMemBytes) * aggBufMap.size();
+    }
+
+    public void flush(TaskInputOutputContext<?, ?, Text, Text> context) throws IOException, InterruptedException {
+        if (aggBufMap.isEmpty())
+            return;
+
+        boolean firstFlush = outputCount == 0;
+        int size = aggBufMap.size();
+        for (Map.Entry<ByteArray, MeasureAggregators> entry : aggBufMap.entrySet()) {
+            entry.getValue().collectStates(result);
+            valueBuf.clear();
+            valueBuf = codec.encode(result, valueBuf);
+
+            byte[] key = entry.getKey().data;
+            outputKey.set(key, 0, key.length);
+            outputValue.set(valueBuf.array(), 0, valueBuf.position());
+            context.write(outputKey, outputValue);
+        }
+        outputCount += size;
+        aggBufMap.clear();
+        keyMemBytes = 0;
+        sampledSize = 0;
+
+        context.getCounter(BatchConstants.MAPREDUCE_COUTNER_GROUP_NAME, "Map aggregated records").increment(size);
+        logger.info("Flushed " + size + " aggregated records, " + outputCount + " out of " + inputCount + " input records so far");
+
+        if (firstFlush && outputCount > inputCount * (1 - MIN_REDUCTION)) {
+            logger.info("In-mapper aggregation reduces too few records, turned off");
+            enabled = false;
+        }
+    }
+
+}
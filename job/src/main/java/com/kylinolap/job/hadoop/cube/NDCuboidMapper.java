@@ -32,6 +32,7 @@ import com.kylinolap.cube.common.RowKeySplitter;
 import com.kylinolap.cube.common.SplittedBytes;
 import com.kylinolap.cube.cuboid.Cuboid;
 import com.kylinolap.cube.cuboid.CuboidScheduler;
+import com.kylinolap.cube.measure.MeasureCodec;
 import com.kylinolap.job.constant.BatchConstants;
 import com.kylinolap.job.hadoop.AbstractHadoopJob;
 import com.kylinolap.metadata.model.cube.CubeDesc;
@@ -55,6 +56,9 @@ public class NDCuboidMapper extends Mapper<Text, Text, Text, Text> {
 
     private byte[] keyBuf = new byte[4096];
     private RowKeySplitter rowKeySplitter;
+    private MeasureCodec measureCodec;
+    private Object[] measures;
+    private MapperAggregationCache aggCache;
 
     @Override
     protected void setup(Context context) throws IOException {
@@ -72,6 +76,9 @@ public class NDCuboidMapper extends Mapper<Text, Text, Text, Text> {
         cuboidScheduler = new CuboidScheduler(cubeDesc);
 
         rowKeySplitter = new RowKeySplitter(cubeSegment, 65, 256);
+        measureCodec = new MeasureCodec(cubeDesc.getMeasures());
+        measures = new Object[cubeDesc.getMeasures().size()];
+        aggCache = MapperAggregationCache.create(context.getConfiguration(), cubeDesc.getMeasures());
     }
 
     private int buildKey(Cuboid parentCuboid, Cuboid childCuboid, SplittedBytes[] splitBuffers) {
@@ -127,12 +134,26 @@ public class NDCuboidMapper extends Mapper<Text, Text, Text, Text> {
             logger.info("Handled " + handleCounter + " records!");
         }
 
+        boolean aggregate = aggCache.isEnabled();
+        if (aggregate) {
+            measureCodec.decode(value, measures);
+        }
+
         for (Long child : myChildren) {
             Cuboid childCuboid = Cuboid.findById(cubeDesc, child);
             int keyLength = buildKey(parentCuboid, childCuboid, rowKeySplitter.getSplitBuffers());
-            outputKey.set(keyBuf, 0, keyLength);
-            context.write(outputKey, value);
+            if (aggregate) {
+                aggCache.aggregate(keyBuf, 0, keyLength, measures, context);
+            } else {
+                outputKey.set(keyBuf, 0, keyLength);
+                context.write(outputKey, value);
+            }
         }
 
     }
+
+    @Override
+    protected void cleanup(Context context) throws IOException, InterruptedException {
+        aggCache.flush(context);
+    }
 }
@@ -278,7 +278,7 @@ public class NewBaseCuboidMapper<KEYIN> extends Mapper<KEYIN, Text, Text, Text>
         }
 
         valueBuf.clear();
-        measureCodec.encode(measures, valueBuf);
+        valueBuf = measureCodec.encode(measures, valueBuf);
     }
 
     private byte[] getValueBytes(SplittedBytes[] splitBuffers, int measureIdx) {
@@ -45,7 +45,10 @@ import com.kylinolap.common.KylinConfig;
 import com.kylinolap.common.util.HadoopUtil;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.CubeSegment;
+import com.kylinolap.cube.CubeSegmentStatusEnum;
 import com.kylinolap.job.hadoop.AbstractHadoopJob;
+import com.kylinolap.job.hadoop.cube.CuboidStatistics;
 import com.kylinolap.job.tools.DeployCoprocessorCLI;
 import com.kylinolap.job.tools.LZOSupportnessChecker;
 import com.kylinolap.metadata.model.cube.CubeDesc;
@@ -66,6 +69,7 @@ public class CreateHTableJob extends AbstractHadoopJob {
         options.addOption(OPTION_CUBE_NAME);
         options.addOption(OPTION_PARTITION_FILE_PATH);
         options.addOption(OPTION_HTABLE_NAME);
+        options.addOption(OPTION_SEGMENT_NAME);
         parseOptions(options, args);
 
         Path partitionFilePath = new Path(getOptionValue(OPTION_PARTITION_FILE_PATH));
@@ -108,7 +112,15 @@ public class CreateHTableJob extends AbstractHadoopJob {
                 tableDesc.addFamily(cf);
             }
 
-            byte[][] splitKeys = getSplits(conf, partitionFilePath);
+            byte[][] splitKeys;
+            if (partitionFilePath.getFileSystem(conf).getFileStatus(partitionFilePath).isDirectory()) {
+                // cuboid statistics from the base cuboid step
+                CubeSegment cubeSegment = cube.getSegment(getOptionValue(OPTION_SEGMENT_NAME), CubeSegmentStatusEnum.NEW);
+                int regionServers = admin.getClusterStatus().getServersSize();
+                splitKeys = getSplitsByStatistics(conf, partitionFilePath, cubeSegment, regionServers);
+            } else {
+                splitKeys = getSplits(conf, partitionFilePath);
+            }
 
             if (admin.tableExists(tableName)) {
                 // admin.disableTable(tableName);
@@ -125,7 +137,11 @@ public class CreateHTableJob extends AbstractHadoopJob {
                 log.error("Will try creating the table without coprocessor.");
             }
 
-            admin.createTable(tableDesc, splitKeys);
+            if (splitKeys.length == 0) {
+                admin.createTable(tableDesc);
+            } else {
+                admin.createTable(tableDesc, splitKeys);
+            }
             log.info("create hbase table " + tableName + " done.");
 
             return 0;
@@ -179,6 +195,16 @@ public class CreateHTableJob extends AbstractHadoopJob {
         return retValue;
     }
 
+    public byte[][] getSplitsByStatistics(Configuration conf, Path statisticsPath, CubeSegment cubeSegment, int regionServers) throws IOException {
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        CuboidStatistics statistics = CuboidStatistics.readAll(statisticsPath.getFileSystem(conf), statisticsPath);
+        log.info("Read statistics of " + statistics.getCuboidIds().size() + " cuboids, " + statistics.getSampledRows() + " sampled out of " + statistics.getTotalRows() + " rows");
+
+        long regionCutBytes = config.getHBaseRegionCutGB() * 1024L * 1024L * 1024L;
+        RegionSplitPlanner planner = new RegionSplitPlanner(cubeSegment, statistics);
+        return planner.plan(regionCutBytes, Math.max(1, regionServers), config.getHBaseRegionsPerServer());
+    }
+
     public static void main(String[] args) throws Exception {
         int exitCode = ToolRunner.run(new CreateHTableJob(), args);
         System.exit(exitCode);
@@ -0,0 +1,163 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.hbase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kylinolap.common.util.BytesUtil;
+import com.kylinolap.cube.CubeSegment;
+import com.kylinolap.cube.cuboid.Cuboid;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.cube.kv.RowKeyColumnIO;
+import com.kylinolap.dict.Dictionary;
+import com.kylinolap.job.hadoop.cube.CuboidStatistics;
+import com.kylinolap.metadata.model.cube.TblColRef;
+
+/**
+ * Plans the region split keys of a cube segment's HTable from the estimated
+ * size of each cuboid, such that regions are about equal and no larger than the
+ * region cut. A cuboid larger than a region is cut further on the dictionary
+ * id range of its first column.
+ */
+public class RegionSplitPlanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(RegionSplitPlanner.class);
+
+    public static final long MIN_REGION_BYTES = 100L * 1024 * 1024;
+    public static final int MAX_REGIONS = 5000;
+
+    /**
+     * A continuous piece of the row key space, starting at startKey.
+     */
+    public static class KeyPiece {
+        final byte[] startKey;
+        final long bytes;
+
+        public KeyPiece(byte[] startKey, long bytes) {
+            this.startKey = startKey;
+            this.bytes = bytes;
+        }
+    }
+
+    private final CubeSegment cubeSegment;
+    private final CuboidStatistics statistics;
+
+    public RegionSplitPlanner(CubeSegment cubeSegment, CuboidStatistics statistics) {
+        this.cubeSegment = cubeSegment;
+        this.statistics = statistics;
+    }
+
+    public byte[][] plan(long regionCutBytes, int regionServers, int regionsPerServer) {
+        RowKeyColumnIO colIO = new RowKeyColumnIO(cubeSegment);
+
+        long[] cuboidBytes = new long[statistics.getCuboidIds().size()];
+        long totalBytes = 0;
+        int i = 0;
+        for (long cuboidId : statistics.getCuboidIds()) {
+            Cuboid cuboid = Cuboid.findById(cubeSegment.getCubeDesc(), cuboidId);
+            int keyLength = RowConstants.ROWKEY_CUBOIDID_LEN;
+            for (TblColRef col : cuboid.getColumns()) {
+                keyLength += colIO.getColumnLength(col);
+            }
+            cuboidBytes[i] = Math.round(statistics.getRowCount(cuboidId) * (keyLength + statistics.getAvgValueBytes()));
+            totalBytes += cuboidBytes[i];
+            i++;
+        }
+
+        int regionCount = decideRegionCount(totalBytes, regionCutBytes, regionServers, regionsPerServer);
+        long regionBytes = Math.max(1, totalBytes / regionCount);
+
+        List<KeyPiece> pieces = new ArrayList<KeyPiece>();
+        i = 0;
+        for (long cuboidId : statistics.getCuboidIds()) {
+            addPieces(pieces, cuboidId, cuboidBytes[i++], regionBytes, colIO);
+        }
+
+        logger.info("Total estimated bytes " + totalBytes + " of " + statistics.getCuboidIds().size() + " cuboids, planning " + regionCount + " regions");
+        return planSplits(pieces, regionCount);
+    }
+
+    private void addPieces(List<KeyPiece> pieces, long cuboidId, long bytes, long regionBytes, RowKeyColumnIO colIO) {
+        Cuboid cuboid = Cuboid.findById(cubeSegment.getCubeDesc(), cuboidId);
+        byte[] cuboidKey = cuboid.getBytes();
+        List<TblColRef> columns = cuboid.getColumns();
+
+        Dictionary<String> dict = columns.isEmpty() ? null : colIO.getDictionary(columns.get(0));
+        if (bytes <= regionBytes || dict == null) {
+            pieces.add(new KeyPiece(cuboidKey, bytes));
+            return;
+        }
+
+        // assume values spread evenly over the id range of the first column;
+        // cut finer than the region size, to leave room for the boundaries
+        long idRange = (long) dict.getMaxId() - dict.getMinId() + 1;
+        int nPieces = (int) Math.min(idRange, (bytes / regionBytes + 1) * 4);
+        for (int k = 0; k < nPieces; k++) {
+            byte[] key;
+            if (k == 0) {
+                key = cuboidKey;
+            } else {
+                int id = (int) (dict.getMinId() + idRange * k / nPieces);
+                key = Arrays.copyOf(cuboidKey, cuboidKey.length + dict.getSizeOfId());
+                BytesUtil.writeUnsigned(id, key, cuboidKey.length, dict.getSizeOfId());
+            }
+            pieces.add(new KeyPiece(key, bytes / nPieces));
+        }
+    }
+
+    /**
+     * Enough regions to keep each under the cut, and for a small cube still
+     * spread over the region servers, as long as regions are not too small.
+     */
+    public static int decideRegionCount(long totalBytes, long regionCutBytes, int regionServers, int regionsPerServer) {
+        int byCut = (int) Math.min(MAX_REGIONS, (totalBytes + regionCutBytes - 1) / regionCutBytes);
+        int bySpread = (int) Math.min(regionServers * regionsPerServer, totalBytes / MIN_REGION_BYTES);
+        return Math.max(1, Math.max(byCut, bySpread));
+    }
+
+    /**
+     * @param pieces
+     *            in row key order
+     * @return the split keys, which are start keys of pieces where the
+     *         accumulated size crosses a region boundary
+     */
+    public static byte[][] planSplits(List<KeyPiece> pieces, int regionCount) {
+        long totalBytes = 0;
+        for (KeyPiece piece : pieces) {
+            totalBytes += piece.bytes;
+        }
+
+        List<byte[]> splits = new ArrayList<byte[]>();
+        long accumulated = 0;
+        int nextRegion = 1;
+        for (KeyPiece piece : pieces) {
+            if (nextRegion < regionCount && accumulated > 0 && accumulated >= totalBytes * nextRegion / regionCount) {
+                splits.add(piece.startKey);
+                // a large piece may cross several boundaries
+                while (nextRegion < regionCount && accumulated >= totalBytes * nextRegion / regionCount)
+                    nextRegion++;
+            }
+            accumulated += piece.bytes;
+        }
+        return splits.toArray(new byte[splits.size()][]);
+    }
+}
@@ -139,6 +139,13 @@ public class JoinedFlatTableDesc {
         return measureColumnIndexes;
     }
 
+    /**
+     * @return index of the column on flat table, or -1 if not there
+     */
+    public int getColumnIndex(TblColRef col) {
+        return contains(columnList, col);
+    }
+
     public static class IntermediateColumnDesc {
         private String id;
         private String columnName;
@@ -17,7 +17,9 @@ package com.kylinolap.job;
 
 import static org.junit.Assert.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.After;
 import org.junit.Before;
@@ -26,7 +28,11 @@ import org.junit.Test;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
 import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.common.persistence.ResourceStore;
 import com.kylinolap.cube.CubeBuildTypeEnum;
+import com.kylinolap.job.JobInstance.JobStep;
+import com.kylinolap.job.constant.JobStatusEnum;
+import com.kylinolap.job.constant.JobStepStatusEnum;
 import com.kylinolap.job.exception.InvalidJobInstanceException;
 
 /**
@@ -87,6 +93,58 @@ public class JobDAOTest extends LocalFileMetadataTestCase {
 
     }
 
+    @Test
+    public void testStatusIndex() throws IOException {
+        String uuid = "7a5b1e2c-1f9c-4c5e-9a8e-2d7f3b4c5d6e";
+        JobDAO service = JobDAO.getInstance(getTestConfig());
+        JobInstance job = createDumbJobInstance(uuid);
+        JobStep step = new JobStep();
+        step.setSequenceID(0);
+        step.setStatus(JobStepStatusEnum.PENDING);
+        job.addSteps(step);
+        service.updateJobInstance(job);
+
+        assertEquals(1, countJob(service.listAllJobs(JobStatusEnum.PENDING), uuid));
+        assertEquals(1, countJob(service.listAllJobs(JobStatusEnum.PENDING, job.getRelatedCube()), uuid));
+        assertEquals(0, countJob(service.listAllJobs(JobStatusEnum.PENDING, "another_cube"), uuid));
+
+        // status change moves the marker
+        JobInstance job2 = service.getJob(uuid);
+        job2.getSteps().get(0).setStatus(JobStepStatusEnum.RUNNING);
+        service.updateJobInstance(job2);
+        assertEquals(0, countJob(service.listAllJobs(JobStatusEnum.PENDING), uuid));
+        assertEquals(1, countJob(service.listAllJobs(JobStatusEnum.RUNNING), uuid));
+
+        // a stale marker is dropped on read
+        ResourceStore store = ResourceStore.getStore(getTestConfig());
+        String staleMarker = ResourceStore.JOB_STATUS_PATH_ROOT + "/PENDING/" + JobInstance.getJobIdentity(job2);
+        store.putResource(staleMarker, new ByteArrayInputStream(new byte[0]), System.currentTimeMillis());
+        assertEquals(0, countJob(service.listAllJobs(JobStatusEnum.PENDING), uuid));
+        assertFalse(store.exists(staleMarker));
+
+        // a lost marker is back and a marker of no job is gone after rebuild
+        String orphanMarker = ResourceStore.JOB_STATUS_PATH_ROOT + "/RUNNING/" + job2.getRelatedCube() + ".00000000-0000-0000-0000-000000000000";
+        store.putResource(orphanMarker, new ByteArrayInputStream(new byte[0]), System.currentTimeMillis());
+        store.deleteResource(ResourceStore.JOB_STATUS_PATH_ROOT + "/RUNNING/" + JobInstance.getJobIdentity(job2));
+        assertEquals(0, countJob(service.listAllJobs(JobStatusEnum.RUNNING), uuid));
+        assertTrue(store.exists(orphanMarker));
+        service.rebuildStatusIndex();
+        assertEquals(1, countJob(service.listAllJobs(JobStatusEnum.RUNNING), uuid));
+        assertFalse(store.exists(orphanMarker));
+
+        service.deleteJob(uuid);
+        assertEquals(0, countJob(service.listAllJobs(JobStatusEnum.RUNNING), uuid));
+    }
+
+    private int countJob(List<JobInstance> jobs, String uuid) {
+        int count = 0;
+        for (JobInstance job : jobs) {
+            if (job.getUuid().equals(uuid))
+                count++;
+        }
+        return count;
+    }
+
     private JobInstance createDumbJobInstance(String uuid) {
         try {
             ObjectMapper mapper = new ObjectMapper();
@@ -0,0 +1,87 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.job.constant.BatchConstants;
+
+public class FactDistinctColumnsPartitionerTest {
+
+    @Test
+    public void testPartition() {
+        Configuration conf = new Configuration();
+        conf.set(BatchConstants.CFG_FACT_DICT_COLUMNS, FactDistinctColumnsPartitioner.formatColumns(new int[] { 1, 4, 6 }));
+        conf.setInt(BatchConstants.CFG_FACT_DISTINCT_PARTS_PER_COLUMN, 4);
+        FactDistinctColumnsPartitioner partitioner = new FactDistinctColumnsPartitioner();
+        partitioner.setConf(conf);
+
+        // column 4 is the 2nd column, takes reducers 4 to 7
+        Set<Integer> parts = new HashSet<Integer>();
+        for (int i = 0; i < 1000; i++) {
+            Text key = makeKey(4, "value" + i);
+            int part = partitioner.getPartition(key, NullWritable.get(), 12);
+            assertTrue(part >= 4 && part < 8);
+            assertEquals(part, partitioner.getPartition(makeKey(4, "value" + i), NullWritable.get(), 12));
+            parts.add(part);
+        }
+        assertEquals(4, parts.size());
+    }
+
+    @Test
+    public void testStats() throws IOException {
+        File dir = new File(System.getProperty("java.io.tmpdir"), "FactDistinctColumnsPartitionerTest_" + System.currentTimeMillis());
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        try {
+            for (int part = 0; part < 3; part++) {
+                HyperLogLogPlusCounter hllc = new HyperLogLogPlusCounter(ColumnCardinalityStats.HLL_PRECISION);
+                for (int i = 0; i < 1000; i++) {
+                    hllc.add(Bytes.toBytes("v" + part + "_" + i));
+                }
+                ColumnCardinalityStats.write(fs, dir.getAbsolutePath(), "SELLER_ID", part, 1000, hllc);
+            }
+
+            Map<String, ColumnCardinalityStats> all = ColumnCardinalityStats.readAll(fs, dir.getAbsolutePath());
+            assertEquals(1, all.size());
+            ColumnCardinalityStats stats = all.get("SELLER_ID");
+            assertEquals(3000, stats.getDistinctCount());
+            assertEquals(3000, stats.getHllc().getCountEstimate(), 3000 * 0.05);
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+
+    private Text makeKey(int col, String value) {
+        byte[] bytes = Bytes.add(Bytes.toBytes((short) col), Bytes.toBytes(value));
+        return new Text(bytes);
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.kylinolap.job.hadoop.cube;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mrunit.mapreduce.MapDriver;
+import org.apache.hadoop.mrunit.types.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.CubeInstance;
+import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.cuboid.CuboidCLI;
+import com.kylinolap.cube.measure.MeasureCodec;
+import com.kylinolap.job.constant.BatchConstants;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+
+public class InMemCuboidMapperTest extends LocalFileMetadataTestCase {
+
+    MapDriver<Text, Text, Text, Text> mapDriver;
+
+    @Before
+    public void setUp() throws Exception {
+        createTestMetadata();
+
+        // hack for distributed cache
+        FileUtils.deleteDirectory(new File("../job/meta"));
+        FileUtils.copyDirectory(new File(this.getTestConfig().getMetadataUrl()), new File("../job/meta"));
+
+        InMemCuboidMapper<Text> mapper = new InMemCuboidMapper<Text>();
+        mapDriver = MapDriver.newMapDriver(mapper);
+    }
+
+    @After
+    public void after() throws Exception {
+        cleanupTestMetadata();
+        FileUtils.deleteDirectory(new File("../job/meta"));
+    }
+
+    @Test
+    public void testAllCuboids() throws Exception {
+        String cubeName = "test_kylin_cube_with_slr_1_new_segment";
+        String segmentName = "20130331080000_20131212080000";
+        mapDriver.getConfiguration().set(BatchConstants.CFG_CUBE_NAME, cubeName);
+        mapDriver.getConfiguration().set(BatchConstants.CFG_CUBE_SEGMENT_NAME, segmentName);
+        mapDriver.withInput(new Text("key"), new Text("2012-12-15118480Health & BeautyFragrancesWomenAuction15123456789132.331"));
+        mapDriver.withInput(new Text("key"), new Text("2012-12-15118480Health & BeautyFragrancesWomenAuction15123456789132.331"));
+        List<Pair<Text, Text>> result = mapDriver.run();
+
+        CubeManager cubeMgr = CubeManager.getInstance(this.getTestConfig());
+        CubeInstance cube = cubeMgr.getCube(cubeName);
+
+        // one row per cuboid, each aggregating both input rows
+        int totalCuboids = 0;
+        for (int count : CuboidCLI.calculateAllLevelCount(cube.getDescriptor())) {
+            totalCuboids += count;
+        }
+        assertEquals(totalCuboids, result.size());
+
+        Set<Long> cuboidIds = new HashSet<Long>();
+        for (Pair<Text, Text> pair : result) {
+            cuboidIds.add(Bytes.toLong(Bytes.head(pair.getFirst().getBytes(), 8)));
+            verifyMeasures(cube.getDescriptor().getMeasures(), pair.getSecond(), "264.66", "132.33", "132.33", 2);
+        }
+        assertEquals(totalCuboids, cuboidIds.size());
+        assertTrue(cuboidIds.contains(511L));
+    }
+
+    @Test
+    public void testBaseBufCap() throws Exception {
+        CubeInstance cube = CubeManager.getInstance(this.getTestConfig()).getCube("test_kylin_cube_with_slr_1_new_segment");
+        long memCap = 100L * 1024 * 1024;
+        InMemCubeBuilder builder = new InMemCubeBuilder(cube.getSegments().get(0), memCap);
+
+        // the buffers of one cuboid per level share the cap
+        int levels = CuboidCLI.calculateAllLevelCount(cube.getDescriptor()).length;
+        assertTrue(levels > 1);
+        assertEquals(memCap / levels, builder.getBaseBufCap());
+    }
+
+    private void verifyMeasures(List<MeasureDesc> measures, Text valueBytes, String m1, String m2, String m3, long m4) {
+        MeasureCodec codec = new MeasureCodec(measures);
+        Object[] values = new Object[measures.size()];
+        codec.decode(valueBytes, values);
+        assertTrue(new BigDecimal(m1).equals(values[0]));
+        assertTrue(new BigDecimal(m2).equals(values[1]));
+        assertTrue(new BigDecimal(m3).equals(values[2]));
+        assertTrue(m4 == ((LongWritable) values[3]).get());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.cube;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.Test;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.metadata.model.cube.FunctionDesc;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+
+public class MapperAggregationCacheTest {
+
+    @Test
+    public void testMemBytesFollowsCounterGrowth() throws Exception {
+        MapperAggregationCache cache = new MapperAggregationCache(Collections.singletonList(countDistinct("hllc12")), Long.MAX_VALUE);
+
+        HyperLogLogPlusCounter value = new HyperLogLogPlusCounter(12);
+        Object[] measures = new Object[] { value };
+
+        // 100 groups of one value each, counters are sparse and tiny
+        for (int g = 0; g < 100; g++) {
+            value.clear();
+            value.add("g" + g);
+            cache.aggregate(Bytes.toBytes(g), 0, 4, measures, null);
+        }
+        long sparseBytes = cache.getMemBytes();
+
+        // no new group, but counters grow dense
+        for (int i = 0; i < 2000; i++) {
+            for (int g = 0; g < 100; g++) {
+                value.clear();
+                value.add("g" + g + "-" + i);
+                cache.aggregate(Bytes.toBytes(g), 0, 4, measures, null);
+            }
+        }
+        assertTrue(cache.getMemBytes() > 100 * 4096L);
+        assertTrue(cache.getMemBytes() > sparseBytes * 10);
+    }
+
+    private MeasureDesc countDistinct(String returnType) {
+        MeasureDesc desc = new MeasureDesc();
+        FunctionDesc func = new FunctionDesc();
+        func.setExpression(FunctionDesc.FUNC_COUNT_DISTINCT);
+        func.setReturnType(returnType);
+        desc.setFunction(func);
+        return desc;
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.job.hadoop.hbase;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.CubeInstance;
+import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.cuboid.Cuboid;
+import com.kylinolap.job.hadoop.cube.CuboidStatistics;
+import com.kylinolap.job.hadoop.hbase.RegionSplitPlanner.KeyPiece;
+import com.kylinolap.metadata.model.cube.CubeDesc;
+
+public class RegionSplitPlannerTest extends LocalFileMetadataTestCase {
+
+    private static final long GB = 1024L * 1024 * 1024;
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testDecideRegionCount() {
+        // by region cut
+        assertEquals(20, RegionSplitPlanner.decideRegionCount(100 * GB, 5 * GB, 4, 2));
+        // small cube still spread over servers
+        assertEquals(8, RegionSplitPlanner.decideRegionCount(2 * GB, 5 * GB, 4, 2));
+        // but not into tiny regions
+        assertEquals(3, RegionSplitPlanner.decideRegionCount(300L * 1024 * 1024, 5 * GB, 4, 2));
+        assertEquals(1, RegionSplitPlanner.decideRegionCount(1024, 5 * GB, 4, 2));
+    }
+
+    @Test
+    public void testPlanSplits() {
+        List<KeyPiece> pieces = new ArrayList<KeyPiece>();
+        for (int i = 0; i < 10; i++) {
+            pieces.add(new KeyPiece(Bytes.toBytes((long) i), 10));
+        }
+        // a piece as large as all others, crossing several boundaries
+        pieces.add(new KeyPiece(Bytes.toBytes(10L), 100));
+        pieces.add(new KeyPiece(Bytes.toBytes(11L), 10));
+
+        // the large piece takes a region alone, leaving one boundary unused
+        byte[][] splits = RegionSplitPlanner.planSplits(pieces, 4);
+        assertEquals(2, splits.length);
+        assertArrayEquals(Bytes.toBytes(6L), splits[0]);
+        assertArrayEquals(Bytes.toBytes(11L), splits[1]);
+
+        assertEquals(0, RegionSplitPlanner.planSplits(pieces, 1).length);
+    }
+
+    @Test
+    public void testSampledStatistics() throws Exception {
+        CubeDesc cubeDesc = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_with_slr_ready").getDescriptor();
+        int nColumns = cubeDesc.getRowkey().getRowKeyColumns().length;
+
+        // 10000 rows of 1000 distinct first columns, measure size sampled by 10%
+        CuboidStatistics stats = new CuboidStatistics(cubeDesc, 10);
+        for (int i = 0; i < 10000; i++) {
+            byte[][] row = new byte[nColumns][];
+            for (int c = 0; c < nColumns; c++) {
+                row[c] = Bytes.toBytes(c == 0 ? "v" + (i % 1000) : "x" + (i % 10));
+            }
+            if (stats.collectKey(row)) {
+                stats.collectValue(50);
+            }
+        }
+
+        assertEquals(10000, stats.getTotalRows());
+        assertEquals(1000, stats.getSampledRows());
+        assertEquals(50, stats.getAvgValueBytes(), 0.001);
+        // row count is not scaled by the sampling ratio
+        assertEquals(1000, stats.getRowCount(Cuboid.getBaseCuboidId(cubeDesc)), 1000 * 0.05);
+    }
+
+    @Test
+    public void testStatisticsPrecision() throws Exception {
+        assertEquals(CuboidStatistics.HLL_PRECISION, CuboidStatistics.precisionFor(100));
+        // 15 dimensions, 32k cuboids of 1 KB registers each
+        assertEquals(10, CuboidStatistics.precisionFor(1 << 15));
+        assertEquals(CuboidStatistics.MIN_HLL_PRECISION, CuboidStatistics.precisionFor(1 << 30));
+
+        // repeated keys skip the counters, yet count the same
+        CubeDesc cubeDesc = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_with_slr_ready").getDescriptor();
+        int nColumns = cubeDesc.getRowkey().getRowKeyColumns().length;
+        CuboidStatistics stats = new CuboidStatistics(cubeDesc, 100);
+        for (int i = 0; i < 10000; i++) {
+            byte[][] row = new byte[nColumns][];
+            for (int c = 0; c < nColumns; c++) {
+                row[c] = Bytes.toBytes(c == 0 ? "v" + (i / 10) : "x");
+            }
+            stats.collectKey(row);
+        }
+        assertEquals(10000, stats.getTotalRows());
+        assertEquals(1000, stats.getRowCount(Cuboid.getBaseCuboidId(cubeDesc)), 1000 * 0.05);
+        for (long cuboidId : stats.getCuboidIds()) {
+            assertTrue(stats.getRowCount(cuboidId) <= 1000 * 1.05);
+        }
+    }
+
+    @Test
+    public void testPlanByStatistics() throws Exception {
+        CubeInstance cube = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_with_slr_ready");
+        CubeDesc cubeDesc = cube.getDescriptor();
+        int nColumns = cubeDesc.getRowkey().getRowKeyColumns().length;
+
+        File dir = new File(System.getProperty("java.io.tmpdir"), "RegionSplitPlannerTest_" + System.currentTimeMillis());
+        FileSystem fs = FileSystem.getLocal(new Configuration());
+        try {
+            // two mappers, each 10000 rows of 1000 distinct first columns
+            for (int part = 0; part < 2; part++) {
+                CuboidStatistics stats = new CuboidStatistics(cubeDesc, 100);
+                for (int i = 0; i < 10000; i++) {
+                    byte[][] row = new byte[nColumns][];
+                    for (int c = 0; c < nColumns; c++) {
+                        row[c] = Bytes.toBytes(c == 0 ? "v" + (i % 1000) : "x" + (i % 10));
+                    }
+                    assertTrue(stats.collectKey(row));
+                    stats.collectValue(50);
+                }
+                stats.write(fs, new Path(dir.getAbsolutePath(), "part-m-0000" + part));
+            }
+
+            CuboidStatistics all = CuboidStatistics.readAll(fs, new Path(dir.getAbsolutePath()));
+            assertEquals(20000, all.getTotalRows());
+            assertEquals(50, all.getAvgValueBytes(), 0.001);
+            long baseCuboidId = Cuboid.getBaseCuboidId(cubeDesc);
+            assertEquals(1000, all.getRowCount(baseCuboidId), 1000 * 0.05);
+            assertTrue(all.getCuboidIds().size() > 1);
+
+            RegionSplitPlanner planner = new RegionSplitPlanner(cube.getSegments().get(0), all);
+            // tiny cube, one region
+            assertEquals(0, planner.plan(5 * GB, 4, 2).length);
+            // small region cut, splits in row key order
+            byte[][] splits = planner.plan(100 * 1024, 4, 2);
+            assertTrue(splits.length > 1);
+            for (int i = 1; i < splits.length; i++) {
+                assertTrue(Bytes.compareTo(splits[i - 1], splits[i]) < 0);
+            }
+        } finally {
+            FileUtils.deleteDirectory(dir);
+        }
+    }
+}
@@ -113,6 +113,8 @@ public class CubeDesc extends RootPersistentEntity {
     private CubeCapacity capacity = CubeCapacity.MEDIUM;
     @JsonProperty("notify_list")
     private List<String> notifyList;
+    @JsonProperty("concurrent_scan")
+    private Boolean concurrentScan; // null means following server setting
 
     private Map<String, Map<String, TblColRef>> columnMap = new HashMap<String, Map<String, TblColRef>>();
     private LinkedHashSet<TblColRef> allColumns = new LinkedHashSet<TblColRef>();
@@ -404,6 +406,18 @@ public class CubeDesc extends RootPersistentEntity {
         this.notifyList = notifyList;
     }
 
+    /**
+     * @return whether queries on this cube shall scan segments and key ranges
+     *         in parallel, or null to follow the server setting
+     */
+    public Boolean getConcurrentScan() {
+        return concurrentScan;
+    }
+
+    public void setConcurrentScan(Boolean concurrentScan) {
+        this.concurrentScan = concurrentScan;
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -705,7 +719,7 @@ public class CubeDesc extends RootPersistentEntity {
             f.setReturnDataType(DataType.getInstance(f.getReturnType()));
 
             ParameterDesc p = f.getParameter();
-            p.normalizeColumnValue();
+            p.normalizeColumnValue(f.isTopN() == false);
 
             if (p.isColumnType()) {
                 ArrayList<TblColRef> colRefs = Lists.newArrayList();
@@ -797,6 +811,25 @@ public class CubeDesc extends RootPersistentEntity {
         return false;
     }
 
+    /**
+     * @return columns counted by bitmap count distinct or keyed by TopN, each
+     *         requires a global dictionary
+     */
+    public List<TblColRef> listGlobalDictionaryColumns() {
+        List<TblColRef> result = new ArrayList<TblColRef>();
+        for (MeasureDesc measure : measures) {
+            FunctionDesc func = measure.getFunction();
+            TblColRef col = null;
+            if (func.isBitmapCountDistinct())
+                col = func.getParameter().getColRefs().get(0);
+            else if (func.isTopN())
+                col = func.getParameter().getColRefs().get(1);
+            if (col != null && result.contains(col) == false)
+                result.add(col);
+        }
+        return result;
+    }
+
     /**
      * Add error info and thrown exception out
      * 
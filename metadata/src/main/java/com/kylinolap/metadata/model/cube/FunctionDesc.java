@@ -15,6 +15,8 @@
  */
 package com.kylinolap.metadata.model.cube;
 
+import java.util.List;
+
 import com.fasterxml.jackson.annotation.JsonAutoDetect;
 import com.fasterxml.jackson.annotation.JsonAutoDetect.Visibility;
 import com.fasterxml.jackson.annotation.JsonProperty;
@@ -32,6 +34,7 @@ public class FunctionDesc {
     public static final String FUNC_MAX = "MAX";
     public static final String FUNC_COUNT = "COUNT";
     public static final String FUNC_COUNT_DISTINCT = "COUNT_DISTINCT";
+    public static final String FUNC_TOP_N = "TOP_N";
 
     public static final String PARAMTER_TYPE_CONSTANT = "constant";
     public static final String PARAMETER_TYPE_COLUMN = "column";
@@ -89,6 +92,34 @@ public class FunctionDesc {
         }
     }
 
+    /**
+     * Exact count distinct, by a bitmap of the global dictionary IDs of the
+     * column
+     */
+    public boolean isBitmapCountDistinct() {
+        return isCountDistinct() && returnDataType != null && returnDataType.isBitmap();
+    }
+
+    /**
+     * Approximate top keys by weight, the parameter being the weight column
+     * followed by the key column, e.g. TOP_N(PRICE, SELLER_ID)
+     */
+    public boolean isTopN() {
+        return FUNC_TOP_N.equalsIgnoreCase(expression);
+    }
+
+    /**
+     * @return true if this is TOP_N and the metric sums its weight column,
+     *         e.g. SUM(PRICE) for TOP_N(PRICE, SELLER_ID), the columns being
+     *         compared as resolved TblColRef
+     */
+    public boolean isTopNWeight(FunctionDesc metric) {
+        if (isTopN() == false || metric.isSum() == false || metric.getParameter() == null)
+            return false;
+        List<TblColRef> metricCols = metric.getParameter().getColRefs();
+        return metricCols != null && metricCols.size() == 1 && parameter.getColRefs().get(0).equals(metricCols.get(0));
+    }
+
     /**
      * Get Full Expression such as sum(amount), count(1), count(*)...
      */
@@ -135,7 +166,7 @@ public class FunctionDesc {
     }
 
     public String getSQLType() {
-        if (isCountDistinct())
+        if (isCountDistinct() || isTopN())
             return "any";
         else if (isSum() || isMax() || isMin())
             return parameter.getColRefs().get(0).getDatatype();
@@ -72,6 +72,10 @@ public class MeasureDesc {
         return function.isHolisticCountDistinct();
     }
 
+    public boolean isBitmapCountDistinct() {
+        return function.isBitmapCountDistinct();
+    }
+
     @Override
     public boolean equals(Object o) {
         if (this == o)
@@ -74,11 +74,21 @@ public class ParameterDesc {
     }
 
     public void normalizeColumnValue() {
+        normalizeColumnValue(true);
+    }
+
+    /**
+     * @param sort
+     *            false for functions whose columns play different roles, e.g.
+     *            TOP_N(weight, key)
+     */
+    public void normalizeColumnValue(boolean sort) {
         if (isColumnType()) {
             String values[] = value.split("\\s*,\\s*");
             for (int i = 0; i < values.length; i++)
                 values[i] = values[i].toUpperCase();
-            Arrays.sort(values);
+            if (sort)
+                Arrays.sort(values);
             value = StringUtils.join(",", values);
         }
     }
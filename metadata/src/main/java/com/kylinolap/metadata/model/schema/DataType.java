@@ -34,7 +34,7 @@ import com.kylinolap.metadata.model.cube.TblColRef.InnerDataTypeEnum;
 public class DataType {
 
     public static final String VALID_TYPES_STRING = "any|char|varchar|boolean|integer|tinyint|smallint|bigint|decimal|numeric|float|real|double" //
-            + "|date|time|datetime|timestamp|byte|int|short|long|string|hllc" //
+            + "|date|time|datetime|timestamp|byte|int|short|long|string|hllc|bitmap|topn" //
             + "|" + InnerDataTypeEnum.LITERAL.getDataType() //
             + "|" + InnerDataTypeEnum.DERIVED.getDataType();
 
@@ -48,6 +48,8 @@ public class DataType {
     public static final Set<String> NUMBER_FAMILY = new HashSet<String>();
     public static final Set<String> DATETIME_FAMILY = new HashSet<String>();
     private static final Set<Integer> HLLC_PRECISIONS = new HashSet<Integer>();
+    // distinct values per bitmap cell, when bitmap precision is not given
+    static final int DEFAULT_BITMAP_VALUES = 1 << 14;
     private static final Map<String, String> LEGACY_TYPE_MAP = new HashMap<String, String>();
     static {
         INTEGER_FAMILY.add("tinyint");
@@ -152,6 +154,12 @@ public class DataType {
 
         if (isHLLC() && HLLC_PRECISIONS.contains(precision) == false)
             throw new IllegalArgumentException("HLLC precision must be one of " + HLLC_PRECISIONS);
+
+        if (isTopN() && precision <= 0)
+            throw new IllegalArgumentException("TopN precision, the number of top keys kept, must be given, e.g. topn(100)");
+
+        if (isBitmap() && precision == 0)
+            throw new IllegalArgumentException("Bitmap precision, the number of distinct values expected in a cell, must be positive, e.g. bitmap(100000)");
     }
 
     private String replaceLegacy(String str) {
@@ -176,6 +184,13 @@ public class DataType {
             return 8;
         } else if (isHLLC()) {
             return 1 << precision;
+        } else if (isBitmap()) {
+            // a ConciseSet takes at most one word per value plus a last
+            // literal, after the vint of word count
+            int values = precision > 0 ? precision : DEFAULT_BITMAP_VALUES;
+            return 5 + 4 * (values + 1);
+        } else if (isTopN()) {
+            return 20 * precision; // key, count and error of each kept key
         }
         throw new IllegalStateException("The return type : " + name + " is not recognized;");
     }
@@ -224,6 +239,14 @@ public class DataType {
         return name.equals("hllc");
     }
 
+    public boolean isBitmap() {
+        return name.equals("bitmap");
+    }
+
+    public boolean isTopN() {
+        return name.equals("topn");
+    }
+
     public String getName() {
         return name;
     }
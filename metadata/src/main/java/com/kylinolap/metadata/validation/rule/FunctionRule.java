@@ -117,8 +117,25 @@ public class FunctionRule implements IValidatorRule<CubeDesc> {
                 context.addResult(ResultLevel.ERROR, "Return type for function " + func + " must be one of " + DataType.INTEGER_FAMILY);
             }
         } else if (funcDesc.isCountDistinct()) {
-            if (rtype.isHLLC() == false && funcDesc.isHolisticCountDistinct() == false) {
-                context.addResult(ResultLevel.ERROR, "Return type for function " + func + " must be hllc(10), hllc(12) etc.");
+            if (rtype.isHLLC() == false && rtype.isBitmap() == false && funcDesc.isHolisticCountDistinct() == false) {
+                context.addResult(ResultLevel.ERROR, "Return type for function " + func + " must be hllc(10), hllc(12) etc., or bitmap");
+            }
+            if (rtype.isBitmap() && funcDesc.getParameter().getValue().contains(",")) {
+                context.addResult(ResultLevel.ERROR, "Function " + func + " with bitmap return type must be on a single column");
+            }
+        } else if (funcDesc.isTopN()) {
+            if (rtype.isTopN() == false) {
+                context.addResult(ResultLevel.ERROR, "Return type for function " + func + " must be topn(100) etc.");
+            }
+            String[] columns = funcDesc.getParameter().getValue().split("\\s*,\\s*");
+            if (funcDesc.getParameter().isColumnType() == false || columns.length != 2) {
+                context.addResult(ResultLevel.ERROR, "Function " + func + " must be on two columns, the weight and the key");
+            } else {
+                TableDesc table = MetadataManager.getInstance(cube.getConfig()).getTableDesc(cube.getFactTable());
+                ColumnDesc weight = table == null ? null : table.findColumnByName(columns[0]);
+                if (weight != null && DataType.getInstance(weight.getDatatype()).isNumberFamily() == false) {
+                    context.addResult(ResultLevel.ERROR, "Weight column of function " + func + " must be one of " + DataType.NUMBER_FAMILY);
+                }
             }
         } else if (funcDesc.isMax() || funcDesc.isMin() || funcDesc.isSum()) {
             if (rtype.isNumberFamily() == false) {
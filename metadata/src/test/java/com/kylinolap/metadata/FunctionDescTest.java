@@ -0,0 +1,70 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.metadata;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.kylinolap.metadata.model.cube.FunctionDesc;
+import com.kylinolap.metadata.model.cube.ParameterDesc;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.metadata.model.schema.ColumnDesc;
+import com.kylinolap.metadata.model.schema.TableDesc;
+
+public class FunctionDescTest {
+
+    @Test
+    public void testTopNWeight() {
+        TblColRef price = column("TEST_KYLIN_FACT", "PRICE");
+        TblColRef seller = column("TEST_KYLIN_FACT", "SELLER_ID");
+        FunctionDesc topN = function(FunctionDesc.FUNC_TOP_N, "PRICE,SELLER_ID", price, seller);
+
+        assertTrue(topN.isTopNWeight(function(FunctionDesc.FUNC_SUM, "PRICE", column("TEST_KYLIN_FACT", "PRICE"))));
+        // same name on another table
+        assertFalse(topN.isTopNWeight(function(FunctionDesc.FUNC_SUM, "PRICE", column("TEST_CATEGORY_GROUPINGS", "PRICE"))));
+        // not a sum
+        assertFalse(topN.isTopNWeight(function(FunctionDesc.FUNC_MAX, "PRICE", price)));
+        // column not resolved
+        assertFalse(topN.isTopNWeight(function(FunctionDesc.FUNC_SUM, "PRICE")));
+        assertFalse(function(FunctionDesc.FUNC_SUM, "PRICE", price).isTopNWeight(function(FunctionDesc.FUNC_SUM, "PRICE", price)));
+    }
+
+    private FunctionDesc function(String expression, String value, TblColRef... colRefs) {
+        ParameterDesc parameter = new ParameterDesc();
+        parameter.setType(ParameterDesc.COLUMN_TYPE);
+        parameter.setValue(value);
+        if (colRefs.length > 0)
+            parameter.setColRefs(Arrays.asList(colRefs));
+
+        FunctionDesc func = new FunctionDesc();
+        func.setExpression(expression);
+        func.setParameter(parameter);
+        return func;
+    }
+
+    private TblColRef column(String table, String name) {
+        TableDesc tableDesc = new TableDesc();
+        tableDesc.setName(table);
+        ColumnDesc column = new ColumnDesc();
+        column.setName(name);
+        column.setTable(tableDesc);
+        return new TblColRef(column);
+    }
+}
@@ -15,10 +15,10 @@
  */
 package com.kylinolap.query.enumerator;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Properties;
 
 import net.hydromatic.linq4j.Enumerator;
@@ -201,13 +201,10 @@ public class CubeEnumerator implements Enumerator<Object[]> {
 
         if (filter instanceof CompareTupleFilter && optiqContext != null) {
             CompareTupleFilter compFilter = (CompareTupleFilter) filter;
-            for (Map.Entry<String, String> entry : compFilter.getVariables().entrySet()) {
-                String variable = entry.getKey();
+            for (String variable : new ArrayList<String>(compFilter.getVariables().keySet())) {
                 Object value = optiqContext.get(variable);
-                if (value != null) {
-                    compFilter.bindVariable(variable, value.toString());
-                }
-
+                // always rebind, the filter may keep the value of last run of a cached plan
+                compFilter.bindVariable(variable, value == null ? null : value.toString());
             }
         }
     }
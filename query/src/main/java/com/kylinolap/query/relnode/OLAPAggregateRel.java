@@ -17,6 +17,7 @@ package com.kylinolap.query.relnode;
 
 import java.util.ArrayList;
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -209,6 +210,7 @@ public class OLAPAggregateRel extends AggregateRelBase implements OLAPRel, Enume
                     parameter = new ParameterDesc();
                     parameter.setValue(column.getName());
                     parameter.setType("column");
+                    parameter.setColRefs(Collections.singletonList(column));
                 }
             }
             FunctionDesc aggFunc = new FunctionDesc();
@@ -345,6 +347,14 @@ public class OLAPAggregateRel extends AggregateRelBase implements OLAPRel, Enume
         return enumAggRel.implement(implementor, pref);
     }
 
+    /**
+     * @return the aggregation of an output field, or null for a group by field
+     */
+    public FunctionDesc getAggregationOf(int fieldIndex) {
+        int i = fieldIndex - getGroupSet().cardinality();
+        return i >= 0 && i < this.aggregations.size() ? this.aggregations.get(i) : null;
+    }
+
     @Override
     public OLAPContext getContext() {
         return context;
@@ -42,6 +42,7 @@ import com.kylinolap.storage.filter.TupleFilter;
 public class OLAPContext {
 
     public static final String PRM_ACCEPT_PARTIAL_RESULT = "AcceptPartialResult";
+    public static final String PRM_CONCURRENT_SCAN = "ConcurrentScan";
 
     private static final ThreadLocal<Map<String, String>> _localPrarameters = new ThreadLocal<Map<String, String>>();
 
@@ -78,12 +79,31 @@ public class OLAPContext {
     public OLAPContext(int seq) {
         this.id = seq;
         this.storageContext = new StorageContext();
+        applyParameters();
+    }
+
+    /**
+     * Readies the context of a cached query plan for another execution, which
+     * may come with different parameters.
+     */
+    public void resetForExecution() {
+        this.storageContext.resetRuntimeState();
+        this.storageContext.setAcceptPartialResult(false);
+        this.storageContext.setConcurrentScan(null);
+        applyParameters();
+    }
+
+    private void applyParameters() {
         Map<String, String> parameters = _localPrarameters.get();
         if (parameters != null) {
             String acceptPartialResult = parameters.get(PRM_ACCEPT_PARTIAL_RESULT);
             if (acceptPartialResult != null) {
                 this.storageContext.setAcceptPartialResult(Boolean.parseBoolean(acceptPartialResult));
             }
+            String concurrentScan = parameters.get(PRM_CONCURRENT_SCAN);
+            if (concurrentScan != null) {
+                this.storageContext.setConcurrentScan(Boolean.parseBoolean(concurrentScan));
+            }
         }
     }
 
@@ -260,6 +260,8 @@ public class OLAPFilterRel extends FilterRelBase implements OLAPRel, EnumerableR
         // only translate where clause and don't translate having clause
         if (!context.afterAggregate) {
             translateFilter(context);
+        } else if (this.condition != null) {
+            context.storageContext.markPostAggFilter();
         }
     }
 
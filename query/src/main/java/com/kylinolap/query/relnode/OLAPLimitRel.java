@@ -79,6 +79,11 @@ public class OLAPLimitRel extends SingleRel implements OLAPRel, EnumerableRel {
         this.context = implementor.getContext();
         Number limitValue = (Number) (((RexLiteral) localFetch).getValue());
         int limit = limitValue.intValue();
+        // storage has to return the skipped rows too
+        if (localOffset != null) {
+            Number offsetValue = (Number) (((RexLiteral) localOffset).getValue());
+            limit += offsetValue.intValue();
+        }
         this.context.storageContext.setLimit(limit);
     }
 
@@ -30,9 +30,11 @@ import org.eigenbase.relopt.RelOptCost;
 import org.eigenbase.relopt.RelOptPlanner;
 import org.eigenbase.relopt.RelTrait;
 import org.eigenbase.relopt.RelTraitSet;
+import org.eigenbase.rex.RexInputRef;
 import org.eigenbase.rex.RexNode;
 
 import com.google.common.base.Preconditions;
+import com.kylinolap.metadata.model.cube.FunctionDesc;
 import com.kylinolap.metadata.model.cube.MeasureDesc;
 import com.kylinolap.metadata.model.cube.TblColRef;
 import com.kylinolap.storage.StorageContext;
@@ -85,7 +87,7 @@ public class OLAPSortRel extends SortRel implements EnumerableRel, OLAPRel {
             StorageContext.OrderEnum order = getOrderEnum(fieldCollation.getDirection());
             OLAPRel olapChild = (OLAPRel) this.getChild();
             TblColRef orderCol = olapChild.getColumnRowType().getAllColumns().get(index);
-            MeasureDesc measure = findMeasure(orderCol);
+            MeasureDesc measure = findMeasure(orderCol, findAggregation(getChild(), index));
             if (measure != null) {
                 this.context.storageContext.addSort(measure, order);
             }
@@ -104,12 +106,37 @@ public class OLAPSortRel extends SortRel implements EnumerableRel, OLAPRel {
         }
     }
 
-    private MeasureDesc findMeasure(TblColRef col) {
+    private MeasureDesc findMeasure(TblColRef col, FunctionDesc aggregation) {
         for (MeasureDesc measure : this.context.cubeDesc.getMeasures()) {
             if (col.getName().equals(measure.getFunction().getRewriteFieldName())) {
                 return measure;
             }
         }
+        // SUM(W) answered by TOP_N(W, K), see HBaseStorageEngine.searchTopNMeasure()
+        if (aggregation != null) {
+            for (MeasureDesc measure : this.context.cubeDesc.getMeasures()) {
+                if (measure.getFunction().isTopNWeight(aggregation)) {
+                    return measure;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the aggregation computing a field of the rel, following the
+     *         plain field references of projections, or null if none
+     */
+    private static FunctionDesc findAggregation(RelNode rel, int fieldIndex) {
+        if (rel instanceof OLAPAggregateRel) {
+            return ((OLAPAggregateRel) rel).getAggregationOf(fieldIndex);
+        }
+        if (rel instanceof OLAPProjectRel) {
+            RexNode project = ((OLAPProjectRel) rel).getProjects().get(fieldIndex);
+            if (project instanceof RexInputRef) {
+                return findAggregation(((OLAPProjectRel) rel).getChild(), ((RexInputRef) project).getIndex());
+            }
+        }
         return null;
     }
 
@@ -36,6 +36,7 @@ import com.kylinolap.metadata.model.cube.CubeDesc;
 import com.kylinolap.metadata.model.cube.DimensionDesc;
 import com.kylinolap.metadata.model.cube.FunctionDesc;
 import com.kylinolap.metadata.model.cube.JoinDesc;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
 import com.kylinolap.metadata.model.cube.ParameterDesc;
 import com.kylinolap.metadata.model.cube.TblColRef;
 import com.kylinolap.query.relnode.OLAPContext;
@@ -148,6 +149,7 @@ public class QueryRouter {
         // match dimensions & aggregations & joins
         Iterator<CubeInstance> it = candidates.iterator();
         List<CubeInstance> backups = new ArrayList<CubeInstance>();
+        List<CubeInstance> topNBackups = new ArrayList<CubeInstance>();
 
         while (it.hasNext()) {
             CubeInstance cube = it.next();
@@ -167,6 +169,12 @@ public class QueryRouter {
                 }
             }
 
+            // leaderboard on a column kept by TopN measure instead of dimension
+            if (isOnline && !matchDimensions && matchJoin && isMatchedWithTopN(dimensionColumns, functions, cube)) {
+                logger.info("TopN matched cube " + cube);
+                topNBackups.add(cube);
+            }
+
             if (!isOnline || !matchDimensions || !matchAggregation || !matchJoin) {
                 logger.info("Remove cube " + cube.getName() + " because " + " isOnlne=" + isOnline + ",matchDimensions=" + matchDimensions + ",matchAggregation=" + matchAggregation + ",matchJoin=" + matchJoin);
                 it.remove();
@@ -185,6 +193,12 @@ public class QueryRouter {
             logger.info("Use weak matched cube " + cube.getName());
             return cube;
         }
+        // consider TopN measure, the storage expands its top keys into rows
+        else if (!topNBackups.isEmpty()) {
+            CubeInstance cube = getCheapestCube(topNBackups);
+            logger.info("Use TopN matched cube " + cube.getName());
+            return cube;
+        }
         return null;
     }
 
@@ -209,6 +223,29 @@ public class QueryRouter {
         return matchAgg;
     }
 
+    /**
+     * A leaderboard query, GROUP BY K ORDER BY SUM(W), matches a cube of
+     * TOP_N(W, K) where K is not a dimension.
+     */
+    private static boolean isMatchedWithTopN(Collection<TblColRef> dimensionColumns, Collection<FunctionDesc> aggregations, CubeInstance cube) {
+        if (aggregations.size() != 1)
+            return false;
+
+        CubeDesc cubeDesc = cube.getDescriptor();
+        FunctionDesc aggregation = aggregations.iterator().next();
+        for (MeasureDesc measure : cubeDesc.getMeasures()) {
+            FunctionDesc func = measure.getFunction();
+            if (func.isTopNWeight(aggregation) == false)
+                continue;
+
+            TblColRef keyColumn = func.getParameter().getColRefs().get(1);
+            Collection<TblColRef> others = new HashSet<TblColRef>(dimensionColumns);
+            if (others.remove(keyColumn) && cubeDesc.listDimensionColumnsIncludingDerived().containsAll(others))
+                return true;
+        }
+        return false;
+    }
+
     private static boolean isMatchedWithJoins(Collection<JoinDesc> joins, CubeInstance cube) throws CubeNotFoundException {
         CubeDesc cubeDesc = cube.getDescriptor();
 
@@ -16,6 +16,8 @@
 
 package com.kylinolap.query.sqlfunc;
 
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
 import java.io.IOException;
 import java.nio.ByteBuffer;
 
@@ -40,6 +42,8 @@ public class HLLDistinctCountAggFunc {
         if (v instanceof Long) { // holistic case
             long l = (Long) v;
             return new FixedValueHLLCMockup(l);
+        } else if (v instanceof ConciseSet) { // bitmap case
+            return new BitmapHLLCMockup((ConciseSet) v);
         } else {
             HyperLogLogPlusCounter c = (HyperLogLogPlusCounter) v;
             return new HyperLogLogPlusCounter(c);
@@ -55,6 +59,14 @@ public class HLLDistinctCountAggFunc {
                 ((FixedValueHLLCMockup) counter).set(l);
                 return counter;
             }
+        } else if (v instanceof ConciseSet) { // bitmap case
+            ConciseSet set = (ConciseSet) v;
+            if (counter == null) {
+                return new BitmapHLLCMockup(set);
+            } else {
+                ((BitmapHLLCMockup) counter).union(set);
+                return counter;
+            }
         } else {
             HyperLogLogPlusCounter c = (HyperLogLogPlusCounter) v;
             if (counter == null) {
@@ -146,4 +158,68 @@ public class HLLDistinctCountAggFunc {
         }
     }
 
+    /**
+     * Exact count distinct by union of bitmaps, the count being the size of the
+     * union.
+     */
+    private static class BitmapHLLCMockup extends HyperLogLogPlusCounter {
+
+        private ConciseSet set;
+
+        BitmapHLLCMockup(ConciseSet set) {
+            this.set = set.clone();
+        }
+
+        public void union(ConciseSet another) {
+            set.addAll(another);
+        }
+
+        @Override
+        public void clear() {
+            set.clear();
+        }
+
+        @Override
+        protected void add(long hash) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void merge(HyperLogLogPlusCounter another) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getCountEstimate() {
+            return set.size();
+        }
+
+        @Override
+        public void writeRegisters(ByteBuffer out) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void readRegisters(ByteBuffer in) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * super.hashCode() + set.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!super.equals(obj))
+                return false;
+            if (getClass() != obj.getClass())
+                return false;
+            BitmapHLLCMockup other = (BitmapHLLCMockup) obj;
+            return set.equals(other.set);
+        }
+    }
+
 }
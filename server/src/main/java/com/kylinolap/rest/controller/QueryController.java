@@ -42,17 +42,21 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
 import org.supercsv.io.CsvListWriter;
 import org.supercsv.io.ICsvListWriter;
 import org.supercsv.prefs.CsvPreference;
 
 import com.codahale.metrics.annotation.Timed;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kylinolap.common.KylinConfig;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.rest.constant.Constant;
 import com.kylinolap.rest.exception.ForbiddenException;
 import com.kylinolap.rest.exception.InternalErrorException;
+import com.kylinolap.rest.exception.NotFoundException;
 import com.kylinolap.rest.model.Query;
 import com.kylinolap.rest.model.SelectedColumnMeta;
 import com.kylinolap.rest.model.TableMeta;
@@ -60,7 +64,9 @@ import com.kylinolap.rest.request.MetaRequest;
 import com.kylinolap.rest.request.PrepareSqlRequest;
 import com.kylinolap.rest.request.SQLRequest;
 import com.kylinolap.rest.request.SaveSqlRequest;
+import com.kylinolap.rest.response.SQLPageResponse;
 import com.kylinolap.rest.response.SQLResponse;
+import com.kylinolap.rest.service.QueryCursor;
 import com.kylinolap.rest.service.QueryService;
 import com.kylinolap.rest.util.QueryUtil;
 
@@ -116,6 +122,103 @@ public class QueryController extends BasicController {
         return response;
     }
 
+    /**
+     * Streams the result rows as they are read, in the same JSON shape as
+     * /query, such that a large result is never held in server memory at
+     * once. The statistics fields follow the rows.
+     */
+    @RequestMapping(value = "/query/stream", method = RequestMethod.POST)
+    @Timed(name = "query")
+    public void streamQuery(@RequestBody SQLRequest sqlRequest, HttpServletResponse response) throws IOException {
+        long startTimestamp = System.currentTimeMillis();
+        QueryCursor cursor = openCursor(sqlRequest);
+
+        response.setContentType("application/json;charset=utf-8");
+        JsonGenerator generator = new ObjectMapper().getFactory().createGenerator(response.getOutputStream());
+        String exceptionMessage = null;
+        try {
+            int pageSize = KylinConfig.getInstanceFromEnv().getQueryPageSize();
+            generator.writeStartObject();
+            generator.writeObjectField("columnMetas", cursor.getColumnMetas());
+            generator.writeArrayFieldStart("results");
+            try {
+                while (!cursor.isExhausted()) {
+                    List<List<String>> rows;
+                    synchronized (cursor) {
+                        rows = cursor.fetch(pageSize);
+                    }
+                    for (List<String> row : rows) {
+                        generator.writeObject(row);
+                    }
+                    generator.flush();
+                }
+            } catch (Exception e) {
+                // too late to change the http status, report error in the body
+                logger.error("Exception when streaming query result", e);
+                exceptionMessage = QueryUtil.makeErrorMsgUserFriendly(e.getLocalizedMessage());
+            }
+            generator.writeEndArray();
+
+            SQLResponse header = cursor.toResponseHeader();
+            SQLResponse summary = new SQLResponse(header.getColumnMetas(), null, header.getCube(), 0, exceptionMessage != null, exceptionMessage, header.isPartial());
+            summary.setTotalScanCount(header.getTotalScanCount());
+            summary.setDuration(System.currentTimeMillis() - startTimestamp);
+
+            generator.writeStringField("cube", summary.getCube());
+            generator.writeNumberField("affectedRowCount", 0);
+            generator.writeBooleanField("isException", summary.getIsException());
+            generator.writeStringField("exceptionMessage", summary.getExceptionMessage());
+            generator.writeNumberField("duration", summary.getDuration());
+            generator.writeBooleanField("partial", summary.isPartial());
+            generator.writeNumberField("totalScanCount", summary.getTotalScanCount());
+            generator.writeBooleanField("hitCache", false);
+            generator.writeEndObject();
+
+            queryService.logQuery(sqlRequest, summary, new Date(startTimestamp), new Date(System.currentTimeMillis()));
+        } finally {
+            generator.close();
+            queryService.closeCursor(cursor);
+            logger.info("Streamed " + cursor.getRowCount() + " rows of query in " + (System.currentTimeMillis() - startTimestamp) + " ms");
+        }
+    }
+
+    /**
+     * Opens a cursor over the query result and returns the first page. The
+     * rest pages are fetched by the returned cursor id until hasMore is false.
+     */
+    @RequestMapping(value = "/query/cursor", method = RequestMethod.POST)
+    @ResponseBody
+    @Timed(name = "query")
+    public SQLPageResponse openQueryCursor(@RequestBody SQLRequest sqlRequest, @RequestParam(value = "pageSize", required = false) Integer pageSize) {
+        long startTimestamp = System.currentTimeMillis();
+
+        SQLPageResponse response = fetchPage(openCursor(sqlRequest), pageSize);
+        response.setDuration(System.currentTimeMillis() - startTimestamp);
+
+        queryService.logQuery(sqlRequest, response, new Date(startTimestamp), new Date(System.currentTimeMillis()));
+
+        return response;
+    }
+
+    @RequestMapping(value = "/query/cursor/{cursorId}", method = RequestMethod.GET)
+    @ResponseBody
+    @Timed(name = "fetchQueryCursor")
+    public SQLPageResponse fetchQueryCursor(@PathVariable String cursorId, @RequestParam(value = "pageSize", required = false) Integer pageSize) {
+        long startTimestamp = System.currentTimeMillis();
+
+        SQLPageResponse response = fetchPage(getCursor(cursorId), pageSize);
+        response.setDuration(System.currentTimeMillis() - startTimestamp);
+
+        return response;
+    }
+
+    @RequestMapping(value = "/query/cursor/{cursorId}", method = RequestMethod.DELETE)
+    @ResponseBody
+    @Timed(name = "closeQueryCursor")
+    public void closeQueryCursor(@PathVariable String cursorId) {
+        queryService.closeCursor(getCursor(cursorId));
+    }
+
     @RequestMapping(value = "/saved_queries", method = RequestMethod.POST)
     @ResponseBody
     @Timed(name = "saveQuery")
@@ -190,10 +293,7 @@ public class QueryController extends BasicController {
         logger.info("Using project: " + project);
         logger.info("The original query:  " + sql);
 
-        String serverMode = KylinConfig.getInstanceFromEnv().getServerMode();
-        if (!(Constant.SERVER_MODE_QUERY.equals(serverMode.toLowerCase()) || Constant.SERVER_MODE_ALL.equals(serverMode.toLowerCase()))) {
-            throw new InternalErrorException("Query is not allowed in " + serverMode + " mode.");
-        }
+        checkServerMode();
 
         if (sql.toLowerCase().contains("select")) {
             SQLResponse sqlResponse = searchQueryInCache(sqlRequest);
@@ -217,7 +317,7 @@ public class QueryController extends BasicController {
                 logger.error("Exception when execute sql", ade);
                 throw new ForbiddenException(ade.getLocalizedMessage());
             } catch (Exception e) {
-                SQLResponse exceptionRes = new SQLResponse(null, null, 0, true, e.getMessage());
+                SQLResponse exceptionRes = queryService.makeExceptionResponse(sqlRequest, e);
                 Cache exceptionCache = cacheManager.getCache(EXCEPTION_QUERY_CACHE);
                 exceptionCache.put(new Element(sqlRequest, exceptionRes));
 
@@ -230,21 +330,92 @@ public class QueryController extends BasicController {
         }
     }
 
+    private QueryCursor openCursor(SQLRequest sqlRequest) {
+        logger.info("Using project: " + sqlRequest.getProject());
+        logger.info("The original query:  " + sqlRequest.getSql());
+        checkServerMode();
+
+        QueryCursor cursor = null;
+        try {
+            cursor = queryService.openCursor(sqlRequest);
+            checkQueryAuth(cursor.toResponseHeader());
+            return cursor;
+        } catch (AccessDeniedException ade) {
+            logger.error("Exception when execute sql", ade);
+            queryService.closeCursor(cursor);
+            throw new ForbiddenException(ade.getLocalizedMessage());
+        } catch (Exception e) {
+            logger.error("Exception when execute sql", e);
+            queryService.closeCursor(cursor);
+            throw new InternalErrorException(QueryUtil.makeErrorMsgUserFriendly(e.getLocalizedMessage()));
+        }
+    }
+
+    private QueryCursor getCursor(String cursorId) {
+        try {
+            QueryCursor cursor = queryService.getCursor(cursorId);
+            if (cursor == null) {
+                throw new NotFoundException("Query cursor " + cursorId + " does not exist or has expired");
+            }
+            return cursor;
+        } catch (AccessDeniedException ade) {
+            throw new ForbiddenException(ade.getLocalizedMessage());
+        }
+    }
+
+    private SQLPageResponse fetchPage(QueryCursor cursor, Integer pageSize) {
+        int maxRows = (pageSize == null || pageSize <= 0) ? KylinConfig.getInstanceFromEnv().getQueryPageSize() : pageSize;
+        // a cursor reads one page at a time
+        synchronized (cursor) {
+            try {
+                List<List<String>> rows = cursor.fetch(maxRows);
+                SQLResponse header = cursor.toResponseHeader();
+                header.setResults(rows);
+
+                boolean hasMore = !cursor.isExhausted();
+                if (!hasMore) {
+                    queryService.closeCursor(cursor);
+                }
+                return new SQLPageResponse(header, hasMore ? cursor.getId() : null, hasMore);
+            } catch (Exception e) {
+                queryService.closeCursor(cursor);
+                logger.error("Exception when fetch query cursor", e);
+                throw new InternalErrorException(QueryUtil.makeErrorMsgUserFriendly(e.getLocalizedMessage()));
+            }
+        }
+    }
+
+    private void checkServerMode() {
+        String serverMode = KylinConfig.getInstanceFromEnv().getServerMode();
+        if (!(Constant.SERVER_MODE_QUERY.equals(serverMode.toLowerCase()) || Constant.SERVER_MODE_ALL.equals(serverMode.toLowerCase()))) {
+            throw new InternalErrorException("Query is not allowed in " + serverMode + " mode.");
+        }
+    }
+
     private SQLResponse searchQueryInCache(SQLRequest sqlRequest) {
-        SQLResponse response = null;
-        Cache exceptionCache = cacheManager.getCache(EXCEPTION_QUERY_CACHE);
-        Cache queryCache = cacheManager.getCache(SUCCESS_QUERY_CACHE);
-
-        if (KylinConfig.getInstanceFromEnv().isQueryCacheEnabled() && null != exceptionCache.get(sqlRequest)) {
-            Element element = exceptionCache.get(sqlRequest);
-            response = (SQLResponse) element.getObjectValue();
-            response.setHitCache(true);
-        } else if (KylinConfig.getInstanceFromEnv().isQueryCacheEnabled() && null != queryCache.get(sqlRequest)) {
-            Element element = queryCache.get(sqlRequest);
-            response = (SQLResponse) element.getObjectValue();
-            response.setHitCache(true);
+        if (!KylinConfig.getInstanceFromEnv().isQueryCacheEnabled())
+            return null;
+
+        SQLResponse response = searchQueryInCache(cacheManager.getCache(EXCEPTION_QUERY_CACHE), sqlRequest);
+        if (null == response) {
+            response = searchQueryInCache(cacheManager.getCache(SUCCESS_QUERY_CACHE), sqlRequest);
         }
+        return response;
+    }
 
+    private SQLResponse searchQueryInCache(Cache cache, SQLRequest sqlRequest) {
+        Element element = cache.get(sqlRequest);
+        if (null == element)
+            return null;
+
+        SQLResponse response = (SQLResponse) element.getObjectValue();
+        if (!queryService.isCachedResponseValid(response)) {
+            // a cube the query reads got new segments, or was disabled
+            logger.debug("Cached response is stale, re-query");
+            cache.remove(sqlRequest);
+            return null;
+        }
+        response.setHitCache(true);
         return response;
     }
 
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.kylinolap.common.KylinConfig;
+import com.kylinolap.dict.DecodeCache;
+import com.kylinolap.dict.DictionaryManager;
+
+/**
+ * Hit and miss of the dictionary decode caches, summed over the loaded
+ * dictionaries.
+ * 
+ */
+public class DictionaryMetrics implements MetricSet {
+
+    static class DictionaryMetricsHolder {
+        static final DictionaryMetrics INSTANCE = new DictionaryMetrics();
+    }
+
+    public static DictionaryMetrics getInstance() {
+        return DictionaryMetricsHolder.INSTANCE;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metricSet = new HashMap<String, Metric>();
+
+        metricSet.put("decodeCacheCount", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getDecodeCaches().size();
+            }
+        });
+
+        metricSet.put("decodeCacheHit", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long hit = 0;
+                for (DecodeCache<?> cache : getDecodeCaches().values())
+                    hit += cache.getHitCount();
+                return hit;
+            }
+        });
+
+        metricSet.put("decodeCacheMiss", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long miss = 0;
+                for (DecodeCache<?> cache : getDecodeCaches().values())
+                    miss += cache.getMissCount();
+                return miss;
+            }
+        });
+
+        metricSet.put("decodeCacheHitRatio", new Gauge<Double>() {
+            @Override
+            public Double getValue() {
+                long hit = 0, miss = 0;
+                for (DecodeCache<?> cache : getDecodeCaches().values()) {
+                    hit += cache.getHitCount();
+                    miss += cache.getMissCount();
+                }
+                return hit + miss == 0 ? 0 : (double) hit / (hit + miss);
+            }
+        });
+
+        return metricSet;
+    }
+
+    private Map<String, DecodeCache<?>> getDecodeCaches() {
+        return DictionaryManager.getInstance(KylinConfig.getInstanceFromEnv()).getDecodeCaches();
+    }
+}
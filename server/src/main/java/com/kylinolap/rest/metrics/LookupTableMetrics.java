@@ -0,0 +1,69 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.metrics;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Metric;
+import com.codahale.metrics.MetricSet;
+import com.kylinolap.common.KylinConfig;
+import com.kylinolap.cube.CubeManager;
+
+/**
+ * Memory of the secondary indexes built on the cached lookup tables.
+ * 
+ */
+public class LookupTableMetrics implements MetricSet {
+
+    static class LookupTableMetricsHolder {
+        static final LookupTableMetrics INSTANCE = new LookupTableMetrics();
+    }
+
+    public static LookupTableMetrics getInstance() {
+        return LookupTableMetricsHolder.INSTANCE;
+    }
+
+    @Override
+    public Map<String, Metric> getMetrics() {
+        Map<String, Metric> metricSet = new HashMap<String, Metric>();
+
+        metricSet.put("lookupTableCount", new Gauge<Integer>() {
+            @Override
+            public Integer getValue() {
+                return getIndexMemBytes().size();
+            }
+        });
+
+        metricSet.put("lookupTableIndexMemBytes", new Gauge<Long>() {
+            @Override
+            public Long getValue() {
+                long bytes = 0;
+                for (Long b : getIndexMemBytes().values())
+                    bytes += b;
+                return bytes;
+            }
+        });
+
+        return metricSet;
+    }
+
+    private Map<String, Long> getIndexMemBytes() {
+        return CubeManager.getInstance(KylinConfig.getInstanceFromEnv()).getLookupTableIndexMemBytes();
+    }
+}
@@ -22,6 +22,7 @@ public class SQLRequest {
     private Integer offset = 0;
     private Integer limit = 0;
     private boolean acceptPartial = true;
+    private Boolean concurrentScan = null; // null means following cube and server settings, not part of cache key
 
     public SQLRequest() {
     }
@@ -66,6 +67,14 @@ public class SQLRequest {
         this.acceptPartial = acceptPartial;
     }
 
+    public Boolean getConcurrentScan() {
+        return concurrentScan;
+    }
+
+    public void setConcurrentScan(Boolean concurrentScan) {
+        this.concurrentScan = concurrentScan;
+    }
+
     @Override
     public int hashCode() {
         final int prime = 31;
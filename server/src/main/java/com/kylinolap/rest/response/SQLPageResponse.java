@@ -0,0 +1,47 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.response;
+
+/**
+ * One page of a query result read through a cursor.
+ */
+public class SQLPageResponse extends SQLResponse {
+    private static final long serialVersionUID = 1L;
+
+    // the token to fetch next page with, null if no more
+    private String cursorId;
+
+    private boolean hasMore;
+
+    public SQLPageResponse() {
+    }
+
+    public SQLPageResponse(SQLResponse header, String cursorId, boolean hasMore) {
+        super(header.getColumnMetas(), header.getResults(), header.getCube(), header.getAffectedRowCount(), header.getIsException(), header.getExceptionMessage(), header.isPartial());
+        this.setTotalScanCount(header.getTotalScanCount());
+        this.cursorId = cursorId;
+        this.hasMore = hasMore;
+    }
+
+    public String getCursorId() {
+        return cursorId;
+    }
+
+    public boolean getHasMore() {
+        return hasMore;
+    }
+}
@@ -16,8 +16,10 @@
 package com.kylinolap.rest.response;
 
 import java.io.Serializable;
+import java.util.HashMap;
 import java.util.List;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.kylinolap.rest.model.SelectedColumnMeta;
 
 public class SQLResponse implements Serializable {
@@ -51,6 +53,10 @@ public class SQLResponse implements Serializable {
 
     private boolean hitCache = false;
 
+    // cube name -> signature of the cube segments read, for query cache
+    // validation, not sent to client
+    private HashMap<String, String> cubeSignatures;
+
     public SQLResponse() {
     }
 
@@ -138,4 +144,28 @@ public class SQLResponse implements Serializable {
         this.hitCache = hitCache;
     }
 
+    @JsonIgnore
+    public HashMap<String, String> getCubeSignatures() {
+        return cubeSignatures;
+    }
+
+    @JsonIgnore
+    public void setCubeSignatures(HashMap<String, String> cubeSignatures) {
+        this.cubeSignatures = cubeSignatures;
+    }
+
+    /**
+     * @return true if the response was computed from the given cube, or where
+     *         it came from is unknown
+     */
+    public boolean isReadingCube(String cubeName) {
+        if (cubeSignatures == null)
+            return true;
+        for (String name : cubeSignatures.keySet()) {
+            if (name.equalsIgnoreCase(cubeName))
+                return true;
+        }
+        return false;
+    }
+
 }
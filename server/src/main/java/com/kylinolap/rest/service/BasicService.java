@@ -56,7 +56,7 @@ public abstract class BasicService {
 
     private static final Logger logger = LoggerFactory.getLogger(BasicService.class);
 
-    private static ConcurrentMap<String, DataSource> olapDataSources = new ConcurrentHashMap<String, DataSource>();
+    private static ConcurrentMap<String, PooledOLAPDataSource> olapDataSources = new ConcurrentHashMap<String, PooledOLAPDataSource>();
 
 //    @Autowired
 //    protected JdbcTemplate jdbcTemplate;
@@ -70,20 +70,40 @@ public abstract class BasicService {
             throw new IllegalArgumentException("removeOLAPDataSource: project name not given");
 
         project = ProjectInstance.getNormalizedProjectName(project);
-        olapDataSources.remove(project);
+        PooledOLAPDataSource ds = olapDataSources.remove(project);
+        if (ds != null) {
+            ds.close();
+        }
     }
 
     public void resetOLAPDataSources() {
         // brutal, yet simplest way
         logger.info("resetOLAPDataSources is called.");
-        olapDataSources = new ConcurrentHashMap<String, DataSource>();
+        ConcurrentMap<String, PooledOLAPDataSource> old = olapDataSources;
+        olapDataSources = new ConcurrentHashMap<String, PooledOLAPDataSource>();
+        for (PooledOLAPDataSource ds : old.values()) {
+            ds.close();
+        }
+    }
+
+    /**
+     * Drops the cached query plans of projects containing the cube, as plans
+     * are bound to the cube instance at planning time.
+     */
+    public void cleanPlanCache(String cubeName) {
+        for (ProjectInstance project : getProjectManager().getProjects(cubeName)) {
+            PooledOLAPDataSource ds = olapDataSources.get(ProjectInstance.getNormalizedProjectName(project.getName()));
+            if (ds != null) {
+                ds.clearPlanCache();
+            }
+        }
     }
 
     public DataSource getOLAPDataSource(String project) {
 
         project = ProjectInstance.getNormalizedProjectName(project);
 
-        DataSource ret = olapDataSources.get(project);
+        PooledOLAPDataSource ret = olapDataSources.get(project);
         if (ret == null) {
             logger.debug("Creating a new data source");
             logger.debug("OLAP data source pointing to " + getConfig());
@@ -106,9 +126,12 @@ public abstract class BasicService {
             ds.setDriverClassName("net.hydromatic.optiq.jdbc.Driver");
             ds.setUrl("jdbc:optiq:model=" + modelJson.getAbsolutePath());
 
-            ret = olapDataSources.putIfAbsent(project, ds);
+            KylinConfig config = KylinConfig.getInstanceFromEnv();
+            PooledOLAPDataSource pooled = new PooledOLAPDataSource(ds, config.getQueryConnectionPoolSize(), config.getQueryPlanCacheSize());
+
+            ret = olapDataSources.putIfAbsent(project, pooled);
             if (ret == null) {
-                ret = ds;
+                ret = pooled;
             }
         }
         return ret;
@@ -27,9 +27,15 @@ import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
 
 import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
@@ -39,8 +45,6 @@ import org.apache.hadoop.util.ToolRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.cache.annotation.CacheEvict;
-import org.springframework.cache.annotation.Caching;
 import org.springframework.security.access.prepost.PostFilter;
 import org.springframework.security.access.prepost.PreAuthorize;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -77,8 +81,10 @@ import com.kylinolap.rest.constant.Constant;
 import com.kylinolap.rest.controller.QueryController;
 import com.kylinolap.rest.exception.InternalErrorException;
 import com.kylinolap.rest.request.MetricsRequest;
+import com.kylinolap.rest.request.SQLRequest;
 import com.kylinolap.rest.response.HBaseResponse;
 import com.kylinolap.rest.response.MetricsResponse;
+import com.kylinolap.rest.response.SQLResponse;
 import com.kylinolap.rest.security.AclPermission;
 
 /**
@@ -95,6 +101,9 @@ public class CubeService extends BasicService {
     @Autowired
     private AccessService accessService;
 
+    @Autowired
+    private CacheManager cacheManager;
+
     @PostFilter(Constant.ACCESS_POST_FILTER_READ)
     public List<CubeInstance> listAllCubes(final String cubeName, final String projectName) {
         List<CubeInstance> cubeInstances = null;
@@ -259,11 +268,53 @@ public class CubeService extends BasicService {
     public void reloadCubeCache(String cubeName) {
         CubeInstance cube = CubeManager.getInstance(this.getConfig()).getCube(cubeName);
         CubeManager.getInstance(this.getConfig()).loadCubeCache(cube);
+        cleanQueryCache(cubeName);
     }
 
     public void removeCubeCache(String cubeName) {
         CubeInstance cube = CubeManager.getInstance(this.getConfig()).getCube(cubeName);
         CubeManager.getInstance(this.getConfig()).removeCubeCache(cube);
+        cleanQueryCache(cubeName);
+    }
+
+    /**
+     * Evict cached query results read from the given cube, results of other
+     * cubes stay. Cached exceptions are evicted if the cube is in the project
+     * of the query, as the query may pass on the cube now. Query plans of the
+     * cube are dropped too.
+     */
+    public void cleanQueryCache(String cubeName) {
+        HashSet<String> projects = new HashSet<String>();
+        for (ProjectInstance project : getProjectManager().getProjects(cubeName)) {
+            projects.add(ProjectInstance.getNormalizedProjectName(project.getName()));
+        }
+
+        int count = cleanQueryCache(cacheManager.getCache(QueryController.SUCCESS_QUERY_CACHE), cubeName, projects);
+        count += cleanQueryCache(cacheManager.getCache(QueryController.EXCEPTION_QUERY_CACHE), cubeName, projects);
+        logger.debug("Evicted " + count + " cached query results of cube " + cubeName);
+
+        cleanPlanCache(cubeName);
+    }
+
+    private int cleanQueryCache(Cache cache, String cubeName, Set<String> projects) {
+        int count = 0;
+        for (Object key : cache.getKeys()) {
+            Element element = cache.getQuiet(key);
+            if (element == null)
+                continue;
+
+            SQLResponse response = (SQLResponse) element.getObjectValue();
+            boolean evict = response.isReadingCube(cubeName);
+            if (!evict && response.getIsException() && key instanceof SQLRequest) {
+                String project = ((SQLRequest) key).getProject();
+                evict = project == null || projects.contains(ProjectInstance.getNormalizedProjectName(project));
+            }
+            if (evict) {
+                cache.remove(key);
+                count++;
+            }
+        }
+        return count;
     }
 
     /**
@@ -276,7 +327,6 @@ public class CubeService extends BasicService {
      * @throws JobException
      */
     @PreAuthorize(Constant.ACCESS_HAS_ROLE_ADMIN + " or hasPermission(#cube, 'ADMINISTRATION') or hasPermission(#cube, 'OPERATION') or hasPermission(#cube, 'MANAGEMENT')")
-    @Caching(evict = { @CacheEvict(value = QueryController.SUCCESS_QUERY_CACHE, allEntries = true), @CacheEvict(value = QueryController.EXCEPTION_QUERY_CACHE, allEntries = true) })
     public CubeInstance disableCube(CubeInstance cube) throws IOException, CubeIntegrityException, JobException {
         String cubeName = cube.getName();
 
@@ -288,7 +338,9 @@ public class CubeService extends BasicService {
         cube.setStatus(CubeStatusEnum.DISABLED);
 
         try {
-            return getCubeManager().updateCube(cube);
+            CubeInstance updatedCube = getCubeManager().updateCube(cube);
+            cleanQueryCache(cubeName);
+            return updatedCube;
         } catch (IOException e) {
             cube.setStatus(ostatus);
             throw e;
@@ -23,7 +23,9 @@ import org.springframework.stereotype.Component;
 
 import com.codahale.metrics.MetricRegistry;
 import com.kylinolap.job.JobManager;
+import com.kylinolap.rest.metrics.DictionaryMetrics;
 import com.kylinolap.rest.metrics.JobMetrics;
+import com.kylinolap.rest.metrics.LookupTableMetrics;
 import com.kylinolap.rest.metrics.QueryMetrics;
 
 /**
@@ -47,6 +49,14 @@ public class MetricsService implements InitializingBean {
         metricRegistry.register("QueryMetrics", QueryMetrics.getInstance());
     }
 
+    public void registerDictionaryMetrics() {
+        metricRegistry.register("DictionaryMetrics", DictionaryMetrics.getInstance());
+    }
+
+    public void registerLookupTableMetrics() {
+        metricRegistry.register("LookupTableMetrics", LookupTableMetrics.getInstance());
+    }
+
     /*
      * (non-Javadoc)
      * 
@@ -56,5 +66,7 @@ public class MetricsService implements InitializingBean {
     @Override
     public void afterPropertiesSet() throws Exception {
         registerQueryMetrics();
+        registerDictionaryMetrics();
+        registerLookupTableMetrics();
     }
 }
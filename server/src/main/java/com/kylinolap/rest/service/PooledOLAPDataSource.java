@@ -0,0 +1,309 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.service;
+
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.sql.DataSource;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.kylinolap.query.relnode.OLAPContext;
+
+/**
+ * Pools the optiq connections of a project, such that the OLAP schema is not
+ * built again for every query, and caches prepared statements per connection,
+ * such that a query seen before skips parsing and planning.
+ *
+ * A query plan carries its OLAPContexts which are registered to the executing
+ * thread afresh on each execution. Dynamic parameters are bound at execution
+ * time, so a cached plan can run with different parameter values.
+ */
+public class PooledOLAPDataSource implements DataSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(PooledOLAPDataSource.class);
+
+    private final DataSource target;
+    private final int planCacheSize;
+    private final BlockingQueue<PooledConnection> idle;
+
+    // bumped to invalidate the plans of all connections, including those in use
+    private final AtomicInteger planGeneration = new AtomicInteger();
+    private volatile boolean closed = false;
+
+    public PooledOLAPDataSource(DataSource target, int poolSize, int planCacheSize) {
+        this.target = target;
+        this.planCacheSize = planCacheSize;
+        this.idle = new ArrayBlockingQueue<PooledConnection>(Math.max(1, poolSize));
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        PooledConnection pooled = idle.poll();
+        if (pooled == null) {
+            pooled = new PooledConnection(target.getConnection());
+        }
+        return pooled.lease();
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection();
+    }
+
+    /**
+     * Drops the cached plans, e.g. after a cube of the project has changed.
+     */
+    public void clearPlanCache() {
+        planGeneration.incrementAndGet();
+    }
+
+    /**
+     * Closes the idle connections, connections in use are closed once they are
+     * given back.
+     */
+    public void close() {
+        closed = true;
+        PooledConnection pooled;
+        while ((pooled = idle.poll()) != null) {
+            pooled.destroy();
+        }
+    }
+
+    private void giveBack(PooledConnection pooled) {
+        if (closed || !idle.offer(pooled)) {
+            pooled.destroy();
+        }
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private class PooledConnection {
+        private final Connection conn;
+        private final Map<String, CachedPlan> plans;
+        private int generation;
+
+        @SuppressWarnings("serial")
+        PooledConnection(Connection conn) {
+            this.conn = conn;
+            this.generation = planGeneration.get();
+            this.plans = new LinkedHashMap<String, CachedPlan>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, CachedPlan> eldest) {
+                    if (size() > planCacheSize) {
+                        eldest.getValue().destroy();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+
+        Connection lease() {
+            int current = planGeneration.get();
+            if (generation != current) {
+                clearPlans();
+                generation = current;
+            }
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new ConnectionLease(this));
+        }
+
+        PreparedStatement prepare(String sql) throws SQLException {
+            CachedPlan plan = plans.get(sql);
+            if (plan == null) {
+                PreparedStatement stmt = conn.prepareStatement(sql);
+                // the OLAPContexts registered while planning
+                plan = new CachedPlan(stmt, new ArrayList<OLAPContext>(OLAPContext.getThreadLocalContexts()));
+                plans.put(sql, plan);
+            } else {
+                logger.debug("Query plan hits cache");
+            }
+            return plan.lease();
+        }
+
+        private void clearPlans() {
+            for (Iterator<CachedPlan> it = plans.values().iterator(); it.hasNext();) {
+                it.next().destroy();
+                it.remove();
+            }
+        }
+
+        void destroy() {
+            clearPlans();
+            try {
+                conn.close();
+            } catch (SQLException e) {
+                logger.error("failed to close", e);
+            }
+        }
+    }
+
+    /**
+     * One use of a pooled connection, closing it gives the connection back.
+     */
+    private class ConnectionLease implements InvocationHandler {
+        private final PooledConnection pooled;
+        private boolean released = false;
+
+        ConnectionLease(PooledConnection pooled) {
+            this.pooled = pooled;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (!released) {
+                    released = true;
+                    giveBack(pooled);
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return released;
+            }
+            if (released) {
+                throw new SQLException("Connection is closed");
+            }
+            if ("prepareStatement".equals(name) && args.length == 1 && planCacheSize > 0) {
+                return pooled.prepare((String) args[0]);
+            }
+            return PooledOLAPDataSource.invoke(pooled.conn, method, args);
+        }
+    }
+
+    private static class CachedPlan {
+        private final PreparedStatement stmt;
+        private final Collection<OLAPContext> contexts;
+
+        CachedPlan(PreparedStatement stmt, Collection<OLAPContext> contexts) {
+            this.stmt = stmt;
+            this.contexts = contexts;
+        }
+
+        PreparedStatement lease() {
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new StatementLease(this));
+        }
+
+        void destroy() {
+            try {
+                stmt.close();
+            } catch (SQLException e) {
+                logger.error("failed to close", e);
+            }
+        }
+    }
+
+    /**
+     * One use of a cached plan, closing it keeps the plan for next use.
+     */
+    private static class StatementLease implements InvocationHandler {
+        private final CachedPlan plan;
+        private boolean released = false;
+
+        StatementLease(CachedPlan plan) {
+            this.plan = plan;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("close".equals(name)) {
+                if (!released) {
+                    released = true;
+                    plan.stmt.clearParameters();
+                }
+                return null;
+            }
+            if ("isClosed".equals(name)) {
+                return released;
+            }
+            if (released) {
+                throw new SQLException("Statement is closed");
+            }
+            if (name.startsWith("execute")) {
+                OLAPContext.clearThreadLocalContexts();
+                for (OLAPContext ctx : plan.contexts) {
+                    ctx.resetForExecution();
+                    OLAPContext.registerContext(ctx);
+                }
+            }
+            return PooledOLAPDataSource.invoke(plan.stmt, method, args);
+        }
+    }
+
+    // ~ the rest of DataSource
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return target.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        target.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        target.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return target.getLoginTimeout();
+    }
+
+    public java.util.logging.Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this))
+            return iface.cast(this);
+        return target.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || target.isWrapperFor(iface);
+    }
+}
@@ -113,6 +113,7 @@ public class ProjectService extends BasicService {
     public void reloadProjectCache(String name) throws IOException {
         ProjectInstance project = this.getProjectManager().getProject(name);
         this.getProjectManager().loadProjectCache(project, false);
+        removeOLAPDataSource(name);
     }
 
     /**
@@ -121,6 +122,7 @@ public class ProjectService extends BasicService {
     public void removeProjectCache(String name) {
         ProjectInstance project = this.getProjectManager().getProject(name);
         this.getProjectManager().removeProjectCache(project);
+        removeOLAPDataSource(name);
     }
 
 }
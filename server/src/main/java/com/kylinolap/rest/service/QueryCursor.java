@@ -0,0 +1,159 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.service;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.UUID;
+
+import com.kylinolap.query.relnode.OLAPContext;
+import com.kylinolap.rest.model.SelectedColumnMeta;
+import com.kylinolap.rest.response.SQLResponse;
+
+/**
+ * An open query result set, read page by page such that the rows of a large
+ * result do not need to be held in memory all at once.
+ *
+ * Not thread-safe, a cursor is used by one request at a time. Readers
+ * synchronize on the cursor, so the idle cursor reaper does not close it in
+ * the middle of a page.
+ */
+public class QueryCursor {
+
+    private final String id;
+    private final String owner;
+    private final Connection conn;
+    private final Statement stat;
+    private final ResultSet resultSet;
+    private final int columnCount;
+    private final List<SelectedColumnMeta> columnMetas;
+    private final Collection<OLAPContext> contexts;
+
+    private boolean exhausted;
+    private long rowCount;
+    private volatile long lastAccessTime;
+
+    QueryCursor(String owner, Connection conn, Statement stat, ResultSet resultSet) throws SQLException {
+        this(owner, conn, stat, resultSet, OLAPContext.getThreadLocalContexts());
+    }
+
+    QueryCursor(String owner, Connection conn, Statement stat, ResultSet resultSet, Collection<OLAPContext> contexts) throws SQLException {
+        this.id = UUID.randomUUID().toString();
+        this.owner = owner;
+        this.conn = conn;
+        this.stat = stat;
+        this.resultSet = resultSet;
+        this.contexts = new ArrayList<OLAPContext>(contexts);
+
+        ResultSetMetaData metaData = resultSet.getMetaData();
+        this.columnCount = metaData.getColumnCount();
+        this.columnMetas = new ArrayList<SelectedColumnMeta>(columnCount);
+        for (int i = 1; i <= columnCount; ++i) {
+            columnMetas.add(new SelectedColumnMeta(metaData.isAutoIncrement(i), metaData.isCaseSensitive(i), metaData.isSearchable(i), metaData.isCurrency(i), metaData.isNullable(i), metaData.isSigned(i), metaData.getColumnDisplaySize(i), metaData.getColumnLabel(i), metaData.getColumnName(i), metaData.getSchemaName(i), metaData.getCatalogName(i), metaData.getTableName(i), metaData.getPrecision(i), metaData.getScale(i), metaData.getColumnType(i), metaData.getColumnTypeName(i), metaData.isReadOnly(i), metaData.isWritable(i), metaData.isDefinitelyWritable(i)));
+        }
+        touch();
+    }
+
+    /**
+     * @return up to maxRows next rows, empty if no more
+     */
+    public List<List<String>> fetch(int maxRows) throws SQLException {
+        touch();
+        List<List<String>> rows = new ArrayList<List<String>>(Math.min(maxRows, 1024));
+        while (rows.size() < maxRows && !exhausted) {
+            if (resultSet.next()) {
+                rows.add(readRow());
+            } else {
+                exhausted = true;
+            }
+        }
+        rowCount += rows.size();
+        // a long read counts as access too
+        touch();
+        return rows;
+    }
+
+    private List<String> readRow() throws SQLException {
+        String[] row = new String[columnCount];
+        for (int i = 0; i < columnCount; i++) {
+            row[i] = resultSet.getString(i + 1);
+        }
+        return Arrays.asList(row);
+    }
+
+    /**
+     * @return a response carrying the column metas and query statistics, but
+     *         no rows
+     */
+    public SQLResponse toResponseHeader() {
+        boolean isPartialResult = false;
+        String cube = "";
+        long totalScanCount = 0;
+        HashMap<String, String> cubeSignatures = new HashMap<String, String>();
+        for (OLAPContext ctx : contexts) {
+            isPartialResult |= ctx.storageContext.isPartialResultReturned();
+            cube = ctx.cubeInstance.getName();
+            totalScanCount += ctx.storageContext.getTotalScanCount();
+            cubeSignatures.put(cube, QueryService.getCubeSignature(ctx.cubeInstance));
+        }
+
+        SQLResponse response = new SQLResponse(columnMetas, null, cube, 0, false, null, isPartialResult);
+        response.setTotalScanCount(totalScanCount);
+        response.setCubeSignatures(cubeSignatures);
+        return response;
+    }
+
+    public void close() {
+        BasicService.close(resultSet, stat, conn);
+    }
+
+    private void touch() {
+        lastAccessTime = System.currentTimeMillis();
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public List<SelectedColumnMeta> getColumnMetas() {
+        return columnMetas;
+    }
+
+    public boolean isExhausted() {
+        return exhausted;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getLastAccessTime() {
+        return lastAccessTime;
+    }
+}
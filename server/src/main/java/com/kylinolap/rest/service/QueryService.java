@@ -20,7 +20,6 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.sql.Time;
@@ -35,6 +34,12 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import javax.sql.DataSource;
 
@@ -57,13 +62,14 @@ import com.kylinolap.common.KylinConfig;
 import com.kylinolap.common.persistence.HBaseConnection;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.CubeSegment;
+import com.kylinolap.cube.CubeSegmentStatusEnum;
 import com.kylinolap.cube.cuboid.Cuboid;
 import com.kylinolap.query.relnode.OLAPContext;
 import com.kylinolap.rest.constant.Constant;
 import com.kylinolap.rest.metrics.QueryMetrics;
 import com.kylinolap.rest.model.ColumnMeta;
 import com.kylinolap.rest.model.Query;
-import com.kylinolap.rest.model.SelectedColumnMeta;
 import com.kylinolap.rest.model.TableMeta;
 import com.kylinolap.rest.request.PrepareSqlRequest;
 import com.kylinolap.rest.request.PrepareSqlRequest.StateParam;
@@ -89,6 +95,33 @@ public class QueryService extends BasicService {
     private String tableNameBase = null;
     private String userTableName = null;
 
+    private static final ConcurrentMap<String, QueryCursor> cursors = new ConcurrentHashMap<String, QueryCursor>();
+
+    // idle cursors are reaped in background, not only when another cursor is
+    // opened or read, as each holds a connection and HBase scanners
+    private static final long CURSOR_REAP_INTERVAL_SECONDS = 5;
+    private static final ScheduledExecutorService cursorReaper = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "kylin-cursor-reaper");
+            t.setDaemon(true);
+            return t;
+        }
+    });
+
+    static {
+        cursorReaper.scheduleWithFixedDelay(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    expireIdleCursors();
+                } catch (Throwable e) {
+                    logger.error("Failed to close idle query cursors", e);
+                }
+            }
+        }, CURSOR_REAP_INTERVAL_SECONDS, CURSOR_REAP_INTERVAL_SECONDS, TimeUnit.SECONDS);
+    }
+
     public QueryService() {
         String metadataUrl = KylinConfig.getInstanceFromEnv().getMetadataUrl();
         // split TABLE@HBASE_URL
@@ -107,6 +140,9 @@ public class QueryService extends BasicService {
         if (null != fakeResponse) {
             logger.debug("Return fake response, is exception? " + fakeResponse.getIsException());
 
+            // reads no cube, thus valid as long as cached
+            if (fakeResponse.getCubeSignatures() == null)
+                fakeResponse.setCubeSignatures(new HashMap<String, String>());
             return fakeResponse;
         }
 
@@ -256,6 +292,76 @@ public class QueryService extends BasicService {
     }
 
     protected SQLResponse executeQuery(String sql, SQLRequest sqlRequest) throws Exception {
+        return execute(prepareQuery(sql, sqlRequest), sqlRequest);
+    }
+
+    /**
+     * Opens a cursor over the query result, for the rows to be read page by
+     * page. The cursor is bound to current user and closed automatically after
+     * being idle for kylin.query.cursor.timeout.seconds.
+     */
+    public QueryCursor openCursor(SQLRequest sqlRequest) throws Exception {
+        String correctedSql = QueryUtil.healSickSql(sqlRequest.getSql());
+        String user = SecurityContextHolder.getContext().getAuthentication().getName();
+        QueryCursor cursor = open(prepareQuery(correctedSql, sqlRequest), sqlRequest, user);
+        registerCursor(cursor);
+        return cursor;
+    }
+
+    /**
+     * @return the open cursor of given id, or null if not exist or expired
+     */
+    public QueryCursor getCursor(String cursorId) throws AccessDeniedException {
+        QueryCursor cursor = cursors.get(cursorId);
+        if (cursor == null)
+            return null;
+
+        String user = SecurityContextHolder.getContext().getAuthentication().getName();
+        if (!cursor.getOwner().equals(user))
+            throw new AccessDeniedException("Cursor " + cursorId + " does not belong to user " + user);
+        return cursor;
+    }
+
+    public void closeCursor(QueryCursor cursor) {
+        removeCursor(cursor);
+    }
+
+    private static void removeCursor(QueryCursor cursor) {
+        if (cursor != null && cursors.remove(cursor.getId()) != null) {
+            cursor.close();
+        }
+    }
+
+    static void expireIdleCursors() {
+        expireIdleCursors(System.currentTimeMillis() - KylinConfig.getInstanceFromEnv().getQueryCursorTimeoutSeconds() * 1000L);
+    }
+
+    /**
+     * Closes the cursors not accessed since expireTime. A cursor being read is
+     * waited for, and kept if the read touches it.
+     */
+    static void expireIdleCursors(long expireTime) {
+        for (QueryCursor cursor : cursors.values()) {
+            if (cursor.getLastAccessTime() >= expireTime)
+                continue;
+            synchronized (cursor) {
+                if (cursor.getLastAccessTime() < expireTime) {
+                    logger.info("Close idle query cursor " + cursor.getId() + " of user " + cursor.getOwner());
+                    removeCursor(cursor);
+                }
+            }
+        }
+    }
+
+    static void registerCursor(QueryCursor cursor) {
+        cursors.put(cursor.getId(), cursor);
+    }
+
+    static boolean isCursorOpen(String cursorId) {
+        return cursors.containsKey(cursorId);
+    }
+
+    private String prepareQuery(String sql, SQLRequest sqlRequest) {
         sql = sql.trim().replace(";", "");
 
         int limit = sqlRequest.getLimit();
@@ -271,9 +377,12 @@ public class QueryService extends BasicService {
         // add extra parameters into olap context, like acceptPartial
         Map<String, String> parameters = new HashMap<String, String>();
         parameters.put(OLAPContext.PRM_ACCEPT_PARTIAL_RESULT, String.valueOf(sqlRequest.isAcceptPartial()));
+        if (sqlRequest.getConcurrentScan() != null) {
+            parameters.put(OLAPContext.PRM_CONCURRENT_SCAN, String.valueOf(sqlRequest.getConcurrentScan()));
+        }
         OLAPContext.setParameters(parameters);
 
-        return execute(sql, sqlRequest);
+        return sql;
     }
 
     protected List<TableMeta> getMetadata(CubeManager cubeMgr, String project, boolean cubedOnly) throws SQLException {
@@ -336,64 +445,96 @@ public class QueryService extends BasicService {
      * @throws Exception
      */
     private SQLResponse execute(String sql, SQLRequest sqlRequest) throws Exception {
+        QueryCursor cursor = open(sql, sqlRequest, null);
+        try {
+            List<List<String>> results = cursor.fetch(Integer.MAX_VALUE);
+            SQLResponse response = cursor.toResponseHeader();
+            response.setResults(results);
+            return response;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Executes the query and returns a cursor over the result set, the caller
+     * is responsible to close the cursor.
+     */
+    private QueryCursor open(String sql, SQLRequest sqlRequest, String owner) throws Exception {
         Connection conn = null;
         Statement stat = null;
         ResultSet resultSet = null;
-        List<List<String>> results = new LinkedList<List<String>>();
-        List<SelectedColumnMeta> columnMetas = new LinkedList<SelectedColumnMeta>();
 
         try {
             conn = getOLAPDataSource(sqlRequest.getProject()).getConnection();
 
-            if (sqlRequest instanceof PrepareSqlRequest) {
-                PreparedStatement preparedState = conn.prepareStatement(sql);
+            // always prepare, for the plan to be cached by the data source
+            PreparedStatement preparedState = conn.prepareStatement(sql);
+            stat = preparedState;
 
+            if (sqlRequest instanceof PrepareSqlRequest && ((PrepareSqlRequest) sqlRequest).getParams() != null) {
                 for (int i = 0; i < ((PrepareSqlRequest) sqlRequest).getParams().length; i++) {
                     setParam(preparedState, i + 1, ((PrepareSqlRequest) sqlRequest).getParams()[i]);
                 }
-
-                resultSet = preparedState.executeQuery();
-            } else {
-                stat = conn.createStatement();
-                resultSet = stat.executeQuery(sql);
-            }
-
-            ResultSetMetaData metaData = resultSet.getMetaData();
-            int columnCount = metaData.getColumnCount();
-
-            // Fill in selected column meta
-            for (int i = 1; i <= columnCount; ++i) {
-                columnMetas.add(new SelectedColumnMeta(metaData.isAutoIncrement(i), metaData.isCaseSensitive(i), metaData.isSearchable(i), metaData.isCurrency(i), metaData.isNullable(i), metaData.isSigned(i), metaData.getColumnDisplaySize(i), metaData.getColumnLabel(i), metaData.getColumnName(i), metaData.getSchemaName(i), metaData.getCatalogName(i), metaData.getTableName(i), metaData.getPrecision(i), metaData.getScale(i), metaData.getColumnType(i), metaData.getColumnTypeName(i), metaData.isReadOnly(i), metaData.isWritable(i), metaData.isDefinitelyWritable(i)));
             }
 
-            List<String> oneRow = new LinkedList<String>();
-
-            // fill in results
-            while (resultSet.next()) {
-                for (int i = 0; i < columnCount; i++) {
-                    oneRow.add((resultSet.getString(i + 1)));
-                }
+            resultSet = preparedState.executeQuery();
 
-                results.add(new LinkedList<String>(oneRow));
-                oneRow.clear();
-            }
-        } finally {
+            return new QueryCursor(owner, conn, stat, resultSet);
+        } catch (Exception e) {
             close(resultSet, stat, conn);
+            throw e;
         }
+    }
 
-        boolean isPartialResult = false;
-        String cube = "";
-        long totalScanCount = 0;
-        for (OLAPContext ctx : OLAPContext.getThreadLocalContexts()) {
-            isPartialResult |= ctx.storageContext.isPartialResultReturned();
-            cube = ctx.cubeInstance.getName();
-            totalScanCount += ctx.storageContext.getTotalScanCount();
+    /**
+     * @return the response of a failed query, it carries signatures of all
+     *         cubes in the project, as a change of any of them may let the
+     *         query pass
+     */
+    public SQLResponse makeExceptionResponse(SQLRequest sqlRequest, Exception e) {
+        SQLResponse response = new SQLResponse(null, null, 0, true, e.getMessage());
+        HashMap<String, String> cubeSignatures = new HashMap<String, String>();
+        if (sqlRequest.getProject() != null) {
+            for (CubeInstance cube : getProjectManager().listAllCubes(sqlRequest.getProject())) {
+                cubeSignatures.put(cube.getName(), getCubeSignature(cube));
+            }
         }
+        response.setCubeSignatures(cubeSignatures);
+        return response;
+    }
 
-        SQLResponse response = new SQLResponse(columnMetas, results, cube, 0, false, null, isPartialResult);
-        response.setTotalScanCount(totalScanCount);
+    /**
+     * @return true if none of the cubes read by the cached response has
+     *         changed its status or ready segments since, a response reading
+     *         no cube is always valid
+     */
+    public boolean isCachedResponseValid(SQLResponse response) {
+        HashMap<String, String> cubeSignatures = response.getCubeSignatures();
+        if (cubeSignatures == null)
+            return false;
+
+        for (Map.Entry<String, String> entry : cubeSignatures.entrySet()) {
+            CubeInstance cube = getCubeManager().getCube(entry.getKey());
+            if (cube == null || !getCubeSignature(cube).equals(entry.getValue()))
+                return false;
+        }
+        return true;
+    }
 
-        return response;
+    /**
+     * Identifies the data a query sees in a cube, i.e. cube status plus name,
+     * build time and storage of each ready segment.
+     */
+    public static String getCubeSignature(CubeInstance cube) {
+        StringBuilder buf = new StringBuilder();
+        buf.append(cube.getStatus());
+        for (CubeSegment seg : cube.getSegments(CubeSegmentStatusEnum.READY)) {
+            buf.append(",").append(seg.getName());
+            buf.append("@").append(seg.getLastBuildTime());
+            buf.append("@").append(seg.getStorageLocationIdentifier());
+        }
+        return buf.toString();
     }
 
     /**
@@ -16,15 +16,25 @@
 
 package com.kylinolap.rest.controller;
 
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.Map;
+
 import net.sf.ehcache.CacheManager;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.mock.web.MockHttpServletResponse;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.kylinolap.cube.project.ProjectInstance;
+import com.kylinolap.rest.exception.NotFoundException;
 import com.kylinolap.rest.request.MetaRequest;
 import com.kylinolap.rest.request.SQLRequest;
+import com.kylinolap.rest.response.SQLPageResponse;
+import com.kylinolap.rest.response.SQLResponse;
 import com.kylinolap.rest.service.QueryService;
 import com.kylinolap.rest.service.TestBase;
 import com.kylinolap.rest.util.QueryUtil;
@@ -64,6 +74,65 @@ public class QueryControllerTest extends TestBase {
         assert QueryUtil.makeErrorMsgUserFriendly(errorMsg).equals("From line 14, column 14 to line 14, column 29: Column 'CLSFD_GA_PRFL_ID' not found in table 'LKP'\n" + "while executing SQL: \"select lkp.clsfd_ga_prfl_id, ga.sum_dt, sum(ga.bounces) as bounces, sum(ga.exits) as exits, sum(ga.entrances) as entrances, sum(ga.pageviews) as pageviews, count(distinct ga.GA_VSTR_ID, ga.GA_VST_ID) as visits, count(distinct ga.GA_VSTR_ID) as uniqVistors from CLSFD_GA_PGTYPE_CATEG_LOC ga left join clsfd_ga_prfl_lkp lkp on ga.SRC_GA_PRFL_ID = lkp.SRC_GA_PRFL_ID group by lkp.clsfd_ga_prfl_id,ga.sum_dt order by lkp.clsfd_ga_prfl_id,ga.sum_dt LIMIT 50000\"");
     }
 
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testStreamQuery() throws Exception {
+        SQLRequest sqlRequest = newSQLRequest();
+        SQLResponse expected = queryController.query(sqlRequest);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        queryController.streamQuery(sqlRequest, response);
+
+        Map<String, Object> streamed = new ObjectMapper().readValue(response.getContentAsByteArray(), Map.class);
+        assertEquals(false, streamed.get("isException"));
+        assertEquals(expected.getColumnMetas().size(), ((List<?>) streamed.get("columnMetas")).size());
+        assertEquals(expected.getResults(), streamed.get("results"));
+        assertNotNull(streamed.get("totalScanCount"));
+    }
+
+    @Test
+    public void testQueryCursor() throws Exception {
+        SQLRequest sqlRequest = newSQLRequest();
+        SQLResponse expected = queryController.query(sqlRequest);
+        assertTrue(expected.getResults().size() > 3);
+
+        SQLPageResponse page = queryController.openQueryCursor(sqlRequest, 3);
+        List<List<String>> rows = page.getResults();
+        assertEquals(3, rows.size());
+        String cursorId = page.getCursorId();
+        while (page.getHasMore()) {
+            assertEquals(cursorId, page.getCursorId());
+            page = queryController.fetchQueryCursor(cursorId, 3);
+            rows.addAll(page.getResults());
+        }
+        assertNull(page.getCursorId());
+        assertEquals(expected.getResults(), rows);
+
+        // the cursor is closed once read to end
+        try {
+            queryController.fetchQueryCursor(cursorId, 3);
+            fail("cursor is not closed");
+        } catch (NotFoundException e) {
+            // expected
+        }
+    }
+
+    @Test(expected = NotFoundException.class)
+    public void testCloseQueryCursor() throws Exception {
+        SQLPageResponse page = queryController.openQueryCursor(newSQLRequest(), 1);
+        assertTrue(page.getHasMore());
+
+        queryController.closeQueryCursor(page.getCursorId());
+        queryController.fetchQueryCursor(page.getCursorId(), 1);
+    }
+
+    private SQLRequest newSQLRequest() {
+        SQLRequest sqlRequest = new SQLRequest();
+        sqlRequest.setSql("select cal_dt, sum(price) as gmv from test_kylin_fact group by cal_dt order by cal_dt");
+        sqlRequest.setProject("default");
+        return sqlRequest;
+    }
+
     @Test
     public void testGetMetadata() {
         queryController.getMetadata(new MetaRequest(ProjectInstance.DEFAULT_PROJECT_NAME));
@@ -17,8 +17,13 @@
 package com.kylinolap.rest.service;
 
 import java.net.UnknownHostException;
+import java.util.HashMap;
 import java.util.List;
 
+import net.sf.ehcache.Cache;
+import net.sf.ehcache.CacheManager;
+import net.sf.ehcache.Element;
+
 import org.junit.Assert;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -27,6 +32,9 @@ import com.fasterxml.jackson.core.JsonProcessingException;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.project.ProjectInstance;
 import com.kylinolap.job.exception.JobException;
+import com.kylinolap.rest.controller.QueryController;
+import com.kylinolap.rest.request.SQLRequest;
+import com.kylinolap.rest.response.SQLResponse;
 
 /**
  * @author xduo
@@ -36,6 +44,10 @@ public class CubeServiceTest extends TestBase {
 
     @Autowired
     CubeService cubeService;
+    @Autowired
+    QueryService queryService;
+    @Autowired
+    CacheManager cacheManager;
 
     @Test
     public void testBasics() throws JsonProcessingException, JobException, UnknownHostException {
@@ -57,4 +69,55 @@ public class CubeServiceTest extends TestBase {
         cubes = cubeService.getCubes(null, null, 1, 0);
         Assert.assertTrue(cubes.size() == 1);
     }
+
+    @Test
+    public void testCleanQueryCache() {
+        List<CubeInstance> cubes = cubeService.getCubes(null, null, null, null);
+        CubeInstance cubeA = cubes.get(0);
+        CubeInstance cubeB = cubes.get(1);
+
+        Cache successCache = cacheManager.getCache(QueryController.SUCCESS_QUERY_CACHE);
+        successCache.removeAll();
+        successCache.put(new Element("queryA", newResponse(cubeA)));
+        successCache.put(new Element("queryB", newResponse(cubeB)));
+
+        Assert.assertTrue(queryService.isCachedResponseValid((SQLResponse) successCache.get("queryA").getObjectValue()));
+
+        cubeService.cleanQueryCache(cubeA.getName());
+        Assert.assertNull(successCache.get("queryA"));
+        Assert.assertNotNull(successCache.get("queryB"));
+        successCache.removeAll();
+    }
+
+    @Test
+    public void testCleanExceptionCache() {
+        CubeInstance cube = cubeService.getCubes(null, null, null, null).get(0);
+        String project = cubeService.getProjectManager().getProjects(cube.getName()).get(0).getName();
+
+        SQLRequest request = new SQLRequest();
+        request.setSql("select no_such_column from test_kylin_fact");
+        request.setProject(project);
+        SQLResponse response = queryService.makeExceptionResponse(request, new Exception("no such column"));
+        Assert.assertTrue(response.isReadingCube(cube.getName()));
+        Assert.assertTrue(queryService.isCachedResponseValid(response));
+
+        // reads no cube
+        SQLResponse noCube = new SQLResponse(null, null, 0, false, null);
+        noCube.setCubeSignatures(new HashMap<String, String>());
+        Assert.assertTrue(queryService.isCachedResponseValid(noCube));
+
+        Cache exceptionCache = cacheManager.getCache(QueryController.EXCEPTION_QUERY_CACHE);
+        exceptionCache.removeAll();
+        exceptionCache.put(new Element(request, response));
+        cubeService.cleanQueryCache(cube.getName());
+        Assert.assertNull(exceptionCache.get(request));
+    }
+
+    private SQLResponse newResponse(CubeInstance cube) {
+        SQLResponse response = new SQLResponse(null, null, cube.getName(), 0, false, null);
+        HashMap<String, String> signatures = new HashMap<String, String>();
+        signatures.put(cube.getName(), QueryService.getCubeSignature(cube));
+        response.setCubeSignatures(signatures);
+        return response;
+    }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.service;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.kylinolap.query.relnode.OLAPContext;
+
+/**
+ * Runs PooledOLAPDataSource on fake JDBC objects, which record the calls
+ * reaching the target connection and statements.
+ */
+public class PooledOLAPDataSourceTest {
+
+    private final List<String> calls = new ArrayList<String>();
+
+    @After
+    public void after() {
+        OLAPContext.clearThreadLocalContexts();
+    }
+
+    @Test
+    public void testSamePlanWithDifferentParams() throws Exception {
+        PooledOLAPDataSource ds = new PooledOLAPDataSource(fakeDataSource(), 2, 10);
+        String sql = "select count(*) from test_kylin_fact where lstg_format_name = ?";
+
+        runQuery(ds, sql, "FP-GTC");
+        runQuery(ds, sql, "ABIN");
+
+        List<String> expected = new ArrayList<String>();
+        expected.add("getConnection");
+        expected.add("prepareStatement " + sql);
+        expected.add("setString 1 FP-GTC");
+        expected.add("executeQuery");
+        expected.add("clearParameters");
+        // connection and plan are reused, with the new parameter
+        expected.add("setString 1 ABIN");
+        expected.add("executeQuery");
+        expected.add("clearParameters");
+        assertEquals(expected, calls);
+    }
+
+    @Test
+    public void testContextResetOnExecution() throws Exception {
+        PooledOLAPDataSource ds = new PooledOLAPDataSource(fakeDataSource(), 2, 10);
+        String sql = "select count(*) from test_kylin_fact";
+
+        OLAPContext.clearThreadLocalContexts();
+        OLAPContext ctx = new OLAPContext(0);
+        OLAPContext.registerContext(ctx);
+
+        Connection conn = ds.getConnection();
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        stmt.executeQuery();
+        // runtime state of the first execution
+        ctx.storageContext.enableLimit();
+        ctx.storageContext.setTotalScanCount(100);
+        stmt.close();
+        conn.close();
+
+        // another query ran on the thread in between
+        OLAPContext.clearThreadLocalContexts();
+
+        conn = ds.getConnection();
+        stmt = conn.prepareStatement(sql);
+        stmt.executeQuery();
+        assertFalse(ctx.storageContext.isLimitEnabled());
+        assertEquals(0, ctx.storageContext.getTotalScanCount());
+        assertSame(ctx, OLAPContext.getThreadLocalContextById(0));
+        stmt.close();
+        conn.close();
+    }
+
+    @Test
+    public void testClearPlanCache() throws Exception {
+        PooledOLAPDataSource ds = new PooledOLAPDataSource(fakeDataSource(), 2, 10);
+        String sql = "select count(*) from test_kylin_fact";
+
+        runQuery(ds, sql, null);
+        ds.clearPlanCache();
+        runQuery(ds, sql, null);
+
+        assertEquals(2, count("prepareStatement " + sql));
+        assertEquals(1, count("closeStatement"));
+        assertEquals(1, count("getConnection"));
+
+        ds.close();
+        assertEquals(1, count("closeConnection"));
+    }
+
+    @Test
+    public void testNoPlanCache() throws Exception {
+        PooledOLAPDataSource ds = new PooledOLAPDataSource(fakeDataSource(), 2, 0);
+        String sql = "select count(*) from test_kylin_fact";
+
+        runQuery(ds, sql, null);
+        runQuery(ds, sql, null);
+
+        assertEquals(2, count("prepareStatement " + sql));
+        assertEquals(1, count("getConnection"));
+    }
+
+    private void runQuery(PooledOLAPDataSource ds, String sql, String param) throws Exception {
+        OLAPContext.clearThreadLocalContexts();
+        OLAPContext.registerContext(new OLAPContext(0));
+
+        Connection conn = ds.getConnection();
+        PreparedStatement stmt = conn.prepareStatement(sql);
+        if (param != null)
+            stmt.setString(1, param);
+        stmt.executeQuery();
+        stmt.close();
+        conn.close();
+        assertTrue(conn.isClosed());
+    }
+
+    private int count(String call) {
+        int n = 0;
+        for (String c : calls) {
+            if (c.equals(call))
+                n++;
+        }
+        return n;
+    }
+
+    private DataSource fakeDataSource() {
+        return fake(DataSource.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if ("getConnection".equals(method.getName())) {
+                    calls.add("getConnection");
+                    return fakeConnection();
+                }
+                return null;
+            }
+        });
+    }
+
+    private Connection fakeConnection() {
+        return fake(Connection.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("prepareStatement".equals(name)) {
+                    calls.add("prepareStatement " + args[0]);
+                    return fakeStatement();
+                } else if ("close".equals(name)) {
+                    calls.add("closeConnection");
+                }
+                return null;
+            }
+        });
+    }
+
+    private PreparedStatement fakeStatement() {
+        return fake(PreparedStatement.class, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("setString".equals(name)) {
+                    calls.add("setString " + args[0] + " " + args[1]);
+                } else if ("executeQuery".equals(name)) {
+                    calls.add("executeQuery");
+                    return fake(ResultSet.class, null);
+                } else if ("clearParameters".equals(name)) {
+                    calls.add("clearParameters");
+                } else if ("close".equals(name)) {
+                    calls.add("closeStatement");
+                }
+                return null;
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> clazz, InvocationHandler handler) {
+        if (handler == null) {
+            handler = new InvocationHandler() {
+                @Override
+                public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    return null;
+                }
+            };
+        }
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, handler);
+    }
+}
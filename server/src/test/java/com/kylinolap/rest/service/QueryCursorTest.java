@@ -0,0 +1,197 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.rest.service;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.kylinolap.query.relnode.OLAPContext;
+import com.kylinolap.rest.response.SQLResponse;
+
+/**
+ * Runs QueryCursor on a fake result set of rows (i, "v" + i).
+ */
+public class QueryCursorTest {
+
+    @Test
+    public void testFetchPages() throws SQLException {
+        FakeResultSet rs = new FakeResultSet(25);
+        QueryCursor cursor = newCursor(rs);
+
+        assertEquals(2, cursor.getColumnMetas().size());
+        assertEquals("C1", cursor.getColumnMetas().get(0).getLabel());
+
+        List<List<String>> page = cursor.fetch(10);
+        assertEquals(10, page.size());
+        assertEquals("0", page.get(0).get(0));
+        assertEquals("v9", page.get(9).get(1));
+        assertFalse(cursor.isExhausted());
+
+        assertEquals(10, cursor.fetch(10).size());
+        page = cursor.fetch(10);
+        assertEquals(5, page.size());
+        assertEquals("24", page.get(4).get(0));
+        assertTrue(cursor.isExhausted());
+        assertEquals(0, cursor.fetch(10).size());
+        assertEquals(25, cursor.getRowCount());
+
+        SQLResponse header = cursor.toResponseHeader();
+        assertNull(header.getResults());
+        assertEquals(2, header.getColumnMetas().size());
+        assertEquals(0, header.getTotalScanCount());
+
+        cursor.close();
+        assertTrue(rs.closed);
+    }
+
+    @Test
+    public void testExpireIdleCursor() throws Exception {
+        FakeResultSet rs = new FakeResultSet(100);
+        QueryCursor cursor = newCursor(rs);
+        QueryService.registerCursor(cursor);
+
+        cursor.fetch(10);
+        long lastAccess = cursor.getLastAccessTime();
+
+        // not idle long enough
+        QueryService.expireIdleCursors(lastAccess);
+        assertTrue(QueryService.isCursorOpen(cursor.getId()));
+        assertFalse(rs.closed);
+
+        QueryService.expireIdleCursors(lastAccess + 1);
+        assertFalse(QueryService.isCursorOpen(cursor.getId()));
+        assertTrue(rs.closed);
+    }
+
+    @Test
+    public void testReaperWaitsForRead() throws Exception {
+        final FakeResultSet rs = new FakeResultSet(100);
+        final QueryCursor cursor = newCursor(rs);
+        QueryService.registerCursor(cursor);
+        final long expireTime = cursor.getLastAccessTime() + 1;
+
+        Thread reaper;
+        synchronized (cursor) {
+            reaper = new Thread() {
+                @Override
+                public void run() {
+                    QueryService.expireIdleCursors(expireTime);
+                }
+            };
+            reaper.start();
+            Thread.sleep(100);
+            // the reaper waits, and the read touches the cursor before it gets in
+            cursor.fetch(10);
+        }
+        reaper.join();
+
+        assertTrue(QueryService.isCursorOpen(cursor.getId()));
+        assertFalse(rs.closed);
+
+        QueryService.expireIdleCursors(System.currentTimeMillis() + 1);
+        assertFalse(QueryService.isCursorOpen(cursor.getId()));
+    }
+
+    private QueryCursor newCursor(FakeResultSet rs) throws SQLException {
+        Connection conn = fake(Connection.class, null);
+        Statement stat = fake(Statement.class, null);
+        return new QueryCursor("ADMIN", conn, stat, fake(ResultSet.class, rs), Collections.<OLAPContext> emptyList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T fake(Class<T> clazz, final Object target) {
+        return (T) Proxy.newProxyInstance(clazz.getClassLoader(), new Class<?>[] { clazz }, new InvocationHandler() {
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (target != null) {
+                    try {
+                        return target.getClass().getMethod(method.getName(), method.getParameterTypes()).invoke(target, args);
+                    } catch (NoSuchMethodException e) {
+                        // fall through to default
+                    }
+                }
+                return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (type == boolean.class)
+            return false;
+        if (type == int.class)
+            return 0;
+        if (type == long.class)
+            return 0L;
+        return null;
+    }
+
+    public static class FakeResultSet {
+        final int nRows;
+        int cursor = -1;
+        boolean closed;
+
+        FakeResultSet(int nRows) {
+            this.nRows = nRows;
+        }
+
+        public boolean next() {
+            return ++cursor < nRows;
+        }
+
+        public String getString(int col) {
+            return col == 1 ? String.valueOf(cursor) : "v" + cursor;
+        }
+
+        public ResultSetMetaData getMetaData() {
+            return fake(ResultSetMetaData.class, new FakeMetaData());
+        }
+
+        public void close() {
+            closed = true;
+        }
+    }
+
+    public static class FakeMetaData {
+        public int getColumnCount() {
+            return 2;
+        }
+
+        public String getColumnLabel(int col) {
+            return "C" + col;
+        }
+
+        public String getColumnName(int col) {
+            return "C" + col;
+        }
+
+        public String getColumnTypeName(int col) {
+            return col == 1 ? "INTEGER" : "VARCHAR";
+        }
+    }
+}
@@ -26,6 +26,8 @@ import org.springframework.beans.factory.annotation.Autowired;
 
 import com.kylinolap.cube.project.ProjectInstance;
 import com.kylinolap.job.exception.JobException;
+import com.kylinolap.rest.request.PrepareSqlRequest;
+import com.kylinolap.rest.request.PrepareSqlRequest.StateParam;
 import com.kylinolap.rest.request.SQLRequest;
 import com.kylinolap.rest.response.SQLResponse;
 
@@ -61,4 +63,41 @@ public class QueryServiceTest extends TestBase {
         response.setHitCache(true);
         queryService.logQuery(request, response, new Date(), new Date());
     }
+
+    @Test
+    public void testPreparedQueryWithDifferentParams() throws Exception {
+        String sql = "select count(*) from test_kylin_fact where lstg_format_name = ?";
+
+        // the second run hits the cached plan of the first
+        SQLResponse gtc = queryService.query(newPrepareSqlRequest(sql, "FP-GTC"));
+        SQLResponse abin = queryService.query(newPrepareSqlRequest(sql, "ABIN"));
+        SQLResponse gtcAgain = queryService.query(newPrepareSqlRequest(sql, "FP-GTC"));
+
+        SQLResponse gtcLiteral = queryService.query(newSQLRequest("select count(*) from test_kylin_fact where lstg_format_name = 'FP-GTC'"));
+        SQLResponse abinLiteral = queryService.query(newSQLRequest("select count(*) from test_kylin_fact where lstg_format_name = 'ABIN'"));
+
+        Assert.assertFalse(gtcLiteral.getResults().equals(abinLiteral.getResults()));
+        Assert.assertEquals(gtcLiteral.getResults(), gtc.getResults());
+        Assert.assertEquals(abinLiteral.getResults(), abin.getResults());
+        Assert.assertEquals(gtcLiteral.getResults(), gtcAgain.getResults());
+    }
+
+    private SQLRequest newSQLRequest(String sql) {
+        SQLRequest request = new SQLRequest();
+        request.setSql(sql);
+        request.setProject(ProjectInstance.DEFAULT_PROJECT_NAME);
+        return request;
+    }
+
+    private PrepareSqlRequest newPrepareSqlRequest(String sql, String value) {
+        StateParam param = new StateParam();
+        param.setClassName(String.class.getName());
+        param.setValue(value);
+
+        PrepareSqlRequest request = new PrepareSqlRequest();
+        request.setSql(sql);
+        request.setProject(ProjectInstance.DEFAULT_PROJECT_NAME);
+        request.setParams(new StateParam[] { param });
+        return request;
+    }
 }
@@ -42,8 +42,10 @@ public class StorageContext {
     private int threshold;
     private int limit;
     private boolean hasSort;
+    private int sortFieldCount;
     private List<MeasureDesc> sortMeasures;
     private List<OrderEnum> sortOrders;
+    private boolean hasPostAggFilter;
     private boolean acceptPartialResult;
     private BiMap<TblColRef, String> aliasMap;
 
@@ -53,6 +55,8 @@ public class StorageContext {
     private Set<TblColRef> otherMandatoryColumns;
     private boolean enableLimit;
     private boolean enableCoprocessor;
+    private boolean enableTopN;
+    private Boolean concurrentScan; // null means following cube and server settings
 
     private long totalScanCount;
     private Cuboid cuboid;
@@ -67,17 +71,36 @@ public class StorageContext {
         this.hasSort = false;
         this.sortOrders = new ArrayList<OrderEnum>();
         this.sortMeasures = new ArrayList<MeasureDesc>();
+        this.hasPostAggFilter = false;
 
         this.avoidAggregation = false;
         this.exactAggregation = false;
         this.otherMandatoryColumns = new HashSet<TblColRef>();
         this.enableLimit = false;
         this.enableCoprocessor = false;
+        this.enableTopN = false;
+        this.concurrentScan = null;
 
         this.acceptPartialResult = false;
         this.partialResultReturned = false;
     }
 
+    /**
+     * Clears what was decided or collected while executing a query, keeping
+     * what came from query planning, so the same plan can run again.
+     */
+    public void resetRuntimeState() {
+        this.threshold = DEFAULT_THRESHOLD;
+        this.totalScanCount = 0;
+        this.cuboid = null;
+        this.avoidAggregation = false;
+        this.exactAggregation = false;
+        this.enableLimit = false;
+        this.enableCoprocessor = false;
+        this.enableTopN = false;
+        this.partialResultReturned = false;
+    }
+
     public String getConnUrl() {
         return connUrl;
     }
@@ -139,12 +162,48 @@ public class StorageContext {
 
     public void markSort() {
         this.hasSort = true;
+        this.sortFieldCount++;
     }
 
     public boolean hasSort() {
         return this.hasSort;
     }
 
+    // number of sort fields, including those not on a measure
+    public int getSortFieldCount() {
+        return this.sortFieldCount;
+    }
+
+    public List<MeasureDesc> getSortMeasures() {
+        return this.sortMeasures;
+    }
+
+    public List<OrderEnum> getSortOrders() {
+        return this.sortOrders;
+    }
+
+    // a filter on aggregated values (HAVING) drops groups after storage
+    public void markPostAggFilter() {
+        this.hasPostAggFilter = true;
+    }
+
+    public boolean hasPostAggFilter() {
+        return this.hasPostAggFilter;
+    }
+
+    // keep only the top N groups on the single sort measure, N being the limit
+    public void enableTopN() {
+        this.enableTopN = true;
+    }
+
+    public void disableTopN() {
+        this.enableTopN = false;
+    }
+
+    public boolean isTopNEnabled() {
+        return this.enableTopN;
+    }
+
     public void setCuboid(Cuboid c) {
         cuboid = c;
     }
@@ -209,4 +268,12 @@ public class StorageContext {
         return this.enableCoprocessor;
     }
 
+    public void setConcurrentScan(Boolean concurrentScan) {
+        this.concurrentScan = concurrentScan;
+    }
+
+    public Boolean getConcurrentScan() {
+        return this.concurrentScan;
+    }
+
 }
@@ -32,13 +32,15 @@ import com.kylinolap.storage.tuple.ITuple;
 public class CompareTupleFilter extends TupleFilter {
 
     private TblColRef column;
-    private Collection<String> conditionValues;
+    private Collection<String> constantValues;
+    private Collection<String> conditionValues; // constants + bound variables
     private String firstCondValue;
     private Map<String, String> dynamicVariables;
     private String nullString;
 
     public CompareTupleFilter(FilterOperatorEnum op) {
         super(new ArrayList<TupleFilter>(2), op);
+        this.constantValues = new HashSet<String>();
         this.conditionValues = new HashSet<String>();
         this.dynamicVariables = new HashMap<String, String>();
         boolean opGood = (op == FilterOperatorEnum.EQ || op == FilterOperatorEnum.NEQ || op == FilterOperatorEnum.LT || op == FilterOperatorEnum.LTE || op == FilterOperatorEnum.GT || op == FilterOperatorEnum.GTE || op == FilterOperatorEnum.IN || op == FilterOperatorEnum.ISNULL || op == FilterOperatorEnum.ISNOTNULL);
@@ -49,10 +51,12 @@ public class CompareTupleFilter extends TupleFilter {
     private CompareTupleFilter(CompareTupleFilter another) {
         super(new ArrayList<TupleFilter>(another.children), another.operator);
         this.column = another.column;
+        this.constantValues = new HashSet<String>();
+        this.constantValues.addAll(another.constantValues);
         this.conditionValues = new HashSet<String>();
-        this.conditionValues.addAll(another.conditionValues);
         this.dynamicVariables = new HashMap<String, String>();
         this.dynamicVariables.putAll(another.dynamicVariables);
+        refreshConditionValues();
     }
 
     @Override
@@ -70,11 +74,13 @@ public class CompareTupleFilter extends TupleFilter {
                 this.operator = SWAP_OP_MAP.get(this.operator);
             }
         } else if (child instanceof ConstantTupleFilter) {
-            this.conditionValues.addAll(child.getValues());
-            this.firstCondValue = this.conditionValues.iterator().next();
+            this.constantValues.addAll(child.getValues());
+            refreshConditionValues();
         } else if (child instanceof DynamicTupleFilter) {
             DynamicTupleFilter dynamicFilter = (DynamicTupleFilter) child;
-            this.dynamicVariables.put(dynamicFilter.getVariableName(), null);
+            // keep the value bound by deserialize()
+            if (!this.dynamicVariables.containsKey(dynamicFilter.getVariableName()))
+                this.dynamicVariables.put(dynamicFilter.getVariableName(), null);
         } else if (child instanceof ExtractTupleFilter) {
             // TODO
         } else if (child instanceof CaseTupleFilter) {
@@ -99,10 +105,24 @@ public class CompareTupleFilter extends TupleFilter {
         return dynamicVariables;
     }
 
+    /**
+     * Binds a value to the variable, replacing the one bound before, such that
+     * a cached query plan can run again with new parameters. A null value
+     * unbinds the variable.
+     */
     public void bindVariable(String variable, String value) {
         this.dynamicVariables.put(variable, value);
-        this.conditionValues.add(value);
-        this.firstCondValue = this.conditionValues.iterator().next();
+        refreshConditionValues();
+    }
+
+    private void refreshConditionValues() {
+        this.conditionValues.clear();
+        this.conditionValues.addAll(constantValues);
+        for (String value : dynamicVariables.values()) {
+            if (value != null)
+                this.conditionValues.add(value);
+        }
+        this.firstCondValue = conditionValues.isEmpty() ? null : conditionValues.iterator().next();
     }
 
     public String getNullString() {
@@ -0,0 +1,210 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
+import java.util.Collection;
+
+import com.kylinolap.cube.invertedindex.BitMapContainer;
+import com.kylinolap.cube.invertedindex.ColumnValueContainer;
+import com.kylinolap.cube.invertedindex.TableRecordInfo;
+import com.kylinolap.cube.invertedindex.TimeSlice;
+import com.kylinolap.dict.Dictionary;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.storage.filter.CompareTupleFilter;
+import com.kylinolap.storage.filter.LogicalTupleFilter;
+import com.kylinolap.storage.filter.TupleFilter;
+
+/**
+ * Evaluates a filter on a time slice using the bitmaps of BitMapContainer.
+ *
+ * The result is a superset of the matching record positions. Predicates on
+ * bitmap columns (EQ, NEQ, IN, range, IS NULL) are evaluated exactly, the
+ * rest are considered as all true and left to the query engine.
+ */
+public class BitMapFilterEvaluator {
+
+    private final TableRecordInfo info;
+
+    public BitMapFilterEvaluator(TableRecordInfo info) {
+        this.info = info;
+    }
+
+    /**
+     * @return positions of records in the slice that may satisfy the filter,
+     *         or null if the filter cannot narrow down the slice
+     */
+    public ConciseSet evaluate(TupleFilter filter, TimeSlice slice) {
+        if (filter == null)
+            return null;
+
+        switch (filter.getOperator()) {
+        case AND:
+            return evalAnd((LogicalTupleFilter) filter, slice);
+        case OR:
+            return evalOr((LogicalTupleFilter) filter, slice);
+        case NOT:
+            return evalNot((LogicalTupleFilter) filter, slice);
+        case EQ:
+        case NEQ:
+        case LT:
+        case LTE:
+        case GT:
+        case GTE:
+        case IN:
+        case ISNULL:
+        case ISNOTNULL:
+            return evalCompare((CompareTupleFilter) filter, slice);
+        default:
+            return null;
+        }
+    }
+
+    private ConciseSet evalAnd(LogicalTupleFilter filter, TimeSlice slice) {
+        ConciseSet result = null;
+        for (TupleFilter child : filter.getChildren()) {
+            ConciseSet childResult = evaluate(child, slice);
+            if (childResult == null)
+                continue;
+            result = (result == null) ? childResult : result.intersection(childResult);
+        }
+        return result;
+    }
+
+    private ConciseSet evalOr(LogicalTupleFilter filter, TimeSlice slice) {
+        ConciseSet result = new ConciseSet();
+        for (TupleFilter child : filter.getChildren()) {
+            ConciseSet childResult = evaluate(child, slice);
+            if (childResult == null)
+                return null;
+            result = result.union(childResult);
+        }
+        return result;
+    }
+
+    private ConciseSet evalNot(LogicalTupleFilter filter, TimeSlice slice) {
+        // complement is safe only if the child result is exact
+        TupleFilter child = filter.getChildren().get(0);
+        if (isExact(child, slice) == false)
+            return null;
+        ConciseSet childResult = evaluate(child, slice);
+        return all(slice).difference(childResult);
+    }
+
+    private ConciseSet evalCompare(CompareTupleFilter filter, TimeSlice slice) {
+        BitMapContainer container = getBitMapContainer(filter, slice);
+        if (container == null)
+            return null;
+
+        int col = filter.getColumn().getColumn().getZeroBasedIndex();
+        Dictionary<String> dict = info.dict(col);
+        ConciseSet nulls = container.getBitMap(dict.nullId());
+        Collection<String> values = filter.getValues();
+        String value = values.isEmpty() ? null : values.iterator().next();
+
+        switch (filter.getOperator()) {
+        case ISNULL:
+            return nulls;
+        case ISNOTNULL:
+            return all(slice).difference(nulls);
+        case EQ:
+        case IN:
+            ConciseSet result = new ConciseSet();
+            for (String v : values) {
+                int id = lookupId(dict, v, 0);
+                if (id >= 0)
+                    result = result.union(container.getBitMap(id));
+            }
+            return result;
+        case NEQ:
+            int eqId = lookupId(dict, value, 0);
+            ConciseSet notEq = all(slice).difference(nulls);
+            return eqId < 0 ? notEq : notEq.difference(container.getBitMap(eqId));
+        case LT:
+            // values smaller than the smallest ID >= value
+            int ceil = lookupId(dict, value, 1);
+            return container.getBitMap(dict.getMinId(), ceil < 0 ? dict.getMaxId() : ceil - 1);
+        case LTE:
+            int floor = lookupId(dict, value, -1);
+            return floor < 0 ? new ConciseSet() : container.getBitMap(dict.getMinId(), floor);
+        case GT:
+            floor = lookupId(dict, value, -1);
+            return container.getBitMap(floor < 0 ? dict.getMinId() : floor + 1, dict.getMaxId());
+        case GTE:
+            ceil = lookupId(dict, value, 1);
+            return ceil < 0 ? new ConciseSet() : container.getBitMap(ceil, dict.getMaxId());
+        default:
+            return null;
+        }
+    }
+
+    private boolean isExact(TupleFilter filter, TimeSlice slice) {
+        switch (filter.getOperator()) {
+        case AND:
+        case OR:
+        case NOT:
+            for (TupleFilter child : filter.getChildren()) {
+                if (isExact(child, slice) == false)
+                    return false;
+            }
+            return true;
+        case EQ:
+        case NEQ:
+        case LT:
+        case LTE:
+        case GT:
+        case GTE:
+        case IN:
+        case ISNULL:
+        case ISNOTNULL:
+            return getBitMapContainer((CompareTupleFilter) filter, slice) != null;
+        default:
+            return false;
+        }
+    }
+
+    private BitMapContainer getBitMapContainer(CompareTupleFilter filter, TimeSlice slice) {
+        TblColRef column = filter.getColumn();
+        if (column == null || filter.getNullString() != null)
+            return null;
+        if (filter.getValues().isEmpty() && filter.getOperator() != TupleFilter.FilterOperatorEnum.ISNULL && filter.getOperator() != TupleFilter.FilterOperatorEnum.ISNOTNULL)
+            return null;
+        if (info.getDescriptor().getFactTable().equalsIgnoreCase(column.getTable()) == false)
+            return null;
+
+        ColumnValueContainer container = slice.getContainer(column.getColumn().getZeroBasedIndex());
+        return container instanceof BitMapContainer ? (BitMapContainer) container : null;
+    }
+
+    // returns -1 if not found
+    private int lookupId(Dictionary<String> dict, String value, int roundingFlag) {
+        try {
+            return dict.getIdFromValue(value, roundingFlag);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+
+    private ConciseSet all(TimeSlice slice) {
+        ConciseSet all = new ConciseSet();
+        for (int i = 0, n = slice.getRecordCount(); i < n; i++) {
+            all.add(i);
+        }
+        return all;
+    }
+}
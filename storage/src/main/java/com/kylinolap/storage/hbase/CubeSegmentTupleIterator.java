@@ -18,14 +18,17 @@ package com.kylinolap.storage.hbase;
 
 import java.io.IOException;
 import java.text.MessageFormat;
+import java.util.Arrays;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
@@ -43,12 +46,16 @@ import org.slf4j.LoggerFactory;
 
 import com.kylinolap.common.persistence.StorageException;
 import com.kylinolap.common.util.Array;
+import com.kylinolap.common.util.BytesUtil;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeManager;
 import com.kylinolap.cube.CubeSegment;
 import com.kylinolap.cube.cuboid.Cuboid;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.cube.kv.RowKeyColumnIO;
 import com.kylinolap.cube.kv.RowKeyDecoder;
 import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.dict.Dictionary;
 import com.kylinolap.metadata.model.cube.CubeDesc.DeriveInfo;
 import com.kylinolap.metadata.model.cube.HBaseColumnDesc;
 import com.kylinolap.metadata.model.cube.MeasureDesc;
@@ -56,6 +63,7 @@ import com.kylinolap.metadata.model.cube.TblColRef;
 import com.kylinolap.storage.StorageContext;
 import com.kylinolap.storage.filter.TupleFilter;
 import com.kylinolap.storage.hbase.coprocessor.CoprocessorEnabler;
+import com.kylinolap.storage.hbase.coprocessor.MultiRangeRowFilter;
 import com.kylinolap.storage.tuple.ITupleIterator;
 import com.kylinolap.storage.tuple.Tuple;
 import com.kylinolap.storage.tuple.Tuple.IDerivedColumnFiller;
@@ -97,7 +105,10 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
     private final String tableName;
     private final HTableInterface table;
     private final RowKeyDecoder rowKeyDecoder;
+    private final RowKeyColumnIO rowKeyColumnIO;
     private final Iterator<HBaseKeyRange> rangeIterator;
+    private final byte[][] valueFamilies;
+    private final byte[][] valueQualifiers;
 
     private Scan scan;
     private ResultScanner scanner;
@@ -106,6 +117,16 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
     private Tuple tuple;
     private int scanCount;
 
+    // decode slots of current cuboid, see initDecodeSlots()
+    private int[] dimOffsets;
+    private int[] dimLengths;
+    private int[] dimTupleIndex; // -1 if column is not projected
+    private boolean[] dimNeedString; // string value is required by derived column fillers
+    private DimensionValueCache[] dimValueCaches;
+    private String[] dimStrings;
+    private List<String> dimStringList;
+    private int[][] measureTupleIndex; // -1 if measure is not projected
+
     public CubeSegmentTupleIterator(CubeSegment cubeSeg, Collection<HBaseKeyRange> keyRanges, HConnection conn, Collection<TblColRef> dimensions, TupleFilter filter, Collection<TblColRef> groupBy, Collection<RowValueDecoder> rowValueDecoders, StorageContext context) {
         this.cube = cubeSeg.getCubeInstance();
         this.cubeSeg = cubeSeg;
@@ -116,8 +137,19 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
         this.context = context;
         this.tableName = cubeSeg.getStorageLocationIdentifier();
         this.rowKeyDecoder = new RowKeyDecoder(this.cubeSeg);
+        this.rowKeyColumnIO = new RowKeyColumnIO(this.cubeSeg);
         this.scanCount = 0;
 
+        this.valueFamilies = new byte[rowValueDecoders.size()][];
+        this.valueQualifiers = new byte[rowValueDecoders.size()][];
+        int i = 0;
+        for (RowValueDecoder rowValueDecoder : rowValueDecoders) {
+            HBaseColumnDesc hbaseColumn = rowValueDecoder.getHBaseColumn();
+            valueFamilies[i] = Bytes.toBytes(hbaseColumn.getColumnFamilyName());
+            valueQualifiers[i] = Bytes.toBytes(hbaseColumn.getQualifier());
+            i++;
+        }
+
         try {
             this.table = conn.getTable(tableName);
         } catch (Throwable t) {
@@ -198,6 +230,7 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
             HBaseKeyRange keyRange = this.rangeIterator.next();
             this.tupleInfo = buildTupleInfo(keyRange.getCuboid());
             this.tuple = new Tuple(this.tupleInfo);
+            initDecodeSlots(keyRange.getCuboid(), this.tupleInfo);
 
             this.resultIterator = doScan(keyRange);
         } else {
@@ -211,6 +244,7 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
         try {
             scan = buildScan(keyRange);
             applyFuzzyFilter(scan, keyRange);
+            applyMultiRangeFilter(scan, keyRange);
             logScan(keyRange);
 
             scanner = CoprocessorEnabler.scanWithCoprocessorIfBeneficial(cubeSeg, keyRange.getCuboid(), filter, groupBy, rowValueDecoders, context, table, scan);
@@ -246,6 +280,11 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
             info.append("\nFuzzy: ");
             info.append(keyRange.getFuzzyKeyAsString());
         }
+        if (keyRange.getSubRanges() != null) {
+            info.append("\nSkip scan over ");
+            info.append(keyRange.getSubRanges().size());
+            info.append(" ranges");
+        }
         logger.info(info.toString());
     }
 
@@ -283,6 +322,23 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
         }
     }
 
+    private void applyMultiRangeFilter(Scan scan, HBaseKeyRange keyRange) {
+        List<Pair<byte[], byte[]>> subRanges = keyRange.getSubRanges();
+        if (subRanges != null && subRanges.size() > 1) {
+            MultiRangeRowFilter rangeFilter = new MultiRangeRowFilter(subRanges);
+
+            Filter filter = scan.getFilter();
+            if (filter != null) {
+                FilterList filterList = new FilterList();
+                filterList.addFilter(rangeFilter);
+                filterList.addFilter(filter);
+                scan.setFilter(filterList);
+            } else {
+                scan.setFilter(rangeFilter);
+            }
+        }
+    }
+
     private TupleInfo buildTupleInfo(Cuboid cuboid) {
         TupleInfo info = new TupleInfo();
         int index = 0;
@@ -335,40 +391,168 @@ public class CubeSegmentTupleIterator implements ITupleIterator {
         return name;
     }
 
+    /**
+     * Precomputes where each row key column is and where its value goes, so translateResult() works by index and only
+     * decodes the columns in need.
+     */
+    private void initDecodeSlots(Cuboid cuboid, TupleInfo info) {
+        List<TblColRef> rowColumns = cuboid.getColumns();
+        int n = rowColumns.size();
+        dimOffsets = new int[n];
+        dimLengths = new int[n];
+        dimTupleIndex = new int[n];
+        dimNeedString = new boolean[n];
+        dimValueCaches = new DimensionValueCache[n];
+        dimStrings = new String[n];
+        dimStringList = Arrays.asList(dimStrings);
+
+        int offset = RowConstants.ROWKEY_CUBOIDID_LEN;
+        for (int i = 0; i < n; i++) {
+            TblColRef column = rowColumns.get(i);
+            dimOffsets[i] = offset;
+            dimLengths[i] = rowKeyColumnIO.getColumnLength(column);
+            offset += dimLengths[i];
+            dimTupleIndex[i] = info.hasColumn(column) ? info.getColumnIndex(column) : -1;
+        }
+
+        Map<Array<TblColRef>, List<DeriveInfo>> hostToDerivedInfo = cubeSeg.getCubeDesc().getHostToDerivedInfo(rowColumns, null);
+        for (Array<TblColRef> hostCols : hostToDerivedInfo.keySet()) {
+            for (TblColRef hostCol : hostCols.data) {
+                int i = rowColumns.indexOf(hostCol);
+                if (i >= 0)
+                    dimNeedString[i] = true;
+            }
+        }
+
+        for (int i = 0; i < n; i++) {
+            if (dimTupleIndex[i] >= 0 || dimNeedString[i]) {
+                String dataType = dimTupleIndex[i] >= 0 ? info.getDataType(dimTupleIndex[i]) : null;
+                dimValueCaches[i] = new DimensionValueCache(rowColumns.get(i), dataType);
+            }
+        }
+
+        measureTupleIndex = new int[rowValueDecoders.size()][];
+        int d = 0;
+        for (RowValueDecoder rowValueDecoder : rowValueDecoders) {
+            List<String> measureNames = rowValueDecoder.getNames();
+            BitSet projectionIndex = rowValueDecoder.getProjectionIndex();
+            int[] index = new int[measureNames.size()];
+            for (int i = 0; i < index.length; i++) {
+                index[i] = projectionIndex.get(i) ? info.getFieldIndex(measureNames.get(i)) : -1;
+            }
+            measureTupleIndex[d++] = index;
+        }
+    }
+
     private void translateResult(Result res, Tuple tuple) throws IOException {
         // groups
-        byte[] rowkey = res.getRow();
-        rowKeyDecoder.decode(rowkey);
-        List<TblColRef> columns = rowKeyDecoder.getColumns();
-        List<String> dimensionNames = rowKeyDecoder.getNames(context.getAliasMap());
-        List<String> dimensionValues = rowKeyDecoder.getValues();
-        for (int i = 0; i < dimensionNames.size(); i++) {
-            TblColRef column = columns.get(i);
-            if (!tuple.hasColumn(column)) {
+        Cell firstCell = res.rawCells()[0];
+        byte[] rowArray = firstCell.getRowArray();
+        int rowOffset = firstCell.getRowOffset();
+        for (int i = 0; i < dimValueCaches.length; i++) {
+            DimensionValueCache cache = dimValueCaches[i];
+            if (cache == null)
                 continue;
-            }
-            tuple.setDimensionValue(dimensionNames.get(i), dimensionValues.get(i));
+
+            DimensionValue value = cache.get(rowArray, rowOffset + dimOffsets[i], dimLengths[i]);
+            if (dimTupleIndex[i] >= 0)
+                tuple.setDimensionObjectValue(dimTupleIndex[i], value.objectValue);
+            dimStrings[i] = value.stringValue;
         }
 
         // derived
         for (IDerivedColumnFiller filler : tupleInfo.getDerivedColumnFillers()) {
-            filler.fillDerivedColumns(dimensionValues, tuple);
+            filler.fillDerivedColumns(dimStringList, tuple);
         }
 
         // aggregations
+        int d = 0;
         for (RowValueDecoder rowValueDecoder : this.rowValueDecoders) {
-            HBaseColumnDesc hbaseColumn = rowValueDecoder.getHBaseColumn();
-            String columnFamily = hbaseColumn.getColumnFamilyName();
-            String qualifier = hbaseColumn.getQualifier();
-            // FIXME: avoidable bytes array creation
-            byte[] valueBytes = res.getValue(Bytes.toBytes(columnFamily), Bytes.toBytes(qualifier));
-            rowValueDecoder.decode(valueBytes);
-            List<String> measureNames = rowValueDecoder.getNames();
+            int[] tupleIndex = measureTupleIndex[d];
+            Cell cell = res.getColumnLatestCell(valueFamilies[d], valueQualifiers[d]);
+            d++;
+            if (cell == null) {
+                for (int i = 0; i < tupleIndex.length; i++) {
+                    if (tupleIndex[i] >= 0)
+                        tuple.setMeasureValue(tupleIndex[i], null);
+                }
+                continue;
+            }
+
+            rowValueDecoder.decode(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
             Object[] measureValues = rowValueDecoder.getValues();
-            BitSet projectionIndex = rowValueDecoder.getProjectionIndex();
-            for (int i = projectionIndex.nextSetBit(0); i >= 0; i = projectionIndex.nextSetBit(i + 1)) {
-                tuple.setMeasureValue(measureNames.get(i), measureValues[i]);
+            for (int i = 0; i < tupleIndex.length; i++) {
+                if (tupleIndex[i] >= 0)
+                    tuple.setMeasureValue(tupleIndex[i], measureValues[i]);
+            }
+        }
+    }
+
+    private static class DimensionValue {
+        final String stringValue;
+        final Object objectValue;
+
+        DimensionValue(String stringValue, Object objectValue) {
+            this.stringValue = stringValue;
+            this.objectValue = objectValue;
+        }
+    }
+
+    /**
+     * Caches the decoded string and typed value of dictionary IDs of a column. Values are immutable thus safe to be
+     * shared by tuples.
+     */
+    private class DimensionValueCache {
+        static final int ARRAY_CACHE_MAX_ID = 65535;
+        static final int MAP_CACHE_MAX_SIZE = 100000;
+
+        final TblColRef column;
+        final String dataType; // null if not projected
+        final boolean hasDictionary;
+        final DimensionValue[] arrayCache;
+        final Map<Integer, DimensionValue> mapCache;
+        byte[] buffer;
+
+        DimensionValueCache(TblColRef column, String dataType) {
+            this.column = column;
+            this.dataType = dataType;
+            Dictionary<String> dict = rowKeyColumnIO.getDictionary(column);
+            this.hasDictionary = dict != null;
+            this.arrayCache = hasDictionary && dict.getMaxId() <= ARRAY_CACHE_MAX_ID ? new DimensionValue[dict.getMaxId() + 1] : null;
+            this.mapCache = hasDictionary ? new HashMap<Integer, DimensionValue>() : null;
+            this.buffer = new byte[rowKeyColumnIO.getColumnLength(column)];
+        }
+
+        DimensionValue get(byte[] bytes, int offset, int length) {
+            if (hasDictionary == false)
+                return decode(bytes, offset, length);
+
+            int id = BytesUtil.readUnsigned(bytes, offset, length);
+            DimensionValue value;
+            if (arrayCache != null && id >= 0 && id < arrayCache.length) {
+                value = arrayCache[id];
+                if (value == null) {
+                    value = decode(bytes, offset, length);
+                    arrayCache[id] = value;
+                }
+            } else {
+                value = mapCache.get(id);
+                if (value == null) {
+                    value = decode(bytes, offset, length);
+                    if (mapCache.size() < MAP_CACHE_MAX_SIZE)
+                        mapCache.put(id, value);
+                }
             }
+            return value;
+        }
+
+        private DimensionValue decode(byte[] bytes, int offset, int length) {
+            if (buffer.length < length)
+                buffer = new byte[length];
+            System.arraycopy(bytes, offset, buffer, 0, length);
+            String stringValue = rowKeyColumnIO.readColumnString(column, buffer, length);
+            Object objectValue = dataType == null ? null : Tuple.convertOptiqCellValue(stringValue, dataType);
+            return new DimensionValue(stringValue, objectValue);
         }
     }
 }
@@ -16,6 +16,7 @@
 
 package com.kylinolap.storage.hbase;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -71,7 +72,7 @@ public class DerivedFilterTranslator {
 
         Set<Array<String>> satisfyingHostRecords = Sets.newHashSet();
         SingleColumnTuple tuple = new SingleColumnTuple(derivedCol);
-        for (String[] row : lookup.getAllRows()) {
+        for (String[] row : findCandidateRows(lookup, derivedCol, compf)) {
             tuple.value = row[di];
             if (compf.evaluate(tuple)) {
                 collect(row, pi, satisfyingHostRecords);
@@ -91,6 +92,35 @@ public class DerivedFilterTranslator {
         return new Pair<TupleFilter, Boolean>(translated, loosened);
     }
 
+    /**
+     * Narrows down the rows to evaluate using the lookup table indexes. The
+     * candidates are a superset of the satisfying rows, the filter is still
+     * evaluated on each of them.
+     */
+    private static Collection<String[]> findCandidateRows(LookupStringTable lookup, TblColRef derivedCol, CompareTupleFilter compf) {
+        Collection<String> values = compf.getValues();
+        if (values == null || values.isEmpty())
+            return lookup.getAllRows();
+
+        String col = derivedCol.getName();
+        String v = values.iterator().next();
+        switch (compf.getOperator()) {
+        case EQ:
+        case IN:
+            return lookup.getRowsByValues(col, values);
+        case LT:
+            return lookup.getRowsInRange(col, null, false, v, false);
+        case LTE:
+            return lookup.getRowsInRange(col, null, false, v, true);
+        case GT:
+            return lookup.getRowsInRange(col, v, false, null, false);
+        case GTE:
+            return lookup.getRowsInRange(col, v, true, null, false);
+        default:
+            return lookup.getAllRows();
+        }
+    }
+
     private static void collect(String[] row, int[] pi, Set<Array<String>> satisfyingHostRecords) {
         // TODO when go beyond IN_THRESHOLD, only keep min/max is enough
         String[] rec = new String[pi.length];
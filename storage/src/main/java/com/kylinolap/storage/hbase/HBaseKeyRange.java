@@ -64,6 +64,7 @@ public class HBaseKeyRange implements Comparable<HBaseKeyRange> {
     private byte[] startKey;
     private byte[] stopKey;
     private List<Pair<byte[], byte[]>> fuzzyKeys;
+    private List<Pair<byte[], byte[]>> subRanges; // sorted disjoint ranges within [startKey, stopKey), null means all
 
     private String startKeyString;
     private String stopKeyString;
@@ -191,6 +192,18 @@ public class HBaseKeyRange implements Comparable<HBaseKeyRange> {
         return fuzzyKeys;
     }
 
+    /**
+     * @return the sorted disjoint [start, stop) ranges to scan, or null if the
+     *         whole range from start key to stop key is wanted
+     */
+    public List<Pair<byte[], byte[]>> getSubRanges() {
+        return subRanges;
+    }
+
+    public void setSubRanges(List<Pair<byte[], byte[]>> subRanges) {
+        this.subRanges = subRanges;
+    }
+
     public String getStartKeyAsString() {
         return startKeyString;
     }
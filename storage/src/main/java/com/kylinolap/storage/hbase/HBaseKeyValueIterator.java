@@ -26,6 +26,8 @@ import org.apache.hadoop.hbase.client.HConnection;
 import org.apache.hadoop.hbase.client.HTableInterface;
 import org.apache.hadoop.hbase.client.Result;
 import org.apache.hadoop.hbase.client.ResultScanner;
+import org.apache.hadoop.hbase.client.Scan;
+import org.apache.hadoop.hbase.filter.Filter;
 import org.apache.hadoop.hbase.io.ImmutableBytesWritable;
 import org.apache.hadoop.hbase.util.Pair;
 
@@ -45,11 +47,37 @@ public class HBaseKeyValueIterator implements Iterable<Pair<ImmutableBytesWritab
     Iterator<Result> iterator;
 
     public HBaseKeyValueIterator(HConnection hconn, String tableName, byte[] family, byte[] qualifier) throws IOException {
+        this(hconn, tableName, family, qualifier, null, null, null);
+    }
+
+    /**
+     * @param startRow
+     *            inclusive, null means from the first row
+     * @param stopRow
+     *            exclusive, null means to the last row
+     * @param filter
+     *            server side filter, could be null
+     */
+    public HBaseKeyValueIterator(HConnection hconn, String tableName, byte[] family, byte[] qualifier, byte[] startRow, byte[] stopRow, Filter filter) throws IOException {
         this.family = family;
         this.qualifier = qualifier;
 
+        Scan scan = new Scan();
+        scan.addColumn(family, qualifier);
+        if (startRow != null)
+            scan.setStartRow(startRow);
+        if (stopRow != null)
+            scan.setStopRow(stopRow);
+        if (filter != null)
+            scan.setFilter(filter);
+
         this.table = hconn.getTable(tableName);
-        this.scanner = table.getScanner(family, qualifier);
+        try {
+            this.scanner = table.getScanner(scan);
+        } catch (IOException e) {
+            IOUtils.closeQuietly(table);
+            throw e;
+        }
         this.iterator = scanner.iterator();
     }
 
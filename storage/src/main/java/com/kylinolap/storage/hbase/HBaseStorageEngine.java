@@ -42,6 +42,7 @@ import com.kylinolap.cube.CubeSegment;
 import com.kylinolap.cube.CubeSegmentStatusEnum;
 import com.kylinolap.cube.cuboid.Cuboid;
 import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.dict.Dictionary;
 import com.kylinolap.dict.lookup.LookupStringTable;
 import com.kylinolap.metadata.model.cube.CubeDesc;
 import com.kylinolap.metadata.model.cube.CubeDesc.DeriveInfo;
@@ -69,6 +70,7 @@ public class HBaseStorageEngine implements IStorageEngine {
 
     private static final int MERGE_KEYRANGE_THRESHOLD = 7;
     private static final long MEM_BUDGET_PER_QUERY = 3L * 1024 * 1024 * 1024; // 3G
+    private static final int TOP_N_MAX = 10000; // beyond which top N heaps hardly save
 
     private final CubeInstance cubeInstance;
     private final CubeDesc cubeDesc;
@@ -82,6 +84,12 @@ public class HBaseStorageEngine implements IStorageEngine {
     public ITupleIterator search(Collection<TblColRef> dimensions, TupleFilter filter, //
             Collection<TblColRef> groups, Collection<FunctionDesc> metrics, StorageContext context) {
 
+        // leaderboard on a key which is not a dimension but kept by TopN measure
+        MeasureDesc topNMeasure = findTopNMeasure(dimensions, metrics);
+        if (topNMeasure != null) {
+            return searchTopNMeasure(topNMeasure, dimensions, filter, groups, metrics, context);
+        }
+
         // all dimensions = groups + others
         Set<TblColRef> others = Sets.newHashSet(dimensions);
         others.removeAll(groups);
@@ -123,11 +131,102 @@ public class HBaseStorageEngine implements IStorageEngine {
         List<RowValueDecoder> valueDecoders = translateAggregation(cubeDesc.getHBaseMapping(), metrics, scans, context);
 
         setThreshold(dimensionsD, valueDecoders, context); // set cautious threshold to prevent out of memory
+        setTopN(filter, scans, valueDecoders, context); // before coprocessor, which keeps the top N of each region
         setCoprocessor(groupsCopD, valueDecoders, context); // enable coprocessor if beneficial
         setLimit(filter, context);
 
         HConnection conn = HBaseConnection.get(context.getConnUrl());
-        return new SerializedHBaseTupleIterator(conn, scans, cubeInstance, dimensionsD, filterD, groupsCopD, valueDecoders, context);
+        ITupleIterator iterator;
+        if (isConcurrentScan(scans, context)) {
+            iterator = new ConcurrentHBaseTupleIterator(conn, scans, dimensionsD, filterD, groupsCopD, valueDecoders, context);
+        } else {
+            iterator = new SerializedHBaseTupleIterator(conn, scans, cubeInstance, dimensionsD, filterD, groupsCopD, valueDecoders, context);
+        }
+
+        if (context.isTopNEnabled()) {
+            MeasureDesc sortMeasure = context.getSortMeasures().get(0);
+            boolean descending = context.getSortOrders().get(0) == StorageContext.OrderEnum.DESCENDING;
+            iterator = new TopNTupleIterator(iterator, sortMeasure.getFunction().getRewriteFieldName(), descending, context.getLimit());
+        }
+        return iterator;
+    }
+
+    /**
+     * @return the TopN measure keyed by a non-dimension column in query, whose
+     *         weight is the only metric, SUM(weight)
+     */
+    private MeasureDesc findTopNMeasure(Collection<TblColRef> dimensions, Collection<FunctionDesc> metrics) {
+        for (MeasureDesc measure : cubeDesc.getMeasures()) {
+            FunctionDesc func = measure.getFunction();
+            if (func.isTopN() == false)
+                continue;
+
+            TblColRef keyColumn = func.getParameter().getColRefs().get(1);
+            if (dimensions.contains(keyColumn) && cubeDesc.listDimensionColumnsIncludingDerived().contains(keyColumn) == false //
+                    && metrics.size() == 1 && func.isTopNWeight(metrics.iterator().next()))
+                return measure;
+        }
+        return null;
+    }
+
+    private ITupleIterator searchTopNMeasure(MeasureDesc topNMeasure, Collection<TblColRef> dimensions, TupleFilter filter, //
+            Collection<TblColRef> groups, Collection<FunctionDesc> metrics, StorageContext context) {
+        FunctionDesc topN = topNMeasure.getFunction();
+        FunctionDesc weightMetric = metrics.iterator().next();
+        TblColRef keyColumn = topN.getParameter().getColRefs().get(1);
+        int capacity = topN.getReturnDataType().getPrecision();
+
+        // the top keys of each group is only good for ORDER BY SUM(weight) DESC LIMIT n
+        boolean goodSort = context.getSortFieldCount() == 1 && context.getSortMeasures().size() == 1 //
+                && context.getSortOrders().get(0) == StorageContext.OrderEnum.DESCENDING //
+                && (context.getSortMeasures().get(0) == topNMeasure || topN.isTopNWeight(context.getSortMeasures().get(0).getFunction()));
+        boolean goodLimit = context.getLimit() > 0 && context.getLimit() <= capacity;
+        Set<TblColRef> filterColumns = Sets.newHashSet();
+        if (filter != null)
+            collectColumnsRecursively(filter, filterColumns);
+        // HAVING could drop some of the top keys after storage, leaving less
+        // than n where the dropped keys should be replaced by the next ones
+        boolean goodFilter = filterColumns.contains(keyColumn) == false && context.hasPostAggFilter() == false;
+        if (goodSort == false || goodLimit == false || goodFilter == false || groups.contains(keyColumn) == false) {
+            throw new IllegalStateException("Column " + keyColumn + " is only available from measure " + topNMeasure.getName() //
+                    + ", for GROUP BY it without filtering it or HAVING, ORDER BY " + weightMetric.getFullExpression() + " DESC LIMIT n (n <= " + capacity + ")");
+        }
+        logger.info("Answer top " + context.getLimit() + " " + keyColumn + " by " + topNMeasure);
+
+        Set<TblColRef> dimensionsT = Sets.newHashSet(dimensions);
+        dimensionsT.remove(keyColumn);
+        Set<TblColRef> groupsT = Sets.newHashSet(groups);
+        groupsT.remove(keyColumn);
+        List<FunctionDesc> metricsT = Collections.singletonList(topN);
+        ITupleIterator iterator = search(dimensionsT, filter, groupsT, metricsT, context);
+
+        String keyField = context.getAliasMap() == null ? null : context.getAliasMap().get(keyColumn);
+        if (keyField == null)
+            keyField = keyColumn.getName();
+        String weightType = topN.getParameter().getColRefs().get(0).getDatatype();
+        Dictionary<?> keyDict = CubeManager.getInstance(cubeInstance.getConfig()).getGlobalDictionary(cubeInstance, keyColumn);
+        return new TopNMeasureTupleIterator(iterator, topN.getRewriteFieldName(), keyColumn, keyField, //
+                weightMetric.getRewriteFieldName(), weightType, keyDict, context.getLimit());
+    }
+
+    boolean isConcurrentScan(List<HBaseKeyRange> scans, StorageContext context) {
+        if (scans.size() <= 1) {
+            return false;
+        }
+
+        // query setting overrides cube setting, which overrides server setting
+        boolean concurrent;
+        if (context.getConcurrentScan() != null) {
+            concurrent = context.getConcurrentScan();
+        } else if (cubeDesc.getConcurrentScan() != null) {
+            concurrent = cubeDesc.getConcurrentScan();
+        } else {
+            concurrent = cubeInstance.getConfig().isConcurrentScanEnabled();
+        }
+        if (concurrent) {
+            logger.info("Concurrent scan is enabled for " + scans.size() + " key ranges");
+        }
+        return concurrent;
     }
 
     private Cuboid identifyCuboid(Set<TblColRef> dimensions) {
@@ -326,6 +425,11 @@ public class HBaseStorageEngine implements IStorageEngine {
                     logger.info("Holistic count distinct chosen for " + aggrFunc);
                     break;
                 }
+                // bitmap is exact at any aggregation
+                if (measure.isBitmapCountDistinct()) {
+                    logger.info("Bitmap count distinct chosen for " + aggrFunc);
+                    break;
+                }
             }
 
             RowValueDecoder codec = codecMap.get(bestHBCol);
@@ -548,6 +652,14 @@ public class HBaseStorageEngine implements IStorageEngine {
         // TODO: check the distance between range. and merge the large distance range
         List<HBaseKeyRange> mergedRanges = new LinkedList<HBaseKeyRange>();
         HBaseKeyRange mergedRange = mergeKeyRange(keyRanges, 0, keyRanges.size() - 1);
+        if (cubeInstance.getConfig().isMultiRangeScanEnabled()) {
+            // one scan that skips the gaps between the (sorted, disjoint) ranges
+            List<Pair<byte[], byte[]>> subRanges = Lists.newArrayListWithCapacity(keyRanges.size());
+            for (HBaseKeyRange keyRange : keyRanges) {
+                subRanges.add(new Pair<byte[], byte[]>(keyRange.getStartKey(), keyRange.getStopKey()));
+            }
+            mergedRange.setSubRanges(subRanges);
+        }
         mergedRanges.add(mergedRange);
         return mergedRanges;
     }
@@ -586,11 +698,60 @@ public class HBaseStorageEngine implements IStorageEngine {
     private void setLimit(TupleFilter filter, StorageContext context) {
         boolean goodAggr = context.isExactAggregation() || context.isAvoidAggregation();
         boolean goodFilter = filter == null || (TupleFilter.isEvaluableRecursively(filter) && context.isCoprocessorEnabled());
+        goodFilter = goodFilter && context.hasPostAggFilter() == false;
         boolean goodSort = context.hasSort() == false;
         if (goodAggr && goodFilter && goodSort) {
             logger.info("Enable limit " + context.getLimit());
             context.enableLimit();
         }
+
+        // like limit, top N must not drop rows that the filter is yet to drop
+        if (context.isTopNEnabled() && goodFilter == false) {
+            logger.info("Disable top N because filter is not evaluated by coprocessor, or is on aggregated values");
+            context.disableTopN();
+        }
+    }
+
+    /**
+     * ORDER BY a measure with LIMIT N can keep only the top N groups of each
+     * region, when each row is a final group, i.e. exact aggregation within a
+     * single segment (groups of different segments are yet to aggregate), and
+     * no HAVING filter is yet to drop groups.
+     */
+    void setTopN(TupleFilter filter, List<HBaseKeyRange> scans, List<RowValueDecoder> valueDecoders, StorageContext context) {
+        if (context.getSortFieldCount() != 1 || context.getSortMeasures().size() != 1)
+            return;
+        if (context.getLimit() <= 0 || context.getLimit() > TOP_N_MAX)
+            return;
+        if (context.isExactAggregation() == false || context.isAvoidAggregation())
+            return;
+        if (filter != null && TupleFilter.isEvaluableRecursively(filter) == false)
+            return;
+        if (context.hasPostAggFilter())
+            return;
+
+        CubeSegment segment = null;
+        for (HBaseKeyRange scan : scans) {
+            if (segment != null && segment != scan.getCubeSegment())
+                return;
+            segment = scan.getCubeSegment();
+        }
+
+        MeasureDesc sortMeasure = context.getSortMeasures().get(0);
+        if (sortMeasure.getFunction().isTopN()) // see searchTopNMeasure()
+            return;
+
+        boolean scanned = false;
+        for (RowValueDecoder decoder : valueDecoders) {
+            int i = decoder.getHBaseColumn().findMeasureIndex(sortMeasure.getFunction());
+            if (i >= 0 && decoder.getProjectionIndex().get(i))
+                scanned = true;
+        }
+        if (scanned == false)
+            return;
+
+        logger.info("Enable top " + context.getLimit() + " on " + sortMeasure);
+        context.enableTopN();
     }
 
     private void setCoprocessor(Set<TblColRef> groupsCopD, List<RowValueDecoder> valueDecoders, StorageContext context) {
@@ -18,14 +18,25 @@ package com.kylinolap.storage.hbase;
 
 import static com.kylinolap.metadata.model.invertedindex.InvertedIndexDesc.*;
 
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
 import java.io.IOException;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Set;
 
 import org.apache.hadoop.hbase.client.HConnection;
+import org.apache.hadoop.hbase.filter.Filter;
+import org.apache.hadoop.hbase.filter.FuzzyRowFilter;
+import org.apache.hadoop.hbase.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import com.kylinolap.common.KylinConfig;
 import com.kylinolap.common.persistence.HBaseConnection;
 import com.kylinolap.common.persistence.StorageException;
@@ -35,22 +46,35 @@ import com.kylinolap.cube.invertedindex.IIKeyValueCodec;
 import com.kylinolap.cube.invertedindex.TableRecord;
 import com.kylinolap.cube.invertedindex.TableRecordInfo;
 import com.kylinolap.cube.invertedindex.TimeSlice;
+import com.kylinolap.dict.DateStrDictionary;
 import com.kylinolap.metadata.model.cube.FunctionDesc;
 import com.kylinolap.metadata.model.cube.TblColRef;
 import com.kylinolap.metadata.model.schema.ColumnDesc;
 import com.kylinolap.storage.IStorageEngine;
 import com.kylinolap.storage.StorageContext;
+import com.kylinolap.storage.filter.ColumnTupleFilter;
+import com.kylinolap.storage.filter.CompareTupleFilter;
 import com.kylinolap.storage.filter.TupleFilter;
 import com.kylinolap.storage.tuple.ITupleIterator;
 import com.kylinolap.storage.tuple.Tuple;
 import com.kylinolap.storage.tuple.TupleInfo;
 
 /**
+ * Searches the inverted index of a cube.
+ * 
+ * The filter and projection are pushed down: time partitions are pruned by
+ * scan range, only the columns in need are fetched from HBase, and predicates
+ * on bitmap columns are evaluated as bitmap AND/OR to skip records. The
+ * returned records are a superset of the filter result, the query engine still
+ * applies the complete filter.
+ * 
  * @author yangli9
  * 
  */
 public class InvertedIndexStorageEngine implements IStorageEngine {
 
+    private static final Logger logger = LoggerFactory.getLogger(InvertedIndexStorageEngine.class);
+
     private String hbaseUrl;
     private CubeSegment seg;
 
@@ -63,14 +87,141 @@ public class InvertedIndexStorageEngine implements IStorageEngine {
     public ITupleIterator search(Collection<TblColRef> dimensions, TupleFilter filter, Collection<TblColRef> groups, Collection<FunctionDesc> metrics, StorageContext context) {
 
         try {
-            return new IISegmentTupleIterator(context);
+            TableRecordInfo recInfo = new TableRecordInfo(seg);
+            BitSet columns = findProjectedColumns(recInfo, dimensions, filter, groups, metrics, context);
+            long[] timeRange = findTimePartitionRange(recInfo, filter);
+            return new IISegmentTupleIterator(recInfo, columns, timeRange, filter, context);
         } catch (IOException e) {
             throw new StorageException(e.getMessage(), e);
         }
     }
 
+    private BitSet findProjectedColumns(TableRecordInfo recInfo, Collection<TblColRef> dimensions, TupleFilter filter, Collection<TblColRef> groups, Collection<FunctionDesc> metrics, StorageContext context) {
+        BitSet columns = new BitSet();
+        int nColumns = recInfo.getColumnCount();
+
+        // a simple query (without aggregation) selects all columns
+        if (context.isAvoidAggregation()) {
+            columns.set(0, nColumns);
+            return columns;
+        }
+
+        Set<TblColRef> cols = Sets.newHashSet();
+        cols.addAll(dimensions);
+        if (groups != null)
+            cols.addAll(groups);
+        if (metrics != null) {
+            for (FunctionDesc func : metrics) {
+                if (func.getParameter() != null && func.getParameter().getColRefs() != null)
+                    cols.addAll(func.getParameter().getColRefs());
+            }
+        }
+        collectColumns(filter, cols);
+
+        String factTable = recInfo.getDescriptor().getFactTable();
+        for (TblColRef col : cols) {
+            if (factTable.equalsIgnoreCase(col.getTable()))
+                columns.set(col.getColumn().getZeroBasedIndex());
+        }
+
+        // at least one column is needed to know the number of records
+        if (columns.isEmpty())
+            columns.set(recInfo.getTimestampColumn());
+        return columns;
+    }
+
+    private void collectColumns(TupleFilter filter, Set<TblColRef> collector) {
+        if (filter == null)
+            return;
+        if (filter instanceof ColumnTupleFilter)
+            collector.add(((ColumnTupleFilter) filter).getColumn());
+        for (TupleFilter child : filter.getChildren())
+            collectColumns(child, collector);
+    }
+
+    /**
+     * @return [first, last] time partition that may contain matching records
+     */
+    private long[] findTimePartitionRange(TableRecordInfo recInfo, TupleFilter filter) {
+        long[] range = findTimeRange(recInfo, filter);
+        long first = range[0] == Long.MIN_VALUE ? Long.MIN_VALUE : recInfo.calculateTimePartition(range[0]);
+        long last = range[1] == Long.MAX_VALUE ? Long.MAX_VALUE : recInfo.calculateTimePartition(range[1]);
+        return new long[] { first, last };
+    }
+
+    // [min, max] of timestamp allowed by the filter, both inclusive
+    private long[] findTimeRange(TableRecordInfo recInfo, TupleFilter filter) {
+        long[] unbounded = new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+        if (filter == null)
+            return unbounded;
+
+        switch (filter.getOperator()) {
+        case AND:
+            long[] and = unbounded;
+            for (TupleFilter child : filter.getChildren()) {
+                long[] r = findTimeRange(recInfo, child);
+                and = new long[] { Math.max(and[0], r[0]), Math.min(and[1], r[1]) };
+            }
+            return and;
+        case OR:
+            long[] or = null;
+            for (TupleFilter child : filter.getChildren()) {
+                long[] r = findTimeRange(recInfo, child);
+                or = or == null ? r : new long[] { Math.min(or[0], r[0]), Math.max(or[1], r[1]) };
+            }
+            return or == null ? unbounded : or;
+        case EQ:
+        case IN:
+        case LT:
+        case LTE:
+        case GT:
+        case GTE:
+            return findTimeRange(recInfo, (CompareTupleFilter) filter);
+        default:
+            return unbounded;
+        }
+    }
+
+    private long[] findTimeRange(TableRecordInfo recInfo, CompareTupleFilter compf) {
+        long[] unbounded = new long[] { Long.MIN_VALUE, Long.MAX_VALUE };
+        TblColRef col = compf.getColumn();
+        if (col == null || compf.getValues().isEmpty() //
+                || recInfo.getDescriptor().getFactTable().equalsIgnoreCase(col.getTable()) == false //
+                || col.getColumn().getZeroBasedIndex() != recInfo.getTimestampColumn())
+            return unbounded;
+
+        try {
+            long min = Long.MAX_VALUE, max = Long.MIN_VALUE;
+            for (String v : compf.getValues()) {
+                long t = DateStrDictionary.stringToMillis(v);
+                min = Math.min(min, t);
+                max = Math.max(max, t);
+            }
+            switch (compf.getOperator()) {
+            case EQ:
+            case IN:
+                return new long[] { min, max };
+            case LT:
+            case LTE:
+                return new long[] { Long.MIN_VALUE, max };
+            case GT:
+            case GTE:
+                return new long[] { min, Long.MAX_VALUE };
+            default:
+                return unbounded;
+            }
+        } catch (IllegalArgumentException e) {
+            // not a date/time value, no pruning
+            return unbounded;
+        }
+    }
+
     private class IISegmentTupleIterator implements ITupleIterator {
         final StorageContext context;
+        final TableRecordInfo recInfo;
+        final BitSet columns;
+        final TupleFilter filter;
+        final BitMapFilterEvaluator filterEvaluator;
         final HBaseKeyValueIterator kvIterator;
         final IIKeyValueCodec codec;
         final Iterator<TimeSlice> sliceIterator;
@@ -79,15 +230,32 @@ public class InvertedIndexStorageEngine implements IStorageEngine {
 
         TupleInfo tupleInfo;
         Tuple tuple;
+        int[] projectedIndex;
 
-        IISegmentTupleIterator(StorageContext context) throws IOException {
+        IISegmentTupleIterator(TableRecordInfo recInfo, BitSet columns, long[] timePartitionRange, TupleFilter filter, StorageContext context) throws IOException {
             this.context = context;
+            this.recInfo = recInfo;
+            this.columns = columns;
+            this.filter = filter;
+            this.filterEvaluator = new BitMapFilterEvaluator(recInfo);
+
+            byte[] startRow = timePartitionRange[0] == Long.MIN_VALUE ? null : IIKeyValueCodec.encodeTimePartition(timePartitionRange[0]);
+            byte[] stopRow = timePartitionRange[1] == Long.MAX_VALUE ? null : IIKeyValueCodec.encodeTimePartition(timePartitionRange[1] + 1);
+            Filter columnFilter = null;
+            if (columns.cardinality() < recInfo.getColumnCount()) {
+                List<Pair<byte[], byte[]>> fuzzyKeys = Lists.newArrayList();
+                for (int col = columns.nextSetBit(0); col >= 0; col = columns.nextSetBit(col + 1)) {
+                    fuzzyKeys.add(IIKeyValueCodec.getColumnFuzzyKey(col));
+                }
+                columnFilter = new FuzzyRowFilter(fuzzyKeys);
+            }
+            logger.debug("Scan inverted index " + seg.getStorageLocationIdentifier() + ", columns " + columns + ", time partitions [" + timePartitionRange[0] + ", " + timePartitionRange[1] + "]");
 
             HConnection hconn = HBaseConnection.get(hbaseUrl);
             String tableName = seg.getStorageLocationIdentifier();
-            kvIterator = new HBaseKeyValueIterator(hconn, tableName, HBASE_FAMILY_BYTES, HBASE_QUALIFIER_BYTES);
-            codec = new IIKeyValueCodec(new TableRecordInfo(seg));
-            sliceIterator = codec.decodeKeyValue(kvIterator).iterator();
+            kvIterator = new HBaseKeyValueIterator(hconn, tableName, HBASE_FAMILY_BYTES, HBASE_QUALIFIER_BYTES, startRow, stopRow, columnFilter);
+            codec = new IIKeyValueCodec(recInfo);
+            sliceIterator = codec.decodeKeyValue(kvIterator, columns).iterator();
         }
 
         private TupleInfo buildTupleInfo(TableRecordInfo recInfo) {
@@ -104,15 +272,25 @@ public class InvertedIndexStorageEngine implements IStorageEngine {
             if (tuple == null) {
                 tupleInfo = buildTupleInfo(rec.info());
                 tuple = new Tuple(tupleInfo);
+                projectedIndex = new int[columns.cardinality()];
+                for (int i = columns.nextSetBit(0), j = 0; i >= 0; i = columns.nextSetBit(i + 1), j++) {
+                    projectedIndex[j] = i;
+                }
             }
 
+            // columns not projected remain null
             List<String> fieldNames = tupleInfo.getAllFields();
-            for (int i = 0, n = tupleInfo.size(); i < n; i++) {
+            for (int i : projectedIndex) {
                 tuple.setDimensionValue(fieldNames.get(i), rec.getValueString(i));
             }
             return tuple;
         }
 
+        private Iterator<TableRecord> recordIterator(TimeSlice slice) {
+            ConciseSet positions = filterEvaluator.evaluate(filter, slice);
+            return positions == null ? slice.iterator() : slice.iterator(positions);
+        }
+
         @Override
         public boolean hasNext() {
             while (next == null) {
@@ -121,7 +299,7 @@ public class InvertedIndexStorageEngine implements IStorageEngine {
                     break;
                 }
                 if (sliceIterator.hasNext()) {
-                    recordIterator = sliceIterator.next().iterator();
+                    recordIterator = recordIterator(sliceIterator.next());
                     continue;
                 }
                 break;
@@ -0,0 +1,172 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import com.kylinolap.common.topn.TopNCounter;
+import com.kylinolap.dict.Dictionary;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.metadata.model.schema.DataType;
+import com.kylinolap.storage.tuple.ITuple;
+import com.kylinolap.storage.tuple.ITupleIterator;
+import com.kylinolap.storage.tuple.Tuple;
+import com.kylinolap.storage.tuple.TupleInfo;
+
+/**
+ * Expands TopN measure into rows of its top keys, which answers leaderboard
+ * queries like "SELECT G, K, SUM(W) ... GROUP BY G, K ORDER BY SUM(W) DESC
+ * LIMIT n" on a cube of TOP_N(W, K) without K being a dimension.
+ *
+ * Counters of the same group G are merged first, as a group may come more than
+ * once, e.g. from different segments. Then each group gives its top n keys,
+ * with the estimated weight as SUM(W).
+ */
+public class TopNMeasureTupleIterator implements ITupleIterator {
+
+    private final ITupleIterator inner;
+    private final String topNField;
+    private final TblColRef keyColumn;
+    private final String keyField;
+    private final String weightField;
+    private final DataType weightType;
+    private final Dictionary<?> keyDict;
+    private final int n;
+
+    private Iterator<Tuple> result;
+
+    public TopNMeasureTupleIterator(ITupleIterator inner, String topNField, TblColRef keyColumn, String keyField, //
+            String weightField, String weightType, Dictionary<?> keyDict, int n) {
+        this.inner = inner;
+        this.topNField = topNField;
+        this.keyColumn = keyColumn;
+        this.keyField = keyField;
+        this.weightField = weightField;
+        this.weightType = DataType.getInstance(weightType);
+        this.keyDict = keyDict;
+        this.n = n;
+    }
+
+    private void expand() {
+        LinkedHashMap<List<Object>, Group> groups = new LinkedHashMap<List<Object>, Group>();
+        while (inner.hasNext()) {
+            ITuple tuple = inner.next();
+            if (tuple == null)
+                break;
+
+            List<Object> groupKey = new ArrayList<Object>();
+            List<TblColRef> columns = tuple.getAllColumns();
+            Object[] values = tuple.getAllValues();
+            for (int i = 0; i < columns.size(); i++) {
+                if (columns.get(i) != null)
+                    groupKey.add(values[i]);
+            }
+
+            Group group = groups.get(groupKey);
+            if (group == null) {
+                // the segment iterator reuses its tuple
+                group = new Group(((Tuple) tuple).copy());
+                groups.put(groupKey, group);
+            }
+            group.merge((TopNCounter) tuple.getValue(topNField));
+        }
+
+        List<Tuple> list = new ArrayList<Tuple>();
+        TupleInfo info = null;
+        for (Group group : groups.values()) {
+            if (group.counter == null)
+                continue;
+            if (info == null)
+                info = expandTupleInfo(group.tuple);
+
+            for (TopNCounter.Entry entry : group.counter.getTopN(n)) {
+                Tuple row = new Tuple(info);
+                Object[] values = group.tuple.getAllValues();
+                for (int i = 0; i < values.length; i++) {
+                    row.setDimensionObjectValue(i, values[i]);
+                }
+                row.setDimensionValue(keyField, keyDict.getValueFromId(entry.getKey()).toString());
+                row.setMeasureValue(weightField, toWeightValue(entry.getCount()));
+                list.add(row);
+            }
+        }
+        result = list.iterator();
+    }
+
+    private TupleInfo expandTupleInfo(Tuple tuple) {
+        TupleInfo info = new TupleInfo();
+        List<String> fields = tuple.getAllFields();
+        List<TblColRef> columns = tuple.getAllColumns();
+        for (int i = 0; i < fields.size(); i++) {
+            info.setField(fields.get(i), columns.get(i), tuple.getDataType(i), i);
+        }
+        info.setField(keyField, keyColumn, keyColumn.getDatatype(), fields.size());
+        info.setField(weightField, null, weightType.getName(), fields.size() + 1);
+        return info;
+    }
+
+    private Object toWeightValue(double count) {
+        if (weightType.isIntegerFamily())
+            return Long.valueOf(Math.round(count));
+        else if (weightType.isDecimal())
+            return BigDecimal.valueOf(count);
+        else
+            return Double.valueOf(count);
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (result == null)
+            expand();
+        return result.hasNext();
+    }
+
+    @Override
+    public ITuple next() {
+        if (hasNext() == false)
+            return null;
+        return result.next();
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    private static class Group {
+        final Tuple tuple;
+        TopNCounter counter;
+
+        Group(Tuple tuple) {
+            this.tuple = tuple;
+        }
+
+        void merge(TopNCounter another) {
+            if (another == null)
+                return;
+            // the decoder reuses its counter too
+            if (counter == null)
+                counter = new TopNCounter(another);
+            else
+                counter.merge(another);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.PriorityQueue;
+
+import com.kylinolap.storage.hbase.coprocessor.SRowTopN;
+import com.kylinolap.storage.tuple.ITuple;
+import com.kylinolap.storage.tuple.ITupleIterator;
+import com.kylinolap.storage.tuple.Tuple;
+
+/**
+ * Merges the top N tuples of each region (or of each scan, when coprocessor is
+ * not in use) into the global top N, with a heap of N tuples. Tuples are
+ * returned in the rank order, the query engine still does the final sort.
+ */
+@SuppressWarnings("rawtypes")
+public class TopNTupleIterator implements ITupleIterator {
+
+    private final ITupleIterator inner;
+    private final String measureField;
+    private final boolean descending;
+    private final int n;
+
+    private Iterator<Tuple> result;
+
+    public TopNTupleIterator(ITupleIterator inner, String measureField, boolean descending, int n) {
+        this.inner = inner;
+        this.measureField = measureField;
+        this.descending = descending;
+        this.n = n;
+    }
+
+    private void merge() {
+        PriorityQueue<Ranked> heap = new PriorityQueue<Ranked>(Math.max(1, n) + 1, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked o1, Ranked o2) {
+                // worst first
+                return SRowTopN.compareRank(o1.value, o2.value, descending);
+            }
+        });
+
+        while (n > 0 && inner.hasNext()) {
+            ITuple tuple = inner.next();
+            if (tuple == null)
+                break;
+
+            Comparable value = SRowTopN.toComparable(tuple.getValue(measureField));
+            if (heap.size() >= n && SRowTopN.compareRank(value, heap.peek().value, descending) <= 0)
+                continue;
+
+            // the segment iterator reuses its tuple
+            heap.add(new Ranked(((Tuple) tuple).copy(), value));
+            if (heap.size() > n)
+                heap.poll();
+        }
+
+        LinkedList<Tuple> list = new LinkedList<Tuple>();
+        while (heap.isEmpty() == false) {
+            list.add(heap.poll().tuple);
+        }
+        Collections.reverse(list);
+        result = list.iterator();
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (result == null)
+            merge();
+        return result.hasNext();
+    }
+
+    @Override
+    public ITuple next() {
+        if (hasNext() == false)
+            return null;
+        return result.next();
+    }
+
+    @Override
+    public void close() {
+        inner.close();
+    }
+
+    private static class Ranked {
+        final Tuple tuple;
+        final Comparable value;
+
+        Ranked(Tuple tuple, Comparable value) {
+            this.tuple = tuple;
+            this.value = value;
+        }
+    }
+}
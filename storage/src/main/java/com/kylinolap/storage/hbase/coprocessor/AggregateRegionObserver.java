@@ -41,6 +41,12 @@ public class AggregateRegionObserver extends BaseRegionObserver {
     static final String PROJECTOR = "_Projector";
     static final String AGGREGATORS = "_Aggregators";
     static final String FILTER = "_Filter";
+    static final String ARENA_AGGREGATION = "_ArenaAggregation";
+    static final String PARTIAL_EMIT = "_PartialEmit";
+    static final String TOP_N = "_TopN";
+
+    // region server side setting, in bytes
+    static final String PARTIAL_EMIT_MEM_CAP_KEY = "kylin.coprocessor.partial.emit.mem.cap";
 
     @Override
     public final RegionScanner postScannerOpen(final ObserverContext<RegionCoprocessorEnvironment> ctxt, final Scan scan, final RegionScanner innerScanner) throws IOException {
@@ -78,13 +84,28 @@ public class AggregateRegionObserver extends BaseRegionObserver {
         byte[] filterBytes = scan.getAttribute(FILTER);
         SRowFilter filter = SRowFilter.deserialize(filterBytes);
 
+        // absent from older clients, means the TreeMap based aggregation cache
+        byte[] arenaBytes = scan.getAttribute(ARENA_AGGREGATION);
+        boolean arenaAggregation = arenaBytes != null && arenaBytes.length > 0 && arenaBytes[0] != 0;
+
+        // absent from older clients, means abort when memory goes beyond cap
+        byte[] partialEmitBytes = scan.getAttribute(PARTIAL_EMIT);
+        long partialEmitMemCap = 0;
+        if (partialEmitBytes != null && partialEmitBytes.length > 0 && partialEmitBytes[0] != 0) {
+            partialEmitMemCap = ctxt.getEnvironment().getConfiguration().getLong(PARTIAL_EMIT_MEM_CAP_KEY, AggregationCache.MEMORY_USAGE_CAP);
+        }
+
+        // absent unless the client asks for the top N groups
+        byte[] topNBytes = scan.getAttribute(TOP_N);
+        SRowTopN topN = topNBytes == null ? null : SRowTopN.deserialize(topNBytes);
+
         // start/end region operation & sync on scanner is suggested by the
         // javadoc of RegionScanner.nextRaw()
         HRegion region = ctxt.getEnvironment().getRegion();
         region.startRegionOperation();
         try {
             synchronized (innerScanner) {
-                return new AggregationScanner(type, filter, projector, aggregators, innerScanner);
+                return new AggregationScanner(type, filter, projector, aggregators, innerScanner, arenaAggregation, partialEmitMemCap, topN);
             }
         } finally {
             region.closeRegionOperation();
@@ -39,7 +39,7 @@ import com.kylinolap.storage.hbase.coprocessor.SRowProjector.AggrKey;
  * 
  */
 @SuppressWarnings("rawtypes")
-public class AggregationCache {
+public class AggregationCache implements IAggregationCache {
 
     static final int MEMORY_USAGE_CAP = 500 * 1024 * 1024; // 500 MB
 
@@ -47,6 +47,7 @@ public class AggregationCache {
     private final SRowAggregators aggregators;
 
     transient int rowMemBytes;
+    transient int sampledSize;
 
     public AggregationCache(SRowAggregators aggregators, int estSize) {
         this.aggregators = aggregators;
@@ -62,30 +63,50 @@ public class AggregationCache {
         return aggBuf;
     }
 
+    // drops a group, for TopNAggregationCache
+    void remove(AggrKey aggkey) {
+        aggBufMap.remove(aggkey);
+    }
+
+    @Override
+    public void aggregate(AggrKey aggkey, List<Cell> rowCells) {
+        MeasureAggregator[] aggBuf = getBuffer(aggkey);
+        aggregators.aggregate(aggBuf, rowCells);
+    }
+
+    @Override
     public RegionScanner getScanner(RegionScanner innerScanner) {
         return new AggregationRegionScanner(innerScanner);
     }
 
+    @Override
     public long getSize() {
         return aggBufMap.size();
     }
 
-    public void checkMemoryUsage() {
+    @Override
+    public long getMemBytes() {
         // about memory calculation,
         // http://seniorjava.wordpress.com/2013/09/01/java-objects-memory-size-reference/
-        if (rowMemBytes <= 0) {
-            if (aggBufMap.size() > 0) {
-                rowMemBytes = 0;
-                MeasureAggregator[] measureAggregators = aggBufMap.get(aggBufMap.firstKey());
-                for (MeasureAggregator agg : measureAggregators) {
-                    rowMemBytes += agg.getMemBytes();
-                }
+        // re-sample each time groups double, as count distinct counters grow
+        // from sparse to dense
+        if (aggBufMap.size() > 0 && aggBufMap.size() >= sampledSize * 2) {
+            sampledSize = aggBufMap.size();
+            int bytes = 0;
+            MeasureAggregator[] measureAggregators = aggBufMap.get(aggBufMap.firstKey());
+            for (MeasureAggregator agg : measureAggregators) {
+                bytes += agg.getMemBytes();
             }
+            rowMemBytes = Math.max(rowMemBytes, bytes);
         }
-        int size = aggBufMap.size();
-        int memUsage = (40 + rowMemBytes) * size;
+        return (40L + rowMemBytes) * aggBufMap.size();
+    }
+
+    @Override
+    public void checkMemoryUsage() {
+        long memUsage = getMemBytes();
         if (memUsage > MEMORY_USAGE_CAP) {
-            throw new RuntimeException("Kylin coprocess memory usage goes beyond cap, (40 + " + rowMemBytes + ") * " + size + " > " + MEMORY_USAGE_CAP + ". Abord coprocessor.");
+            throw new RuntimeException("Kylin coprocess memory usage goes beyond cap, (40 + " + rowMemBytes + ") * " + aggBufMap.size() + " > " + MEMORY_USAGE_CAP + ". Abord coprocessor.");
         }
     }
 
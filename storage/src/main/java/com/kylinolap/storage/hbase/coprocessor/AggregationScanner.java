@@ -24,37 +24,91 @@ import org.apache.hadoop.hbase.Cell;
 import org.apache.hadoop.hbase.HRegionInfo;
 import org.apache.hadoop.hbase.regionserver.RegionScanner;
 
-import com.kylinolap.cube.measure.MeasureAggregator;
 import com.kylinolap.storage.hbase.coprocessor.SRowProjector.AggrKey;
 
 /**
+ * Aggregates the rows of inner scanner and returns the aggregated rows.
+ * <p>
+ * In partial emit mode, when the aggregation cache goes beyond memory cap, the cached groups are returned as a chunk
+ * and aggregation restarts with an empty cache. The same group may then come back more than once, which is fine
+ * because coprocessor is only used when query engine does post aggregation anyway.
+ * 
  * @author yangli9
  * 
  */
 public class AggregationScanner implements RegionScanner {
 
+    private final SRowType type;
+    private final SRowFilter filter;
+    private final SRowProjector projector;
+    private final SRowAggregators aggregators;
+    private final RegionScanner innerScanner;
+    private final boolean arenaAggregation;
+    private final long partialEmitMemCap;
+    private final SRowTopN topN;
+    private final Stats stats = new Stats();
+
     private RegionScanner outerScanner;
+    private boolean innerHasMore = true;
 
     public AggregationScanner(SRowType type, SRowFilter filter, SRowProjector groupBy, SRowAggregators aggrs, RegionScanner innerScanner) throws IOException {
+        this(type, filter, groupBy, aggrs, innerScanner, false, 0, null);
+    }
+
+    public AggregationScanner(SRowType type, SRowFilter filter, SRowProjector groupBy, SRowAggregators aggrs, RegionScanner innerScanner, boolean arenaAggregation, long partialEmitMemCap) throws IOException {
+        this(type, filter, groupBy, aggrs, innerScanner, arenaAggregation, partialEmitMemCap, null);
+    }
+
+    /**
+     * @param partialEmitMemCap
+     *            emit a partial result once the aggregation cache takes more bytes than this; 0 to disable partial
+     *            emit and abort at {@link AggregationCache#MEMORY_USAGE_CAP}
+     * @param topN
+     *            keep only the top N groups of the region, null to keep all
+     */
+    public AggregationScanner(SRowType type, SRowFilter filter, SRowProjector groupBy, SRowAggregators aggrs, RegionScanner innerScanner, boolean arenaAggregation, long partialEmitMemCap, SRowTopN topN) throws IOException {
 
         AggregateRegionObserver.LOG.info("Kylin Coprocessor start");
 
-        AggregationCache aggCache;
-        Stats stats = new Stats();
+        this.type = type;
+        this.filter = filter;
+        this.projector = groupBy;
+        this.aggregators = aggrs;
+        this.innerScanner = innerScanner;
+        this.arenaAggregation = arenaAggregation;
+        this.partialEmitMemCap = partialEmitMemCap;
+        this.topN = topN;
+
+        nextChunk();
+    }
+
+    private void nextChunk() throws IOException {
+        IAggregationCache aggCache;
+        if (topN != null)
+            aggCache = new TopNAggregationCache(aggregators, topN);
+        else if (arenaAggregation)
+            aggCache = new ArenaAggregationCache(projector, aggregators);
+        else
+            aggCache = new AggregationCache(aggregators, 0);
 
-        aggCache = buildAggrCache(innerScanner, type, groupBy, aggrs, filter, stats);
+        innerHasMore = buildAggrCache(aggCache, innerScanner, type, projector, filter, stats);
         stats.countOutputRow(aggCache.getSize());
         this.outerScanner = aggCache.getScanner(innerScanner);
 
-        AggregateRegionObserver.LOG.info("Kylin Coprocessor aggregation done: " + stats);
+        if (innerHasMore) {
+            stats.countPartialChunk();
+            AggregateRegionObserver.LOG.info("Kylin Coprocessor memory cap reached, emit partial aggregation of " + aggCache.getSize() + " rows; mem bytes = " + aggCache.getMemBytes());
+        } else {
+            AggregateRegionObserver.LOG.info("Kylin Coprocessor aggregation done: " + stats + "; mem bytes = " + aggCache.getMemBytes());
+        }
     }
 
-    @SuppressWarnings("rawtypes")
-    AggregationCache buildAggrCache(final RegionScanner innerScanner, SRowType type, SRowProjector projector, SRowAggregators aggregators, SRowFilter filter, Stats stats) throws IOException {
+    /**
+     * @return true if inner scanner has more rows, i.e. stopped early to emit a partial result
+     */
+    boolean buildAggrCache(IAggregationCache aggCache, final RegionScanner innerScanner, SRowType type, SRowProjector projector, SRowFilter filter, Stats stats) throws IOException {
 
-        AggregationCache aggCache = new AggregationCache(aggregators, 0);
-
-        SRowTuple tuple = new SRowTuple(type);
+        SRowFilterEvaluator filterEvaluator = filter == null ? SRowFilterEvaluator.ALWAYS_TRUE : filter.compile(type);
         boolean hasMore = true;
         List<Cell> results = new ArrayList<Cell>();
         while (hasMore) {
@@ -67,37 +121,48 @@ public class AggregationScanner implements RegionScanner {
                 stats.countInputRow(results);
 
             Cell cell = results.get(0);
-            tuple.setUnderlying(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength());
-            if (filter != null && filter.evaluate(tuple) == false)
+            if (filterEvaluator.evaluate(cell.getRowArray(), cell.getRowOffset()) == false)
                 continue;
 
             AggrKey aggKey = projector.getRowKey(results);
-            MeasureAggregator[] bufs = aggCache.getBuffer(aggKey);
-            aggregators.aggregate(bufs, results);
+            aggCache.aggregate(aggKey, results);
 
-            aggCache.checkMemoryUsage();
+            if (partialEmitMemCap > 0) {
+                if (aggCache.getMemBytes() > partialEmitMemCap)
+                    return hasMore;
+            } else {
+                aggCache.checkMemoryUsage();
+            }
         }
-        return aggCache;
+        return false;
     }
 
     @Override
     public boolean next(List<Cell> results) throws IOException {
-        return outerScanner.next(results);
+        boolean hasMore = outerScanner.next(results);
+        if (hasMore == false && innerHasMore) {
+            // the outer scan holds the region operation but not lock of inner scanner, see AggregateRegionObserver
+            synchronized (innerScanner) {
+                nextChunk();
+            }
+            hasMore = true;
+        }
+        return hasMore;
     }
 
     @Override
     public boolean next(List<Cell> result, int limit) throws IOException {
-        return outerScanner.next(result, limit);
+        return next(result);
     }
 
     @Override
     public boolean nextRaw(List<Cell> result) throws IOException {
-        return outerScanner.nextRaw(result);
+        return next(result);
     }
 
     @Override
     public boolean nextRaw(List<Cell> result, int limit) throws IOException {
-        return outerScanner.nextRaw(result, limit);
+        return next(result);
     }
 
     @Override
@@ -107,7 +172,7 @@ public class AggregationScanner implements RegionScanner {
 
     @Override
     public HRegionInfo getRegionInfo() {
-        return outerScanner.getRegionInfo();
+        return innerScanner.getRegionInfo();
     }
 
     @Override
@@ -134,6 +199,7 @@ public class AggregationScanner implements RegionScanner {
         long inputRows = 0;
         long inputBytes = 0;
         long outputRows = 0;
+        int partialChunks = 0;
 
         // have no outputBytes because that requires actual serialize all the
         // aggregator buffers
@@ -150,9 +216,13 @@ public class AggregationScanner implements RegionScanner {
             outputRows += rowCount;
         }
 
+        public void countPartialChunk() {
+            partialChunks++;
+        }
+
         public String toString() {
             double percent = (double) outputRows / inputRows * 100;
-            return Math.round(percent) + "% = " + outputRows + " (out rows) / " + inputRows + " (in rows); in bytes = " + inputBytes + "; est. out bytes = " + Math.round(inputBytes * percent / 100);
+            return Math.round(percent) + "% = " + outputRows + " (out rows) / " + inputRows + " (in rows); in bytes = " + inputBytes + "; est. out bytes = " + Math.round(inputBytes * percent / 100) + "; partial chunks = " + partialChunks;
         }
     }
 }
@@ -0,0 +1,499 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.HRegionInfo;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import com.kylinolap.cube.measure.HLLCAggregator;
+import com.kylinolap.cube.measure.MeasureAggregator;
+import com.kylinolap.metadata.model.cube.FunctionDesc;
+import com.kylinolap.storage.hbase.coprocessor.SRowProjector.AggrKey;
+
+/**
+ * An aggregation cache that avoids per-group objects. Group keys are copied into one byte arena and located by an open
+ * addressing hash table of int slots. SUM/MAX/MIN over long and double are accumulated inline in a long array; other
+ * measures (decimal, count distinct) fall back to MeasureAggregator objects. Groups are sorted only once, when the
+ * result is emitted, giving the same output as {@link AggregationCache}. A MAX/MIN slot that never got a value has no
+ * state to emit, the column of it is left out of the group, which reads as null like a missing cell.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class ArenaAggregationCache implements IAggregationCache {
+
+    static final int INIT_CAPACITY = 1024;
+
+    // kinds of inline measures
+    static final int LONG_SUM = 1;
+    static final int LONG_MAX = 2;
+    static final int LONG_MIN = 3;
+    static final int DOUBLE_SUM = 4;
+    static final int DOUBLE_MAX = 5;
+    static final int DOUBLE_MIN = 6;
+
+    private final SRowAggregators aggregators;
+    private final byte[] mask;
+    private final int keyLen;
+
+    private final int nMeasures;
+    private final int nInline;
+    private final int nObject;
+    private final int[] measureKinds; // inline kind of each measure, 0 for object
+    private final int[] measureSlots; // slot in inline or object states
+    private final String[] objectFuncNames;
+    private final String[] objectDataTypes;
+
+    // group data, indexed by group id
+    private int capacity;
+    private int size;
+    private byte[] keys;
+    private int[] hashes;
+    private long[] inlineStates;
+    private BitSet inlineValued; // MAX/MIN slots that got a value
+    private MeasureAggregator[] objectStates;
+
+    // open addressing hash table, holds (group id + 1), 0 means empty
+    private int[] table;
+
+    private final Object[] measureValues;
+    private long objectRowMemBytes;
+    private int sampledSize;
+
+    public ArenaAggregationCache(SRowProjector projector, SRowAggregators aggregators) {
+        this(projector, aggregators, INIT_CAPACITY);
+    }
+
+    public ArenaAggregationCache(SRowProjector projector, SRowAggregators aggregators, int initCapacity) {
+        this.aggregators = aggregators;
+        this.mask = projector.groupByMask;
+        this.keyLen = mask.length;
+
+        this.nMeasures = aggregators.getTotalMeasuresNum();
+        this.measureKinds = new int[nMeasures];
+        this.measureSlots = new int[nMeasures];
+        int inline = 0, object = 0;
+        for (int i = 0; i < nMeasures; i++) {
+            measureKinds[i] = inlineKindOf(aggregators.getFuncName(i), aggregators.getDataType(i));
+            measureSlots[i] = measureKinds[i] == 0 ? object++ : inline++;
+        }
+        this.nInline = inline;
+        this.nObject = object;
+        this.objectFuncNames = new String[nObject];
+        this.objectDataTypes = new String[nObject];
+        for (int i = 0; i < nMeasures; i++) {
+            if (measureKinds[i] == 0) {
+                objectFuncNames[measureSlots[i]] = aggregators.getFuncName(i);
+                objectDataTypes[measureSlots[i]] = aggregators.getDataType(i);
+            }
+        }
+
+        this.capacity = Math.max(16, initCapacity);
+        this.size = 0;
+        this.keys = new byte[capacity * keyLen];
+        this.hashes = new int[capacity];
+        this.inlineStates = new long[capacity * nInline];
+        this.inlineValued = new BitSet(capacity * nInline);
+        this.objectStates = new MeasureAggregator[capacity * nObject];
+        this.table = new int[tableSizeFor(capacity)];
+
+        this.measureValues = new Object[nMeasures];
+    }
+
+    static int inlineKindOf(String funcName, String dataType) {
+        boolean isSum = FunctionDesc.FUNC_SUM.equalsIgnoreCase(funcName) || FunctionDesc.FUNC_COUNT.equalsIgnoreCase(funcName);
+        boolean isMax = FunctionDesc.FUNC_MAX.equalsIgnoreCase(funcName);
+        boolean isMin = FunctionDesc.FUNC_MIN.equalsIgnoreCase(funcName);
+        if (MeasureAggregator.isInteger(dataType)) {
+            return isSum ? LONG_SUM : isMax ? LONG_MAX : isMin ? LONG_MIN : 0;
+        } else if (MeasureAggregator.isDouble(dataType)) {
+            return isSum ? DOUBLE_SUM : isMax ? DOUBLE_MAX : isMin ? DOUBLE_MIN : 0;
+        } else {
+            return 0;
+        }
+    }
+
+    private static boolean isMaxOrMin(int kind) {
+        return kind == LONG_MAX || kind == LONG_MIN || kind == DOUBLE_MAX || kind == DOUBLE_MIN;
+    }
+
+    // keep load factor under 0.5
+    private static int tableSizeFor(int capacity) {
+        return Integer.highestOneBit(capacity - 1) << 2;
+    }
+
+    @Override
+    public void aggregate(AggrKey aggkey, List<Cell> rowCells) {
+        int groupId = findOrCreateGroup(aggkey.get(), aggkey.offset());
+
+        aggregators.decodeValues(rowCells, measureValues, true);
+        int inlineBase = groupId * nInline;
+        int objectBase = groupId * nObject;
+        for (int i = 0; i < nMeasures; i++) {
+            Object value = measureValues[i];
+            if (value == null)
+                continue;
+
+            int slot = measureSlots[i];
+            long state;
+            switch (measureKinds[i]) {
+            case LONG_SUM:
+                inlineStates[inlineBase + slot] += ((LongWritable) value).get();
+                break;
+            case LONG_MAX:
+                inlineValued.set(inlineBase + slot);
+                state = ((LongWritable) value).get();
+                if (state > inlineStates[inlineBase + slot])
+                    inlineStates[inlineBase + slot] = state;
+                break;
+            case LONG_MIN:
+                inlineValued.set(inlineBase + slot);
+                state = ((LongWritable) value).get();
+                if (state < inlineStates[inlineBase + slot])
+                    inlineStates[inlineBase + slot] = state;
+                break;
+            case DOUBLE_SUM:
+                inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(Double.longBitsToDouble(inlineStates[inlineBase + slot]) + ((DoubleWritable) value).get());
+                break;
+            case DOUBLE_MAX:
+                inlineValued.set(inlineBase + slot);
+                if (((DoubleWritable) value).get() > Double.longBitsToDouble(inlineStates[inlineBase + slot]))
+                    inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(((DoubleWritable) value).get());
+                break;
+            case DOUBLE_MIN:
+                inlineValued.set(inlineBase + slot);
+                if (((DoubleWritable) value).get() < Double.longBitsToDouble(inlineStates[inlineBase + slot]))
+                    inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(((DoubleWritable) value).get());
+                break;
+            default:
+                if (value instanceof ByteBuffer)
+                    ((HLLCAggregator) objectStates[objectBase + slot]).aggregate((ByteBuffer) value);
+                else
+                    objectStates[objectBase + slot].aggregate(value);
+            }
+        }
+    }
+
+    private int findOrCreateGroup(byte[] data, int offset) {
+        int hash = hash(data, offset);
+        int tableMask = table.length - 1;
+        int pos = hash & tableMask;
+        while (true) {
+            int groupId = table[pos] - 1;
+            if (groupId < 0)
+                break;
+            if (hashes[groupId] == hash && keyEquals(groupId, data, offset))
+                return groupId;
+            pos = (pos + 1) & tableMask;
+        }
+
+        if (size == capacity) {
+            grow();
+            return findOrCreateGroup(data, offset);
+        }
+
+        int groupId = size++;
+        System.arraycopy(data, offset, keys, groupId * keyLen, keyLen);
+        hashes[groupId] = hash;
+        initStates(groupId);
+        table[pos] = groupId + 1;
+        return groupId;
+    }
+
+    private void initStates(int groupId) {
+        int inlineBase = groupId * nInline;
+        int objectBase = groupId * nObject;
+        for (int i = 0; i < nMeasures; i++) {
+            int slot = measureSlots[i];
+            switch (measureKinds[i]) {
+            case LONG_SUM:
+                inlineStates[inlineBase + slot] = 0L;
+                break;
+            case LONG_MAX:
+                inlineStates[inlineBase + slot] = Long.MIN_VALUE;
+                break;
+            case LONG_MIN:
+                inlineStates[inlineBase + slot] = Long.MAX_VALUE;
+                break;
+            case DOUBLE_SUM:
+                inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(0.0);
+                break;
+            case DOUBLE_MAX:
+                inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(Double.NEGATIVE_INFINITY);
+                break;
+            case DOUBLE_MIN:
+                inlineStates[inlineBase + slot] = Double.doubleToRawLongBits(Double.POSITIVE_INFINITY);
+                break;
+            default:
+                objectStates[objectBase + slot] = MeasureAggregator.create(objectFuncNames[slot], objectDataTypes[slot]);
+            }
+        }
+    }
+
+    private void grow() {
+        capacity = capacity * 2;
+        keys = Arrays.copyOf(keys, capacity * keyLen);
+        hashes = Arrays.copyOf(hashes, capacity);
+        inlineStates = Arrays.copyOf(inlineStates, capacity * nInline);
+        objectStates = Arrays.copyOf(objectStates, capacity * nObject);
+
+        table = new int[tableSizeFor(capacity)];
+        int tableMask = table.length - 1;
+        for (int groupId = 0; groupId < size; groupId++) {
+            int pos = hashes[groupId] & tableMask;
+            while (table[pos] != 0)
+                pos = (pos + 1) & tableMask;
+            table[pos] = groupId + 1;
+        }
+    }
+
+    // hash of the group by bytes only, consistent with AggrKey.equals()
+    private int hash(byte[] data, int offset) {
+        int h = 1;
+        for (int i = 0, j = offset; i < keyLen; i++, j++) {
+            h = 31 * h + (data[j] & mask[i]);
+        }
+        // spread the bits, low bits decide the slot
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private boolean keyEquals(int groupId, byte[] data, int offset) {
+        for (int i = 0, j = offset, k = groupId * keyLen; i < keyLen; i++, j++, k++) {
+            if (((data[j] ^ keys[k]) & mask[i]) != 0)
+                return false;
+        }
+        return true;
+    }
+
+    private int compareKeys(int groupId1, int groupId2) {
+        for (int i = 0, j = groupId1 * keyLen, k = groupId2 * keyLen; i < keyLen; i++, j++, k++) {
+            int comp = (keys[j] & mask[i] & 0xff) - (keys[k] & mask[i] & 0xff);
+            if (comp != 0)
+                return comp;
+        }
+        return 0;
+    }
+
+    private int[] sortedGroups() {
+        int[] groups = new int[size];
+        for (int i = 0; i < size; i++)
+            groups[i] = i;
+        mergeSort(groups, new int[size], 0, size);
+        return groups;
+    }
+
+    private void mergeSort(int[] a, int[] aux, int from, int to) {
+        if (to - from < 2)
+            return;
+        int mid = (from + to) >>> 1;
+        mergeSort(a, aux, from, mid);
+        mergeSort(a, aux, mid, to);
+        if (compareKeys(a[mid - 1], a[mid]) <= 0)
+            return;
+
+        System.arraycopy(a, from, aux, from, to - from);
+        for (int i = from, l = from, r = mid; i < to; i++) {
+            if (r >= to || (l < mid && compareKeys(aux[l], aux[r]) <= 0))
+                a[i] = aux[l++];
+            else
+                a[i] = aux[r++];
+        }
+    }
+
+    @Override
+    public long getSize() {
+        return size;
+    }
+
+    @Override
+    public long getMemBytes() {
+        // object measures are sampled on the first group each time groups
+        // double, like AggregationCache does
+        if (nObject > 0 && size > 0 && size >= sampledSize * 2) {
+            sampledSize = size;
+            long bytes = 0;
+            for (int i = 0; i < nObject; i++) {
+                bytes += 16 + Math.max(0, objectStates[i].getMemBytes());
+            }
+            objectRowMemBytes = Math.max(objectRowMemBytes, bytes);
+        }
+        return keys.length //
+                + 4L * hashes.length //
+                + 8L * inlineStates.length //
+                + inlineValued.size() / 8 //
+                + 4L * objectStates.length //
+                + 4L * table.length //
+                + objectRowMemBytes * size;
+    }
+
+    @Override
+    public void checkMemoryUsage() {
+        long memUsage = getMemBytes();
+        if (memUsage > AggregationCache.MEMORY_USAGE_CAP) {
+            throw new RuntimeException("Kylin coprocess memory usage goes beyond cap, " + memUsage + " bytes for " + size + " groups > " + AggregationCache.MEMORY_USAGE_CAP + ". Abord coprocessor.");
+        }
+    }
+
+    @Override
+    public RegionScanner getScanner(RegionScanner innerScanner) {
+        return new ArenaRegionScanner(innerScanner);
+    }
+
+    private class ArenaRegionScanner implements RegionScanner {
+
+        private final RegionScanner innerScanner;
+        private final int[] groups;
+        private final Object[] states;
+        private final int[] measureHCols;
+        private final boolean[] hColValued;
+        private int cursor;
+
+        public ArenaRegionScanner(RegionScanner innerScanner) {
+            this.innerScanner = innerScanner;
+            this.groups = sortedGroups();
+            this.states = new Object[nMeasures];
+            for (int i = 0; i < nMeasures; i++) {
+                if (measureKinds[i] >= DOUBLE_SUM)
+                    states[i] = new DoubleWritable();
+                else if (measureKinds[i] > 0)
+                    states[i] = new LongWritable();
+            }
+            this.measureHCols = new int[nMeasures];
+            for (int ci = 0, i = 0; ci < aggregators.getHColsNum(); ci++) {
+                for (int j = 0; j < aggregators.hcols[ci].nMeasures; j++)
+                    measureHCols[i++] = ci;
+            }
+            this.hColValued = new boolean[aggregators.getHColsNum()];
+            this.cursor = 0;
+        }
+
+        @Override
+        public boolean next(List<Cell> results) throws IOException {
+            boolean hasMore = false;
+            if (cursor < groups.length) {
+                makeCells(groups[cursor++], results);
+                hasMore = cursor < groups.length;
+            }
+            return hasMore;
+        }
+
+        private void makeCells(int groupId, List<Cell> results) {
+            byte[][] families = aggregators.getHColFamilies();
+            byte[][] qualifiers = aggregators.getHColQualifiers();
+            int nHCols = aggregators.getHColsNum();
+
+            int inlineBase = groupId * nInline;
+            int objectBase = groupId * nObject;
+            for (int i = 0; i < nHCols; i++)
+                hColValued[i] = true;
+            for (int i = 0; i < nMeasures; i++) {
+                int slot = measureSlots[i];
+                if (isMaxOrMin(measureKinds[i]) && inlineValued.get(inlineBase + slot) == false)
+                    hColValued[measureHCols[i]] = false;
+                else if (measureKinds[i] == 0)
+                    states[i] = objectStates[objectBase + slot].getState();
+                else if (measureKinds[i] >= DOUBLE_SUM)
+                    ((DoubleWritable) states[i]).set(Double.longBitsToDouble(inlineStates[inlineBase + slot]));
+                else
+                    ((LongWritable) states[i]).set(inlineStates[inlineBase + slot]);
+            }
+            ByteBuffer[] rowValues = aggregators.getHColValues(states);
+
+            int keyOffset = groupId * keyLen;
+            if (nHCols == 0) {
+                Cell keyValue = new KeyValue(keys, keyOffset, keyLen, //
+                        null, 0, 0, //
+                        null, 0, 0, //
+                        HConstants.LATEST_TIMESTAMP, Type.Put, //
+                        null, 0, 0);
+                results.add(keyValue);
+            } else {
+                for (int i = 0; i < nHCols; i++) {
+                    if (hColValued[i] == false)
+                        continue;
+                    Cell keyValue = new KeyValue(keys, keyOffset, keyLen, //
+                            families[i], 0, families[i].length, //
+                            qualifiers[i], 0, qualifiers[i].length, //
+                            HConstants.LATEST_TIMESTAMP, Type.Put, //
+                            rowValues[i].array(), 0, rowValues[i].position());
+                    results.add(keyValue);
+                }
+            }
+        }
+
+        @Override
+        public boolean next(List<Cell> result, int limit) throws IOException {
+            return next(result);
+        }
+
+        @Override
+        public boolean nextRaw(List<Cell> result) throws IOException {
+            return next(result);
+        }
+
+        @Override
+        public boolean nextRaw(List<Cell> result, int limit) throws IOException {
+            return next(result);
+        }
+
+        @Override
+        public void close() throws IOException {
+            innerScanner.close();
+        }
+
+        @Override
+        public HRegionInfo getRegionInfo() {
+            return innerScanner.getRegionInfo();
+        }
+
+        @Override
+        public long getMaxResultSize() {
+            return Long.MAX_VALUE;
+        }
+
+        @Override
+        public boolean isFilterDone() throws IOException {
+            return false;
+        }
+
+        @Override
+        public boolean reseek(byte[] row) throws IOException {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public long getMvccReadPoint() {
+            return Long.MAX_VALUE;
+        }
+    }
+
+}
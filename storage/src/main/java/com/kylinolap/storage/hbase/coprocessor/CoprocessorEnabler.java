@@ -30,6 +30,7 @@ import org.slf4j.LoggerFactory;
 
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.kylinolap.common.KylinConfig;
 import com.kylinolap.cube.CubeInstance;
 import com.kylinolap.cube.CubeSegment;
 import com.kylinolap.cube.cuboid.Cuboid;
@@ -61,10 +62,17 @@ public class CoprocessorEnabler {
         SRowFilter filter = SRowFilter.fromFilter(segment, tupleFiler);
         SRowProjector projector = SRowProjector.fromColumns(segment, cuboid, groupBy);
         SRowAggregators aggrs = SRowAggregators.fromValuDecoders(rowValueDecoders);
+        KylinConfig config = KylinConfig.getInstanceFromEnv();
+        boolean arenaAggregation = config.isCoprocessorArenaAggregationEnabled();
+        boolean partialEmit = config.isCoprocessorPartialEmitEnabled();
+        SRowTopN topN = null;
+        if (context.isTopNEnabled()) {
+            topN = SRowTopN.fromSort(aggrs, rowValueDecoders, context.getSortMeasures().get(0), context.getSortOrders().get(0), context.getLimit());
+        }
 
         if (DEBUG_LOCAL_COPROCESSOR) {
             RegionScanner innerScanner = new RegionScannerAdapter(table.getScanner(scan));
-            AggregationScanner aggrScanner = new AggregationScanner(type, filter, projector, aggrs, innerScanner);
+            AggregationScanner aggrScanner = new AggregationScanner(type, filter, projector, aggrs, innerScanner, arenaAggregation, partialEmit ? AggregationCache.MEMORY_USAGE_CAP : 0, topN);
             return new ResultScannerAdapter(aggrScanner);
         } else {
             scan.setAttribute(AggregateRegionObserver.COPROCESSOR_ENABLE, new byte[] { 0x01 });
@@ -72,6 +80,11 @@ public class CoprocessorEnabler {
             scan.setAttribute(AggregateRegionObserver.PROJECTOR, SRowProjector.serialize(projector));
             scan.setAttribute(AggregateRegionObserver.AGGREGATORS, SRowAggregators.serialize(aggrs));
             scan.setAttribute(AggregateRegionObserver.FILTER, SRowFilter.serialize(filter));
+            scan.setAttribute(AggregateRegionObserver.ARENA_AGGREGATION, new byte[] { (byte) (arenaAggregation ? 0x01 : 0x00) });
+            scan.setAttribute(AggregateRegionObserver.PARTIAL_EMIT, new byte[] { (byte) (partialEmit ? 0x01 : 0x00) });
+            if (topN != null) {
+                scan.setAttribute(AggregateRegionObserver.TOP_N, SRowTopN.serialize(topN));
+            }
             return table.getScanner(scan);
         }
     }
@@ -99,6 +112,11 @@ public class CoprocessorEnabler {
             return cubeOverride.booleanValue();
         }
 
+        if (context.isTopNEnabled()) {
+            logger.info("Coprocessor is enabled to keep the top " + context.getLimit() + " groups of each region");
+            return true;
+        }
+
         if (RowValueDecoder.hasMemHungryCountDistinct(rowValueDecoders)) {
             logger.info("Coprocessor is disabled because there is memory hungry count distinct");
             return false;
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+
+import com.kylinolap.storage.hbase.coprocessor.SRowProjector.AggrKey;
+
+/**
+ * The aggregation buffer of coprocessor, groups input rows by key and emits the aggregated rows in key order.
+ */
+public interface IAggregationCache {
+
+    public void aggregate(AggrKey key, List<Cell> rowCells);
+
+    public long getSize();
+
+    // memory consumption of the buffer in bytes
+    public long getMemBytes();
+
+    // throws exception if memory consumption goes beyond cap
+    public void checkMemoryUsage();
+
+    public RegionScanner getScanner(RegionScanner innerScanner);
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.FilterBase;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+
+import com.kylinolap.common.util.BytesUtil;
+
+/**
+ * A skip-scan filter that includes rows falling in any of a list of sorted,
+ * disjoint row key ranges [start, stop), and seeks directly to the start of the
+ * next range otherwise, such that one scan covers many ranges without reading
+ * the gaps in between.
+ *
+ * Being a custom filter, the class must be on the classpath of region servers
+ * (e.g. via hbase.dynamic.jars.dir) to deserialize.
+ */
+public class MultiRangeRowFilter extends FilterBase {
+
+    private final byte[][] starts;
+    private final byte[][] stops;
+
+    private int current; // ranges before current are all passed
+    private boolean done;
+    private byte[] nextHint;
+
+    public MultiRangeRowFilter(List<Pair<byte[], byte[]>> ranges) {
+        int n = ranges.size();
+        this.starts = new byte[n][];
+        this.stops = new byte[n][];
+        for (int i = 0; i < n; i++) {
+            starts[i] = ranges.get(i).getFirst();
+            stops[i] = ranges.get(i).getSecond();
+            if (i > 0 && Bytes.compareTo(stops[i - 1], starts[i]) > 0)
+                throw new IllegalArgumentException("Ranges must be sorted and disjoint");
+        }
+    }
+
+    @Override
+    public ReturnCode filterKeyValue(Cell cell) {
+        byte[] row = cell.getRowArray();
+        int offset = cell.getRowOffset();
+        int length = cell.getRowLength();
+
+        // rows come in ascending order, move forward past the ranges behind
+        while (current < stops.length && Bytes.compareTo(stops[current], 0, stops[current].length, row, offset, length) <= 0) {
+            current++;
+        }
+        if (current >= stops.length) {
+            done = true;
+            return ReturnCode.NEXT_ROW;
+        }
+        if (Bytes.compareTo(starts[current], 0, starts[current].length, row, offset, length) <= 0) {
+            return ReturnCode.INCLUDE;
+        }
+        nextHint = starts[current];
+        return ReturnCode.SEEK_NEXT_USING_HINT;
+    }
+
+    @Override
+    public Cell getNextCellHint(Cell currentCell) {
+        return KeyValue.createFirstOnRow(nextHint);
+    }
+
+    @Override
+    public boolean filterAllRemaining() {
+        return done;
+    }
+
+    @Override
+    public void reset() {
+        nextHint = null;
+    }
+
+    public int getRangeCount() {
+        return starts.length;
+    }
+
+    @Override
+    public byte[] toByteArray() {
+        int size = 9; // max length of a VInt
+        for (int i = 0; i < starts.length; i++) {
+            size += 18 + starts[i].length + stops[i].length;
+        }
+        ByteBuffer buf = ByteBuffer.allocate(size);
+        BytesUtil.writeVInt(starts.length, buf);
+        for (int i = 0; i < starts.length; i++) {
+            BytesUtil.writeByteArray(starts[i], buf);
+            BytesUtil.writeByteArray(stops[i], buf);
+        }
+        return BytesUtil.subarray(buf.array(), 0, buf.position());
+    }
+
+    public static MultiRangeRowFilter parseFrom(byte[] bytes) throws DeserializationException {
+        try {
+            ByteBuffer buf = ByteBuffer.wrap(bytes);
+            int n = BytesUtil.readVInt(buf);
+            List<Pair<byte[], byte[]>> ranges = new ArrayList<Pair<byte[], byte[]>>(n);
+            for (int i = 0; i < n; i++) {
+                byte[] start = BytesUtil.readByteArray(buf);
+                byte[] stop = BytesUtil.readByteArray(buf);
+                ranges.add(new Pair<byte[], byte[]>(start, stop));
+            }
+            return new MultiRangeRowFilter(ranges);
+        } catch (RuntimeException e) {
+            throw new DeserializationException(e);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "MultiRangeRowFilter [ranges=" + starts.length + ", first=" + (starts.length == 0 ? "" : Bytes.toStringBinary(starts[0])) + ", last=" + (stops.length == 0 ? "" : Bytes.toStringBinary(stops[stops.length - 1])) + "]";
+    }
+}
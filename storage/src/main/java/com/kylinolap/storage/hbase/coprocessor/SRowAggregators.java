@@ -29,8 +29,11 @@ import com.kylinolap.common.util.BytesSerializer;
 import com.kylinolap.common.util.BytesUtil;
 import com.kylinolap.cube.kv.RowConstants;
 import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.cube.measure.HLLCAggregator;
+import com.kylinolap.cube.measure.HLLCSerializer;
 import com.kylinolap.cube.measure.MeasureAggregator;
 import com.kylinolap.cube.measure.MeasureCodec;
+import com.kylinolap.cube.measure.MeasureSerializer;
 import com.kylinolap.metadata.model.cube.HBaseColumnDesc;
 import com.kylinolap.metadata.model.cube.MeasureDesc;
 
@@ -172,9 +175,61 @@ public class SRowAggregators {
 
             ByteBuffer input = ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
 
-            col.measureCodec.decode(input, col.measureValues);
-            for (int j = 0; j < col.nMeasures; j++)
-                measureAggrs[i++].aggregate(col.measureValues[j]);
+            for (int j = 0; j < col.nMeasures; j++) {
+                MeasureAggregator aggr = measureAggrs[i++];
+                MeasureSerializer serializer = col.measureCodec.getSerializer(j);
+                if (serializer instanceof HLLCSerializer) {
+                    // merge on the serialized registers, no counter decoded
+                    ((HLLCAggregator) aggr).aggregate(input);
+                } else {
+                    aggr.aggregate(serializer.deserialize(input));
+                }
+            }
+        }
+    }
+
+    /**
+     * Decode measure values of a row, in the same order as createBuffer(). Values of a missing cell are set to null.
+     * Note the returned objects may be reused by the next call.
+     */
+    public void decodeValues(List<Cell> rowCells, Object[] result) {
+        decodeValues(rowCells, result, false);
+    }
+
+    /**
+     * Like decodeValues(), but when hllcAsBytes, a count distinct value is left serialized, as a ByteBuffer positioned
+     * at the counter, for HLLCAggregator.aggregate(ByteBuffer).
+     */
+    public void decodeValues(List<Cell> rowCells, Object[] result, boolean hllcAsBytes) {
+        int i = 0;
+        for (int ci = 0; ci < nHCols; ci++) {
+            HCol col = hcols[ci];
+            Cell cell = findCell(col, rowCells);
+
+            if (cell == null) {
+                for (int j = 0; j < col.nMeasures; j++)
+                    result[i++] = null;
+                continue;
+            }
+
+            ByteBuffer input = ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength());
+
+            if (hllcAsBytes == false) {
+                col.measureCodec.decode(input, col.measureValues);
+                for (int j = 0; j < col.nMeasures; j++)
+                    result[i++] = col.measureValues[j];
+                continue;
+            }
+
+            for (int j = 0; j < col.nMeasures; j++) {
+                MeasureSerializer serializer = col.measureCodec.getSerializer(j);
+                if (serializer instanceof HLLCSerializer) {
+                    result[i++] = input.duplicate();
+                    input.position(input.position() + ((HLLCSerializer) serializer).peekLength(input));
+                } else {
+                    result[i++] = serializer.deserialize(input);
+                }
+            }
         }
     }
 
@@ -220,12 +275,48 @@ public class SRowAggregators {
                 col.measureValues[j] = aggrs[i++].getState();
 
             col.measureBuf.clear();
-            col.measureCodec.encode(col.measureValues, col.measureBuf);
+            col.measureBuf = col.measureCodec.encode(col.measureValues, col.measureBuf);
             hColValues[ci] = col.measureBuf;
         }
         return hColValues;
     }
 
+    public ByteBuffer[] getHColValues(Object[] measureStates) {
+        int i = 0;
+        for (int ci = 0; ci < nHCols; ci++) {
+            HCol col = hcols[ci];
+            for (int j = 0; j < col.nMeasures; j++)
+                col.measureValues[j] = measureStates[i++];
+
+            col.measureBuf.clear();
+            col.measureBuf = col.measureCodec.encode(col.measureValues, col.measureBuf);
+            hColValues[ci] = col.measureBuf;
+        }
+        return hColValues;
+    }
+
+    public int getTotalMeasuresNum() {
+        return nTotalMeasures;
+    }
+
+    public String getFuncName(int measureIdx) {
+        for (HCol col : hcols) {
+            if (measureIdx < col.nMeasures)
+                return col.funcNames[measureIdx];
+            measureIdx -= col.nMeasures;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
+    public String getDataType(int measureIdx) {
+        for (HCol col : hcols) {
+            if (measureIdx < col.nMeasures)
+                return col.dataTypes[measureIdx];
+            measureIdx -= col.nMeasures;
+        }
+        throw new IndexOutOfBoundsException();
+    }
+
     // ============================================================================
 
     public static class HCol {
@@ -237,7 +328,7 @@ public class SRowAggregators {
 
         final MeasureCodec measureCodec;
         final Object[] measureValues;
-        final ByteBuffer measureBuf;
+        ByteBuffer measureBuf;
 
         public HCol(byte[] bFamily, byte[] bQualifier, String[] funcNames, String[] dataTypes) {
             this.family = bFamily;
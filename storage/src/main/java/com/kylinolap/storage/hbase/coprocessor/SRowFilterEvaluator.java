@@ -0,0 +1,447 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+
+import com.kylinolap.common.util.BytesUtil;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.storage.filter.ColumnTupleFilter;
+import com.kylinolap.storage.filter.CompareTupleFilter;
+import com.kylinolap.storage.filter.ConstantTupleFilter;
+import com.kylinolap.storage.filter.DynamicTupleFilter;
+import com.kylinolap.storage.filter.LogicalTupleFilter;
+import com.kylinolap.storage.filter.TupleFilter;
+import com.kylinolap.storage.filter.TupleFilter.FilterOperatorEnum;
+
+/**
+ * A filter compiled against a row type, evaluates directly on row key bytes. Column values are compared as fixed
+ * offset unsigned bytes, IN lists are looked up in a bitset or a sorted array, and AND/OR short-circuit. There is no
+ * object creation per row.
+ * <p>
+ * The result is the same as evaluating the TupleFilter on a {@link SRowTuple}, because the ISO-8859-1 string of a
+ * dictionary ID orders and equals as its unsigned bytes. Filters that can't be compiled are evaluated the old way on a
+ * SRowTuple.
+ */
+public abstract class SRowFilterEvaluator {
+
+    public static SRowFilterEvaluator compile(TupleFilter filter, SRowType type) {
+        if (filter == null)
+            return ALWAYS_TRUE;
+
+        SRowFilterEvaluator result = compileNode(filter, type);
+        return result == null ? new TupleEvaluator(filter, type) : result;
+    }
+
+    // returns null if the filter can't be compiled
+    private static SRowFilterEvaluator compileNode(TupleFilter filter, SRowType type) {
+        if (filter instanceof ConstantTupleFilter) {
+            return filter.getValues().isEmpty() ? ALWAYS_FALSE : ALWAYS_TRUE;
+        } else if (filter instanceof LogicalTupleFilter) {
+            List<? extends TupleFilter> children = filter.getChildren();
+            SRowFilterEvaluator[] compiled = new SRowFilterEvaluator[children.size()];
+            for (int i = 0; i < compiled.length; i++) {
+                compiled[i] = compileNode(children.get(i), type);
+                if (compiled[i] == null)
+                    return null;
+            }
+            switch (filter.getOperator()) {
+            case AND:
+                return new AndEvaluator(compiled);
+            case OR:
+                return new OrEvaluator(compiled);
+            case NOT:
+                return new NotEvaluator(compiled[0]);
+            default:
+                return null;
+            }
+        } else if (filter instanceof CompareTupleFilter) {
+            return compileCompare((CompareTupleFilter) filter, type);
+        } else {
+            return null;
+        }
+    }
+
+    private static SRowFilterEvaluator compileCompare(CompareTupleFilter compf, SRowType type) {
+        // only COLUMN {op} CONST is supported, same as CompareTupleFilter.evaluate()
+        TblColRef column = null;
+        for (TupleFilter child : compf.getChildren()) {
+            if (child instanceof ColumnTupleFilter) {
+                column = ((ColumnTupleFilter) child).getColumn();
+            } else if ((child instanceof ConstantTupleFilter) == false && (child instanceof DynamicTupleFilter) == false) {
+                return null;
+            }
+        }
+        Integer colIdx = column == null ? null : type.columnIdxMap.get(column);
+        Collection<String> condValues = compf.getValues();
+        if (colIdx == null || condValues.isEmpty())
+            return null;
+
+        byte[] nullBytes = compf.getNullString() == null ? null : toBytes(compf.getNullString());
+        byte[][] condBytes = new byte[condValues.size()][];
+        int i = 0;
+        for (String v : condValues) {
+            condBytes[i++] = toBytes(v);
+        }
+        if (nullBytes == null && compf.getNullString() != null)
+            return null;
+        for (byte[] b : condBytes) {
+            if (b == null)
+                return null;
+        }
+
+        int offset = type.columnOffsets[colIdx];
+        int length = type.columnSizes[colIdx];
+        FilterOperatorEnum op = compf.getOperator();
+
+        // CompareTupleFilter compares to the first value and returns false if it is null
+        if (nullBytes != null && Arrays.equals(condBytes[0], nullBytes)) {
+            return op == FilterOperatorEnum.ISNULL ? new IsNullEvaluator(offset, length, nullBytes) : ALWAYS_FALSE;
+        }
+
+        SRowFilterEvaluator valueEvaluator;
+        switch (op) {
+        case EQ:
+        case NEQ:
+        case LT:
+        case LTE:
+        case GT:
+        case GTE:
+            valueEvaluator = new CompareEvaluator(op, offset, length, condBytes[0]);
+            break;
+        case IN:
+            valueEvaluator = newInEvaluator(offset, length, condBytes);
+            break;
+        default:
+            // including ISNULL, which is true only when value is null
+            valueEvaluator = ALWAYS_FALSE;
+        }
+
+        if (nullBytes == null) {
+            return valueEvaluator;
+        } else if (op == FilterOperatorEnum.ISNULL) {
+            return new IsNullEvaluator(offset, length, nullBytes);
+        } else {
+            return new IsNotNullAndEvaluator(offset, length, nullBytes, valueEvaluator);
+        }
+    }
+
+    private static SRowFilterEvaluator newInEvaluator(int offset, int length, byte[][] condBytes) {
+        // values of a different length never equal
+        List<byte[]> values = new ArrayList<byte[]>(condBytes.length);
+        for (byte[] b : condBytes) {
+            if (b.length == length)
+                values.add(b);
+        }
+
+        if (values.isEmpty()) {
+            return ALWAYS_FALSE;
+        } else if (length <= BitSetInEvaluator.MAX_LENGTH) {
+            return new BitSetInEvaluator(offset, length, values);
+        } else if (length <= 8) {
+            return new LongInEvaluator(offset, length, values);
+        } else {
+            return new BytesInEvaluator(offset, length, values);
+        }
+    }
+
+    // dictionary ID string is ISO-8859-1 encoded, see SRowTuple.dictIdToString()
+    private static byte[] toBytes(String dictIdString) {
+        byte[] result = new byte[dictIdString.length()];
+        for (int i = 0; i < result.length; i++) {
+            char c = dictIdString.charAt(i);
+            if (c > 0xff)
+                return null;
+            result[i] = (byte) c;
+        }
+        return result;
+    }
+
+    private static boolean equalsBytes(byte[] row, int offset, int length, byte[] value) {
+        if (value.length != length)
+            return false;
+        for (int i = 0; i < length; i++) {
+            if (row[offset + i] != value[i])
+                return false;
+        }
+        return true;
+    }
+
+    // same as String.compareTo() on the ISO-8859-1 strings
+    private static int compareBytes(byte[] row, int offset, int length, byte[] value) {
+        int n = Math.min(length, value.length);
+        for (int i = 0; i < n; i++) {
+            int comp = BytesUtil.compareByteUnsigned(row[offset + i], value[i]);
+            if (comp != 0)
+                return comp;
+        }
+        return length - value.length;
+    }
+
+    private static long toLong(byte[] bytes, int offset, int length) {
+        long v = 0;
+        for (int i = 0; i < length; i++) {
+            v = (v << 8) | (bytes[offset + i] & 0xff);
+        }
+        return v;
+    }
+
+    // ============================================================================
+
+    /**
+     * @param row
+     *            the row key bytes, columns are located by the offsets of row type
+     */
+    public abstract boolean evaluate(byte[] row, int offset);
+
+    public static final SRowFilterEvaluator ALWAYS_TRUE = new SRowFilterEvaluator() {
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            return true;
+        }
+    };
+
+    public static final SRowFilterEvaluator ALWAYS_FALSE = new SRowFilterEvaluator() {
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            return false;
+        }
+    };
+
+    private static class AndEvaluator extends SRowFilterEvaluator {
+        final SRowFilterEvaluator[] children;
+
+        AndEvaluator(SRowFilterEvaluator[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].evaluate(row, offset) == false)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private static class OrEvaluator extends SRowFilterEvaluator {
+        final SRowFilterEvaluator[] children;
+
+        OrEvaluator(SRowFilterEvaluator[] children) {
+            this.children = children;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            for (int i = 0; i < children.length; i++) {
+                if (children[i].evaluate(row, offset))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    private static class NotEvaluator extends SRowFilterEvaluator {
+        final SRowFilterEvaluator child;
+
+        NotEvaluator(SRowFilterEvaluator child) {
+            this.child = child;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            return !child.evaluate(row, offset);
+        }
+    }
+
+    private static class IsNullEvaluator extends SRowFilterEvaluator {
+        final int colOffset;
+        final int colLength;
+        final byte[] nullBytes;
+
+        IsNullEvaluator(int colOffset, int colLength, byte[] nullBytes) {
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.nullBytes = nullBytes;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            return equalsBytes(row, offset + colOffset, colLength, nullBytes);
+        }
+    }
+
+    // a null value fails any compare other than ISNULL
+    private static class IsNotNullAndEvaluator extends SRowFilterEvaluator {
+        final int colOffset;
+        final int colLength;
+        final byte[] nullBytes;
+        final SRowFilterEvaluator valueEvaluator;
+
+        IsNotNullAndEvaluator(int colOffset, int colLength, byte[] nullBytes, SRowFilterEvaluator valueEvaluator) {
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.nullBytes = nullBytes;
+            this.valueEvaluator = valueEvaluator;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            if (equalsBytes(row, offset + colOffset, colLength, nullBytes))
+                return false;
+            return valueEvaluator.evaluate(row, offset);
+        }
+    }
+
+    private static class CompareEvaluator extends SRowFilterEvaluator {
+        final FilterOperatorEnum op;
+        final int colOffset;
+        final int colLength;
+        final byte[] value;
+
+        CompareEvaluator(FilterOperatorEnum op, int colOffset, int colLength, byte[] value) {
+            this.op = op;
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.value = value;
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            int comp = compareBytes(row, offset + colOffset, colLength, value);
+            switch (op) {
+            case EQ:
+                return comp == 0;
+            case NEQ:
+                return comp != 0;
+            case LT:
+                return comp < 0;
+            case LTE:
+                return comp <= 0;
+            case GT:
+                return comp > 0;
+            case GTE:
+                return comp >= 0;
+            default:
+                return false;
+            }
+        }
+    }
+
+    private static class BitSetInEvaluator extends SRowFilterEvaluator {
+        static final int MAX_LENGTH = 2; // 8 KB bitset at most
+
+        final int colOffset;
+        final int colLength;
+        final long[] bits;
+
+        BitSetInEvaluator(int colOffset, int colLength, List<byte[]> values) {
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.bits = new long[((1 << (8 * colLength)) + 63) >>> 6];
+            for (byte[] v : values) {
+                int id = (int) toLong(v, 0, colLength);
+                bits[id >>> 6] |= 1L << (id & 63);
+            }
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            int id = (int) toLong(row, offset + colOffset, colLength);
+            return (bits[id >>> 6] & (1L << (id & 63))) != 0;
+        }
+    }
+
+    private static class LongInEvaluator extends SRowFilterEvaluator {
+        final int colOffset;
+        final int colLength;
+        final long[] sortedValues;
+
+        LongInEvaluator(int colOffset, int colLength, List<byte[]> values) {
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.sortedValues = new long[values.size()];
+            for (int i = 0; i < sortedValues.length; i++) {
+                sortedValues[i] = toLong(values.get(i), 0, colLength);
+            }
+            Arrays.sort(sortedValues);
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            return Arrays.binarySearch(sortedValues, toLong(row, offset + colOffset, colLength)) >= 0;
+        }
+    }
+
+    private static class BytesInEvaluator extends SRowFilterEvaluator {
+        final int colOffset;
+        final int colLength;
+        final byte[][] sortedValues;
+
+        BytesInEvaluator(int colOffset, int colLength, List<byte[]> values) {
+            this.colOffset = colOffset;
+            this.colLength = colLength;
+            this.sortedValues = values.toArray(new byte[values.size()][]);
+            Arrays.sort(sortedValues, new Comparator<byte[]>() {
+                @Override
+                public int compare(byte[] o1, byte[] o2) {
+                    return compareBytes(o1, 0, o1.length, o2);
+                }
+            });
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            int low = 0;
+            int high = sortedValues.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                int comp = compareBytes(row, offset + colOffset, colLength, sortedValues[mid]);
+                if (comp > 0)
+                    low = mid + 1;
+                else if (comp < 0)
+                    high = mid - 1;
+                else
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    // fallback for filters that can't be compiled
+    private static class TupleEvaluator extends SRowFilterEvaluator {
+        final TupleFilter filter;
+        final SRowTuple tuple;
+
+        TupleEvaluator(TupleFilter filter, SRowType type) {
+            this.filter = filter;
+            this.tuple = new SRowTuple(type);
+        }
+
+        @Override
+        public boolean evaluate(byte[] row, int offset) {
+            // row length is not used by SRowTuple
+            tuple.setUnderlying(row, offset, 0);
+            return filter.evaluate(tuple);
+        }
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.Collection;
+
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.common.util.BytesSerializer;
+import com.kylinolap.common.util.BytesUtil;
+import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.metadata.model.cube.HBaseColumnDesc;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+import com.kylinolap.storage.StorageContext.OrderEnum;
+
+/**
+ * The top N rows by one measure, for ORDER BY measure LIMIT N. Only valid when
+ * each row is a final group, i.e. the scan is an exact aggregation within one
+ * segment, so the top N of all rows is among the top N of each region.
+ */
+@SuppressWarnings({ "rawtypes", "unchecked" })
+public class SRowTopN {
+
+    /**
+     * @return the top N on a measure, indexed in the order of
+     *         SRowAggregators.createBuffer()
+     */
+    public static SRowTopN fromSort(SRowAggregators aggrs, Collection<RowValueDecoder> rowValueDecoders, MeasureDesc measure, OrderEnum order, int n) {
+        int measureIdx = 0;
+        for (SRowAggregators.HCol col : aggrs.hcols) {
+            for (RowValueDecoder rowValueDecoder : rowValueDecoders) {
+                HBaseColumnDesc desc = rowValueDecoder.getHBaseColumn();
+                if (Bytes.equals(col.family, Bytes.toBytes(desc.getColumnFamilyName())) && Bytes.equals(col.qualifier, Bytes.toBytes(desc.getQualifier()))) {
+                    int i = desc.findMeasureIndex(measure.getFunction());
+                    if (i >= 0)
+                        return new SRowTopN(measureIdx + i, order == OrderEnum.DESCENDING, n);
+                }
+            }
+            measureIdx += col.nMeasures;
+        }
+        throw new IllegalArgumentException("Measure " + measure + " is not scanned");
+    }
+
+    public static byte[] serialize(SRowTopN o) {
+        ByteBuffer buf = ByteBuffer.allocate(CoprocessorEnabler.SERIALIZE_BUFFER_SIZE);
+        serializer.serialize(o, buf);
+        byte[] result = new byte[buf.position()];
+        System.arraycopy(buf.array(), 0, result, 0, buf.position());
+        return result;
+    }
+
+    public static SRowTopN deserialize(byte[] bytes) {
+        return serializer.deserialize(ByteBuffer.wrap(bytes));
+    }
+
+    private static final Serializer serializer = new Serializer();
+
+    private static class Serializer implements BytesSerializer<SRowTopN> {
+
+        @Override
+        public void serialize(SRowTopN value, ByteBuffer out) {
+            BytesUtil.writeVInt(value.measureIndex, out);
+            BytesUtil.writeVInt(value.descending ? 1 : 0, out);
+            BytesUtil.writeVInt(value.n, out);
+        }
+
+        @Override
+        public SRowTopN deserialize(ByteBuffer in) {
+            int measureIndex = BytesUtil.readVInt(in);
+            boolean descending = BytesUtil.readVInt(in) != 0;
+            int n = BytesUtil.readVInt(in);
+            return new SRowTopN(measureIndex, descending, n);
+        }
+    }
+
+    // ============================================================================
+
+    final int measureIndex;
+    final boolean descending;
+    final int n;
+
+    public SRowTopN(int measureIndex, boolean descending, int n) {
+        this.measureIndex = measureIndex;
+        this.descending = descending;
+        this.n = n;
+    }
+
+    public int getMeasureIndex() {
+        return measureIndex;
+    }
+
+    public boolean isDescending() {
+        return descending;
+    }
+
+    public int getN() {
+        return n;
+    }
+
+    /**
+     * @return positive if value v1 ranks before v2, i.e. is more likely kept
+     */
+    public int compareRank(Comparable v1, Comparable v2) {
+        return compareRank(v1, v2, descending);
+    }
+
+    public static int compareRank(Comparable v1, Comparable v2, boolean descending) {
+        // null is the smallest
+        int comp;
+        if (v1 == null || v2 == null)
+            comp = v1 == v2 ? 0 : (v1 == null ? -1 : 1);
+        else
+            comp = v1.compareTo(v2);
+        return descending ? comp : -comp;
+    }
+
+    /**
+     * @return a comparable copy of a measure value, which can be either the
+     *         aggregator state or the Java object in tuple
+     */
+    public static Comparable toComparable(Object value) {
+        if (value == null)
+            return null;
+        if (value instanceof LongWritable)
+            return Long.valueOf(((LongWritable) value).get());
+        if (value instanceof DoubleWritable)
+            return Double.valueOf(((DoubleWritable) value).get());
+        if (value instanceof HyperLogLogPlusCounter)
+            return Long.valueOf(((HyperLogLogPlusCounter) value).getCountEstimate());
+        if (value instanceof ConciseSet)
+            return Long.valueOf(((ConciseSet) value).size());
+        if (value instanceof Long || value instanceof Double || value instanceof BigDecimal || value instanceof Integer)
+            return (Comparable) value;
+        throw new IllegalArgumentException("Can not rank on " + value.getClass());
+    }
+
+    @Override
+    public String toString() {
+        return "SRowTopN [measureIndex=" + measureIndex + ", descending=" + descending + ", n=" + n + "]";
+    }
+}
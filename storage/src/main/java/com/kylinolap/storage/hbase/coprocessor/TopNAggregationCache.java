@@ -0,0 +1,81 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.hbase.Cell;
+
+import com.kylinolap.storage.hbase.coprocessor.SRowProjector.AggrKey;
+
+/**
+ * Keeps only the top N groups on a measure, in a heap whose head is the worst
+ * kept group. Each input row must be a final group (see SRowTopN), thus a row
+ * that does not beat the head is dropped without being aggregated.
+ */
+@SuppressWarnings("rawtypes")
+public class TopNAggregationCache extends AggregationCache {
+
+    private final SRowAggregators aggregators;
+    private final SRowTopN topN;
+    private final PriorityQueue<Ranked> heap;
+    private final Object[] measureValues;
+
+    public TopNAggregationCache(SRowAggregators aggregators, final SRowTopN topN) {
+        super(aggregators, 0);
+        this.aggregators = aggregators;
+        this.topN = topN;
+        this.heap = new PriorityQueue<Ranked>(Math.max(1, topN.getN()) + 1, new Comparator<Ranked>() {
+            @Override
+            public int compare(Ranked o1, Ranked o2) {
+                // worst first
+                return topN.compareRank(o1.value, o2.value);
+            }
+        });
+        this.measureValues = new Object[aggregators.getTotalMeasuresNum()];
+    }
+
+    @Override
+    public void aggregate(AggrKey aggkey, List<Cell> rowCells) {
+        if (topN.getN() <= 0)
+            return;
+
+        aggregators.decodeValues(rowCells, measureValues);
+        Comparable value = SRowTopN.toComparable(measureValues[topN.getMeasureIndex()]);
+
+        if (heap.size() >= topN.getN() && topN.compareRank(value, heap.peek().value) <= 0)
+            return;
+
+        super.aggregate(aggkey, rowCells);
+        heap.add(new Ranked(aggkey.copy(), value));
+        if (heap.size() > topN.getN()) {
+            remove(heap.poll().key);
+        }
+    }
+
+    private static class Ranked {
+        final AggrKey key;
+        final Comparable value;
+
+        Ranked(AggrKey key, Comparable value) {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -15,10 +15,14 @@
  */
 package com.kylinolap.storage.tuple;
 
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
 import java.math.BigDecimal;
 import java.util.Date;
 import java.util.List;
 
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.common.topn.TopNCounter;
 import com.kylinolap.common.util.Array;
 import com.kylinolap.cube.CubeManager;
 import com.kylinolap.cube.CubeSegment;
@@ -40,6 +44,28 @@ public class Tuple implements ITuple {
         this.values = new Object[info.size()];
     }
 
+    /**
+     * Copies the tuple to keep it across next() of the iterator it comes from.
+     * Holistic measure objects are copied too, as serializers reuse them.
+     */
+    public Tuple copy() {
+        Tuple copy = new Tuple(info);
+        for (int i = 0; i < values.length; i++) {
+            copy.values[i] = copyValue(values[i]);
+        }
+        return copy;
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof HyperLogLogPlusCounter)
+            return new HyperLogLogPlusCounter((HyperLogLogPlusCounter) value);
+        if (value instanceof ConciseSet)
+            return ((ConciseSet) value).clone();
+        if (value instanceof TopNCounter)
+            return new TopNCounter((TopNCounter) value);
+        return value;
+    }
+
     public List<String> getAllFields() {
         return info.getAllFields();
     }
@@ -82,13 +108,26 @@ public class Tuple implements ITuple {
     }
 
     public void setMeasureValue(String fieldName, Object fieldValue) {
-        String dataType = info.getDataType(fieldName);
+        setMeasureValue(info.getFieldIndex(fieldName), fieldValue);
+    }
+
+    public void setMeasureValue(int index, Object fieldValue) {
+        String dataType = info.getDataType(index);
         // special handling for BigDecimal, allow double be aggregated as
         // BigDecimal during cube build for best precision
         if ("double".equals(dataType) && fieldValue instanceof BigDecimal) {
             fieldValue = ((BigDecimal) fieldValue).doubleValue();
         }
-        setFieldObjectValue(fieldName, fieldValue);
+        values[index] = fieldValue;
+    }
+
+    // value must be already converted, see convertOptiqCellValue()
+    public void setDimensionObjectValue(int index, Object objectValue) {
+        values[index] = objectValue;
+    }
+
+    public String getDataType(int index) {
+        return info.getDataType(index);
     }
 
     public boolean hasColumn(TblColRef column) {
@@ -60,6 +60,10 @@ public class TupleInfo {
         return dataTypes.get(idx);
     }
 
+    public String getDataType(int index) {
+        return dataTypes.get(index);
+    }
+
     public int getFieldIndex(String fieldName) {
         return fieldMap.get(fieldName);
     }
@@ -24,7 +24,9 @@ import java.util.List;
 import org.junit.Test;
 
 import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.storage.filter.TupleFilter.FilterOperatorEnum;
 import com.kylinolap.storage.tuple.Tuple;
+import com.kylinolap.storage.tuple.TupleInfo;
 
 /**
  * @author xjiang
@@ -176,4 +178,48 @@ public class FilterEvaluateTest extends FilterBaseTest {
         assertEquals(match, number - matcheCounts[0] - matcheCounts[1] + matcheCounts[2]);
     }
 
+    @Test
+    public void testBindVariableAgain() {
+        List<TblColRef> groups = buildGroups();
+        CompareTupleFilter filter = new CompareTupleFilter(FilterOperatorEnum.EQ);
+        filter.addChild(new ColumnTupleFilter(groups.get(0)));
+        filter.addChild(new DynamicTupleFilter("?0"));
+
+        Tuple t1 = newTuple(groups, "2013-03-10");
+        Tuple t2 = newTuple(groups, "2012-01-12");
+
+        // as a cached plan runs with one parameter, then another
+        filter.bindVariable("?0", "2013-03-10");
+        assertTrue(filter.evaluate(t1));
+        assertFalse(filter.evaluate(t2));
+        assertEquals(1, filter.getValues().size());
+
+        filter.bindVariable("?0", "2012-01-12");
+        assertFalse(filter.evaluate(t1));
+        assertTrue(filter.evaluate(t2));
+        assertEquals(1, filter.getValues().size());
+
+        // the bound value goes across serialization
+        TupleFilter newFilter = TupleFilterSerializer.deserialize(TupleFilterSerializer.serialize(filter));
+        assertFalse(newFilter.evaluate(t1));
+        assertTrue(newFilter.evaluate(t2));
+        assertEquals(filter.getValues(), newFilter.getValues());
+
+        filter.bindVariable("?0", null);
+        assertTrue(filter.getValues().isEmpty());
+        assertFalse(filter.isEvaluable());
+    }
+
+    private Tuple newTuple(List<TblColRef> columns, String calDt) {
+        TupleInfo info = new TupleInfo();
+        for (int i = 0; i < columns.size(); i++) {
+            TblColRef column = columns.get(i);
+            info.setField(column.getName(), column, column.getDatatype(), i);
+        }
+        Tuple t = new Tuple(info);
+        t.setDimensionValue(columns.get(0).getName(), calDt);
+        t.setDimensionValue(columns.get(1).getName(), "ABIN");
+        return t;
+    }
+
 }
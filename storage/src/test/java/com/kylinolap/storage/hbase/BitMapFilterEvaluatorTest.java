@@ -0,0 +1,228 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import static org.junit.Assert.*;
+import it.uniroma3.mat.extendedset.intset.ConciseSet;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.CubeInstance;
+import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.invertedindex.TableRecord;
+import com.kylinolap.cube.invertedindex.TableRecordInfo;
+import com.kylinolap.cube.invertedindex.TimeSlice;
+import com.kylinolap.cube.invertedindex.TimeSliceBuilder;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.storage.filter.ColumnTupleFilter;
+import com.kylinolap.storage.filter.CompareTupleFilter;
+import com.kylinolap.storage.filter.ConstantTupleFilter;
+import com.kylinolap.storage.filter.LogicalTupleFilter;
+import com.kylinolap.storage.filter.TupleFilter;
+import com.kylinolap.storage.filter.TupleFilter.FilterOperatorEnum;
+
+public class BitMapFilterEvaluatorTest extends LocalFileMetadataTestCase {
+
+    static final int FORMAT_COL = 2; // LSTG_FORMAT_NAME, a bitmap column
+    static final int PRICE_COL = 6; // PRICE, a compressed value column
+
+    TableRecordInfo info;
+    List<TimeSlice> slices;
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+        CubeInstance cube = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_ii");
+        this.info = new TableRecordInfo(cube.getFirstSegment());
+        this.slices = buildTimeSlices(loadRecords());
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testBitMapColumn() {
+        FilterOperatorEnum[] ops = new FilterOperatorEnum[] { FilterOperatorEnum.EQ, FilterOperatorEnum.NEQ, FilterOperatorEnum.LT, FilterOperatorEnum.LTE, FilterOperatorEnum.GT, FilterOperatorEnum.GTE };
+        String[] values = new String[] { "ABIN", "Auction", "FP-GTC", "FP-non GTC", "Others", "A", "Z", "FP" };
+        for (FilterOperatorEnum op : ops) {
+            for (String v : values) {
+                assertExact(compare(FORMAT_COL, op, v));
+            }
+        }
+        assertExact(compare(FORMAT_COL, FilterOperatorEnum.IN, "Auction", "Others", "NotExist"));
+        assertExact(compare(FORMAT_COL, FilterOperatorEnum.ISNULL));
+        assertExact(compare(FORMAT_COL, FilterOperatorEnum.ISNOTNULL));
+        assertExact(not(compare(FORMAT_COL, FilterOperatorEnum.EQ, "Auction")));
+        assertExact(or(compare(FORMAT_COL, FilterOperatorEnum.EQ, "ABIN"), compare(FORMAT_COL, FilterOperatorEnum.GT, "FP-GTC")));
+    }
+
+    @Test
+    public void testNonBitMapColumn() {
+        TupleFilter price = compare(PRICE_COL, FilterOperatorEnum.GT, "500");
+        TupleFilter format = compare(FORMAT_COL, FilterOperatorEnum.EQ, "Auction");
+
+        for (TimeSlice slice : slices) {
+            BitMapFilterEvaluator evaluator = new BitMapFilterEvaluator(info);
+            assertNull(evaluator.evaluate(price, slice));
+            assertNull(evaluator.evaluate(or(price, format), slice));
+            assertNull(evaluator.evaluate(not(and(price, format)), slice));
+            // AND narrows down by the bitmap part, the rest is left to query engine
+            assertEquals(evaluator.evaluate(format, slice), evaluator.evaluate(and(price, format), slice));
+        }
+    }
+
+    private void assertExact(TupleFilter filter) {
+        BitMapFilterEvaluator evaluator = new BitMapFilterEvaluator(info);
+        int total = 0;
+        for (TimeSlice slice : slices) {
+            ConciseSet expected = new ConciseSet();
+            int i = 0;
+            for (TableRecord rec : slice) {
+                if (matches(filter, rec))
+                    expected.add(i);
+                i++;
+            }
+            ConciseSet actual = evaluator.evaluate(filter, slice);
+            assertNotNull(filter.toString(), actual);
+            assertEquals(filter.toString(), expected, actual);
+            total += expected.size();
+        }
+        System.out.println(filter + " matches " + total + " records");
+    }
+
+    private boolean matches(TupleFilter filter, TableRecord rec) {
+        switch (filter.getOperator()) {
+        case AND:
+            for (TupleFilter child : filter.getChildren()) {
+                if (matches(child, rec) == false)
+                    return false;
+            }
+            return true;
+        case OR:
+            for (TupleFilter child : filter.getChildren()) {
+                if (matches(child, rec))
+                    return true;
+            }
+            return false;
+        case NOT:
+            return !matches(filter.getChildren().get(0), rec);
+        default:
+            break;
+        }
+
+        CompareTupleFilter compare = (CompareTupleFilter) filter;
+        String value = rec.getValueString(compare.getColumn().getColumn().getZeroBasedIndex());
+        if (compare.getOperator() == FilterOperatorEnum.ISNULL)
+            return value == null;
+        if (value == null)
+            return false;
+        if (compare.getOperator() == FilterOperatorEnum.ISNOTNULL)
+            return true;
+        if (compare.getOperator() == FilterOperatorEnum.IN)
+            return compare.getValues().contains(value);
+
+        int comp = value.compareTo(compare.getValues().iterator().next());
+        switch (compare.getOperator()) {
+        case EQ:
+            return comp == 0;
+        case NEQ:
+            return comp != 0;
+        case LT:
+            return comp < 0;
+        case LTE:
+            return comp <= 0;
+        case GT:
+            return comp > 0;
+        case GTE:
+            return comp >= 0;
+        default:
+            throw new IllegalStateException();
+        }
+    }
+
+    private TupleFilter and(TupleFilter... children) {
+        LogicalTupleFilter and = new LogicalTupleFilter(FilterOperatorEnum.AND);
+        and.addChildren(Arrays.asList(children));
+        return and;
+    }
+
+    private TupleFilter or(TupleFilter... children) {
+        LogicalTupleFilter or = new LogicalTupleFilter(FilterOperatorEnum.OR);
+        or.addChildren(Arrays.asList(children));
+        return or;
+    }
+
+    private TupleFilter not(TupleFilter child) {
+        LogicalTupleFilter not = new LogicalTupleFilter(FilterOperatorEnum.NOT);
+        not.addChild(child);
+        return not;
+    }
+
+    private CompareTupleFilter compare(int col, FilterOperatorEnum op, String... values) {
+        CompareTupleFilter compare = new CompareTupleFilter(op);
+        compare.addChild(new ColumnTupleFilter(new TblColRef(info.getColumns()[col])));
+        if (values.length > 0)
+            compare.addChild(new ConstantTupleFilter(Arrays.asList(values)));
+        return compare;
+    }
+
+    private List<TableRecord> loadRecords() throws IOException {
+        File file = new File(this.testDataFolder, "data/TEST_KYLIN_FACT.csv");
+        FileInputStream in = new FileInputStream(file);
+        List<String> lines = IOUtils.readLines(in, "UTF-8");
+        in.close();
+
+        List<TableRecord> records = Lists.newArrayList();
+        for (String line : lines) {
+            String[] fields = line.split(",");
+            TableRecord rec = new TableRecord(info);
+            for (int col = 0; col < fields.length; col++) {
+                rec.setValue(col, Bytes.toBytes(fields[col]));
+            }
+            records.add(rec);
+        }
+        return records;
+    }
+
+    private List<TimeSlice> buildTimeSlices(List<TableRecord> records) throws IOException {
+        TimeSliceBuilder builder = new TimeSliceBuilder(info);
+        List<TimeSlice> slices = Lists.newArrayList();
+        for (TableRecord rec : records) {
+            TimeSlice slice = builder.append(rec);
+            if (slice != null)
+                slices.add(slice);
+        }
+        TimeSlice slice = builder.close();
+        if (slice != null)
+            slices.add(slice);
+        return slices;
+    }
+}
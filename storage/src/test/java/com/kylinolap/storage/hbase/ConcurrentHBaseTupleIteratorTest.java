@@ -0,0 +1,238 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.storage.StorageContext;
+import com.kylinolap.storage.tuple.ITuple;
+import com.kylinolap.storage.tuple.ITupleIterator;
+import com.kylinolap.storage.tuple.Tuple;
+import com.kylinolap.storage.tuple.TupleInfo;
+
+/**
+ * Runs the concurrent iterator on fake range scans, each gives rows of (range,
+ * seq, hllc) and reuses its tuple and counter like the real segment scan.
+ */
+public class ConcurrentHBaseTupleIteratorTest extends LocalFileMetadataTestCase {
+
+    private static final int ENDLESS = 0xff;
+    private static final int NEVER = 0xff;
+
+    private static final AtomicInteger openedScans = new AtomicInteger();
+    private static final AtomicInteger closedScans = new AtomicInteger();
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+        openedScans.set(0);
+        closedScans.set(0);
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testOrderWithinRange() {
+        List<HBaseKeyRange> ranges = new ArrayList<HBaseKeyRange>();
+        for (int r = 0; r < 8; r++) {
+            ranges.add(fakeRange(r, 100, NEVER));
+        }
+        StorageContext context = new StorageContext();
+        FakeConcurrentIterator iterator = new FakeConcurrentIterator(ranges, context);
+
+        int[] lastSeq = new int[8];
+        for (int r = 0; r < 8; r++) {
+            lastSeq[r] = -1;
+        }
+        List<ITuple> kept = new ArrayList<ITuple>();
+        while (iterator.hasNext()) {
+            ITuple tuple = iterator.next();
+            int r = (Integer) tuple.getValue("RANGE");
+            int seq = (Integer) tuple.getValue("SEQ");
+            assertEquals(lastSeq[r] + 1, seq);
+            lastSeq[r] = seq;
+            kept.add(tuple);
+        }
+        iterator.close();
+
+        assertEquals(800, kept.size());
+        assertEquals(800, context.getTotalScanCount());
+        // every kept tuple still holds its own counter
+        for (ITuple tuple : kept) {
+            assertEquals(expectedCounter((Integer) tuple.getValue("RANGE"), (Integer) tuple.getValue("SEQ")), tuple.getValue("UV"));
+        }
+        waitScansClosed();
+    }
+
+    @Test
+    public void testLimit() {
+        List<HBaseKeyRange> ranges = new ArrayList<HBaseKeyRange>();
+        for (int r = 0; r < 4; r++) {
+            ranges.add(fakeRange(r, ENDLESS, NEVER));
+        }
+        StorageContext context = new StorageContext();
+        context.setLimit(5);
+        context.enableLimit();
+        FakeConcurrentIterator iterator = new FakeConcurrentIterator(ranges, context);
+
+        int count = 0;
+        while (iterator.hasNext()) {
+            assertNotNull(iterator.next());
+            count++;
+        }
+        iterator.close();
+
+        assertEquals(5, count);
+        // endless scans stop once the limit is reached
+        waitScansClosed();
+    }
+
+    @Test
+    public void testCancelOnClose() {
+        List<HBaseKeyRange> ranges = new ArrayList<HBaseKeyRange>();
+        for (int r = 0; r < 20; r++) {
+            ranges.add(fakeRange(r, ENDLESS, NEVER));
+        }
+        FakeConcurrentIterator iterator = new FakeConcurrentIterator(ranges, new StorageContext());
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        iterator.close();
+
+        waitScansClosed();
+        // pending ranges are never started
+        assertTrue(openedScans.get() < 20);
+    }
+
+    @Test
+    public void testErrorPropagation() {
+        List<HBaseKeyRange> ranges = new ArrayList<HBaseKeyRange>();
+        ranges.add(fakeRange(0, ENDLESS, NEVER));
+        ranges.add(fakeRange(1, ENDLESS, 10));
+        FakeConcurrentIterator iterator = new FakeConcurrentIterator(ranges, new StorageContext());
+
+        try {
+            while (iterator.hasNext()) {
+                iterator.next();
+            }
+            fail("scan error is not propagated");
+        } catch (IllegalStateException e) {
+            assertEquals("fake scan error", e.getMessage());
+        } finally {
+            iterator.close();
+        }
+        waitScansClosed();
+    }
+
+    private void waitScansClosed() {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (closedScans.get() < openedScans.get() && System.currentTimeMillis() < deadline) {
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        assertEquals(openedScans.get(), closedScans.get());
+    }
+
+    private static HBaseKeyRange fakeRange(int rangeId, int rows, int failAt) {
+        byte[] startKey = new byte[] { (byte) rangeId, (byte) rows, (byte) failAt };
+        return new HBaseKeyRange(null, null, startKey, startKey, Collections.<Pair<byte[], byte[]>> emptyList(), null, 0, 0);
+    }
+
+    private static HyperLogLogPlusCounter expectedCounter(int rangeId, int seq) {
+        HyperLogLogPlusCounter c = new HyperLogLogPlusCounter(10);
+        c.add(rangeId + "-" + seq);
+        return c;
+    }
+
+    private static class FakeConcurrentIterator extends ConcurrentHBaseTupleIterator {
+
+        FakeConcurrentIterator(List<HBaseKeyRange> ranges, StorageContext context) {
+            super(null, ranges, null, null, null, Collections.<RowValueDecoder> emptyList(), context);
+        }
+
+        @Override
+        protected ITupleIterator newScanIterator(HBaseKeyRange keyRange, List<RowValueDecoder> decoders) {
+            byte[] key = keyRange.getStartKey();
+            openedScans.incrementAndGet();
+            int failAt = key[2] & 0xff;
+            return new FakeScan(key[0] & 0xff, key[1] & 0xff, failAt == NEVER ? -1 : failAt);
+        }
+    }
+
+    private static class FakeScan implements ITupleIterator {
+        final int rangeId;
+        final int rows;
+        final int failAt;
+        final Tuple tuple;
+        final HyperLogLogPlusCounter counter = new HyperLogLogPlusCounter(10);
+        int seq = 0;
+
+        FakeScan(int rangeId, int rows, int failAt) {
+            this.rangeId = rangeId;
+            this.rows = rows;
+            this.failAt = failAt;
+
+            TupleInfo info = new TupleInfo();
+            info.setField("RANGE", null, "integer", 0);
+            info.setField("SEQ", null, "integer", 1);
+            info.setField("UV", null, "hllc10", 2);
+            this.tuple = new Tuple(info);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return rows == ENDLESS || seq < rows;
+        }
+
+        @Override
+        public ITuple next() {
+            if (seq == failAt)
+                throw new IllegalStateException("fake scan error");
+
+            counter.clear();
+            counter.add(rangeId + "-" + seq);
+            tuple.setDimensionObjectValue(0, rangeId);
+            tuple.setDimensionObjectValue(1, seq);
+            tuple.setDimensionObjectValue(2, counter);
+            seq++;
+            return tuple;
+        }
+
+        @Override
+        public void close() {
+            closedScans.incrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,77 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.CubeInstance;
+import com.kylinolap.cube.CubeManager;
+import com.kylinolap.storage.StorageContext;
+
+public class HBaseStorageEngineTest extends LocalFileMetadataTestCase {
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testConcurrentScanSetting() {
+        CubeInstance cube = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_with_slr_ready");
+        HBaseStorageEngine engine = new HBaseStorageEngine(cube);
+        HBaseKeyRange range = new HBaseKeyRange(null, null, new byte[0], new byte[0], Collections.<Pair<byte[], byte[]>> emptyList(), null, 0, 0);
+        List<HBaseKeyRange> scans = Arrays.asList(range, range);
+        StorageContext context = new StorageContext();
+
+        // server setting when cube does not say
+        getTestConfig().setProperty("kylin.query.scan.concurrent.enabled", "true");
+        cube.getDescriptor().setConcurrentScan(null);
+        assertTrue(engine.isConcurrentScan(scans, context));
+
+        // cube opts out of the server setting
+        cube.getDescriptor().setConcurrentScan(false);
+        assertFalse(engine.isConcurrentScan(scans, context));
+
+        // and in
+        getTestConfig().setProperty("kylin.query.scan.concurrent.enabled", "false");
+        cube.getDescriptor().setConcurrentScan(true);
+        assertTrue(engine.isConcurrentScan(scans, context));
+
+        // query overrides cube
+        context.setConcurrentScan(false);
+        assertFalse(engine.isConcurrentScan(scans, context));
+
+        // nothing to parallelize
+        context.setConcurrentScan(true);
+        assertFalse(engine.isConcurrentScan(Collections.singletonList(range), context));
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.common.util.LocalFileMetadataTestCase;
+import com.kylinolap.cube.CubeInstance;
+import com.kylinolap.cube.CubeManager;
+import com.kylinolap.cube.kv.RowValueDecoder;
+import com.kylinolap.metadata.model.cube.HBaseColumnDesc;
+import com.kylinolap.metadata.model.cube.MeasureDesc;
+import com.kylinolap.storage.StorageContext;
+import com.kylinolap.storage.StorageContext.OrderEnum;
+import com.kylinolap.storage.tuple.ITuple;
+import com.kylinolap.storage.tuple.ITupleIterator;
+import com.kylinolap.storage.tuple.Tuple;
+import com.kylinolap.storage.tuple.TupleInfo;
+
+public class TopNTupleIteratorTest extends LocalFileMetadataTestCase {
+
+    @Before
+    public void setUp() throws Exception {
+        this.createTestMetadata();
+    }
+
+    @After
+    public void after() throws Exception {
+        this.cleanupTestMetadata();
+    }
+
+    @Test
+    public void testTopN() {
+        long[] sums = new long[] { 5, 30, 10, 40, 20, 40, 1 };
+
+        List<ITuple> top = drain(new TopNTupleIterator(new FakeIterator(sums), "SUM", true, 3));
+        assertEquals(3, top.size());
+        assertEquals(40L, top.get(0).getValue("SUM"));
+        assertEquals(40L, top.get(1).getValue("SUM"));
+        assertEquals(30L, top.get(2).getValue("SUM"));
+        // kept tuples hold their own counters, though the inner iterator
+        // reuses its tuple and counter
+        for (ITuple tuple : top) {
+            assertEquals(expectedCounter((Integer) tuple.getValue("SEQ")), tuple.getValue("UV"));
+        }
+
+        List<ITuple> bottom = drain(new TopNTupleIterator(new FakeIterator(sums), "SUM", false, 2));
+        assertEquals(2, bottom.size());
+        assertEquals(1L, bottom.get(0).getValue("SUM"));
+        assertEquals(5L, bottom.get(1).getValue("SUM"));
+
+        assertEquals(0, drain(new TopNTupleIterator(new FakeIterator(sums), "SUM", true, 0)).size());
+        assertEquals(sums.length, drain(new TopNTupleIterator(new FakeIterator(sums), "SUM", true, 100)).size());
+    }
+
+    @Test
+    public void testSetTopN() {
+        CubeInstance cube = CubeManager.getInstance(getTestConfig()).getCube("test_kylin_cube_with_slr_ready");
+        HBaseStorageEngine engine = new HBaseStorageEngine(cube);
+
+        HBaseColumnDesc hbaseCol = cube.getDescriptor().getHBaseMapping().getColumnFamily()[0].getColumns()[0];
+        MeasureDesc sortMeasure = hbaseCol.getMeasures()[0];
+        RowValueDecoder decoder = new RowValueDecoder(hbaseCol);
+        decoder.setIndex(0);
+        List<RowValueDecoder> decoders = Collections.singletonList(decoder);
+        List<HBaseKeyRange> scans = Collections.singletonList(new HBaseKeyRange(null, null, new byte[0], new byte[0], Collections.<Pair<byte[], byte[]>> emptyList(), null, 0, 0));
+
+        StorageContext context = orderByLimit(sortMeasure, 10);
+        engine.setTopN(null, scans, decoders, context);
+        assertTrue(context.isTopNEnabled());
+
+        // HAVING is yet to drop groups, top N of each region could lose some
+        context = orderByLimit(sortMeasure, 10);
+        context.markPostAggFilter();
+        engine.setTopN(null, scans, decoders, context);
+        assertFalse(context.isTopNEnabled());
+
+        // groups are yet to aggregate
+        context = orderByLimit(sortMeasure, 10);
+        context.setExactAggregation(false);
+        engine.setTopN(null, scans, decoders, context);
+        assertFalse(context.isTopNEnabled());
+
+        // sort measure not scanned
+        context = orderByLimit(sortMeasure, 10);
+        engine.setTopN(null, scans, Collections.singletonList(new RowValueDecoder(hbaseCol)), context);
+        assertFalse(context.isTopNEnabled());
+    }
+
+    private StorageContext orderByLimit(MeasureDesc sortMeasure, int limit) {
+        StorageContext context = new StorageContext();
+        context.addSort(sortMeasure, OrderEnum.DESCENDING);
+        context.markSort();
+        context.setLimit(limit);
+        context.setExactAggregation(true);
+        return context;
+    }
+
+    private static List<ITuple> drain(ITupleIterator iterator) {
+        List<ITuple> result = new ArrayList<ITuple>();
+        while (iterator.hasNext()) {
+            result.add(iterator.next());
+        }
+        iterator.close();
+        return result;
+    }
+
+    private static HyperLogLogPlusCounter expectedCounter(int seq) {
+        HyperLogLogPlusCounter c = new HyperLogLogPlusCounter(10);
+        c.add("v" + seq);
+        return c;
+    }
+
+    private static class FakeIterator implements ITupleIterator {
+        final long[] sums;
+        final Tuple tuple;
+        final HyperLogLogPlusCounter counter = new HyperLogLogPlusCounter(10);
+        int seq = 0;
+
+        FakeIterator(long[] sums) {
+            this.sums = sums;
+
+            TupleInfo info = new TupleInfo();
+            info.setField("SEQ", null, "integer", 0);
+            info.setField("SUM", null, "bigint", 1);
+            info.setField("UV", null, "hllc10", 2);
+            this.tuple = new Tuple(info);
+        }
+
+        @Override
+        public boolean hasNext() {
+            return seq < sums.length;
+        }
+
+        @Override
+        public ITuple next() {
+            counter.clear();
+            counter.add("v" + seq);
+            tuple.setDimensionObjectValue(0, seq);
+            tuple.setDimensionObjectValue(1, sums[seq]);
+            tuple.setDimensionObjectValue(2, counter);
+            seq++;
+            return tuple;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -23,6 +23,7 @@ import java.math.BigDecimal;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 
@@ -184,6 +185,88 @@ public class AggregateRegionObserverTest {
         aggrScanner.close();
     }
 
+    @Test
+    public void testPartialEmit() throws IOException {
+        SRowType rowType = newRowType();
+        SRowProjector projector = new SRowProjector(mask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { c1, c2 });
+        SRowFilter filter = SRowFilter.deserialize(null);
+
+        for (boolean arena : new boolean[] { false, true }) {
+            MockupRegionScanner innerScanner = new MockupRegionScanner(cellsInput);
+
+            // a tiny cap emits every input row as a partial result
+            RegionScanner aggrScanner = new AggregationScanner(rowType, filter, projector, aggregators, innerScanner, arena, 1);
+            HashMap<String, BigDecimal> merged = new HashMap<String, BigDecimal>();
+            ArrayList<Cell> result = Lists.newArrayList();
+            int outputRows = 0;
+            boolean hasMore = true;
+            while (hasMore) {
+                result.clear();
+                hasMore = aggrScanner.next(result);
+                if (result.isEmpty())
+                    continue;
+
+                outputRows++;
+                for (Cell cell : result) {
+                    HCol hcol = SRowAggregators.match(c1, cell) ? c1 : c2;
+                    hcol.measureCodec.decode(ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()), hcol.measureValues);
+                    String key = toString(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(), mask) + ", " + Bytes.toString(hcol.qualifier);
+                    BigDecimal sum = merged.get(key);
+                    merged.put(key, sum == null ? (BigDecimal) hcol.measureValues[0] : sum.add((BigDecimal) hcol.measureValues[0]));
+                }
+            }
+            aggrScanner.close();
+
+            assertEquals(cellsInput.size(), outputRows);
+            assertEquals(4, merged.size());
+            assertEquals(new BigDecimal("22.0"), merged.get("\\x01\\x01\\x00\\x00, q1"));
+            assertEquals(new BigDecimal("44.0"), merged.get("\\x01\\x01\\x00\\x00, q2"));
+            assertEquals(new BigDecimal("26.0"), merged.get("\\x02\\x02\\x00\\x00, q1"));
+            assertEquals(new BigDecimal("48.0"), merged.get("\\x02\\x02\\x00\\x00, q2"));
+        }
+    }
+
+    @Test
+    public void testTopN() throws IOException {
+        SRowType rowType = newRowType();
+        byte[] fullMask = new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, (byte) 0xff };
+        SRowProjector projector = new SRowProjector(fullMask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { c1 });
+        SRowFilter filter = SRowFilter.deserialize(null);
+
+        // each row is a final group
+        ArrayList<Cell> input = Lists.newArrayList();
+        input.add(newCell(k3, c1, "12.5", 3));
+        input.add(newCell(k1, c1, "10.5", 1));
+        input.add(newCell(k4, c1, "13.5", 4));
+        input.add(newCell(k2, c1, "11.5", 2));
+
+        SRowTopN top2 = SRowTopN.deserialize(SRowTopN.serialize(new SRowTopN(0, true, 2)));
+        assertEquals(Arrays.asList("\\x02\\x02\\x00\\x03", "\\x02\\x02\\x00\\x04"), scanKeys(rowType, filter, projector, aggregators, input, top2, fullMask));
+
+        SRowTopN bottom3 = new SRowTopN(1, false, 3);
+        assertEquals(Arrays.asList("\\x01\\x01\\x00\\x01", "\\x01\\x01\\x00\\x02", "\\x02\\x02\\x00\\x03"), scanKeys(rowType, filter, projector, aggregators, input, bottom3, fullMask));
+    }
+
+    private List<String> scanKeys(SRowType rowType, SRowFilter filter, SRowProjector projector, SRowAggregators aggregators, List<Cell> input, SRowTopN topN, byte[] mask) throws IOException {
+        RegionScanner aggrScanner = new AggregationScanner(rowType, filter, projector, aggregators, new MockupRegionScanner(input), false, 0, topN);
+        List<String> keys = Lists.newArrayList();
+        ArrayList<Cell> result = Lists.newArrayList();
+        boolean hasMore = true;
+        while (hasMore) {
+            result.clear();
+            hasMore = aggrScanner.next(result);
+            if (result.isEmpty())
+                continue;
+
+            Cell cell = result.get(0);
+            keys.add(toString(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength(), mask));
+        }
+        aggrScanner.close();
+        return keys;
+    }
+
     private String toString(byte[] array, int offset, short length, byte[] mask) {
         StringBuilder result = new StringBuilder();
         for (int i = 0; i < length; i++) {
@@ -0,0 +1,285 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.HConstants;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.KeyValue.Type;
+import org.apache.hadoop.hbase.regionserver.RegionScanner;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.kylinolap.common.hll.HyperLogLogPlusCounter;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.metadata.model.schema.ColumnDesc;
+import com.kylinolap.metadata.model.schema.TableDesc;
+import com.kylinolap.storage.hbase.coprocessor.AggregateRegionObserverTest.MockupRegionScanner;
+import com.kylinolap.storage.hbase.coprocessor.SRowAggregators.HCol;
+
+public class ArenaAggregationCacheTest {
+
+    static final int KEY_LEN = 8;
+
+    byte[] family = Bytes.toBytes("f");
+    byte[] mask = new byte[] { (byte) 0xff, (byte) 0xff, (byte) 0xff, 0, 0, (byte) 0xff, 0, 0 };
+
+    HCol c1 = new HCol(family, Bytes.toBytes("q1"), new String[] { "COUNT", "SUM", "MAX", "MIN" }, new String[] { "long", "long", "long", "double" });
+    HCol c2 = new HCol(family, Bytes.toBytes("q2"), new String[] { "SUM", "SUM" }, new String[] { "decimal", "double" });
+
+    @Test
+    public void testSameAsTreeMap() throws IOException {
+        List<Cell> input = newInput(10000, 500, 1);
+
+        List<String> expected = scan(input, false);
+        List<String> actual = scan(input, true);
+
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void testGrow() throws IOException {
+        SRowProjector projector = new SRowProjector(mask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { c1, c2 });
+        ArenaAggregationCache arena = new ArenaAggregationCache(projector, aggregators, 16);
+        AggregationCache treeMap = new AggregationCache(aggregators, 0);
+
+        List<Cell> input = newInput(20000, 5000, 2);
+        for (Cell cell : input) {
+            List<Cell> row = Lists.newArrayList(cell);
+            arena.aggregate(projector.getRowKey(row), row);
+            treeMap.aggregate(projector.getRowKey(row), row);
+        }
+        assertEquals(treeMap.getSize(), arena.getSize());
+        assertEquals(toStrings(treeMap.getScanner(new MockupRegionScanner(input)), aggregators), toStrings(arena.getScanner(new MockupRegionScanner(input)), aggregators));
+        assertTrue(arena.getMemBytes() > 0);
+    }
+
+    @Test
+    public void testCountDistinct() throws IOException {
+        HCol col = new HCol(family, Bytes.toBytes("q3"), new String[] { "COUNT", "COUNT_DISTINCT" }, new String[] { "long", "hllc(14)" });
+        SRowProjector projector = new SRowProjector(mask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { col });
+        ArenaAggregationCache arena = new ArenaAggregationCache(projector, aggregators, 16);
+        AggregationCache treeMap = new AggregationCache(aggregators, 0);
+
+        Random rand = new Random(4);
+        HyperLogLogPlusCounter hllc = new HyperLogLogPlusCounter(14);
+        List<Cell> input = Lists.newArrayList();
+        for (int i = 0; i < 5000; i++) {
+            byte[] key = new byte[KEY_LEN];
+            key[0] = (byte) rand.nextInt(10);
+            hllc.clear();
+            hllc.add("v" + rand.nextInt(3000));
+            input.add(newCell(key, col, new Object[] { new LongWritable(1), hllc }));
+        }
+
+        for (Cell cell : input) {
+            List<Cell> row = Lists.newArrayList(cell);
+            arena.aggregate(projector.getRowKey(row), row);
+            treeMap.aggregate(projector.getRowKey(row), row);
+        }
+        assertEquals(10, arena.getSize());
+
+        List<String> expected = toCountStrings(treeMap.getScanner(new MockupRegionScanner(input)), col);
+        List<String> actual = toCountStrings(arena.getScanner(new MockupRegionScanner(input)), col);
+        assertEquals(10, expected.size());
+        assertEquals(expected, actual);
+
+        // about 500 distinct values per group, counters stay sparse
+        assertTrue(treeMap.getMemBytes() < 10 * 16 * 1024);
+        assertTrue(arena.getMemBytes() < 10 * 16 * 1024 + 64 * 1024);
+    }
+
+    @Test
+    public void testMaxMinWithoutValue() throws IOException {
+        SRowProjector projector = new SRowProjector(mask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { c1, c2 });
+        ArenaAggregationCache arena = new ArenaAggregationCache(projector, aggregators, 16);
+
+        byte[] key1 = new byte[KEY_LEN];
+        byte[] key2 = new byte[KEY_LEN];
+        key2[0] = 1;
+        List<Cell> input = Lists.newArrayList();
+        input.add(newCell(key1, c1, new Object[] { new LongWritable(1), new LongWritable(5), new LongWritable(5), new DoubleWritable(5) }));
+        input.add(newCell(key1, c2, new Object[] { new BigDecimal("1.25"), new DoubleWritable(1) }));
+        // group 2 has no value of MAX/MIN
+        input.add(newCell(key2, c2, new Object[] { new BigDecimal("2.25"), new DoubleWritable(2) }));
+        input.add(newCell(key2, c2, new Object[] { new BigDecimal("3.25"), new DoubleWritable(3) }));
+        aggregateAll(arena, projector, input);
+        assertEquals(2, arena.getSize());
+
+        List<String> output = toStrings(arena.getScanner(new MockupRegionScanner(input)), aggregators);
+        assertEquals(3, output.size());
+        assertEquals("\\x00\\x00\\x00\\x00\\x00\\x00\\x00\\x00, q1, [1, 5, 5, 5.0]", output.get(0));
+        assertEquals("\\x00\\x00\\x00\\x00\\x00\\x00\\x00\\x00, q2, [1.25, 1.0]", output.get(1));
+        // the MAX/MIN column is left out, read as null like a missing cell
+        assertEquals("\\x01\\x00\\x00\\x00\\x00\\x00\\x00\\x00, q2, [5.50, 5.0]", output.get(2));
+    }
+
+    @Test
+    public void testPerformance() throws IOException {
+        int rows = 100000; // use 10000000 for real perf test
+        int groups = 10000; // use 1000000 for real perf test
+
+        SRowProjector projector = new SRowProjector(mask);
+        HCol col = new HCol(family, Bytes.toBytes("q1"), new String[] { "COUNT", "SUM", "MAX", "MIN" }, new String[] { "long", "long", "long", "double" });
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { col });
+        List<Cell> input = newInput(rows, groups, 3, col);
+
+        for (int round = 0; round < 2; round++) {
+            long start = System.currentTimeMillis();
+            AggregationCache treeMap = new AggregationCache(aggregators, 0);
+            aggregateAll(treeMap, projector, input);
+            long treeMapTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            ArenaAggregationCache arena = new ArenaAggregationCache(projector, aggregators);
+            aggregateAll(arena, projector, input);
+            long arenaTime = System.currentTimeMillis() - start;
+
+            assertEquals(treeMap.getSize(), arena.getSize());
+            System.out.println("Aggregate " + rows + " rows into " + arena.getSize() + " groups");
+            System.out.println("  TreeMap cache: " + treeMapTime + " ms, est. " + treeMap.getMemBytes() + " bytes");
+            System.out.println("  Arena cache:   " + arenaTime + " ms, " + arena.getMemBytes() + " bytes");
+        }
+    }
+
+    private void aggregateAll(IAggregationCache cache, SRowProjector projector, List<Cell> input) {
+        List<Cell> row = Lists.newArrayListWithCapacity(1);
+        for (Cell cell : input) {
+            row.clear();
+            row.add(cell);
+            cache.aggregate(projector.getRowKey(row), row);
+            cache.checkMemoryUsage();
+        }
+    }
+
+    private List<String> scan(List<Cell> input, boolean arenaAggregation) throws IOException {
+        SRowType rowType = newRowType();
+        SRowProjector projector = new SRowProjector(mask);
+        SRowAggregators aggregators = new SRowAggregators(new HCol[] { c1, c2 });
+        SRowFilter filter = SRowFilter.deserialize(null);
+
+        RegionScanner aggrScanner = new AggregationScanner(rowType, filter, projector, aggregators, new MockupRegionScanner(input), arenaAggregation, 0);
+        return toStrings(aggrScanner, aggregators);
+    }
+
+    private List<String> toStrings(RegionScanner scanner, SRowAggregators aggregators) throws IOException {
+        List<String> output = Lists.newArrayList();
+        ArrayList<Cell> result = Lists.newArrayList();
+        boolean hasMore = true;
+        while (hasMore) {
+            result.clear();
+            hasMore = scanner.next(result);
+            for (Cell cell : result) {
+                HCol hcol = SRowAggregators.match(c1, cell) ? c1 : c2;
+                hcol.measureCodec.decode(ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()), hcol.measureValues);
+                output.add(Bytes.toStringBinary(cell.getRowArray(), cell.getRowOffset(), cell.getRowLength()) + ", " + Bytes.toString(hcol.qualifier) + ", " + Arrays.toString(hcol.measureValues));
+            }
+        }
+        scanner.close();
+        return output;
+    }
+
+    private List<String> toCountStrings(RegionScanner scanner, HCol col) throws IOException {
+        List<String> output = Lists.newArrayList();
+        ArrayList<Cell> result = Lists.newArrayList();
+        boolean hasMore = true;
+        while (hasMore) {
+            result.clear();
+            hasMore = scanner.next(result);
+            for (Cell cell : result) {
+                col.measureCodec.decode(ByteBuffer.wrap(cell.getValueArray(), cell.getValueOffset(), cell.getValueLength()), col.measureValues);
+                output.add(col.measureValues[0] + ", " + ((HyperLogLogPlusCounter) col.measureValues[1]).getCountEstimate());
+            }
+        }
+        scanner.close();
+        return output;
+    }
+
+    private List<Cell> newInput(int rows, int groups, long seed) {
+        List<Cell> input = Lists.newArrayListWithCapacity(rows * 2);
+        Random rand = new Random(seed);
+        for (Cell cell : newInput(rows, groups, seed, c1)) {
+            input.add(cell);
+            // about half of the rows come with the other column
+            if (rand.nextBoolean())
+                input.add(newCell(Arrays.copyOfRange(cell.getRowArray(), cell.getRowOffset(), cell.getRowOffset() + cell.getRowLength()), c2, new Object[] { new BigDecimal(rand.nextInt(1000) + ".25"), new DoubleWritable(rand.nextDouble()) }));
+        }
+        return input;
+    }
+
+    private List<Cell> newInput(int rows, int groups, long seed, HCol col) {
+        List<Cell> input = Lists.newArrayListWithCapacity(rows);
+        Random rand = new Random(seed);
+        for (int i = 0; i < rows; i++) {
+            byte[] key = new byte[KEY_LEN];
+            rand.nextBytes(key);
+            // the masked bytes decide the group
+            int group = rand.nextInt(groups);
+            key[0] = (byte) (group >>> 16);
+            key[1] = (byte) (group >>> 8);
+            key[2] = (byte) group;
+            key[5] = (byte) (group % 3);
+
+            long value = rand.nextInt(10000) - 5000;
+            input.add(newCell(key, col, new Object[] { new LongWritable(1), new LongWritable(value), new LongWritable(value), new DoubleWritable(value / 7.0) }));
+        }
+        return input;
+    }
+
+    private SRowType newRowType() {
+        TableDesc t = new TableDesc();
+        t.setName("TABLE");
+        TblColRef[] cols = new TblColRef[KEY_LEN];
+        int[] sizes = new int[KEY_LEN];
+        for (int i = 0; i < KEY_LEN; i++) {
+            ColumnDesc col = new ColumnDesc();
+            col.setName("C" + i);
+            col.setTable(t);
+            cols[i] = new TblColRef(col);
+            sizes[i] = 1;
+        }
+        return new SRowType(cols, sizes);
+    }
+
+    private Cell newCell(byte[] key, HCol col, Object[] values) {
+        ByteBuffer buf = ByteBuffer.allocate(RowConstants.ROWVALUE_BUFFER_SIZE);
+        col.measureCodec.encode(values, buf);
+        return new KeyValue(key, 0, key.length, //
+                col.family, 0, col.family.length, //
+                col.qualifier, 0, col.qualifier.length, //
+                HConstants.LATEST_TIMESTAMP, Type.Put, //
+                buf.array(), 0, buf.position());
+    }
+}
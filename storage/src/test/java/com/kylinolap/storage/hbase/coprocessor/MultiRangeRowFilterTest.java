@@ -0,0 +1,103 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.hbase.Cell;
+import org.apache.hadoop.hbase.KeyValue;
+import org.apache.hadoop.hbase.exceptions.DeserializationException;
+import org.apache.hadoop.hbase.filter.Filter.ReturnCode;
+import org.apache.hadoop.hbase.util.Bytes;
+import org.apache.hadoop.hbase.util.Pair;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class MultiRangeRowFilterTest {
+
+    static final byte[] FAMILY = Bytes.toBytes("f");
+    static final byte[] QUALIFIER = Bytes.toBytes("q");
+
+    @Test
+    public void testSkipScan() throws IOException {
+        List<byte[]> rows = Lists.newArrayList();
+        for (int i = 0; i < 10000; i++) {
+            rows.add(Bytes.toBytes(i));
+        }
+        // 50 ranges of 3 rows each, e.g. an IN over 50 values
+        List<Pair<byte[], byte[]>> ranges = Lists.newArrayList();
+        for (int i = 0; i < 50; i++) {
+            ranges.add(new Pair<byte[], byte[]>(Bytes.toBytes(i * 150 + 7), Bytes.toBytes(i * 150 + 10)));
+        }
+
+        MultiRangeRowFilter filter = new MultiRangeRowFilter(ranges);
+        int visited = 0;
+        List<Integer> included = Lists.newArrayList();
+        int i = 0;
+        while (i < rows.size() && filter.filterAllRemaining() == false) {
+            filter.reset();
+            visited++;
+            Cell cell = new KeyValue(rows.get(i), FAMILY, QUALIFIER, Bytes.toBytes("v"));
+            ReturnCode code = filter.filterKeyValue(cell);
+            if (code == ReturnCode.INCLUDE) {
+                included.add(Bytes.toInt(rows.get(i)));
+                i++;
+            } else if (code == ReturnCode.SEEK_NEXT_USING_HINT) {
+                Cell hint = filter.getNextCellHint(cell);
+                byte[] hintRow = Bytes.copy(hint.getRowArray(), hint.getRowOffset(), hint.getRowLength());
+                assertTrue(Bytes.compareTo(hintRow, rows.get(i)) > 0);
+                while (i < rows.size() && Bytes.compareTo(rows.get(i), hintRow) < 0)
+                    i++;
+            } else {
+                i++;
+            }
+        }
+
+        List<Integer> expected = Lists.newArrayList();
+        for (int k = 0; k < 50; k++) {
+            for (int v = k * 150 + 7; v < k * 150 + 10; v++)
+                expected.add(v);
+        }
+        assertEquals(expected, included);
+        // one seek per range, plus the row that ends the scan
+        assertEquals(expected.size() + 50 + 1, visited);
+    }
+
+    @Test
+    public void testSerialization() throws DeserializationException {
+        List<Pair<byte[], byte[]>> ranges = Lists.newArrayList();
+        ranges.add(new Pair<byte[], byte[]>(Bytes.toBytes("aaa"), Bytes.toBytes("abc")));
+        ranges.add(new Pair<byte[], byte[]>(Bytes.toBytes("b"), Bytes.toBytes("c\u0000")));
+        MultiRangeRowFilter filter = new MultiRangeRowFilter(ranges);
+
+        MultiRangeRowFilter copy = MultiRangeRowFilter.parseFrom(filter.toByteArray());
+        assertEquals(2, copy.getRangeCount());
+        assertArrayEquals(filter.toByteArray(), copy.toByteArray());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testOverlapRanges() {
+        List<Pair<byte[], byte[]>> ranges = Lists.newArrayList();
+        ranges.add(new Pair<byte[], byte[]>(Bytes.toBytes("a"), Bytes.toBytes("c")));
+        ranges.add(new Pair<byte[], byte[]>(Bytes.toBytes("b"), Bytes.toBytes("d")));
+        new MultiRangeRowFilter(ranges);
+    }
+}
@@ -0,0 +1,209 @@
+/*
+ * Copyright 2013-2014 eBay Software Foundation
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.kylinolap.storage.hbase.coprocessor;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+import com.kylinolap.cube.kv.RowConstants;
+import com.kylinolap.metadata.model.cube.TblColRef;
+import com.kylinolap.metadata.model.schema.ColumnDesc;
+import com.kylinolap.metadata.model.schema.TableDesc;
+import com.kylinolap.storage.filter.ColumnTupleFilter;
+import com.kylinolap.storage.filter.CompareTupleFilter;
+import com.kylinolap.storage.filter.ConstantTupleFilter;
+import com.kylinolap.storage.filter.LogicalTupleFilter;
+import com.kylinolap.storage.filter.TupleFilter;
+import com.kylinolap.storage.filter.TupleFilter.FilterOperatorEnum;
+
+public class RowFilterEvaluatorTest {
+
+    static final int[] COL_SIZES = new int[] { 1, 2, 3, 4, 9 };
+    static final FilterOperatorEnum[] OPS = new FilterOperatorEnum[] { FilterOperatorEnum.EQ, FilterOperatorEnum.NEQ, FilterOperatorEnum.LT, FilterOperatorEnum.LTE, FilterOperatorEnum.GT, FilterOperatorEnum.GTE, FilterOperatorEnum.IN, FilterOperatorEnum.ISNULL };
+
+    Random rand = new Random(1);
+    TblColRef[] cols = newColumns();
+    SRowType type = new SRowType(cols, COL_SIZES);
+    int rowLength = RowConstants.ROWKEY_CUBOIDID_LEN + 1 + 2 + 3 + 4 + 9;
+
+    @Test
+    public void testSameAsTupleFilter() {
+        List<byte[]> rows = newRows(2000);
+        for (int i = 0; i < 500; i++) {
+            TupleFilter filter = newFilter(3);
+            assertSameResult(filter, rows);
+        }
+    }
+
+    @Test
+    public void testNullFilter() {
+        SRowFilter filter = SRowFilter.deserialize(null);
+        assertTrue(filter.compile(type).evaluate(new byte[rowLength], 0));
+    }
+
+    @Test
+    public void testPerformance() {
+        List<byte[]> rows = newRows(1000);
+        // a typical filter: col0 IN (...) AND col2 >= x AND col2 < y AND (col3 = a OR col4 <> b)
+        TupleFilter filter = and(compare(0, FilterOperatorEnum.IN, 20), //
+                compare(2, FilterOperatorEnum.GTE, new byte[] { 0x00, 0x70, 0x00 }), //
+                compare(2, FilterOperatorEnum.LT, new byte[] { (byte) 0xe0, 0x00, 0x00 }), //
+                or(compare(3, FilterOperatorEnum.EQ, 1), compare(4, FilterOperatorEnum.NEQ, 1)));
+        SRowFilter sfilter = new SRowFilter(filter);
+        SRowFilterEvaluator evaluator = sfilter.compile(type);
+        SRowTuple tuple = new SRowTuple(type);
+
+        int rounds = 1000; // use 10000 for real perf test
+        for (int k = 0; k < 2; k++) {
+            int hit1 = 0;
+            long start = System.currentTimeMillis();
+            for (int r = 0; r < rounds; r++) {
+                for (byte[] row : rows) {
+                    tuple.setUnderlying(row, 0, row.length);
+                    if (sfilter.evaluate(tuple))
+                        hit1++;
+                }
+            }
+            long tupleTime = Math.max(1, System.currentTimeMillis() - start);
+
+            int hit2 = 0;
+            start = System.currentTimeMillis();
+            for (int r = 0; r < rounds; r++) {
+                for (byte[] row : rows) {
+                    if (evaluator.evaluate(row, 0))
+                        hit2++;
+                }
+            }
+            long compiledTime = Math.max(1, System.currentTimeMillis() - start);
+
+            assertEquals(hit1, hit2);
+            assertTrue(hit1 > 0);
+            long n = (long) rounds * rows.size();
+            System.out.println("Filter " + n + " rows, " + hit1 + " hits");
+            System.out.println("  SRowTuple: " + tupleTime + " ms, " + (n * 1000 / tupleTime) + " rows/sec");
+            System.out.println("  Compiled:  " + compiledTime + " ms, " + (n * 1000 / compiledTime) + " rows/sec");
+        }
+    }
+
+    private void assertSameResult(TupleFilter filter, List<byte[]> rows) {
+        SRowFilter sfilter = new SRowFilter(filter);
+        SRowFilterEvaluator evaluator = sfilter.compile(type);
+        SRowTuple tuple = new SRowTuple(type);
+        for (byte[] row : rows) {
+            tuple.setUnderlying(row, 0, row.length);
+            assertEquals(filter.toString(), sfilter.evaluate(tuple), evaluator.evaluate(row, 0));
+        }
+    }
+
+    private TupleFilter newFilter(int depth) {
+        int dice = rand.nextInt(10);
+        if (depth == 0 || dice < 5) {
+            return compare(rand.nextInt(COL_SIZES.length), OPS[rand.nextInt(OPS.length)], 1 + rand.nextInt(5));
+        } else if (dice < 7) {
+            return and(newFilter(depth - 1), newFilter(depth - 1));
+        } else if (dice < 9) {
+            return or(newFilter(depth - 1), newFilter(depth - 1));
+        } else {
+            LogicalTupleFilter not = new LogicalTupleFilter(FilterOperatorEnum.NOT);
+            not.addChild(newFilter(depth - 1));
+            return not;
+        }
+    }
+
+    private TupleFilter and(TupleFilter... children) {
+        LogicalTupleFilter and = new LogicalTupleFilter(FilterOperatorEnum.AND);
+        and.addChildren(Arrays.asList(children));
+        return and;
+    }
+
+    private TupleFilter or(TupleFilter... children) {
+        LogicalTupleFilter or = new LogicalTupleFilter(FilterOperatorEnum.OR);
+        or.addChildren(Arrays.asList(children));
+        return or;
+    }
+
+    private CompareTupleFilter compare(int col, FilterOperatorEnum op, int nValues) {
+        CompareTupleFilter compare = new CompareTupleFilter(op);
+        compare.addChild(new ColumnTupleFilter(cols[col]));
+        List<String> values = Lists.newArrayList();
+        for (int i = 0; i < (op == FilterOperatorEnum.IN ? nValues : 1); i++) {
+            values.add(SRowTuple.dictIdToString(newValue(COL_SIZES[col]), 0, COL_SIZES[col]));
+        }
+        compare.addChild(new ConstantTupleFilter(values));
+        if (rand.nextInt(4) > 0)
+            compare.setNullString(SRowTuple.dictIdToString(nullValue(COL_SIZES[col]), 0, COL_SIZES[col]));
+        return compare;
+    }
+
+    private CompareTupleFilter compare(int col, FilterOperatorEnum op, byte[] value) {
+        CompareTupleFilter compare = new CompareTupleFilter(op);
+        compare.addChild(new ColumnTupleFilter(cols[col]));
+        compare.addChild(new ConstantTupleFilter(SRowTuple.dictIdToString(value, 0, value.length)));
+        compare.setNullString(SRowTuple.dictIdToString(nullValue(COL_SIZES[col]), 0, COL_SIZES[col]));
+        return compare;
+    }
+
+    private List<byte[]> newRows(int n) {
+        List<byte[]> rows = Lists.newArrayList();
+        for (int i = 0; i < n; i++) {
+            byte[] row = new byte[rowLength];
+            int offset = RowConstants.ROWKEY_CUBOIDID_LEN;
+            for (int size : COL_SIZES) {
+                System.arraycopy(newValue(size), 0, row, offset, size);
+                offset += size;
+            }
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    // few distinct values so that equality happens
+    private byte[] newValue(int size) {
+        if (rand.nextInt(10) == 0)
+            return nullValue(size);
+        byte[] value = new byte[size];
+        for (int i = 0; i < size; i++) {
+            value[i] = (byte) (rand.nextInt(3) * 0x70);
+        }
+        return value;
+    }
+
+    private byte[] nullValue(int size) {
+        byte[] value = new byte[size];
+        Arrays.fill(value, (byte) 0xff);
+        return value;
+    }
+
+    private TblColRef[] newColumns() {
+        TableDesc t = new TableDesc();
+        t.setName("TABLE");
+        TblColRef[] result = new TblColRef[COL_SIZES.length];
+        for (int i = 0; i < result.length; i++) {
+            ColumnDesc col = new ColumnDesc();
+            col.setName("C" + i);
+            col.setTable(t);
+            result[i] = new TblColRef(col);
+        }
+        return result;
+    }
+}